@@ -0,0 +1,54 @@
+package com.peja.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.android.gms.location.ActivityTransitionEvent;
+import com.google.android.gms.location.ActivityTransitionResult;
+
+import java.util.List;
+
+/**
+ * Activity transitions (STILL / WALKING / ON_BICYCLE / IN_VEHICLE) for the
+ * ambient cadence profiles. Unpacks the Play services result into plain int
+ * arrays and hands them to AmbientLocationService, which folds them into
+ * its AmbientCadenceProfile.Selector in delivery order.
+ */
+public class ActivityTransitionReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "ActivityTransitionRcvr";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ActivityTransitionResult.hasResult(intent)) return;
+        ActivityTransitionResult result = ActivityTransitionResult.extractResult(intent);
+        if (result == null) return;
+        List<ActivityTransitionEvent> events = result.getTransitionEvents();
+        if (events == null || events.isEmpty()) return;
+
+        int[] activityTypes = new int[events.size()];
+        int[] transitionTypes = new int[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            activityTypes[i] = events.get(i).getActivityType();
+            transitionTypes[i] = events.get(i).getTransitionType();
+        }
+        try {
+            boolean active = TrackingSessions.get(context).ambient().active;
+            if (!active) return;
+            Intent service = new Intent(context, AmbientLocationService.class);
+            service.setAction(AmbientLocationService.ACTION_ACTIVITY_TRANSITION);
+            service.putExtra(AmbientLocationService.EXTRA_ACTIVITY_TYPES, activityTypes);
+            service.putExtra(AmbientLocationService.EXTRA_TRANSITION_TYPES, transitionTypes);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(service);
+            } else {
+                context.startService(service);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not forward activity transitions", e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.peja.app;
+
+import com.google.android.gms.location.ActivityTransition;
+import com.google.android.gms.location.DetectedActivity;
+import com.google.android.gms.location.Priority;
+
+/**
+ * Ambient location cadence per detected activity. One fixed 3-minute
+ * balanced cadence over-sampled a sleeping user and under-sampled one on a
+ * bus (3 min at 60 km/h is 3 km between points on the circle's map).
+ * ActivityRecognitionClient transitions pick the profile instead; DEFAULT
+ * is the old cadence and applies whenever the activity is unknown.
+ */
+enum AmbientCadenceProfile {
+
+    //         interval   priority                                   max delay  min dist
+    DEFAULT   (180_000L, Priority.PRIORITY_BALANCED_POWER_ACCURACY,  480_000L,   0f),
+    STILL     (600_000L, Priority.PRIORITY_LOW_POWER,              1_200_000L,  50f),
+    WALKING   (120_000L, Priority.PRIORITY_BALANCED_POWER_ACCURACY,  240_000L,  25f),
+    ON_BICYCLE (60_000L, Priority.PRIORITY_BALANCED_POWER_ACCURACY,  120_000L,  50f),
+    IN_VEHICLE (60_000L, Priority.PRIORITY_HIGH_ACCURACY,            120_000L, 100f);
+
+    final long intervalMs;
+    final int priority;
+    final long maxDelayMs;
+    final float minDistanceM;
+
+    AmbientCadenceProfile(long intervalMs, int priority, long maxDelayMs, float minDistanceM) {
+        this.intervalMs = intervalMs;
+        this.priority = priority;
+        this.maxDelayMs = maxDelayMs;
+        this.minDistanceM = minDistanceM;
+    }
+
+    /** Floor between fixes the fused provider may deliver early. */
+    long minIntervalMs() {
+        return intervalMs * 2 / 3;
+    }
+
+    /** This profile as a request on the shared fused subscription. */
+    LocationFanout.Demand demand() {
+        return new LocationFanout.Demand(priority, intervalMs, minIntervalMs(), maxDelayMs, minDistanceM);
+    }
+
+    /**
+     * Minimum gap between beats. The old fixed 90s stays the ceiling so
+     * batch bursts never flood the endpoint; fast profiles go lower so
+     * their extra fixes actually reach the circle.
+     */
+    long minBeatGapMs() {
+        return Math.min(90_000L, intervalMs * 3 / 4);
+    }
+
+    /** True for profiles that mean the user is on the move. */
+    boolean isMoving() {
+        return this == WALKING || this == ON_BICYCLE || this == IN_VEHICLE;
+    }
+
+    /** Profile for a DetectedActivity type, or null for ones we ignore. */
+    static AmbientCadenceProfile forActivity(int activityType) {
+        switch (activityType) {
+            case DetectedActivity.STILL:
+                return STILL;
+            case DetectedActivity.WALKING:
+            case DetectedActivity.RUNNING:
+                return WALKING;
+            case DetectedActivity.ON_BICYCLE:
+                return ON_BICYCLE;
+            case DetectedActivity.IN_VEHICLE:
+                return IN_VEHICLE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Folds activity transitions into the current profile. Switching is a
+     * field compare; callers re-register their LocationRequest only when
+     * onTransition returns true, so a repeated or irrelevant transition
+     * never costs a re-registration.
+     */
+    static final class Selector {
+        private AmbientCadenceProfile current = DEFAULT;
+        private int currentActivity = DetectedActivity.UNKNOWN;
+
+        AmbientCadenceProfile current() {
+            return current;
+        }
+
+        /** Returns true when the profile changed. */
+        boolean onTransition(int activityType, int transitionType) {
+            AmbientCadenceProfile mapped = forActivity(activityType);
+            if (mapped == null) return false;
+            AmbientCadenceProfile next;
+            if (transitionType == ActivityTransition.ACTIVITY_TRANSITION_ENTER) {
+                currentActivity = activityType;
+                next = mapped;
+            } else if (transitionType == ActivityTransition.ACTIVITY_TRANSITION_EXIT
+                    && activityType == currentActivity) {
+                // Left the activity we were tracking and no ENTER yet:
+                // fall back to the neutral cadence until one arrives.
+                currentActivity = DetectedActivity.UNKNOWN;
+                next = DEFAULT;
+            } else {
+                return false;
+            }
+            if (next == current) return false;
+            current = next;
+            return true;
+        }
+    }
+}
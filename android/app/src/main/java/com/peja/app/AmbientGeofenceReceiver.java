@@ -0,0 +1,45 @@
+package com.peja.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingEvent;
+
+/**
+ * Exit transition for the parked ambient service's anchor geofence (see
+ * AmbientParkPolicy). Forwards to the service, which resumes its periodic
+ * request. Geofence broadcasts are exempt from Android 12's background
+ * foreground-service start limits, so this also revives a killed process.
+ */
+public class AmbientGeofenceReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "AmbientGeofenceReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        GeofencingEvent event = GeofencingEvent.fromIntent(intent);
+        if (event == null || event.hasError()) {
+            Log.w(TAG, "Geofence event error: " + (event != null ? event.getErrorCode() : -1));
+            return;
+        }
+        if (event.getGeofenceTransition() != Geofence.GEOFENCE_TRANSITION_EXIT) return;
+        try {
+            boolean active = TrackingSessions.get(context).ambient().active;
+            if (!active) return;
+            Intent service = new Intent(context, AmbientLocationService.class);
+            service.setAction(AmbientLocationService.ACTION_GEOFENCE_EXIT);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(service);
+            } else {
+                context.startService(service);
+            }
+            Log.d(TAG, "Anchor geofence exited, resuming ambient tracking");
+        } catch (Exception e) {
+            Log.w(TAG, "Could not resume ambient tracking on geofence exit", e);
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package com.peja.app;
 
-import android.content.Context;
+import android.Manifest;
 import android.content.Intent;
 import android.os.Build;
 import android.util.Log;
 
 import com.getcapacitor.JSObject;
+import com.getcapacitor.PermissionState;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.getcapacitor.annotation.Permission;
+import com.getcapacitor.annotation.PermissionCallback;
 
-@CapacitorPlugin(name = "AmbientLocation")
+@CapacitorPlugin(
+        name = "AmbientLocation",
+        permissions = {
+                @Permission(alias = AmbientLocationPlugin.ACTIVITY,
+                        strings = {Manifest.permission.ACTIVITY_RECOGNITION}),
+        }
+)
 public class AmbientLocationPlugin extends Plugin {
 
     private static final String TAG = "AmbientLocationPlugin";
+    // The cadence profiles' activity transitions (a runtime permission on
+    // Android 10+; before that the manifest's install-time one covers it).
+    static final String ACTIVITY = "activityRecognition";
 
     @PluginMethod
     public void start(PluginCall call) {
@@ -28,6 +40,19 @@ public class AmbientLocationPlugin extends Plugin {
         Intent intent = new Intent(getContext(), AmbientLocationService.class);
         intent.putExtra(AmbientLocationService.EXTRA_ENDPOINT, endpoint);
         intent.putExtra(AmbientLocationService.EXTRA_KEY, key);
+        // Optional: minutes of stillness before the service parks on an exit
+        // geofence. Unset keeps AmbientParkPolicy's default.
+        Integer parkAfterMinutes = call.getInt("parkAfterMinutes");
+        if (parkAfterMinutes != null && parkAfterMinutes > 0) {
+            intent.putExtra(AmbientLocationService.EXTRA_PARK_AFTER_MS,
+                    parkAfterMinutes * 60_000L);
+        }
+        // Optional: geohash precision of the cells a full beat is sent on
+        // (see PresenceCellGate). Unset keeps the default.
+        Integer cellPrecision = call.getInt("cellPrecision");
+        if (cellPrecision != null && cellPrecision > 0) {
+            intent.putExtra(AmbientLocationService.EXTRA_CELL_PRECISION, cellPrecision.intValue());
+        }
 
         JSObject result = new JSObject();
         try {
@@ -41,9 +66,42 @@ public class AmbientLocationPlugin extends Plugin {
             Log.e(TAG, "Failed to start ambient service", e);
             result.put("started", false);
         }
+        // Without it the service runs, but on the DEFAULT profile only.
+        result.put(ACTIVITY, activityState());
+        call.resolve(result);
+    }
+
+    /**
+     * Ask for activity recognition, for the cadence profiles. Resolves with
+     * its state; JS calls it when ambient is switched on, before start().
+     */
+    @PluginMethod
+    public void requestActivityRecognition(PluginCall call) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || getPermissionState(ACTIVITY) == PermissionState.GRANTED) {
+            resolveActivity(call);
+            return;
+        }
+        requestPermissionForAlias(ACTIVITY, call, "onActivityPermission");
+    }
+
+    @PermissionCallback
+    private void onActivityPermission(PluginCall call) {
+        resolveActivity(call);
+    }
+
+    private void resolveActivity(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put(ACTIVITY, activityState());
         call.resolve(result);
     }
 
+    /** "granted", "denied", "prompt" or "prompt-with-rationale". */
+    private String activityState() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return PermissionState.GRANTED.toString();
+        return getPermissionState(ACTIVITY).toString();
+    }
+
     @PluginMethod
     public void stop(PluginCall call) {
         try {
@@ -64,9 +122,7 @@ public class AmbientLocationPlugin extends Plugin {
 
     @PluginMethod
     public void isTracking(PluginCall call) {
-        boolean active = getContext()
-                .getSharedPreferences(AmbientLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .getBoolean("is_active", false);
+        boolean active = TrackerClient.isActive(getContext(), SessionHeartbeats.AMBIENT);
         JSObject result = new JSObject();
         result.put("tracking", active);
         call.resolve(result);
@@ -12,19 +12,27 @@ import android.location.Location;
 import android.os.BatteryManager;
 import android.os.Build;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.Trace;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
+import com.google.android.gms.location.ActivityRecognition;
+import com.google.android.gms.location.ActivityRecognitionClient;
+import com.google.android.gms.location.ActivityTransition;
+import com.google.android.gms.location.ActivityTransitionRequest;
+import com.google.android.gms.location.DetectedActivity;
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.MediaType;
@@ -45,6 +53,14 @@ import okhttp3.Response;
  *    (session tokens die in ~1h; this service lives for days).
  *  - same accuracy gates as everything else: junk fixes never leave the
  *    phone.
+ *  - parks when still (see AmbientParkPolicy): an exit geofence replaces
+ *    the periodic request and a keepalive beat replaces the 3-min beats.
+ *  - sends a full beat only when the position changed enough to matter
+ *    (see PresenceCellGate); otherwise a tiny cell keepalive.
+ *  - cadence follows the detected activity (see AmbientCadenceProfile):
+ *    slower when still, faster on a bike or in a vehicle.
+ *  - falls back to a GMS-free path (see AmbientPlatformSource) on phones
+ *    where fused has stopped delivering.
  *
  * Lifecycle: AmbientLocationPlugin start/stop (settings toggle), sticky
  * restart, boot receiver, and task-removal alarm mirror the SML service.
@@ -54,32 +70,86 @@ public class AmbientLocationService extends Service {
     public static final String TAG = "AmbientLocationService";
     public static final String CHANNEL_ID = "peja_ambient_channel";
     public static final int NOTIFICATION_ID = 9003;
+    /** Pre-registry session state; read once by TrackingSessions to import it. */
     public static final String PREFS_NAME = "peja_ambient_prefs";
 
     public static final String EXTRA_ENDPOINT = "endpoint";
     public static final String EXTRA_KEY = "device_key";
+    public static final String EXTRA_PARK_AFTER_MS = "park_after_ms";
+    public static final String EXTRA_CELL_PRECISION = "cell_precision";
 
     public static final String ACTION_STOP = "com.peja.app.STOP_AMBIENT_TRACKING";
+    public static final String ACTION_KEEPALIVE = "com.peja.app.AMBIENT_KEEPALIVE";
+    public static final String ACTION_GEOFENCE_EXIT = "com.peja.app.AMBIENT_GEOFENCE_EXIT";
+    public static final String ACTION_ACTIVITY_TRANSITION = "com.peja.app.AMBIENT_ACTIVITY_TRANSITION";
+    public static final String ACTION_SOURCE_CHECK = "com.peja.app.AMBIENT_SOURCE_CHECK";
+    public static final String EXTRA_ACTIVITY_TYPES = "activity_types";
+    public static final String EXTRA_TRANSITION_TYPES = "transition_types";
 
-    private static final MediaType JSON_TYPE = MediaType.get("application/json");
+    private static final String GEOFENCE_ID = "peja_ambient_anchor";
 
-    // Cadence: fixes ~3 min apart, allowed to batch to 8 min for battery.
-    private static final long INTERVAL_MS = 180_000L;
-    private static final long MAX_DELAY_MS = 480_000L;
-    // Never send beats closer than this (batch bursts).
-    private static final long MIN_SEND_GAP_MS = 90_000L;
+    private static final MediaType JSON_TYPE = MediaType.get("application/json");
 
+    // Cadence: AmbientCadenceProfile.DEFAULT (fixes ~3 min apart, batched to
+    // 8 min) until activity recognition reports something better.
+    private final AmbientCadenceProfile.Selector cadence = new AmbientCadenceProfile.Selector();
+    private ActivityRecognitionClient activityClient;
+
+    // Source selection. Fused is preferred; when it has delivered nothing
+    // for FUSED_SILENT_MS and a direct probe also comes back empty, the
+    // GMS-free platform source takes over until fused speaks again.
+    private static final long SOURCE_CHECK_MS = 10 * 60_000L;
+    private static final long FUSED_SILENT_MS = 15 * 60_000L;
+    // Platform mode: wake the network/GPS providers when no beat has gone
+    // out for this long (passive and motion fixes cover the rest).
+    private static final long PLATFORM_STALE_MS = 15 * 60_000L;
+    private AmbientPlatformSource platformSource;
+    private long lastFusedFixMs = 0L;
+    private long fusedRequestedAtMs = 0L;
+
+    // One-shot requests only; the periodic subscription is the shared hub's.
     private FusedLocationProviderClient fusedLocationClient;
-    private LocationCallback locationCallback;
-    private boolean tracking = false;
-    private volatile long lastSentMs = 0L;
+    private GeofencingClient geofencingClient;
+    private LocationHub hub;
+    private final LocationHub.Client hubClient = new LocationHub.Client() {
+        @Override
+        public void onFix(Location location, String source) {
+            onFusedAlive();
+            onNewLocation(location);
+        }
 
-    // Accuracy gate + motion state (mirrors src/lib/motion.ts semantics).
-    private volatile long lastGoodFixMs = 0L;
-    private volatile double lastLat = 0, lastLng = 0;
-    private volatile long lastAtMs = 0L;
-    private volatile double anchorLat = 0, anchorLng = 0;
-    private volatile long anchorAtMs = 0L;
+        @Override
+        public void onProvidersChanged() {
+        }
+
+        @Override
+        public void onUnavailable(Exception e) {
+            // No (working) Play services at all: don't wait for the
+            // silence check, go GMS-free right away.
+            startPlatformSource("fused request failed");
+        }
+    };
+    // Location callbacks, task results and state all live on this thread
+    // (see TrackingThread).
+    private TrackingThread tracker;
+    private boolean tracking = false;
+    // Whether Play services took the activity subscription; a start while
+    // tracking retries it, so a permission granted later takes effect.
+    private boolean activitySubscribed = false;
+    private AmbientParkPolicy parkPolicy = new AmbientParkPolicy(0L);
+    // Full beat vs cell keepalive (see PresenceCellGate).
+    private volatile PresenceCellGate cellGate = new PresenceCellGate(PresenceCellGate.DEFAULT_PRECISION);
+    // Last accepted accuracy, re-sent with keepalive beats from the anchor.
+    private float lastAccuracy = 100f;
+    private long lastSentMs = 0L;
+
+    // Accuracy gate + motion state (mirrors src/lib/motion.ts semantics),
+    // confined to the tracking thread.
+    private long lastGoodFixMs = 0L;
+    private double lastLat = 0, lastLng = 0;
+    private long lastAtMs = 0L;
+    private GeoMath.Origin anchor;
+    private long anchorAtMs = 0L;
 
     private final OkHttpClient httpClient = new OkHttpClient.Builder()
             .connectTimeout(10, TimeUnit.SECONDS)
@@ -89,11 +159,18 @@ public class AmbientLocationService extends Service {
 
     private String endpoint = "";
     private String deviceKey = "";
+    private long parkAfterMs = 0L;
+    private int cellPrecision = 0;
 
     @Override
     public void onCreate() {
         super.onCreate();
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        hub = LocationHub.get(this);
+        geofencingClient = LocationServices.getGeofencingClient(this);
+        activityClient = ActivityRecognition.getClient(this);
+        tracker = new TrackingThread("peja-ambient-tracking");
+        platformSource = new AmbientPlatformSource(this, this::onNewLocation, tracker.looper());
         createNotificationChannel();
     }
 
@@ -118,17 +195,29 @@ public class AmbientLocationService extends Service {
             return START_NOT_STICKY;
         }
 
+        // The rest touches tracking state, which belongs to the tracking
+        // thread. An invalid start stops itself there; its registry entry
+        // is already inactive, so a sticky restart would stop again.
+        tracker.handler.post(() -> onStart(intent));
+        return START_STICKY;
+    }
+
+    /** onStartCommand past the foreground promotion and the stop action. */
+    private void onStart(Intent intent) {
         if (intent != null && intent.getStringExtra(EXTRA_KEY) != null) {
             endpoint = intent.getStringExtra(EXTRA_ENDPOINT) != null ? intent.getStringExtra(EXTRA_ENDPOINT) : "";
             deviceKey = intent.getStringExtra(EXTRA_KEY);
-        } else {
-            // Sticky/boot restart: recover config from prefs.
-            android.content.SharedPreferences prefs =
-                    getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            if (prefs.getBoolean("is_active", false)) {
-                endpoint = prefs.getString("endpoint", "");
-                deviceKey = prefs.getString("device_key", "");
-                Log.d(TAG, "Recovered ambient tracking from prefs");
+            parkAfterMs = intent.getLongExtra(EXTRA_PARK_AFTER_MS, 0L);
+            cellPrecision = intent.getIntExtra(EXTRA_CELL_PRECISION, 0);
+        } else if (endpoint.isEmpty() || deviceKey.isEmpty()) {
+            // Sticky/boot restart: recover config from the session registry.
+            SessionRegistry.Ambient saved = TrackingSessions.get(this).ambient();
+            if (saved.active) {
+                endpoint = saved.endpoint;
+                deviceKey = saved.deviceKey;
+                parkAfterMs = saved.parkAfterMs;
+                cellPrecision = saved.cellPrecision;
+                Log.d(TAG, "Recovered ambient tracking from the session registry");
             }
         }
 
@@ -137,58 +226,323 @@ public class AmbientLocationService extends Service {
             clearState();
             stopForegroundCompat();
             stopSelf();
-            return START_NOT_STICKY;
+            return;
         }
 
         saveState();
+        RestartOrchestrator.onServiceStarted(this, SessionHeartbeats.AMBIENT);
+        if (!parkPolicy.isParked()) parkPolicy = new AmbientParkPolicy(parkAfterMs);
+        if (cellPrecision > 0 && cellGate.precision() != cellPrecision) {
+            cellGate = new PresenceCellGate(cellPrecision);
+        }
+
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_GEOFENCE_EXIT.equals(action)) {
+            // Fast tracking resumes; tracking may be false here if the
+            // exit broadcast restarted a killed process.
+            unpark();
+        } else if (ACTION_KEEPALIVE.equals(action) && tracking) {
+            sendKeepalive();
+            return;
+        } else if (ACTION_SOURCE_CHECK.equals(action) && tracking) {
+            checkSourceHealth();
+            return;
+        } else if (ACTION_ACTIVITY_TRANSITION.equals(action) && tracking) {
+            onActivityTransitions(
+                    intent.getIntArrayExtra(EXTRA_ACTIVITY_TYPES),
+                    intent.getIntArrayExtra(EXTRA_TRANSITION_TYPES));
+            return;
+        }
         startLocationUpdates();
         Log.d(TAG, "Ambient service started");
-        return START_STICKY;
     }
 
     private void startLocationUpdates() {
-        if (tracking) return;
+        if (tracking) {
+            if (!activitySubscribed) subscribeActivityTransitions();
+            return;
+        }
         tracking = true;
 
-        LocationRequest locationRequest = new LocationRequest.Builder(
-                Priority.PRIORITY_BALANCED_POWER_ACCURACY,
-                INTERVAL_MS
-        )
-                .setMinUpdateIntervalMillis(120_000L)
-                .setMaxUpdateDelayMillis(MAX_DELAY_MS)
-                .setMinUpdateDistanceMeters(0f)
-                .build();
+        // A previous process may have died parked; its fence and keepalive
+        // alarm outlive it and would fire into this fresh, unparked one.
+        try {
+            cancelKeepalive();
+            geofencingClient.removeGeofences(Collections.singletonList(GEOFENCE_ID));
+        } catch (Exception e) {
+            Log.e(TAG, "Error clearing stale ambient geofence", e);
+        }
+        requestPeriodicUpdates();
+        subscribeActivityTransitions();
+        scheduleSourceCheck();
 
-        locationCallback = new LocationCallback() {
-            @Override
-            public void onLocationResult(LocationResult result) {
-                if (result == null) return;
-                for (Location loc : result.getLocations()) {
-                    if (loc != null) onNewLocation(loc);
-                }
-            }
+        // Immediate last-known so the circle sees something right away.
+        try {
+            fusedLocationClient.getLastLocation().addOnSuccessListener(tracker.executor, loc -> {
+                if (loc != null) onNewLocation(loc);
+            });
+        } catch (SecurityException ignored) {
+        }
+    }
+
+    /** Fused delivered: it is healthy, so the platform path stands down. */
+    private void onFusedAlive() {
+        lastFusedFixMs = System.currentTimeMillis();
+        if (platformSource.isRunning()) {
+            Log.d(TAG, "Fused delivering again, stopping platform source");
+            platformSource.stop();
+        }
+    }
+
+    /**
+     * Periodic source check (alarm-driven so it survives Doze). Silence
+     * alone proves nothing, since a profile with a minimum distance is
+     * silent by design while the user sits still. So a silent fused
+     * provider gets one direct probe, and only an empty or failed probe
+     * hands ambient presence to the GMS-free platform source.
+     */
+    private void checkSourceHealth() {
+        scheduleSourceCheck();
+        if (parkPolicy.isParked()) return;
+        long now = System.currentTimeMillis();
+        if (platformSource.isRunning()) {
+            if (now - lastSentMs >= PLATFORM_STALE_MS) platformSource.wakeProviders("stale presence");
+            return;
+        }
+        if (now - Math.max(lastFusedFixMs, fusedRequestedAtMs) < FUSED_SILENT_MS) return;
+        try {
+            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_BALANCED_POWER_ACCURACY, null)
+                    .addOnSuccessListener(tracker.executor, loc -> {
+                        if (loc != null) {
+                            onFusedAlive();
+                            onNewLocation(loc);
+                        } else {
+                            startPlatformSource("fused probe returned nothing");
+                        }
+                    })
+                    .addOnFailureListener(tracker.executor, e -> startPlatformSource("fused probe failed"));
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission denied (fused probe)", e);
+        }
+    }
+
+    private void startPlatformSource(String reason) {
+        if (!tracking || platformSource.isRunning()) return;
+        Log.w(TAG, "Switching ambient to platform providers: " + reason);
+        platformSource.start();
+        platformSource.wakeProviders(reason);
+    }
+
+    private PendingIntent sourceCheckPendingIntent() {
+        Intent intent = new Intent(this, AmbientLocationService.class);
+        intent.setAction(ACTION_SOURCE_CHECK);
+        return PendingIntent.getService(this, 5, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private void scheduleSourceCheck() {
+        AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        if (am == null) return;
+        long at = System.currentTimeMillis() + SOURCE_CHECK_MS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, sourceCheckPendingIntent());
+        } else {
+            am.set(AlarmManager.RTC_WAKEUP, at, sourceCheckPendingIntent());
+        }
+    }
+
+    /**
+     * (Re-)register the periodic request for the current cadence profile on
+     * the hub's fused subscription. A profile switch costs an IPC only when
+     * it changes the merged request: next to an SOS or SML session at 15s
+     * it costs nothing, and the profile still decides how often a fix
+     * reaches this service (see LocationFanout).
+     */
+    private void requestPeriodicUpdates() {
+        fusedRequestedAtMs = System.currentTimeMillis();
+        hub.request(LocationHub.FUSED, hubClient, tracker.executor, cadence.current().demand());
+    }
+
+    /**
+     * Activity transitions for the cadence profiles. Needs the
+     * ACTIVITY_RECOGNITION runtime permission on Android 10+, which
+     * AmbientLocationPlugin asks for when ambient is switched on; without it
+     * the subscription is refused and the service stays on DEFAULT until a
+     * later start finds it granted.
+     */
+    private void subscribeActivityTransitions() {
+        int[] activities = {
+                DetectedActivity.STILL, DetectedActivity.WALKING, DetectedActivity.RUNNING,
+                DetectedActivity.ON_BICYCLE, DetectedActivity.IN_VEHICLE,
         };
+        List<ActivityTransition> transitions = new ArrayList<>();
+        for (int activity : activities) {
+            transitions.add(new ActivityTransition.Builder()
+                    .setActivityType(activity)
+                    .setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_ENTER)
+                    .build());
+            transitions.add(new ActivityTransition.Builder()
+                    .setActivityType(activity)
+                    .setActivityTransition(ActivityTransition.ACTIVITY_TRANSITION_EXIT)
+                    .build());
+        }
+        try {
+            activityClient.requestActivityTransitionUpdates(
+                    new ActivityTransitionRequest(transitions), activityPendingIntent())
+                    .addOnSuccessListener(tracker.executor, v -> activitySubscribed = true)
+                    .addOnFailureListener(e -> Log.w(TAG, "Activity transitions unavailable", e));
+        } catch (SecurityException e) {
+            Log.w(TAG, "Activity recognition permission denied; using default cadence");
+        }
+    }
+
+    private void onActivityTransitions(int[] activityTypes, int[] transitionTypes) {
+        if (activityTypes == null || transitionTypes == null) return;
+        boolean changed = false;
+        for (int i = 0; i < activityTypes.length && i < transitionTypes.length; i++) {
+            changed |= cadence.onTransition(activityTypes[i], transitionTypes[i]);
+        }
+        if (!changed) return;
+        AmbientCadenceProfile profile = cadence.current();
+        Log.d(TAG, "Cadence profile -> " + profile);
+        if (parkPolicy.isParked()) {
+            // The geofence owns stillness; but a moving activity is a
+            // faster exit signal than a 150m fence, so take it.
+            if (profile.isMoving()) unpark();
+            return;
+        }
+        requestPeriodicUpdates();
+    }
 
+    private PendingIntent activityPendingIntent() {
+        Intent intent = new Intent(this, ActivityTransitionReceiver.class);
+        // MUTABLE is required: Play services fills in the transition result.
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        return PendingIntent.getBroadcast(this, 1, intent, flags);
+    }
+
+    /**
+     * Anchor held for parkAfterMs: swap the periodic request for one exit
+     * geofence around it. The request is only removed once the geofence is
+     * confirmed, so a refused registration (no background permission,
+     * location off) simply keeps the normal cadence.
+     */
+    private void park() {
+        final double lat = anchor.lat;
+        final double lng = anchor.lng;
+        GeofencingRequest request = new GeofencingRequest.Builder()
+                .setInitialTrigger(0)
+                .addGeofence(new Geofence.Builder()
+                        .setRequestId(GEOFENCE_ID)
+                        .setCircularRegion(lat, lng, AmbientParkPolicy.GEOFENCE_RADIUS_M)
+                        .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                        .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_EXIT)
+                        .build())
+                .build();
+        // Mark parked up front so the next batched fix can't race a second
+        // registration; rolled back if the geofence is refused.
+        parkPolicy.onParked(System.currentTimeMillis());
         try {
-            fusedLocationClient.requestLocationUpdates(
-                    locationRequest,
-                    locationCallback,
-                    Looper.getMainLooper()
-            ).addOnFailureListener(e -> Log.e(TAG, "Ambient requestLocationUpdates failed", e));
+            geofencingClient.addGeofences(request, geofencePendingIntent())
+                    .addOnSuccessListener(tracker.executor, v -> {
+                        if (!parkPolicy.isParked()) return;
+                        hub.remove(LocationHub.FUSED, hubClient);
+                        scheduleKeepalive(parkPolicy.nextKeepaliveAt(System.currentTimeMillis()));
+                        Log.d(TAG, "Parked at anchor, periodic updates removed");
+                    })
+                    .addOnFailureListener(tracker.executor, e -> {
+                        Log.w(TAG, "Geofence refused, staying on periodic updates", e);
+                        parkPolicy.onUnparked();
+                    });
         } catch (SecurityException e) {
-            Log.e(TAG, "Location permission denied (ambient)", e);
+            Log.w(TAG, "Geofence permission denied, staying on periodic updates", e);
+            parkPolicy.onUnparked();
         }
+    }
 
-        // Immediate last-known so the circle sees something right away.
+    /** Geofence exit: drop the fence and go back to the normal cadence. */
+    private void unpark() {
+        boolean wasParked = parkPolicy.isParked();
+        parkPolicy.onUnparked();
+        cancelKeepalive();
         try {
-            fusedLocationClient.getLastLocation().addOnSuccessListener(loc -> {
-                if (loc != null) onNewLocation(loc);
-            });
+            geofencingClient.removeGeofences(Collections.singletonList(GEOFENCE_ID));
+        } catch (Exception e) {
+            Log.e(TAG, "Error removing ambient geofence", e);
+        }
+        if (!tracking) return; // startLocationUpdates follows in onStart
+        if (wasParked) requestPeriodicUpdates();
+        // One fresh fix now instead of waiting up to a full interval: the
+        // user just left, which is exactly when the circle wants to know.
+        try {
+            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_BALANCED_POWER_ACCURACY, null)
+                    .addOnSuccessListener(tracker.executor, loc -> {
+                        if (loc != null) onNewLocation(loc);
+                    });
         } catch (SecurityException ignored) {
         }
+        Log.d(TAG, "Left anchor geofence, periodic updates resumed");
+    }
+
+    /** Parked "still here" beat from the anchor, then re-arm the alarm. */
+    private void sendKeepalive() {
+        if (!parkPolicy.isParked()) return;
+        long now = System.currentTimeMillis();
+        lastSentMs = now;
+        beat(now, anchor.lat, anchor.lng, lastAccuracy, 0d);
+        scheduleKeepalive(parkPolicy.nextKeepaliveAt(now));
+    }
+
+    private PendingIntent geofencePendingIntent() {
+        Intent intent = new Intent(this, AmbientGeofenceReceiver.class);
+        // MUTABLE is required: Play services fills in the transition extras.
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        return PendingIntent.getBroadcast(this, 0, intent, flags);
+    }
+
+    private PendingIntent keepalivePendingIntent() {
+        Intent intent = new Intent(this, AmbientLocationService.class);
+        intent.setAction(ACTION_KEEPALIVE);
+        return PendingIntent.getService(this, 4, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private void scheduleKeepalive(long atMs) {
+        AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        if (am == null) return;
+        // Inexact is fine for a 30-min keepalive; AllowWhileIdle so Doze
+        // doesn't defer it by hours.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, atMs, keepalivePendingIntent());
+        } else {
+            am.set(AlarmManager.RTC_WAKEUP, atMs, keepalivePendingIntent());
+        }
+    }
+
+    private void cancelKeepalive() {
+        AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        if (am != null) am.cancel(keepalivePendingIntent());
     }
 
     private void onNewLocation(Location location) {
+        Trace.beginSection("peja:ambient fix");
+        try {
+            handleLocation(location);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void handleLocation(Location location) {
+        // A batched delivery can land after parking; the geofence owns
+        // stillness now.
+        if (parkPolicy.isParked()) return;
         long now = System.currentTimeMillis();
 
         // Accuracy gate, same thresholds as the web filter and SML.
@@ -198,7 +552,7 @@ public class AmbientLocationService extends Service {
         if (acc > 150f && acc <= 800f && now - lastGoodFixMs < 60_000L) return;
         if (acc <= 150f) lastGoodFixMs = now;
 
-        if (now - lastSentMs < MIN_SEND_GAP_MS) return;
+        if (now - lastSentMs < cadence.current().minBeatGapMs()) return;
         lastSentMs = now;
 
         double lat = location.getLatitude();
@@ -214,57 +568,108 @@ public class AmbientLocationService extends Service {
         lastLat = lat;
         lastLng = lng;
         lastAtMs = now;
-        if (anchorAtMs == 0L || haversineM(anchorLat, anchorLng, lat, lng) > 30d) {
-            anchorLat = lat;
-            anchorLng = lng;
+        if (anchorAtMs == 0L || anchor.distanceM(lat, lng) > 30d) {
+            anchor = new GeoMath.Origin(lat, lng);
             anchorAtMs = now;
         }
+        lastAccuracy = acc;
+        FixJournal journal = FixJournalPlugin.journal(this);
+        if (journal != null) {
+            journal.append(Math.min(location.getTime(), now), lat, lng, acc,
+                    speedKmh != null ? (float) (speedKmh / 3.6d) : Float.NaN,
+                    FixJournal.source(location.getProvider()), FixJournal.KIND_AMBIENT, 0);
+        }
 
-        sendBeat(lat, lng, acc, speedKmh, anchorAtMs);
+        beat(now, lat, lng, acc, speedKmh);
+
+        // Geofencing is a Play services feature too; don't park on it while
+        // fused is known to be dead.
+        if (!platformSource.isRunning() && parkPolicy.shouldPark(now, anchorAtMs)) park();
+    }
+
+    /** A full beat when the position changed enough to matter, else a cell keepalive. */
+    private void beat(long now, double lat, double lng, float acc, Double speedKmh) {
+        if (cellGate.onFix(now, lat, lng, acc)) {
+            sendBeat(lat, lng, acc, speedKmh, anchorAtMs);
+        } else {
+            sendCellKeepalive(cellGate.cell(), now);
+        }
     }
 
     private void sendBeat(double lat, double lng, float acc, Double speedKmh, long stillSinceMs) {
         new Thread(() -> {
-            try {
-                Integer battery = readBatteryPct();
-                String speedStr = speedKmh != null
-                        ? String.format(java.util.Locale.US, "%.1f", speedKmh)
-                        : "null";
-                String json = "{" +
-                        "\"key\":\"" + deviceKey + "\"," +
-                        "\"lat\":" + lat + "," +
-                        "\"lng\":" + lng + "," +
-                        "\"accuracy_m\":" + Math.round(acc) + "," +
-                        "\"speed_kmh\":" + speedStr + "," +
-                        "\"still_since\":\"" + isoTimestamp(stillSinceMs) + "\"," +
-                        "\"battery_pct\":" + (battery != null ? battery : "null") +
-                        "}";
-
-                Request request = new Request.Builder()
-                        .url(endpoint)
-                        .post(RequestBody.create(json, JSON_TYPE))
-                        .addHeader("Content-Type", "application/json")
-                        .build();
-
-                Response response = httpClient.newCall(request).execute();
-                int code = response.code();
-                if (code == 401) {
-                    // Key revoked (logout / toggle-off elsewhere): stop for
-                    // good, don't hammer the server forever.
-                    Log.w(TAG, "Device key revoked, stopping ambient tracking");
-                    clearState();
-                    stopForegroundCompat();
-                    stopSelf();
-                } else if (code >= 400) {
-                    Log.e(TAG, "Ambient beat failed: " + code);
+            Integer battery = readBatteryPct();
+            String speedStr = speedKmh != null
+                    ? String.format(java.util.Locale.US, "%.1f", speedKmh)
+                    : "null";
+            String json = "{" +
+                    "\"key\":\"" + deviceKey + "\"," +
+                    "\"lat\":" + lat + "," +
+                    "\"lng\":" + lng + "," +
+                    "\"accuracy_m\":" + Math.round(acc) + "," +
+                    "\"speed_kmh\":" + speedStr + "," +
+                    "\"still_since\":\"" + isoTimestamp(stillSinceMs) + "\"," +
+                    "\"battery_pct\":" + (battery != null ? battery : "null") +
+                    "}";
+            postBeat(json, "beat");
+        }).start();
+    }
+
+    /**
+     * "Still in this cell" in ~80 bytes instead of a full beat. The server
+     * only touches captured_at, and answers "resend" when it has no row to
+     * touch.
+     */
+    private void sendCellKeepalive(String cell, long now) {
+        new Thread(() -> {
+            String json = "{" +
+                    "\"key\":\"" + deviceKey + "\"," +
+                    "\"keepalive\":true," +
+                    "\"cell\":\"" + cell + "\"," +
+                    "\"t\":" + now / 1000L +
+                    "}";
+            postBeat(json, "keepalive");
+        }).start();
+    }
+
+    /** POST to the beat endpoint; anything not applied makes the next fix a full beat. */
+    private void postBeat(String json, String kind) {
+        try {
+            Request request = new Request.Builder()
+                    .url(endpoint)
+                    .post(RequestBody.create(json, JSON_TYPE))
+                    .addHeader("Content-Type", "application/json")
+                    .build();
+
+            Response response = httpClient.newCall(request).execute();
+            int code = response.code();
+            if (code == 401) {
+                // Key revoked (logout / toggle-off elsewhere): stop for
+                // good, don't hammer the server forever.
+                Log.w(TAG, "Device key revoked, stopping ambient tracking");
+                clearState();
+                stopForegroundCompat();
+                stopSelf();
+            } else if (code >= 400) {
+                Log.e(TAG, "Ambient " + kind + " failed: " + code);
+                cellGate.invalidate();
+            } else {
+                String body = response.body() != null ? response.body().string() : "";
+                if (body.contains("\"ok\":false")) {
+                    // Dropped (throttled, filtered) or "resend": the row
+                    // didn't take this, so the next fix goes out in full.
+                    cellGate.invalidate();
+                    Log.d(TAG, "Ambient " + kind + " not applied: " + body);
                 } else {
-                    Log.d(TAG, "Ambient beat ok");
+                    Log.d(TAG, "Ambient " + kind + " ok");
                 }
-                response.close();
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send ambient beat", e);
             }
-        }).start();
+            response.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to send ambient " + kind, e);
+            cellGate.invalidate();
+        }
+        RestartOrchestrator.onWrite(this, SessionHeartbeats.AMBIENT);
     }
 
     private Integer readBatteryPct() {
@@ -278,15 +683,6 @@ public class AmbientLocationService extends Service {
         }
     }
 
-    private static double haversineM(double lat1, double lng1, double lat2, double lng2) {
-        double r = 6371000d;
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLng = Math.toRadians(lng2 - lng1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
-        return 2 * r * Math.asin(Math.sqrt(a));
-    }
 
     private static String isoTimestamp(long epochMs) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -339,17 +735,12 @@ public class AmbientLocationService extends Service {
     }
 
     private void saveState() {
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString("endpoint", endpoint)
-                .putString("device_key", deviceKey)
-                .putBoolean("is_active", true)
-                .apply();
+        TrackingSessions.get(this).putAmbient(new SessionRegistry.Ambient(
+                true, endpoint, deviceKey, parkAfterMs, cellPrecision));
     }
 
     private void clearState() {
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean("is_active", false)
-                .apply();
+        TrackingSessions.get(this).setAmbientActive(false);
     }
 
     private void stopForegroundCompat() {
@@ -365,46 +756,33 @@ public class AmbientLocationService extends Service {
 
     @Override
     public void onTaskRemoved(Intent rootIntent) {
-        // Swiped from recents: reschedule if still enabled (best-effort;
-        // OEM battery managers may block, battery exemption improves odds).
-        try {
-            boolean active = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-                    .getBoolean("is_active", false);
-            if (active) {
-                Intent restart = new Intent(getApplicationContext(), AmbientLocationService.class);
-                PendingIntent pi;
-                int flags = PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    pi = PendingIntent.getForegroundService(this, 3, restart, flags);
-                } else {
-                    pi = PendingIntent.getService(this, 3, restart, flags);
-                }
-                AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-                if (am != null) {
-                    long at = System.currentTimeMillis() + 2000;
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                        am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
-                    } else {
-                        am.set(AlarmManager.RTC_WAKEUP, at, pi);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to schedule ambient restart", e);
-        }
+        // Swiped from recents: reschedule if still enabled.
+        RestartOrchestrator.onTaskRemoved(this, SessionHeartbeats.AMBIENT, 2_000L);
         super.onTaskRemoved(rootIntent);
     }
 
     @Override
     public void onDestroy() {
+        tracker.finish(this::stopTracking);
+        super.onDestroy();
+    }
+
+    /** onDestroy's teardown, on the tracking thread. */
+    private void stopTracking() {
+        hub.removeAll(hubClient);
+        // A stopped service must not leave its fence, alarm or activity
+        // subscription behind: any of them firing after a user-initiated
+        // stop would resurrect tracking.
+        platformSource.stop();
         try {
-            if (locationCallback != null) {
-                fusedLocationClient.removeLocationUpdates(locationCallback);
-            }
+            cancelKeepalive();
+            AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+            if (am != null) am.cancel(sourceCheckPendingIntent());
+            geofencingClient.removeGeofences(Collections.singletonList(GEOFENCE_ID));
+            activityClient.removeActivityTransitionUpdates(activityPendingIntent());
         } catch (Exception e) {
-            Log.e(TAG, "Error removing ambient updates", e);
+            Log.e(TAG, "Error removing ambient subscriptions", e);
         }
-        super.onDestroy();
     }
 
     @Override
@@ -0,0 +1,69 @@
+package com.peja.app;
+
+/**
+ * When ambient presence may stop polling. A phone on a nightstand used to
+ * take a balanced-power fix every 3 minutes for 8 hours, and every beat
+ * repeated the same stillness anchor. Once the anchor has held for
+ * parkAfterMs, AmbientLocationService "parks": it registers one exit
+ * geofence around the anchor, removes its periodic request entirely, and
+ * sends only a keepalive beat every KEEPALIVE_MS so the circle still sees
+ * a fresh "last seen". The geofence exit (or a reboot, which drops all
+ * geofences and restarts the service unparked) resumes normal tracking.
+ */
+final class AmbientParkPolicy {
+
+    /** Default stillness before parking; configurable from JS. */
+    static final long DEFAULT_PARK_AFTER_MS = 20 * 60_000L;
+    /** Never park sooner than this: the anchor needs a few fixes to settle. */
+    static final long MIN_PARK_AFTER_MS = 6 * 60_000L;
+    /** Low-frequency "still here" beat while parked. */
+    static final long KEEPALIVE_MS = 30 * 60_000L;
+    /**
+     * Exit geofence radius. Geofencing runs on low-power network location,
+     * and Google recommends >=100-150m for reliable exits; the 30m anchor
+     * is far too tight for it.
+     */
+    static final float GEOFENCE_RADIUS_M = 150f;
+
+    private final long parkAfterMs;
+    private boolean parked = false;
+    private long parkedAtMs = 0L;
+
+    AmbientParkPolicy(long parkAfterMs) {
+        this.parkAfterMs = parkAfterMs > 0L
+                ? Math.max(MIN_PARK_AFTER_MS, parkAfterMs)
+                : DEFAULT_PARK_AFTER_MS;
+    }
+
+    long parkAfterMs() {
+        return parkAfterMs;
+    }
+
+    boolean isParked() {
+        return parked;
+    }
+
+    long parkedAtMs() {
+        return parkedAtMs;
+    }
+
+    /** True when an accepted fix shows the anchor has held long enough. */
+    boolean shouldPark(long nowMs, long anchorAtMs) {
+        return !parked && anchorAtMs > 0L && nowMs - anchorAtMs >= parkAfterMs;
+    }
+
+    void onParked(long nowMs) {
+        parked = true;
+        parkedAtMs = nowMs;
+    }
+
+    void onUnparked() {
+        parked = false;
+        parkedAtMs = 0L;
+    }
+
+    /** Next keepalive after a beat at lastBeatMs. */
+    long nextKeepaliveAt(long lastBeatMs) {
+        return lastBeatMs + KEEPALIVE_MS;
+    }
+}
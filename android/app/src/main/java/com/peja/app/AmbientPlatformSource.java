@@ -0,0 +1,186 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.location.LocationManagerCompat;
+
+/**
+ * GMS-free location source for ambient presence. SMLLocationService already
+ * documents that the fused provider silently delivers nothing on many
+ * low-end MediaTek/Transsion phones; on those, ambient presence was simply
+ * dead. This path needs no Play services and stays cheap:
+ *
+ *  - PASSIVE_PROVIDER: fixes other apps (maps, ride hailing, the OS itself)
+ *    already paid for, delivered to us for free.
+ *  - Sensor.TYPE_SIGNIFICANT_MOTION (via MotionWakeSensor): when the phone
+ *    starts moving, wake the network provider once (GPS only if network
+ *    gives nothing) for a fresh position.
+ *  - Staleness: the owning service calls wakeProviders() when presence has
+ *    gone stale with no passive or motion fix to refresh it.
+ *
+ * AmbientLocationService decides when this runs (fused silent for too
+ * long) and stops it again as soon as fused delivers.
+ */
+final class AmbientPlatformSource {
+
+    interface Sink {
+        void onPlatformLocation(Location location);
+    }
+
+    private static final String TAG = "AmbientPlatformSource";
+
+    /** Passive fixes arrive whenever someone else asks; no need for more. */
+    private static final long PASSIVE_MIN_TIME_MS = 60_000L;
+    /** Give up on an active single fix after this long (GPS indoors). */
+    private static final long SINGLE_FIX_TIMEOUT_MS = 60_000L;
+    /** Ignore repeated motion triggers inside this window. */
+    private static final long MOTION_COOLDOWN_MS = 120_000L;
+
+    private final Context context;
+    private final Sink sink;
+    private final Handler handler;
+    private final LocationManager locationManager;
+    private final MotionWakeSensor motionSensor;
+    private LocationListener passiveListener;
+    private CancellationSignal pendingFix;
+    private boolean running = false;
+    private long lastWakeMs = 0L;
+
+    /** Everything, the sink included, runs on {@code looper} (the service's TrackingThread). */
+    AmbientPlatformSource(Context context, Sink sink, Looper looper) {
+        this.context = context.getApplicationContext();
+        this.sink = sink;
+        this.handler = new Handler(looper);
+        this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        this.motionSensor = new MotionWakeSensor(this.context, this::onMotion, looper);
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    void start() {
+        if (running || locationManager == null) return;
+        running = true;
+        passiveListener = new LocationListener() {
+            @Override public void onLocationChanged(Location location) {
+                if (location != null) sink.onPlatformLocation(location);
+            }
+            // Required no-op overrides for older API levels.
+            @Override public void onStatusChanged(String provider, int status, Bundle extras) {}
+            @Override public void onProviderEnabled(String provider) {}
+            @Override public void onProviderDisabled(String provider) {}
+        };
+        try {
+            locationManager.requestLocationUpdates(
+                    LocationManager.PASSIVE_PROVIDER, PASSIVE_MIN_TIME_MS, 0f,
+                    passiveListener, handler.getLooper());
+            Location last = locationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
+            if (last != null) sink.onPlatformLocation(last);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission denied (passive)", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start passive updates", e);
+        }
+        motionSensor.arm();
+        Log.d(TAG, "Platform ambient source started");
+    }
+
+    void stop() {
+        if (!running) return;
+        running = false;
+        try {
+            if (locationManager != null && passiveListener != null) {
+                locationManager.removeUpdates(passiveListener);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error removing passive updates", e);
+        }
+        passiveListener = null;
+        motionSensor.disarm();
+        cancelPendingFix();
+        handler.removeCallbacksAndMessages(null);
+        Log.d(TAG, "Platform ambient source stopped");
+    }
+
+    /**
+     * One active fix: network first (Wi-Fi/cell, cheap), GPS only when the
+     * network provider is off or comes back empty. Single-flight: a wake
+     * while one is pending is ignored.
+     */
+    void wakeProviders(String reason) {
+        if (!running || locationManager == null || pendingFix != null) return;
+        lastWakeMs = System.currentTimeMillis();
+        Log.d(TAG, "Waking platform providers (" + reason + ")");
+        boolean networkOn = isEnabled(LocationManager.NETWORK_PROVIDER);
+        requestSingle(networkOn ? LocationManager.NETWORK_PROVIDER : LocationManager.GPS_PROVIDER,
+                networkOn);
+    }
+
+    private void requestSingle(String provider, boolean gpsFallback) {
+        if (!isEnabled(provider)) return;
+        CancellationSignal signal = new CancellationSignal();
+        pendingFix = signal;
+        // A cancelled request never calls back, so the timeout must also
+        // release the single-flight slot.
+        Runnable timeout = () -> {
+            signal.cancel();
+            if (pendingFix == signal) pendingFix = null;
+        };
+        handler.postDelayed(timeout, SINGLE_FIX_TIMEOUT_MS);
+        try {
+            LocationManagerCompat.getCurrentLocation(
+                    locationManager, provider, signal,
+                    handler::post,
+                    location -> {
+                        handler.removeCallbacks(timeout);
+                        if (pendingFix == signal) pendingFix = null;
+                        if (!running) return;
+                        if (location != null) {
+                            sink.onPlatformLocation(location);
+                        } else if (gpsFallback) {
+                            requestSingle(LocationManager.GPS_PROVIDER, false);
+                        }
+                    });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission denied (" + provider + ")", e);
+            handler.removeCallbacks(timeout);
+            pendingFix = null;
+        }
+    }
+
+    private void onMotion() {
+        if (!running) return;
+        if (System.currentTimeMillis() - lastWakeMs >= MOTION_COOLDOWN_MS) {
+            wakeProviders("significant motion");
+        }
+        // Significant motion is one-shot: re-arm after the cooldown so a
+        // long walk yields a fix every couple of minutes, not a storm.
+        handler.postDelayed(() -> {
+            if (running) motionSensor.arm();
+        }, MOTION_COOLDOWN_MS);
+    }
+
+    private void cancelPendingFix() {
+        if (pendingFix != null) {
+            pendingFix.cancel();
+            pendingFix = null;
+        }
+    }
+
+    private boolean isEnabled(String provider) {
+        try {
+            return locationManager.isProviderEnabled(provider);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
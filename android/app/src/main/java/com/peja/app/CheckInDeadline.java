@@ -0,0 +1,149 @@
+package com.peja.app;
+
+/**
+ * The running check-in's deadline as the device sees it, and when the
+ * device itself should report it missed.
+ *
+ * A missed check-in used to be noticed only by the server cron scanning
+ * safety_checkins once a minute (plus its run time), and by
+ * CheckInMonitor's toast if the WebView happened to be open. Now every
+ * location PATCH reads back the row's status and next_check_in_at, which
+ * also moves the deadline when "I'm OK" resets it, and the service arms an
+ * alarm for it. When the alarm fires the device posts the escalation with
+ * its latest position; the cron stays as the backstop for a device that
+ * is off or offline.
+ *
+ * Deadlines arrive in server time. Each response's Date header gives the
+ * device clock's offset, so a phone whose clock is minutes off still fires
+ * on the server's deadline; the alarm waits GRACE_MS past it to cover the
+ * header's one-second resolution, and a server that still says "not yet"
+ * just hands back the deadline to re-arm for. A post that fails is retried
+ * every RETRY_MS until the server answers; once it reports the check-in
+ * missed (by us or the cron) nothing is armed until a confirm makes it
+ * active with a new deadline.
+ *
+ * Not synchronized: SMLLocationService arms and checks it on its
+ * tracking thread only.
+ */
+final class CheckInDeadline {
+
+    static final long GRACE_MS = 2_000L;
+    static final long RETRY_MS = 30_000L;
+
+    private long deadlineMs; // device clock; 0 when none is pending
+    private long offsetMs = 0L; // server clock minus device clock
+    private boolean posting = false;
+    private long retryAtMs = 0L;
+
+    /** {@code deadlineMs} (device clock) as persisted by the last run, or 0. */
+    CheckInDeadline(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    /** The pending deadline on the device clock, 0 when none. */
+    long deadlineMs() {
+        return deadlineMs;
+    }
+
+    /** When the alarm should next fire on the device clock, 0 for no alarm. */
+    long alarmAtMs() {
+        if (deadlineMs == 0L) return 0L;
+        return Math.max(deadlineMs + GRACE_MS, retryAtMs);
+    }
+
+    /**
+     * The row as a write read it back. {@code serverNowMs} is the response's
+     * Date (0 when missing) and {@code localNowMs} the device clock when it
+     * arrived. Returns whether the alarm time changed.
+     */
+    boolean onServerState(boolean active, long serverDeadlineMs, long serverNowMs, long localNowMs) {
+        long before = alarmAtMs();
+        if (serverNowMs > 0L) offsetMs = serverNowMs - localNowMs;
+        long deadline = active && serverDeadlineMs > 0L ? serverDeadlineMs - offsetMs : 0L;
+        // While posting, the escalation's own answer decides what comes next.
+        if (!posting && Math.abs(deadline - deadlineMs) > GRACE_MS) {
+            deadlineMs = deadline;
+            retryAtMs = 0L;
+        }
+        return alarmAtMs() != before;
+    }
+
+    /** The alarm (or the in-process timer) fired: true when the device should post the escalation now. */
+    boolean onAlarm(long localNowMs) {
+        long at = alarmAtMs();
+        if (at == 0L || localNowMs < at) return false;
+        posting = true;
+        // Re-armed in case the post never answers (the process dies mid-call).
+        retryAtMs = localNowMs + RETRY_MS;
+        return true;
+    }
+
+    /**
+     * The escalation endpoint answered: {@code active} and
+     * {@code serverDeadlineMs} are the row after the call (escalated means
+     * it is now missed). Returns whether the alarm time changed.
+     */
+    boolean onEscalationResult(boolean active, long serverDeadlineMs, long serverNowMs, long localNowMs) {
+        long before = alarmAtMs();
+        posting = false;
+        retryAtMs = 0L;
+        if (serverNowMs > 0L) offsetMs = serverNowMs - localNowMs;
+        deadlineMs = active && serverDeadlineMs > 0L ? serverDeadlineMs - offsetMs : 0L;
+        return alarmAtMs() != before;
+    }
+
+    /** The post failed (offline, 5xx): try again in RETRY_MS. */
+    void onEscalationFailed(long localNowMs) {
+        posting = false;
+        retryAtMs = localNowMs + RETRY_MS;
+    }
+
+    /**
+     * Epoch millis for a PostgREST timestamptz ("2026-10-19T08:30:00.123456+00:00",
+     * or ending in Z), 0 when it doesn't parse. By hand: java.time is API 26
+     * and minSdk is 24.
+     */
+    static long parseTimestamp(String s) {
+        if (s == null || s.length() < 19 || s.charAt(4) != '-' || s.charAt(10) != 'T') return 0L;
+        try {
+            int year = Integer.parseInt(s.substring(0, 4));
+            int month = Integer.parseInt(s.substring(5, 7));
+            int day = Integer.parseInt(s.substring(8, 10));
+            int hour = Integer.parseInt(s.substring(11, 13));
+            int minute = Integer.parseInt(s.substring(14, 16));
+            int second = Integer.parseInt(s.substring(17, 19));
+            int i = 19;
+            long millis = 0L;
+            if (i < s.length() && s.charAt(i) == '.') {
+                int digits = 0;
+                for (i++; i < s.length() && Character.isDigit(s.charAt(i)); i++, digits++) {
+                    if (digits < 3) millis = millis * 10 + (s.charAt(i) - '0');
+                }
+                for (; digits < 3; digits++) millis *= 10;
+            }
+            long offsetMin = 0L;
+            if (i < s.length() && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                int sign = s.charAt(i) == '-' ? -1 : 1;
+                String zone = s.substring(i + 1).replace(":", "");
+                offsetMin = sign * (Integer.parseInt(zone.substring(0, 2)) * 60L
+                        + (zone.length() >= 4 ? Integer.parseInt(zone.substring(2, 4)) : 0));
+            } else if (i < s.length() && s.charAt(i) != 'Z') {
+                return 0L;
+            }
+            long seconds = daysFromCivil(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+            return (seconds - offsetMin * 60L) * 1000L + millis;
+        } catch (RuntimeException e) {
+            return 0L;
+        }
+    }
+
+    /** Days since 1970-01-01 of a proleptic Gregorian date. */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yoe = year - era * 400;
+        long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146_097L + doe - 719_468L;
+    }
+}
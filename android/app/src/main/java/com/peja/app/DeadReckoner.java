@@ -0,0 +1,165 @@
+package com.peja.app;
+
+/**
+ * Smoothed velocity for SOS/SML location writes, and, for SML, the
+ * decision to skip a write the viewers could have predicted.
+ *
+ * Viewers only got a point per 15s write, so a driver's marker jumped
+ * ~200 m at a time, and the only smoothing on offer was more writes. Each
+ * write now also carries a velocity vector (north/east m/s, heading) and
+ * the fix time, so the web map can move the marker along it between
+ * writes. With that in place, a write whose position the viewers would
+ * have extrapolated to within PREDICTION_ERROR_M is redundant, and is
+ * skipped, as long as:
+ *  - the user is moving (still mode has its own anchored heartbeat);
+ *  - the velocity hasn't changed by more than MAX_VELOCITY_CHANGE_MPS
+ *    since the last write (steady, linear motion: no turn, no braking);
+ *  - the last write is under MAX_WRITE_GAP_MS old, well inside the 2 min
+ *    after which the server's revive cron treats a session as stale.
+ *
+ * SOS writes every fix (onWrite): its maps draw the raw point, and helpers
+ * driving to an emergency can't wait 45s for it.
+ *
+ * Velocity: the chipset's speed and bearing when it has both, chipset
+ * speed along the derived direction when it has no bearing, else derived
+ * from successive fixes; EWMA on the north/east components, so a bearing
+ * wrapping through north doesn't average to south.
+ *
+ * Synchronized: failed writes invalidate from network threads.
+ */
+final class DeadReckoner {
+
+    static final double PREDICTION_ERROR_M = 20d;
+    static final long MAX_WRITE_GAP_MS = 45_000L;
+    static final double MAX_VELOCITY_CHANGE_MPS = 1.5d;
+    /** Below this the vector is noise; heading is unknown. */
+    static final double MIN_SPEED_MPS = 1.0d;
+    static final double VELOCITY_ALPHA = 0.5d;
+    /** Derived velocity needs fixes at least this good. */
+    private static final float MAX_DERIVE_ACCURACY_M = 50f;
+
+    private double vN = Double.NaN, vE = Double.NaN;
+    private long lastFixMs = 0L;
+    private double lastLat, lastLng;
+    private float lastAcc;
+
+    // What the viewers last received.
+    private boolean written = false;
+    private long writtenFixMs;
+    private double writtenLat, writtenLng, writtenVN, writtenVE;
+
+    /**
+     * Feed one fix. {@code speedMps}/{@code bearingDeg} are the chipset's,
+     * null when the fix has none.
+     */
+    synchronized void onFix(long fixMs, double lat, double lng, float accuracyM,
+                            Double speedMps, Double bearingDeg) {
+        double sampleN = Double.NaN, sampleE = Double.NaN;
+        double dt = (fixMs - lastFixMs) / 1000d;
+        boolean canDerive = lastFixMs > 0L && dt >= 1d && dt <= 60d
+                && accuracyM <= MAX_DERIVE_ACCURACY_M && lastAcc <= MAX_DERIVE_ACCURACY_M;
+        if (speedMps != null && bearingDeg != null) {
+            double b = Math.toRadians(bearingDeg);
+            sampleN = speedMps * Math.cos(b);
+            sampleE = speedMps * Math.sin(b);
+        } else if (canDerive) {
+            double dN = (lat - lastLat) * GeoMath.M_PER_DEG;
+            double dE = (lng - lastLng) * GeoMath.M_PER_DEG * Math.cos(Math.toRadians(lat));
+            sampleN = dN / dt;
+            sampleE = dE / dt;
+            if (speedMps != null) {
+                // Chipset magnitude, derived direction.
+                double derived = Math.hypot(sampleN, sampleE);
+                double scale = derived > 0.1d ? speedMps / derived : 0d;
+                sampleN *= scale;
+                sampleE *= scale;
+            }
+        } else if (speedMps != null && speedMps < 0.2d) {
+            sampleN = 0d;
+            sampleE = 0d;
+        }
+        if (!Double.isNaN(sampleN) && Math.hypot(sampleN, sampleE) < 70d) { // >250 km/h: teleport
+            if (Double.isNaN(vN)) {
+                vN = sampleN;
+                vE = sampleE;
+            } else {
+                vN += VELOCITY_ALPHA * (sampleN - vN);
+                vE += VELOCITY_ALPHA * (sampleE - vE);
+            }
+        }
+        lastFixMs = fixMs;
+        lastLat = lat;
+        lastLng = lng;
+        lastAcc = accuracyM;
+    }
+
+    /**
+     * Whether the latest fix needs writing; when it does, it becomes the
+     * baseline the viewers extrapolate from. Call after {@link #onFix}.
+     */
+    synchronized boolean shouldWrite(boolean still) {
+        boolean skip = !still && written && hasVelocity()
+                && lastFixMs - writtenFixMs < MAX_WRITE_GAP_MS
+                && speed(writtenVN, writtenVE) >= MIN_SPEED_MPS
+                && Math.hypot(vN - writtenVN, vE - writtenVE) <= MAX_VELOCITY_CHANGE_MPS
+                && predictionErrorM() <= PREDICTION_ERROR_M;
+        if (skip) return false;
+        onWrite(still);
+        return true;
+    }
+
+    /** The latest fix is being written regardless: it becomes the baseline. */
+    synchronized void onWrite(boolean still) {
+        written = true;
+        writtenFixMs = lastFixMs;
+        writtenLat = lastLat;
+        writtenLng = lastLng;
+        boolean moving = !still && hasVelocity() && speed(vN, vE) >= MIN_SPEED_MPS;
+        writtenVN = moving ? vN : 0d;
+        writtenVE = moving ? vE : 0d;
+    }
+
+    /** The last write may not have landed: write the next fix regardless. */
+    synchronized void invalidate() {
+        written = false;
+    }
+
+    /** Where the viewers' extrapolation puts us at the latest fix, vs where we are. */
+    private double predictionErrorM() {
+        double dt = (lastFixMs - writtenFixMs) / 1000d;
+        double predLat = writtenLat + writtenVN * dt / GeoMath.M_PER_DEG;
+        double predLng = writtenLng
+                + writtenVE * dt / (GeoMath.M_PER_DEG * Math.cos(Math.toRadians(writtenLat)));
+        return GeoMath.distanceM(predLat, predLng, lastLat, lastLng);
+    }
+
+    private boolean hasVelocity() {
+        return !Double.isNaN(vN);
+    }
+
+    private static double speed(double n, double e) {
+        return Math.hypot(n, e);
+    }
+
+    // The vector as written: zero when still, slow or unknown, so viewers
+    // never extrapolate noise.
+
+    synchronized double writtenNorthMps() {
+        return writtenVN;
+    }
+
+    synchronized double writtenEastMps() {
+        return writtenVE;
+    }
+
+    /** Degrees clockwise from north of the written vector, or NaN below MIN_SPEED_MPS. */
+    synchronized double writtenHeadingDeg() {
+        if (speed(writtenVN, writtenVE) < MIN_SPEED_MPS) return Double.NaN;
+        double deg = Math.toDegrees(Math.atan2(writtenVE, writtenVN));
+        return deg < 0d ? deg + 360d : deg;
+    }
+
+    synchronized long writtenFixMs() {
+        return writtenFixMs;
+    }
+}
@@ -0,0 +1,345 @@
+package com.peja.app;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Bounded on-device map from radio fingerprints (serving cell IDs, Wi-Fi
+ * BSSIDs) to where we've seen them, learned from our own good GPS fixes.
+ *
+ * When GPS is blind the network provider returns either nothing (offline,
+ * no GMS) or a 1-2 km cell fix, while the same user walks past the same
+ * access points with a perfect GPS fix day after day. Each key keeps a
+ * running centroid plus a spread (mean distance of its sightings from the
+ * centroid), which is what makes the accuracy of a lookup honest: a Wi-Fi
+ * AP seen within 20m of one spot gives ~40m, a macro cell seen across a
+ * whole district gives its real kilometre.
+ *
+ * Storage is primitive arrays only (about 40 bytes per key), addressed
+ * through an open-addressing table of entry ids with linear probing, and
+ * bounded by LRU eviction over an intrusive doubly linked list. Eviction
+ * frees an entry id and backward-shifts the probe chain, so there are no
+ * tombstones to degrade lookups over months of churn.
+ *
+ * Keys are opaque longs; see cellKey() and wifiKey(). Not thread-safe;
+ * FingerprintLocator serializes access.
+ */
+final class FingerprintIndex {
+
+    /** A lookup result. Accuracy is a 68% radius like Location's. */
+    static final class Estimate {
+        final double lat;
+        final double lng;
+        final float accuracyM;
+        final int wifiHits;
+        final int cellHits;
+
+        Estimate(double lat, double lng, float accuracyM, int wifiHits, int cellHits) {
+            this.lat = lat;
+            this.lng = lng;
+            this.accuracyM = accuracyM;
+            this.wifiHits = wifiHits;
+            this.cellHits = cellHits;
+        }
+    }
+
+    /** Only fixes at least this good are learned. */
+    static final float LEARN_MAX_ACCURACY_M = 50f;
+    /**
+     * Cap on the running-mean weight, so a key whose position really
+     * changes (an AP that moved house, a re-planned cell ID) converges to
+     * its new home instead of being pinned by years of history.
+     */
+    static final int MAX_WEIGHT = 32;
+    /** Floors for the reported accuracy of a lookup. */
+    static final float WIFI_MIN_ACCURACY_M = 30f;
+    static final float CELL_MIN_ACCURACY_M = 300f;
+    /** Keys seen fewer times than this aren't trusted yet. */
+    static final int MIN_SIGHTINGS = 2;
+
+    private static final long TAG_MASK = 0xF000_0000_0000_0000L;
+    private static final long TAG_WIFI = 0x1000_0000_0000_0000L;
+    private static final long TAG_CELL = 0x2000_0000_0000_0000L;
+
+    private static final int FILE_MAGIC = 0x50464958; // "PFIX"
+    private static final int FILE_VERSION = 1;
+    private static final int NONE = -1;
+    private static final double E7 = 1e7;
+
+    private final int capacity;
+    private final int mask;
+    // Open-addressing table: entry id per slot, NONE when empty.
+    private final int[] table;
+    // Entry storage, indexed by entry id.
+    private final long[] keys;
+    private final int[] latE7;
+    private final int[] lngE7;
+    private final float[] spreadM;
+    private final int[] weight;
+    // LRU list over entry ids: head is most recently used.
+    private final int[] prev;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size = 0;
+
+    FingerprintIndex(int capacity) {
+        this.capacity = capacity;
+        // Load factor <= 0.5 keeps linear probe chains short.
+        int slots = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.table = new int[slots];
+        java.util.Arrays.fill(table, NONE);
+        this.keys = new long[capacity];
+        this.latE7 = new int[capacity];
+        this.lngE7 = new int[capacity];
+        this.spreadM = new float[capacity];
+        this.weight = new int[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Cell key from the identifiers that make a cell globally unique.
+     * {@code radio} distinguishes GSM/WCDMA/LTE/NR, whose ID spaces overlap.
+     */
+    static long cellKey(int radio, int mcc, int mnc, int area, long cellId) {
+        long h = radio;
+        h = h * 1000 + (mcc & 0x3FF);
+        h = h * 1000 + (mnc & 0x3FF);
+        h = h * 0x1_0000_0000L + (area & 0xFFFF_FFFFL);
+        // Mix in the cell ID (up to 36 bits for NR) and keep 60 bits.
+        h = mix64(h) ^ cellId;
+        return TAG_CELL | (mix64(h) & ~TAG_MASK);
+    }
+
+    /** Wi-Fi key from a 48-bit BSSID. */
+    static long wifiKey(long bssid) {
+        return TAG_WIFI | (bssid & 0xFFFF_FFFF_FFFFL);
+    }
+
+    static boolean isWifiKey(long key) {
+        return (key & TAG_MASK) == TAG_WIFI;
+    }
+
+    /** Fold a good fix into every key observed at it. */
+    void learn(long[] observed, int count, double lat, double lng, float accuracyM) {
+        if (accuracyM > LEARN_MAX_ACCURACY_M) return;
+        for (int i = 0; i < count; i++) {
+            long key = observed[i];
+            int id = find(key);
+            if (id == NONE) {
+                id = insert(key);
+                latE7[id] = (int) Math.round(lat * E7);
+                lngE7[id] = (int) Math.round(lng * E7);
+                spreadM[id] = accuracyM;
+                weight[id] = 1;
+                continue;
+            }
+            touch(id);
+            double cLat = latE7[id] / E7;
+            double cLng = lngE7[id] / E7;
+            int w = Math.min(weight[id], MAX_WEIGHT - 1);
+            double nLat = cLat + (lat - cLat) / (w + 1);
+            double nLng = cLng + (lng - cLng) / (w + 1);
+            float d = (float) GeoMath.equirectM(nLat, nLng, lat, lng);
+            spreadM[id] += (Math.max(d, accuracyM) - spreadM[id]) / (w + 1);
+            latE7[id] = (int) Math.round(nLat * E7);
+            lngE7[id] = (int) Math.round(nLng * E7);
+            weight[id] = w + 1;
+        }
+    }
+
+    /**
+     * Position from the keys visible now, or null when none is known well
+     * enough. Wi-Fi hits outvote cell hits entirely: an AP's spread is
+     * tens of metres, a cell's is hundreds, and blending them only drags
+     * a good answer toward the tower's service-area centroid.
+     */
+    Estimate lookup(long[] observed, int count) {
+        double wifiLat = 0, wifiLng = 0, wifiW = 0, wifiSpread = 0;
+        double cellLat = 0, cellLng = 0, cellW = 0, cellSpread = 0;
+        int wifiHits = 0, cellHits = 0;
+        for (int i = 0; i < count; i++) {
+            int id = find(observed[i]);
+            if (id == NONE || weight[id] < MIN_SIGHTINGS) continue;
+            touch(id);
+            double s = Math.max(spreadM[id], 1f);
+            double w = 1d / (s * s);
+            if (isWifiKey(keys[id])) {
+                wifiLat += latE7[id] / E7 * w;
+                wifiLng += lngE7[id] / E7 * w;
+                wifiSpread += s * w;
+                wifiW += w;
+                wifiHits++;
+            } else {
+                cellLat += latE7[id] / E7 * w;
+                cellLng += lngE7[id] / E7 * w;
+                cellSpread += s * w;
+                cellW += w;
+                cellHits++;
+            }
+        }
+        if (wifiHits > 0) {
+            double lat = wifiLat / wifiW;
+            double lng = wifiLng / wifiW;
+            // Several APs that disagree widen the estimate: the spread term
+            // covers each AP, the disagreement covers picking the wrong one.
+            double acc = wifiSpread / wifiW + disagreementM(observed, count, lat, lng, true);
+            return new Estimate(lat, lng, (float) Math.max(WIFI_MIN_ACCURACY_M, acc), wifiHits, cellHits);
+        }
+        if (cellHits > 0) {
+            double lat = cellLat / cellW;
+            double lng = cellLng / cellW;
+            double acc = cellSpread / cellW + disagreementM(observed, count, lat, lng, false);
+            return new Estimate(lat, lng, (float) Math.max(CELL_MIN_ACCURACY_M, acc), 0, cellHits);
+        }
+        return null;
+    }
+
+    /** Largest distance from the estimate to any hit of the given kind. */
+    private double disagreementM(long[] observed, int count, double lat, double lng, boolean wifi) {
+        double worst = 0d;
+        for (int i = 0; i < count; i++) {
+            if (isWifiKey(observed[i]) != wifi) continue;
+            int id = find(observed[i]);
+            if (id == NONE || weight[id] < MIN_SIGHTINGS) continue;
+            worst = Math.max(worst, GeoMath.equirectM(lat, lng, latE7[id] / E7, lngE7[id] / E7));
+        }
+        return worst;
+    }
+
+    // ── persistence: entries written LRU-first so that reading them back
+    // and inserting in order restores the same recency order. ──
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(size);
+        for (int id = tail; id != NONE; id = prev[id]) {
+            out.writeLong(keys[id]);
+            out.writeInt(latE7[id]);
+            out.writeInt(lngE7[id]);
+            out.writeFloat(spreadM[id]);
+            out.writeInt(weight[id]);
+        }
+    }
+
+    /**
+     * Replace the contents with a stream written by writeTo. A file from an
+     * unknown version is ignored (the index just relearns); a bigger file
+     * than this capacity keeps its most recent entries.
+     */
+    void readFrom(DataInputStream in) throws IOException {
+        clear();
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) return;
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            long key = in.readLong();
+            int lat = in.readInt();
+            int lng = in.readInt();
+            float spread = in.readFloat();
+            int w = in.readInt();
+            int id = find(key);
+            if (id == NONE) id = insert(key);
+            else touch(id);
+            latE7[id] = lat;
+            lngE7[id] = lng;
+            spreadM[id] = spread;
+            weight[id] = w;
+        }
+    }
+
+    void clear() {
+        java.util.Arrays.fill(table, NONE);
+        head = tail = NONE;
+        size = 0;
+    }
+
+    // ── hash table ──
+
+    private int find(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id == NONE) return NONE;
+            if (keys[id] == key) return id;
+        }
+    }
+
+    /** Insert a key known to be absent; evicts the LRU entry when full. */
+    private int insert(long key) {
+        int id;
+        if (size == capacity) {
+            id = tail;
+            unlink(id);
+            removeFromTable(keys[id]);
+        } else {
+            id = size++;
+        }
+        keys[id] = key;
+        int slot = slotOf(key);
+        while (table[slot] != NONE) slot = (slot + 1) & mask;
+        table[slot] = id;
+        linkAtHead(id);
+        return id;
+    }
+
+    /** Backward-shift deletion: keeps probe chains intact, no tombstones. */
+    private void removeFromTable(long key) {
+        int slot = slotOf(key);
+        while (keys[table[slot]] != key) slot = (slot + 1) & mask;
+        int hole = slot;
+        for (int s = (hole + 1) & mask; table[s] != NONE; s = (s + 1) & mask) {
+            int home = slotOf(keys[table[s]]);
+            // Move the entry back if its home lies cyclically outside (hole, s].
+            boolean movable = hole <= s ? (home <= hole || home > s) : (home <= hole && home > s);
+            if (movable) {
+                table[hole] = table[s];
+                hole = s;
+            }
+        }
+        table[hole] = NONE;
+    }
+
+    private int slotOf(long key) {
+        return (int) mix64(key) & mask;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    // ── LRU list ──
+
+    private void touch(int id) {
+        if (id == head) return;
+        unlink(id);
+        linkAtHead(id);
+    }
+
+    private void linkAtHead(int id) {
+        prev[id] = NONE;
+        next[id] = head;
+        if (head != NONE) prev[head] = id;
+        head = id;
+        if (tail == NONE) tail = id;
+    }
+
+    private void unlink(int id) {
+        if (prev[id] != NONE) next[prev[id]] = next[id];
+        else head = next[id];
+        if (next[id] != NONE) prev[next[id]] = prev[id];
+        else tail = prev[id];
+    }
+}
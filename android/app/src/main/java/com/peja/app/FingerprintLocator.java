@@ -0,0 +1,289 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellInfoWcdma;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Android side of the fingerprint cache (see FingerprintIndex): reads the
+ * serving cells and the Wi-Fi scan results the OS already holds, learns
+ * them against our own good fixes, and turns a lookup into a Location the
+ * safety services can feed through their normal pipeline.
+ *
+ * One instance per process, shared by SOS and SML so a route learned during
+ * a check-in helps the next SOS. Never triggers a Wi-Fi scan (startScan is
+ * throttled to 4 per 2 minutes and drains battery); the OS's own periodic
+ * scans and the connected AP are enough.
+ *
+ * All methods are synchronized; SOS and SML call in from their own tracking
+ * threads, and the file write runs on its own thread from a snapshot.
+ */
+final class FingerprintLocator {
+
+    static final String PROVIDER = "fingerprint";
+
+    private static final String TAG = "FingerprintLocator";
+    private static final String FILE_NAME = "fingerprints.bin";
+    private static final int CAPACITY = 8192;
+    private static final int MAX_WIFI = 8;
+    /** Don't read radios more often than this when learning. */
+    private static final long LEARN_INTERVAL_MS = 30_000L;
+    /** Persist at most this often; plus once when a session ends. */
+    private static final long SAVE_INTERVAL_MS = 10 * 60_000L;
+    /** Scan results older than this describe somewhere else. */
+    private static final long MAX_SCAN_AGE_MS = 60_000L;
+
+    // Radio tags for FingerprintIndex.cellKey.
+    private static final int RADIO_GSM = 1;
+    private static final int RADIO_WCDMA = 2;
+    private static final int RADIO_LTE = 3;
+    private static final int RADIO_NR = 4;
+
+    private static FingerprintLocator instance;
+
+    private final File file;
+    private final TelephonyManager telephony;
+    private final WifiManager wifi;
+    private final FingerprintIndex index = new FingerprintIndex(CAPACITY);
+    private final long[] scratch = new long[MAX_WIFI + 4];
+    private long lastLearnMs = 0L;
+    private long lastSaveMs = 0L;
+    private boolean dirty = false;
+
+    static synchronized FingerprintLocator get(Context ctx) {
+        if (instance == null) instance = new FingerprintLocator(ctx.getApplicationContext());
+        return instance;
+    }
+
+    private FingerprintLocator(Context ctx) {
+        file = new File(ctx.getFilesDir(), FILE_NAME);
+        telephony = (TelephonyManager) ctx.getSystemService(Context.TELEPHONY_SERVICE);
+        wifi = (WifiManager) ctx.getSystemService(Context.WIFI_SERVICE);
+        load();
+        lastSaveMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Offer a fix for learning. Only real, fresh, good fixes teach: our own
+     * fingerprint fixes and network fixes never do, or the cache would
+     * learn from itself.
+     */
+    synchronized void maybeLearn(Location location) {
+        if (location == null || PROVIDER.equals(location.getProvider())
+                || LocationManager.NETWORK_PROVIDER.equals(location.getProvider())) return;
+        if (!location.hasAccuracy() || location.getAccuracy() > FingerprintIndex.LEARN_MAX_ACCURACY_M) return;
+        long now = System.currentTimeMillis();
+        if (now - location.getTime() > 30_000L || now - lastLearnMs < LEARN_INTERVAL_MS) return;
+        lastLearnMs = now;
+        int n = observe();
+        if (n == 0) return;
+        index.learn(scratch, n, location.getLatitude(), location.getLongitude(), location.getAccuracy());
+        dirty = true;
+        if (now - lastSaveMs >= SAVE_INTERVAL_MS) save();
+    }
+
+    /** Position from the radios visible now, or null when we know none of them. */
+    synchronized Location locate() {
+        int n = observe();
+        if (n == 0) return null;
+        FingerprintIndex.Estimate e = index.lookup(scratch, n);
+        if (e == null) return null;
+        Location loc = new Location(PROVIDER);
+        loc.setLatitude(e.lat);
+        loc.setLongitude(e.lng);
+        loc.setAccuracy(e.accuracyM);
+        loc.setTime(System.currentTimeMillis());
+        loc.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+        Log.d(TAG, "Fingerprint fix: " + e.wifiHits + " Wi-Fi / " + e.cellHits
+                + " cell hits, ±" + Math.round(e.accuracyM) + "m");
+        return loc;
+    }
+
+    /** Persist now if anything changed; called when a session stops. */
+    synchronized void flush() {
+        if (dirty) save();
+    }
+
+    // ── radios ──
+
+    private int observe() {
+        int n = 0;
+        n = observeCells(n);
+        n = observeWifi(n);
+        return n;
+    }
+
+    private int observeCells(int n) {
+        if (telephony == null) return n;
+        try {
+            List<CellInfo> cells = telephony.getAllCellInfo();
+            if (cells == null) return n;
+            for (CellInfo info : cells) {
+                // Serving cells only: neighbours are heard from far wider
+                // areas and most report no usable identity anyway.
+                if (!info.isRegistered() || n >= scratch.length - MAX_WIFI) continue;
+                long key = cellKey(info);
+                if (key != 0L) scratch[n++] = key;
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "No permission to read cell info");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read cell info", e);
+        }
+        return n;
+    }
+
+    private static long cellKey(CellInfo info) {
+        if (info instanceof CellInfoLte) {
+            CellIdentityLte id = ((CellInfoLte) info).getCellIdentity();
+            if (id.getCi() == Integer.MAX_VALUE) return 0L;
+            return FingerprintIndex.cellKey(RADIO_LTE, id.getMcc(), id.getMnc(), id.getTac(), id.getCi());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && info instanceof CellInfoNr) {
+            CellIdentityNr id = (CellIdentityNr) ((CellInfoNr) info).getCellIdentity();
+            if (id.getNci() == Long.MAX_VALUE) return 0L;
+            return FingerprintIndex.cellKey(RADIO_NR, parse(id.getMccString()),
+                    parse(id.getMncString()), id.getTac(), id.getNci());
+        }
+        if (info instanceof CellInfoWcdma) {
+            CellIdentityWcdma id = ((CellInfoWcdma) info).getCellIdentity();
+            if (id.getCid() == Integer.MAX_VALUE) return 0L;
+            return FingerprintIndex.cellKey(RADIO_WCDMA, id.getMcc(), id.getMnc(), id.getLac(), id.getCid());
+        }
+        if (info instanceof CellInfoGsm) {
+            CellIdentityGsm id = ((CellInfoGsm) info).getCellIdentity();
+            if (id.getCid() == Integer.MAX_VALUE) return 0L;
+            return FingerprintIndex.cellKey(RADIO_GSM, id.getMcc(), id.getMnc(), id.getLac(), id.getCid());
+        }
+        return 0L; // CDMA, TD-SCDMA: not deployed where we operate
+    }
+
+    private static int parse(String s) {
+        try {
+            return s == null ? 0 : Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private int observeWifi(int n) {
+        if (wifi == null) return n;
+        try {
+            List<ScanResult> results = wifi.getScanResults();
+            if (results != null && !results.isEmpty()) {
+                ScanResult[] sorted = results.toArray(new ScanResult[0]);
+                Arrays.sort(sorted, Comparator.comparingInt((ScanResult r) -> r.level).reversed());
+                long nowUs = SystemClock.elapsedRealtime() * 1000L;
+                int added = 0;
+                for (ScanResult r : sorted) {
+                    if (added >= MAX_WIFI) break;
+                    if (nowUs - r.timestamp > MAX_SCAN_AGE_MS * 1000L) continue;
+                    long key = wifiKey(r.BSSID);
+                    if (key != 0L) {
+                        scratch[n++] = key;
+                        added++;
+                    }
+                }
+                if (added > 0) return n;
+            }
+            // No fresh scan: the connected AP alone still pins a building.
+            WifiInfo conn = wifi.getConnectionInfo();
+            long key = conn != null ? wifiKey(conn.getBSSID()) : 0L;
+            if (key != 0L) scratch[n++] = key;
+        } catch (SecurityException e) {
+            Log.w(TAG, "No permission to read Wi-Fi scan results");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read Wi-Fi scan results", e);
+        }
+        return n;
+    }
+
+    /**
+     * BSSID to key, or 0 for ones that don't stay put: locally administered
+     * addresses are phone hotspots and randomized MACs, and learning a
+     * hotspot would place the next blind fix wherever its owner was.
+     */
+    private static long wifiKey(String bssid) {
+        if (bssid == null || bssid.length() != 17 || "02:00:00:00:00:00".equals(bssid)) return 0L;
+        long mac = 0L;
+        for (int i = 0; i < 17; i += 3) {
+            int b = Character.digit(bssid.charAt(i), 16) << 4 | Character.digit(bssid.charAt(i + 1), 16);
+            if (b < 0) return 0L;
+            mac = mac << 8 | b;
+        }
+        if ((mac >>> 40 & 0x02L) != 0L) return 0L;
+        return FingerprintIndex.wifiKey(mac);
+    }
+
+    // ── persistence ──
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            index.readFrom(in);
+            Log.d(TAG, "Loaded " + index.size() + " fingerprints");
+        } catch (Exception e) {
+            // A torn or foreign file only costs relearning.
+            Log.w(TAG, "Discarding unreadable fingerprint file", e);
+            index.clear();
+        }
+    }
+
+    private void save() {
+        final byte[] bytes;
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(index.size() * 24 + 16);
+            DataOutputStream out = new DataOutputStream(buf);
+            index.writeTo(out);
+            out.flush();
+            bytes = buf.toByteArray();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to serialize fingerprints", e);
+            return;
+        }
+        dirty = false;
+        lastSaveMs = System.currentTimeMillis();
+        new Thread(() -> {
+            // Write-then-rename so a kill mid-write never leaves a torn file;
+            // the lock keeps two quick saves from sharing the temp file.
+            synchronized (file) {
+                File tmp = new File(file.getPath() + ".tmp");
+                try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                    out.write(bytes);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to write fingerprints", e);
+                    return;
+                }
+                if (!tmp.renameTo(file)) Log.e(TAG, "Failed to replace fingerprint file");
+            }
+        }).start();
+    }
+}
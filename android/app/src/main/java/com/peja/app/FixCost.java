@@ -0,0 +1,50 @@
+package com.peja.app;
+
+/**
+ * What handling a delivered fix costs (gating, motion math, the write
+ * decision, spawning the upload), and how much of that ran on the main
+ * thread, for getDiagnostics(). The services record each fix in the same
+ * place they open its trace section, so the number here and a Perfetto
+ * trace agree. Before the services had their own TrackingThread every fix
+ * counted as main-thread time; now none should.
+ */
+final class FixCost {
+
+    private long fixes = 0L;
+    private long mainFixes = 0L;
+    private long totalNs = 0L;
+    private long mainNs = 0L;
+    private long maxNs = 0L;
+
+    void record(long ns, boolean onMainThread) {
+        if (ns < 0L) return;
+        fixes++;
+        totalNs += ns;
+        maxNs = Math.max(maxNs, ns);
+        if (onMainThread) {
+            mainFixes++;
+            mainNs += ns;
+        }
+    }
+
+    long fixes() {
+        return fixes;
+    }
+
+    long fixesOnMainThread() {
+        return mainFixes;
+    }
+
+    long meanUs() {
+        return fixes == 0L ? 0L : totalNs / fixes / 1_000L;
+    }
+
+    long maxUs() {
+        return maxNs / 1_000L;
+    }
+
+    /** Main-thread time per fix, averaged over every fix handled. */
+    long mainThreadUsPerFix() {
+        return fixes == 0L ? 0L : mainNs / fixes / 1_000L;
+    }
+}
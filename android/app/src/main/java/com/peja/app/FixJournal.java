@@ -0,0 +1,213 @@
+package com.peja.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The device's own recent accepted fixes, across SOS, SML and ambient, in
+ * a fixed-size memory-mapped ring file.
+ *
+ * A WebView cold-starting mid-session had no local history: the map stayed
+ * empty until Supabase answered. The services now append every fix that
+ * passes their accuracy and cadence gates here, and FixJournalPlugin hands
+ * a time range to the WebView as one packed array.
+ *
+ * Records are fixed-width little-endian primitives, RECORD_BYTES each:
+ *   0  long  fix time, ms
+ *   8  int   latitude, 1e-7 degrees
+ *  12  int   longitude, 1e-7 degrees
+ *  16  float accuracy, m
+ *  20  float speed, m/s (NaN when unknown)
+ *  24  byte  source (SOURCE_*)
+ *  25  byte  session kind (KIND_*)
+ *  26  short reserved
+ *  28  int   session tag (hash of the SOS / check-in id)
+ * The same layout goes over the bridge, so a range read is a straight
+ * copy of the matching records. An append is a handful of absolute puts into the mapping:
+ * no allocation, no syscall, and the kernel owns the dirty pages, so what
+ * was appended survives the process being killed.
+ *
+ * The header holds the total append count; the slot for an append is that
+ * count modulo the slot count, and the count is bumped after the record is
+ * written. Readers take the count from the header, not from this instance,
+ * because the appends come from the services in the :tracker process and
+ * range() is served in the app process, over its own mapping of the same
+ * file, where synchronized doesn't reach. So the ring has one slot more
+ * than the capacity: the spare is the one an append may be filling, and a
+ * reader re-reads the count after copying each record and drops any that
+ * an append has since started to overwrite. A header that does not match
+ * this version or capacity resets the ring (it's a cache: Supabase has the
+ * history).
+ *
+ * FixJournalPlugin owns the process-wide instance.
+ */
+final class FixJournal {
+
+    static final int RECORD_BYTES = 32;
+    /** ~13.5 hours at one fix per 3s, 512 KiB. */
+    static final int DEFAULT_CAPACITY = 16_384;
+
+    static final byte SOURCE_OTHER = 0;
+    static final byte SOURCE_GPS = 1;
+    static final byte SOURCE_NETWORK = 2;
+    static final byte SOURCE_FUSED = 3;
+    static final byte SOURCE_FINGERPRINT = 4;
+
+    static final byte KIND_SOS = 1;
+    static final byte KIND_SML = 2;
+    static final byte KIND_AMBIENT = 3;
+
+    private static final int MAGIC = 0x504A524E; // "PJRN"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_CAPACITY = 8;
+    private static final int H_RECORD = 12;
+    private static final int H_COUNT = 16;
+    /** How far out of time order interleaved appends may be. */
+    private static final long ORDER_SLACK_MS = 60_000L;
+
+    private final MappedByteBuffer map;
+    private final int capacity;
+    /** capacity + 1: the extra is the slot being written. */
+    private final int slots;
+    private long count; // guarded by this
+
+    private FixJournal(MappedByteBuffer map, int capacity) {
+        this.map = map;
+        this.capacity = capacity;
+        this.slots = capacity + 1;
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.getInt(H_MAGIC) != MAGIC || map.getInt(H_VERSION) != VERSION
+                || map.getInt(H_CAPACITY) != capacity || map.getInt(H_RECORD) != RECORD_BYTES
+                || map.getLong(H_COUNT) < 0L) {
+            map.putLong(H_COUNT, 0L);
+            map.putInt(H_CAPACITY, capacity);
+            map.putInt(H_RECORD, RECORD_BYTES);
+            map.putInt(H_VERSION, VERSION);
+            map.putInt(H_MAGIC, MAGIC);
+        }
+        count = map.getLong(H_COUNT);
+    }
+
+    /** Map {@code file}, creating or resizing it for {@code capacity} records. */
+    static FixJournal open(File file, int capacity) throws IOException {
+        long size = HEADER_BYTES + (capacity + 1L) * RECORD_BYTES;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() != size) raf.setLength(size);
+            // The mapping outlives the channel.
+            return new FixJournal(channel.map(FileChannel.MapMode.READ_WRITE, 0L, size), capacity);
+        }
+    }
+
+    /** Location provider name to SOURCE_*. */
+    static byte source(String provider) {
+        if (provider == null) return SOURCE_OTHER;
+        switch (provider) {
+            case "gps":
+                return SOURCE_GPS;
+            case "network":
+                return SOURCE_NETWORK;
+            case "fused":
+                return SOURCE_FUSED;
+            case "fingerprint": // FingerprintLocator.PROVIDER
+                return SOURCE_FINGERPRINT;
+            default:
+                return SOURCE_OTHER;
+        }
+    }
+
+    /** Session id to the tag stored with its fixes; 0 for none. */
+    static int tag(String sessionId) {
+        return sessionId == null || sessionId.isEmpty() ? 0 : sessionId.hashCode();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** Records currently held (at most the capacity), by any process. */
+    synchronized int size() {
+        return (int) Math.min(map.getLong(H_COUNT), capacity);
+    }
+
+    /** Append one fix; allocation-free. {@code speedMps} NaN when unknown. */
+    synchronized void append(long timeMs, double lat, double lng, float accuracyM, float speedMps,
+                             byte source, byte kind, int sessionTag) {
+        int at = HEADER_BYTES + (int) (count % slots) * RECORD_BYTES;
+        map.putLong(at, timeMs);
+        map.putInt(at + 8, (int) Math.round(lat * 1e7));
+        map.putInt(at + 12, (int) Math.round(lng * 1e7));
+        map.putFloat(at + 16, accuracyM);
+        map.putFloat(at + 20, speedMps);
+        map.put(at + 24, source);
+        map.put(at + 25, kind);
+        map.putShort(at + 26, (short) 0);
+        map.putInt(at + 28, sessionTag);
+        count++;
+        map.putLong(H_COUNT, count);
+    }
+
+    /**
+     * Records with {@code fromMs <= time <= toMs}, oldest first, packed in
+     * the record layout. {@code kind} 0 matches every session kind.
+     * At most {@code max} records: the newest ones when there are more.
+     */
+    synchronized byte[] range(long fromMs, long toMs, byte kind, int max) {
+        long total = map.getLong(H_COUNT);
+        int n = (int) Math.min(total, capacity);
+        // Count matches newest first until the range starts. Each service
+        // appends in time order but they interleave, and a fix can carry a
+        // time a little behind its neighbours, so a record before the range
+        // only ends the scan once it is well before it.
+        int matched = 0;
+        int oldestMatch = -1;
+        for (int i = n - 1; i >= 0; i--) {
+            int at = slotOffset(i, n, total);
+            long t = map.getLong(at);
+            if (t < fromMs) {
+                if (t < fromMs - ORDER_SLACK_MS) break;
+                continue;
+            }
+            if (t > toMs || (kind != 0 && map.get(at + 25) != kind)) continue;
+            if (matched == max) break;
+            matched++;
+            oldestMatch = i;
+        }
+        byte[] out = new byte[matched * RECORD_BYTES];
+        if (matched == 0) return out;
+        ByteBuffer src = map.duplicate(); // own position for the bulk gets
+        int w = 0;
+        for (int i = oldestMatch; i < n && w < out.length; i++) {
+            int at = slotOffset(i, n, total);
+            long t = map.getLong(at);
+            if (t < fromMs || t > toMs || (kind != 0 && map.get(at + 25) != kind)) continue;
+            src.position(at);
+            src.get(out, w, RECORD_BYTES);
+            // The append that reuses this slot may have begun mid-copy once
+            // the count is more than capacity past this record.
+            if (total - n + i < map.getLong(H_COUNT) - capacity) continue;
+            w += RECORD_BYTES;
+        }
+        return w == out.length ? out : Arrays.copyOf(out, w);
+    }
+
+    /** Byte offset of the i-th oldest of the {@code n} held records, {@code total} appended. */
+    private int slotOffset(int i, int n, long total) {
+        long seq = total - n + i;
+        return HEADER_BYTES + (int) (seq % slots) * RECORD_BYTES;
+    }
+
+    /** Force the mapping to storage (only matters for power loss, not process death). */
+    synchronized void sync() {
+        map.force();
+    }
+}
@@ -0,0 +1,71 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hands the WebView this device's recent fixes from the FixJournal, so a
+ * map opened mid-session can draw the track before Supabase answers.
+ *
+ * range({from, to, kind?}) resolves {count, stride, data}: data is the
+ * matching records base64-encoded in FixJournal's little-endian layout,
+ * stride bytes each (see src/lib/fixJournal.ts for the decoder).
+ */
+@CapacitorPlugin(name = "FixJournal")
+public class FixJournalPlugin extends Plugin {
+
+    private static final String TAG = "FixJournalPlugin";
+    private static final String FILE_NAME = "peja_fixes.ring";
+    /** Cap on one bridge reply: ~1 MiB of base64. */
+    private static final int MAX_RECORDS = 24_000;
+
+    private static volatile FixJournal journal;
+    private static volatile boolean unavailable;
+
+    /** The process-wide journal, or null if it could not be mapped. */
+    static FixJournal journal(Context ctx) {
+        FixJournal j = journal;
+        if (j != null || unavailable) return j;
+        synchronized (FixJournalPlugin.class) {
+            if (journal == null && !unavailable) {
+                File file = new File(ctx.getApplicationContext().getFilesDir(), FILE_NAME);
+                try {
+                    journal = FixJournal.open(file, FixJournal.DEFAULT_CAPACITY);
+                } catch (IOException e) {
+                    // Tracking doesn't depend on it; don't retry on every fix.
+                    unavailable = true;
+                    Log.w(TAG, "Fix journal unavailable", e);
+                }
+            }
+            return journal;
+        }
+    }
+
+    @PluginMethod
+    public void range(PluginCall call) {
+        Long from = call.getLong("from");
+        Long to = call.getLong("to");
+        if (from == null || to == null) {
+            call.reject("from and to are required");
+            return;
+        }
+        byte kind = (byte) (int) call.getInt("kind", 0);
+        FixJournal j = journal(getContext());
+        byte[] data = j == null ? new byte[0] : j.range(from, to, kind, MAX_RECORDS);
+        JSObject ret = new JSObject();
+        ret.put("count", data.length / FixJournal.RECORD_BYTES);
+        ret.put("stride", FixJournal.RECORD_BYTES);
+        ret.put("data", Base64.encodeToString(data, Base64.NO_WRAP));
+        call.resolve(ret);
+    }
+}
@@ -0,0 +1,111 @@
+package com.peja.app;
+
+/**
+ * Notices a live session's location subscription going quiet and says how
+ * to re-arm it.
+ *
+ * A service could stay up, wakelock held and notification claiming
+ * "Location Sharing Active", while fused had silently stopped delivering:
+ * the still heartbeat kept re-sending the anchor, so neither the viewers
+ * nor RestartPolicy saw anything wrong. Now each real delivery (fused or a
+ * platform provider; cached last-known and fingerprint fixes don't count)
+ * is reported here, and the service polls once per cadence. Once no fix
+ * has arrived for STALL_INTERVALS cadences it escalates one step every
+ * STEP_INTERVALS cadences: re-request fused, then add the platform
+ * providers, then ask for a single current location, repeating that last
+ * step until a fix comes back. At the 15s cadence the steps land at 45s,
+ * 75s and 105s, inside the two minutes after which the server and
+ * RestartPolicy would treat the session as dead.
+ *
+ * The fix that ends a stall records its length, for getDiagnostics().
+ *
+ * Not synchronized: each service keeps its own and feeds it from its
+ * tracking thread.
+ */
+final class FixStallDetector {
+
+    static final int STALL_INTERVALS = 3;
+    static final int STEP_INTERVALS = 2;
+
+    enum Step { NONE, REREQUEST_FUSED, ADD_PLATFORM, CURRENT_LOCATION }
+
+    private long lastFixMs;
+    private int stage = 0; // escalation steps taken in this stall
+    private long lastStepMs = 0L;
+    private int stalls = 0;
+    private long stalledMs = 0L;
+    private long longestStallMs = 0L;
+
+    FixStallDetector(long startMs) {
+        lastFixMs = startMs;
+    }
+
+    /** A fresh fix arrived; returns the length of the stall it ended, else 0. */
+    long onFix(long nowMs) {
+        long ended = 0L;
+        if (stage > 0) {
+            ended = Math.max(0L, nowMs - lastFixMs);
+            stalls++;
+            stalledMs += ended;
+            longestStallMs = Math.max(longestStallMs, ended);
+            stage = 0;
+        }
+        lastFixMs = nowMs;
+        return ended;
+    }
+
+    /** The next re-arm step due at {@code nowMs}, or NONE. */
+    Step poll(long nowMs, long cadenceMs) {
+        long silent = nowMs - lastFixMs;
+        if (silent < STALL_INTERVALS * cadenceMs) return Step.NONE;
+        if (stage > 0 && nowMs - lastStepMs < STEP_INTERVALS * cadenceMs) return Step.NONE;
+        stage++;
+        lastStepMs = nowMs;
+        switch (stage) {
+            case 1:
+                return Step.REREQUEST_FUSED;
+            case 2:
+                return Step.ADD_PLATFORM;
+            default:
+                return Step.CURRENT_LOCATION;
+        }
+    }
+
+    /**
+     * Location was switched on or off and the service re-registered fused
+     * and its platform listeners on the spot: inside a stall that covers
+     * the first two steps, so give it a full step before the next.
+     */
+    void onProvidersChanged(long nowMs) {
+        if (stage > 0) {
+            stage = Math.max(stage, 2);
+            lastStepMs = nowMs;
+        }
+    }
+
+    /** Whether the ladder has reached the platform providers in this stall. */
+    boolean wantsPlatform() {
+        return stage >= 2;
+    }
+
+    boolean isStalled() {
+        return stage > 0;
+    }
+
+    /** How long the current stall has lasted, 0 when fixes are arriving. */
+    long currentStallMs(long nowMs) {
+        return stage > 0 ? nowMs - lastFixMs : 0L;
+    }
+
+    int stalls() {
+        return stalls;
+    }
+
+    long stalledMs() {
+        return stalledMs;
+    }
+
+    long longestStallMs() {
+        return longestStallMs;
+    }
+}
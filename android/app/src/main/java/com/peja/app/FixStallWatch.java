@@ -0,0 +1,131 @@
+package com.peja.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Drives a FixStallDetector for one safety service: polls it once per
+ * cadence on its own handler, hands the steps to the service, and re-arms
+ * at once when location is switched on or off (PROVIDERS_CHANGED, or a
+ * platform listener's onProviderEnabled/Disabled), instead of waiting for
+ * the stall to be noticed.
+ *
+ * Everything runs on the service's TrackingThread looper, like its
+ * location callbacks, so the steps can touch their state directly.
+ */
+final class FixStallWatch {
+
+    interface Rearm {
+        void rerequestFused();
+
+        void addPlatformProviders();
+
+        void requestCurrentLocation();
+
+        /** Location was toggled: re-register fused and any platform listeners now. */
+        void reregister();
+    }
+
+    private static final String TAG = "FixStallWatch";
+
+    private final Context ctx;
+    private final String service;
+    private final FixStallDetector detector;
+    private final LongSupplier cadenceMs;
+    private final Rearm rearm;
+    private final Handler handler;
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+            handler.postDelayed(this, cadenceMs.getAsLong());
+        }
+    };
+    // Coalesces the broadcast and the listener callbacks for one toggle.
+    private final Runnable providersChanged = this::reregister;
+    private BroadcastReceiver receiver;
+
+    FixStallWatch(Context ctx, String service, FixStallDetector detector, LongSupplier cadenceMs,
+                  Rearm rearm, Looper looper) {
+        this.ctx = ctx;
+        this.handler = new Handler(looper);
+        this.service = service;
+        this.detector = detector;
+        this.cadenceMs = cadenceMs;
+        this.rearm = rearm;
+    }
+
+    void start() {
+        if (receiver != null) return;
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onProvidersChanged();
+            }
+        };
+        // A system broadcast, delivered to a not-exported receiver too, and
+        // on our looper rather than main.
+        ContextCompat.registerReceiver(ctx, receiver,
+                new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION), null, handler,
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+        handler.postDelayed(tick, cadenceMs.getAsLong());
+    }
+
+    void stop() {
+        handler.removeCallbacks(tick);
+        handler.removeCallbacks(providersChanged);
+        if (receiver == null) return;
+        try {
+            ctx.unregisterReceiver(receiver);
+        } catch (Exception e) {
+            Log.e(TAG, "Error unregistering providers receiver", e);
+        }
+        receiver = null;
+    }
+
+    /** A real fix arrived; returns the length of the stall it ended, else 0. */
+    long onFix(long nowMs) {
+        long ended = detector.onFix(nowMs);
+        if (ended > 0L) Log.i(TAG, service + ": fixes back after a " + ended / 1000L + "s stall");
+        return ended;
+    }
+
+    void onProvidersChanged() {
+        handler.removeCallbacks(providersChanged);
+        handler.post(providersChanged);
+    }
+
+    private void reregister() {
+        Log.d(TAG, service + ": location providers changed, re-registering");
+        detector.onProvidersChanged(System.currentTimeMillis());
+        rearm.reregister();
+    }
+
+    private void poll() {
+        long now = System.currentTimeMillis();
+        FixStallDetector.Step step = detector.poll(now, cadenceMs.getAsLong());
+        if (step == FixStallDetector.Step.NONE) return;
+        Log.w(TAG, service + ": no fix for " + detector.currentStallMs(now) / 1000L + "s, " + step);
+        switch (step) {
+            case REREQUEST_FUSED:
+                rearm.rerequestFused();
+                break;
+            case ADD_PLATFORM:
+                rearm.addPlatformProviders();
+                break;
+            default:
+                rearm.requestCurrentLocation();
+                break;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.peja.app;
+
+/**
+ * Distance, bearing and destination on a spherical Earth, shared by the
+ * location services and the pure helpers. Haversine used to be pasted into
+ * each service and ran on every fix on the main looper, recomputing the
+ * anchor's cosine each time.
+ *
+ * Two distance paths:
+ *  - equirectangular (flat-Earth around a latitude), for the sub-kilometre
+ *    checks that run per fix: anchor radius, arrival radius, hop length.
+ *    Within 1 km it agrees with haversine to a few centimetres below 70
+ *    degrees latitude; {@link Origin} caches the cosine for a fixed point;
+ *  - haversine, for anything longer.
+ * {@link #distanceM} picks between them. Both sit on the spherical model,
+ * so against the WGS84 ellipsoid (Vincenty) they are within 0.6%, far
+ * below the error of the fixes they measure.
+ */
+final class GeoMath {
+
+    /** IUGG mean Earth radius. */
+    static final double EARTH_R_M = 6_371_008.8d;
+    /** Metres per degree of latitude on that sphere. */
+    static final double M_PER_DEG = EARTH_R_M * Math.PI / 180d;
+    /** Spans up to about this many degrees (~1.1 km) take the flat path. */
+    private static final double FLAT_MAX_DEG = 0.01d;
+
+    private GeoMath() {}
+
+    /** Great-circle distance in metres. */
+    static double haversineM(double lat1, double lng1, double lat2, double lng2) {
+        double sLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sLng = Math.sin(Math.toRadians(lng2 - lng1) / 2);
+        double a = sLat * sLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sLng * sLng;
+        return 2 * EARTH_R_M * Math.asin(Math.min(1d, Math.sqrt(a)));
+    }
+
+    /** Flat-Earth distance in metres, scaled at the mean latitude. */
+    static double equirectM(double lat1, double lng1, double lat2, double lng2) {
+        return flatM(lat1, lng1, lat2, lng2, Math.cos(Math.toRadians((lat1 + lat2) / 2)));
+    }
+
+    /** Equirectangular when both points are within ~1 km, else haversine. */
+    static double distanceM(double lat1, double lng1, double lat2, double lng2) {
+        if (Math.abs(lat2 - lat1) < FLAT_MAX_DEG && Math.abs(lng2 - lng1) < FLAT_MAX_DEG) {
+            return equirectM(lat1, lng1, lat2, lng2);
+        }
+        return haversineM(lat1, lng1, lat2, lng2);
+    }
+
+    /** Initial great-circle bearing from 1 to 2, degrees clockwise from north [0, 360). */
+    static double bearingDeg(double lat1, double lng1, double lat2, double lng2) {
+        double p1 = Math.toRadians(lat1), p2 = Math.toRadians(lat2);
+        double dl = Math.toRadians(lng2 - lng1);
+        double y = Math.sin(dl) * Math.cos(p2);
+        double x = Math.cos(p1) * Math.sin(p2) - Math.sin(p1) * Math.cos(p2) * Math.cos(dl);
+        double deg = Math.toDegrees(Math.atan2(y, x));
+        return deg < 0d ? deg + 360d : deg;
+    }
+
+    /** The point {@code distanceM} along the great circle leaving at {@code bearingDeg}: {lat, lng}. */
+    static double[] destination(double lat, double lng, double bearingDeg, double distanceM) {
+        double p1 = Math.toRadians(lat), l1 = Math.toRadians(lng);
+        double th = Math.toRadians(bearingDeg), d = distanceM / EARTH_R_M;
+        double p2 = Math.asin(Math.sin(p1) * Math.cos(d) + Math.cos(p1) * Math.sin(d) * Math.cos(th));
+        double l2 = l1 + Math.atan2(Math.sin(th) * Math.sin(d) * Math.cos(p1),
+                Math.cos(d) - Math.sin(p1) * Math.sin(p2));
+        double lngDeg = (Math.toDegrees(l2) + 540d) % 360d - 180d;
+        return new double[]{Math.toDegrees(p2), lngDeg};
+    }
+
+    private static double flatM(double lat1, double lng1, double lat2, double lng2, double cosLat) {
+        double x = (lng2 - lng1) * cosLat;
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * M_PER_DEG;
+    }
+
+    /**
+     * A fixed point (a stillness anchor, an SOS) with its cosine computed
+     * once, for the per-fix "how far from here" checks. Falls back to
+     * haversine past ~1 km like {@link #distanceM}. Immutable.
+     */
+    static final class Origin {
+        final double lat, lng;
+        private final double cosLat;
+
+        Origin(double lat, double lng) {
+            this.lat = lat;
+            this.lng = lng;
+            this.cosLat = Math.cos(Math.toRadians(lat));
+        }
+
+        double distanceM(double toLat, double toLng) {
+            if (Math.abs(toLat - lat) < FLAT_MAX_DEG && Math.abs(toLng - lng) < FLAT_MAX_DEG) {
+                return flatM(lat, lng, toLat, toLng, cosLat);
+            }
+            return haversineM(lat, lng, toLat, toLng);
+        }
+    }
+}
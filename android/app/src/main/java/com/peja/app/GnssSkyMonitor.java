@@ -0,0 +1,102 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.location.GnssStatusCompat;
+import androidx.core.location.LocationManagerCompat;
+
+import java.util.Arrays;
+
+/**
+ * Feeds GnssStatus reports into a SkyViewClassifier for one safety service.
+ * The callback stays registered for the whole session; it only produces
+ * reports while something (fused high-accuracy or the GPS listener) has
+ * the chip searching, which is exactly when the classifier wants them.
+ *
+ * Callbacks arrive on the service's TrackingThread looper, like every
+ * other location callback in the services.
+ */
+final class GnssSkyMonitor {
+
+    interface Listener {
+        /** The sky view state flipped; re-apply the GPS policy. */
+        void onSkyChanged(SkyViewClassifier.State state);
+    }
+
+    private static final String TAG = "GnssSkyMonitor";
+
+    private final LocationManager locationManager;
+    private final SkyViewClassifier classifier;
+    private final Listener listener;
+    private final Handler handler;
+    private GnssStatusCompat.Callback callback;
+    // Reused across reports (about one a second) to keep the callback
+    // allocation-free.
+    private float[] cn0 = new float[64];
+
+    GnssSkyMonitor(Context ctx, SkyViewClassifier classifier, Listener listener, Looper looper) {
+        this.handler = new Handler(looper);
+        this.locationManager = (LocationManager) ctx.getSystemService(Context.LOCATION_SERVICE);
+        this.classifier = classifier;
+        this.listener = listener;
+    }
+
+    void start() {
+        if (callback != null || locationManager == null) return;
+        callback = new GnssStatusCompat.Callback() {
+            @Override
+            public void onSatelliteStatusChanged(GnssStatusCompat status) {
+                onStatus(status);
+            }
+        };
+        try {
+            if (!LocationManagerCompat.registerGnssStatusCallback(locationManager, callback, handler)) {
+                Log.w(TAG, "GnssStatus callback not available; sky view stays OPEN");
+                callback = null;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission denied (gnss status)", e);
+            callback = null;
+        }
+    }
+
+    void stop() {
+        if (callback == null) return;
+        try {
+            LocationManagerCompat.unregisterGnssStatusCallback(locationManager, callback);
+        } catch (Exception e) {
+            Log.e(TAG, "Error unregistering GnssStatus callback", e);
+        }
+        callback = null;
+    }
+
+    private void onStatus(GnssStatusCompat status) {
+        // A report from a chip we've told to rest is another client's
+        // search (maps, the OS); it says nothing about our own request.
+        if (!classifier.isGpsOn()) return;
+        int count = status.getSatelliteCount();
+        if (cn0.length < count) cn0 = new float[count];
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            if (status.usedInFix(i)) used++;
+            cn0[i] = status.getCn0DbHz(i);
+        }
+        // Mean of the strongest TOP_N signals, used-in-fix or not: a chip
+        // still acquiring has none in the fix yet, but strong signals mean
+        // it will have soon.
+        Arrays.sort(cn0, 0, count);
+        int n = Math.min(SkyViewClassifier.TOP_N, count);
+        float sum = 0f;
+        for (int i = count - n; i < count; i++) sum += cn0[i];
+        float topCn0 = n > 0 ? sum / n : 0f;
+        if (classifier.onStatus(System.currentTimeMillis(), used, topCn0)) {
+            Log.d(TAG, "Sky view " + classifier.state() + " (" + used + " used, top C/N0 "
+                    + Math.round(topCn0) + " dB-Hz)");
+            listener.onSkyChanged(classifier.state());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.peja.app;
+
+import com.google.android.gms.location.Priority;
+
+/**
+ * Helper-mode location cadence by how far the helper still has to go. A
+ * helper 12 km out used to run the activator's 15s high-accuracy request
+ * for up to five hours, though nobody needs their position to the metre
+ * until they're close. The bands, picked from the status poll (which
+ * already returns the SOS position) and the helper's ETA:
+ *
+ *   FAR   beyond 5 km and more than 15 min out: 60s, balanced power.
+ *   MID   1.5-5 km or 5-15 min out:             30s, high accuracy.
+ *   NEAR  within 1.5 km or under 5 min out:     15s, high accuracy
+ *         (the activator's cadence; arrival detection needs it).
+ *
+ * Whichever of distance and ETA asks for the faster band wins, so a helper
+ * on a motorway is promoted early. Promotion is immediate; demotion needs
+ * the helper to be DEMOTE_MARGIN beyond the boundary, so GPS noise or a
+ * wobbling ETA at a boundary can't flap the request.
+ */
+enum HelperCadenceBand {
+
+    //    interval  priority
+    NEAR (15_000L, Priority.PRIORITY_HIGH_ACCURACY),
+    MID  (30_000L, Priority.PRIORITY_HIGH_ACCURACY),
+    FAR  (60_000L, Priority.PRIORITY_BALANCED_POWER_ACCURACY);
+
+    static final double NEAR_MAX_M = 1_500d;
+    static final double MID_MAX_M = 5_000d;
+    static final long NEAR_MAX_ETA_S = 5 * 60L;
+    static final long MID_MAX_ETA_S = 15 * 60L;
+    /** Demote only this far (relative) past a boundary. */
+    static final double DEMOTE_MARGIN = 0.2d;
+
+    final long intervalMs;
+    final int priority;
+
+    HelperCadenceBand(long intervalMs, int priority) {
+        this.intervalMs = intervalMs;
+        this.priority = priority;
+    }
+
+    boolean isHighAccuracy() {
+        return priority == Priority.PRIORITY_HIGH_ACCURACY;
+    }
+
+    /** Band for a distance and ETA (negative ETA = unknown), no hysteresis. */
+    static HelperCadenceBand forApproach(double distanceM, long etaSeconds, double margin) {
+        boolean etaKnown = etaSeconds >= 0L;
+        if (distanceM <= NEAR_MAX_M * (1 + margin)
+                || etaKnown && etaSeconds <= NEAR_MAX_ETA_S * (1 + margin)) return NEAR;
+        if (distanceM <= MID_MAX_M * (1 + margin)
+                || etaKnown && etaSeconds <= MID_MAX_ETA_S * (1 + margin)) return MID;
+        return FAR;
+    }
+
+    /**
+     * Tracks the current band across status polls. Callers re-register
+     * their LocationRequest only when onPoll returns true. Synchronized:
+     * polls complete on network threads, the band is read on the SOS
+     * service's tracking thread.
+     */
+    static final class Selector {
+        // Start NEAR: before the first poll we don't know the distance, and
+        // a helper who just accepted may be around the corner.
+        private HelperCadenceBand current = NEAR;
+
+        synchronized HelperCadenceBand current() {
+            return current;
+        }
+
+        /** Returns true when the band changed. */
+        synchronized boolean onPoll(double distanceM, long etaSeconds) {
+            HelperCadenceBand plain = forApproach(distanceM, etaSeconds, 0d);
+            HelperCadenceBand next;
+            if (plain.ordinal() < current.ordinal()) {
+                next = plain; // promote immediately
+            } else {
+                // Demote only as far as the widened boundaries allow.
+                HelperCadenceBand sticky = forApproach(distanceM, etaSeconds, DEMOTE_MARGIN);
+                next = sticky.ordinal() > current.ordinal() ? sticky : current;
+            }
+            if (next == current) return false;
+            current = next;
+            return true;
+        }
+    }
+}
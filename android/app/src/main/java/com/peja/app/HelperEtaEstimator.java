@@ -0,0 +1,183 @@
+package com.peja.app;
+
+/**
+ * ETA and arrival for a helper heading to an SOS.
+ *
+ * The old rule was straight-line distance at a fixed 30 km/h, with arrival
+ * declared at the first fix within 300m. That told the person in danger a
+ * walker 2 km out was 4 minutes away, and one multipath fix could end the
+ * helper's tracking while they were still streets away.
+ *
+ * What this keeps instead, in a primitive ring buffer of recent fixes:
+ *  - a smoothed ground speed: EWMA over speed derived across the whole
+ *    buffer (never from one pair of fixes, whose noise dominates at
+ *    walking pace), with chipset speed standing in until the buffer spans
+ *    enough time;
+ *  - a closing rate: how fast the straight-line distance to the SOS is
+ *    actually shrinking, which already folds in the road network's twists
+ *    and red lights.
+ *
+ * The ETA is road distance (straight x DETOUR_FACTOR) at our speed, or the
+ * straight distance at our closing rate when that is faster, i.e. when the
+ * helper is on a road more direct than the detour model assumes. Arrival needs
+ * ARRIVAL_FIXES consecutive in-radius fixes or ARRIVAL_DWELL_MS inside the
+ * radius, and only a fix beyond EXIT_RADIUS_M resets the count.
+ *
+ * Synchronized: the service feeds it from its per-fix network threads.
+ */
+final class HelperEtaEstimator {
+
+    static final int CAPACITY = 16;
+    /** Typical road-vs-crow distance ratio in a city street grid. */
+    static final double DETOUR_FACTOR = 1.35d;
+    /** Speed assumed before any history, the old fixed rate (30 km/h). */
+    static final double PRIOR_SPEED_MPS = 30d / 3.6d;
+    /** Floor so a helper standing at a junction doesn't get an endless ETA. */
+    static final double MIN_SPEED_MPS = 1.0d;
+    static final double SPEED_ALPHA = 0.3d;
+    /** Closing rates below this are noise, not approach. */
+    static final double MIN_CLOSING_MPS = 0.5d;
+    /** Closing rate needs at least this much history; it uses all there is. */
+    static final long CLOSING_WINDOW_MS = 60_000L;
+    /** Fixes worse than this don't feed speed or closing rate. */
+    static final float MAX_MOTION_ACCURACY_M = 100f;
+
+    static final double ARRIVAL_RADIUS_M = 300d;
+    static final double EXIT_RADIUS_M = 400d;
+    static final int ARRIVAL_FIXES = 3;
+    static final long ARRIVAL_DWELL_MS = 45_000L;
+
+    // Ring buffer of accepted fixes.
+    private final long[] tMs = new long[CAPACITY];
+    private final double[] lat = new double[CAPACITY];
+    private final double[] lng = new double[CAPACITY];
+    private final double[] distM = new double[CAPACITY];
+    private int head = 0; // next write slot
+    private int count = 0;
+
+    private double speedMps = Double.NaN;
+    private double closingMps = Double.NaN;
+    private double lastDistM = Double.NaN;
+
+    private int inRadiusFixes = 0;
+    private long inRadiusSinceMs = 0L;
+    private boolean arrived = false;
+
+    /**
+     * Feed one helper fix and the SOS position as the last status poll saw
+     * it (the activator may be moving too). {@code chipsetSpeedMps} is null
+     * when the fix has none.
+     */
+    synchronized void onFix(long nowMs, double helperLat, double helperLng, float accuracyM,
+                            Double chipsetSpeedMps, double sosLat, double sosLng) {
+        double d = GeoMath.distanceM(helperLat, helperLng, sosLat, sosLng);
+        lastDistM = d;
+        updateArrival(nowMs, d, accuracyM);
+        if (accuracyM > MAX_MOTION_ACCURACY_M) return;
+
+        if (count > 0 && nowMs <= tMs[prevSlot(0)]) return; // duplicate/out-of-order
+        tMs[head] = nowMs;
+        lat[head] = helperLat;
+        lng[head] = helperLng;
+        distM[head] = d;
+        head = (head + 1) % CAPACITY;
+        if (count < CAPACITY) count++;
+
+        // Speed across the buffer (up to four minutes) first: it averages
+        // in red lights and junctions, which is what an ETA needs. The
+        // chipset's instantaneous value only bridges the first fixes.
+        Double sample = derivedSpeedMps();
+        if (sample == null && chipsetSpeedMps != null && chipsetSpeedMps >= 0d) sample = chipsetSpeedMps;
+        if (sample != null && sample < 70d) { // >250 km/h is a teleport
+            speedMps = Double.isNaN(speedMps) ? sample : speedMps + SPEED_ALPHA * (sample - speedMps);
+        }
+        // Already a multi-minute average; smoothing it again only makes it
+        // lag at every corner, where the straight-line geometry shifts.
+        Double closing = closingRateMps();
+        if (closing != null) closingMps = closing;
+    }
+
+    /** Seconds to arrival, never below one minute's worth of rounding. */
+    synchronized long etaSeconds() {
+        if (Double.isNaN(lastDistM)) return -1L;
+        double speed = Double.isNaN(speedMps) ? PRIOR_SPEED_MPS : Math.max(MIN_SPEED_MPS, speedMps);
+        // Straight-line progress rate: the detour model, unless the helper
+        // is demonstrably closing faster than that (a direct road). A slow
+        // closing rate is NOT trusted: on a street grid the leg running
+        // across the bearing closes slowly and the next leg makes it up.
+        double progress = speed / DETOUR_FACTOR;
+        if (!Double.isNaN(closingMps) && closingMps >= MIN_CLOSING_MPS) {
+            progress = Math.max(progress, closingMps);
+        }
+        return Math.round(lastDistM / progress);
+    }
+
+    /** ETA rounded up to whole minutes, at least 1, for the notification. */
+    synchronized long etaMinutes() {
+        long s = etaSeconds();
+        return s < 0L ? -1L : Math.max(1L, (s + 59L) / 60L);
+    }
+
+    synchronized boolean hasArrived() {
+        return arrived;
+    }
+
+    synchronized double distanceM() {
+        return lastDistM;
+    }
+
+    synchronized double speedMps() {
+        return speedMps;
+    }
+
+    synchronized double closingMps() {
+        return closingMps;
+    }
+
+    private void updateArrival(long nowMs, double d, float accuracyM) {
+        if (arrived) return;
+        // A fix whose own uncertainty is wider than the radius can't vouch
+        // for being inside it.
+        if (d <= ARRIVAL_RADIUS_M && accuracyM <= ARRIVAL_RADIUS_M) {
+            if (inRadiusFixes++ == 0) inRadiusSinceMs = nowMs;
+            if (inRadiusFixes >= ARRIVAL_FIXES || nowMs - inRadiusSinceMs >= ARRIVAL_DWELL_MS) {
+                arrived = true;
+            }
+        } else if (d > EXIT_RADIUS_M) {
+            inRadiusFixes = 0;
+            inRadiusSinceMs = 0L;
+        }
+    }
+
+    /** Path length over the whole buffer divided by its time span. */
+    private Double derivedSpeedMps() {
+        if (count < 3) return null;
+        int oldest = prevSlot(count - 1);
+        long dt = tMs[prevSlot(0)] - tMs[oldest];
+        if (dt < 20_000L) return null;
+        double path = 0d;
+        for (int i = count - 1; i > 0; i--) {
+            int a = prevSlot(i), b = prevSlot(i - 1);
+            path += GeoMath.distanceM(lat[a], lng[a], lat[b], lng[b]);
+        }
+        // Summing hops also sums their jitter; the net displacement is a
+        // floor, so take the mean of the two at walking-pace noise levels.
+        int newest = prevSlot(0);
+        double net = GeoMath.distanceM(lat[oldest], lng[oldest], lat[newest], lng[newest]);
+        return (path + net) / 2d / (dt / 1000d);
+    }
+
+    /** Drop in distance-to-SOS per second across the whole buffer. */
+    private Double closingRateMps() {
+        if (count < 2) return null;
+        int newest = prevSlot(0), oldest = prevSlot(count - 1);
+        long dt = tMs[newest] - tMs[oldest];
+        if (dt < CLOSING_WINDOW_MS) return null;
+        return (distM[oldest] - distM[newest]) / (dt / 1000d);
+    }
+
+    /** Slot of the i-th most recent fix (0 = newest). */
+    private int prevSlot(int i) {
+        return ((head - 1 - i) % CAPACITY + CAPACITY) % CAPACITY;
+    }
+}
@@ -0,0 +1,233 @@
+package com.peja.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One provider subscription shared by every session that wants fixes from
+ * it. SOS, SML and ambient each used to register their own fused request
+ * (and SML its own GPS and network listeners), so an SML check-in with
+ * ambient on and an SOS underway was three subscriptions driving one GNSS
+ * chip at the strictest one's pace, and every fix went through three
+ * Play services callbacks. Now each session states its Demand here and
+ * the provider is registered once, for the merged demand: the best
+ * priority, the shortest interval, minimum interval and batching delay,
+ * and the smallest distance filter. It is re-registered only when that
+ * merge changes, and removed with the last consumer.
+ *
+ * Every fix is offered once and goes to each consumer whose own demand it
+ * satisfies, the way the provider would have gated it for that consumer:
+ * no sooner than the consumer's minimum interval (less EARLY_MS of
+ * delivery jitter) after the last fix it got, and only past its distance
+ * filter; a fix re-delivered after a re-arm is not a new one. A 10-minute
+ * ambient profile therefore still sees one fix per 10 minutes while SOS
+ * runs at 15s beside it; sessions keep their own accuracy gates and
+ * throttles downstream.
+ *
+ * LocationHub is the Android side. Synchronized: sessions join and leave
+ * from their own tracking threads while fixes arrive on the hub's.
+ */
+final class LocationFanout<F> {
+
+    /** What one consumer would have asked the provider for. */
+    static final class Demand {
+        /** A Priority constant; lower is stricter (HIGH_ACCURACY is 100). */
+        final int priority;
+        final long intervalMs;
+        final long minIntervalMs;
+        final long maxDelayMs;
+        final float minDistanceM;
+
+        Demand(int priority, long intervalMs, long minIntervalMs, long maxDelayMs, float minDistanceM) {
+            this.priority = priority;
+            this.intervalMs = intervalMs;
+            this.minIntervalMs = minIntervalMs;
+            this.maxDelayMs = maxDelayMs;
+            this.minDistanceM = minDistanceM;
+        }
+
+        /**
+         * SOS and SML's request: interval == minInterval == maxDelay, no
+         * distance filter, so a fix arrives every cadence even standing still.
+         */
+        static Demand pinned(int priority, long cadenceMs) {
+            return new Demand(priority, cadenceMs, cadenceMs, cadenceMs, 0f);
+        }
+
+        /** The strictest of both, field by field. */
+        Demand merge(Demand other) {
+            return new Demand(Math.min(priority, other.priority),
+                    Math.min(intervalMs, other.intervalMs),
+                    Math.min(minIntervalMs, other.minIntervalMs),
+                    Math.min(maxDelayMs, other.maxDelayMs),
+                    Math.min(minDistanceM, other.minDistanceM));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Demand)) return false;
+            Demand d = (Demand) o;
+            return priority == d.priority && intervalMs == d.intervalMs
+                    && minIntervalMs == d.minIntervalMs && maxDelayMs == d.maxDelayMs
+                    && Float.compare(minDistanceM, d.minDistanceM) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = priority;
+            h = 31 * h + Long.hashCode(intervalMs);
+            h = 31 * h + Long.hashCode(minIntervalMs);
+            h = 31 * h + Long.hashCode(maxDelayMs);
+            return 31 * h + Float.floatToIntBits(minDistanceM);
+        }
+
+        @Override
+        public String toString() {
+            return "Demand{priority=" + priority + ", interval=" + intervalMs + ", min=" + minIntervalMs
+                    + ", maxDelay=" + maxDelayMs + ", distance=" + minDistanceM + "}";
+        }
+    }
+
+    /** The platform subscription, touched only when the merged demand changes. */
+    interface Provider {
+        void request(Demand merged);
+
+        void remove();
+    }
+
+    /** A session's end of the subscription. */
+    interface Sink<F> {
+        void deliver(F fix);
+    }
+
+    /** How early against a consumer's minimum interval a fix may land. */
+    static final long EARLY_MS = 2_000L;
+
+    private static final class Slot {
+        Demand demand;
+        boolean delivered;
+        long lastTimeMs;
+        double lastLat;
+        double lastLng;
+
+        Slot(Demand demand) {
+            this.demand = demand;
+        }
+    }
+
+    private final Provider provider;
+    private final Map<Sink<F>, Slot> consumers = new LinkedHashMap<>();
+    private Demand registered;
+
+    private int registrations = 0;
+    private long offered = 0L;
+    private long delivered = 0L;
+    private long gated = 0L;
+
+    LocationFanout(Provider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Join, or change what this consumer asks for. Re-registers the
+     * provider only if the merged demand changed.
+     */
+    synchronized void set(Sink<F> sink, Demand demand) {
+        Slot slot = consumers.get(sink);
+        if (slot == null) consumers.put(sink, new Slot(demand));
+        else slot.demand = demand;
+        apply(false);
+    }
+
+    /** Leave; the last consumer out removes the subscription. */
+    synchronized void remove(Sink<F> sink) {
+        if (consumers.remove(sink) != null) apply(false);
+    }
+
+    /** Drop and re-add the subscription as is (the stall ladder's re-arm). */
+    synchronized void rearm() {
+        if (registered == null) return;
+        provider.remove();
+        registered = null;
+        apply(true);
+    }
+
+    synchronized boolean has(Sink<F> sink) {
+        return consumers.containsKey(sink);
+    }
+
+    /** The demand currently registered, or null when there is none. */
+    synchronized Demand registered() {
+        return registered;
+    }
+
+    /**
+     * A fix from the provider: hands it to every consumer it satisfies.
+     * Sinks are called with the fanout locked, so they should only post.
+     */
+    synchronized int offer(F fix, long timeMs, double lat, double lng) {
+        offered++;
+        int to = 0;
+        for (Map.Entry<Sink<F>, Slot> e : consumers.entrySet()) {
+            Slot slot = e.getValue();
+            if (!accepts(slot, timeMs, lat, lng)) {
+                gated++;
+                continue;
+            }
+            slot.delivered = true;
+            slot.lastTimeMs = timeMs;
+            slot.lastLat = lat;
+            slot.lastLng = lng;
+            e.getKey().deliver(fix);
+            to++;
+        }
+        delivered += to;
+        return to;
+    }
+
+    synchronized int consumers() {
+        return consumers.size();
+    }
+
+    /** Times the provider was asked for updates (each one an IPC). */
+    synchronized int registrations() {
+        return registrations;
+    }
+
+    synchronized long offered() {
+        return offered;
+    }
+
+    synchronized long delivered() {
+        return delivered;
+    }
+
+    /** Offers a consumer didn't take: inside its interval or distance filter. */
+    synchronized long gated() {
+        return gated;
+    }
+
+    private void apply(boolean force) {
+        if (consumers.isEmpty()) {
+            if (registered != null) provider.remove();
+            registered = null;
+            return;
+        }
+        Demand merged = null;
+        for (Slot slot : consumers.values()) {
+            merged = merged == null ? slot.demand : merged.merge(slot.demand);
+        }
+        if (!force && merged.equals(registered)) return;
+        registered = merged;
+        registrations++;
+        provider.request(merged);
+    }
+
+    private static boolean accepts(Slot slot, long timeMs, double lat, double lng) {
+        if (!slot.delivered) return true;
+        long gap = timeMs - slot.lastTimeMs;
+        if (gap <= 0L || gap < slot.demand.minIntervalMs - EARLY_MS) return false;
+        return slot.demand.minDistanceM <= 0f
+                || GeoMath.distanceM(slot.lastLat, slot.lastLng, lat, lng) >= slot.demand.minDistanceM;
+    }
+}
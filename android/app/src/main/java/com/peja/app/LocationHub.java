@@ -0,0 +1,264 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * The :tracker process's location subscriptions, shared by the three
+ * services: one fused request, one GPS and one network listener, each a
+ * LocationFanout that registers the strictest demand among the sessions
+ * on it and gates every fix per session. Callbacks arrive on the hub's own
+ * thread and each accepted fix is posted to the session's executor (its
+ * TrackingThread), so a session still sees all of its location state on
+ * its own thread.
+ *
+ * One-shot requests (getCurrentLocation, getLastLocation) and ambient's
+ * passive-provider fallback stay with the services: they don't hold a
+ * subscription.
+ */
+final class LocationHub {
+
+    /** A session's callbacks, run on the executor it joined with. */
+    interface Client {
+        void onFix(Location location, String source);
+
+        /** A platform provider was switched on or off. */
+        void onProvidersChanged();
+
+        /** Play services refused the fused request. */
+        void onUnavailable(Exception e);
+    }
+
+    static final int FUSED = 0;
+    static final int GPS = 1;
+    static final int NETWORK = 2;
+    private static final String[] SOURCES = {"fused", "gps", "network"};
+
+    private static final String TAG = "LocationHub";
+
+    private static LocationHub instance;
+
+    private final TrackingThread thread = new TrackingThread("peja-location-hub");
+    private final FusedLocationProviderClient fusedClient;
+    private final LocationManager locationManager;
+    private final LocationFanout<Location>[] channels;
+    private final Map<Client, Route[]> routes = new ConcurrentHashMap<>();
+
+    private final LocationCallback fusedCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult result) {
+            if (result == null) return;
+            // A batch when every session on it allows batching (ambient alone).
+            for (Location loc : result.getLocations()) {
+                if (loc != null) offer(FUSED, loc);
+            }
+        }
+    };
+
+    static synchronized LocationHub get(Context ctx) {
+        if (instance == null) instance = new LocationHub(ctx.getApplicationContext());
+        return instance;
+    }
+
+    /** Per-channel counters, or null before any session has joined. */
+    static synchronized JSObject diagnostics() {
+        if (instance == null) return null;
+        JSObject out = new JSObject();
+        for (int c = 0; c < SOURCES.length; c++) {
+            LocationFanout<Location> fanout = instance.channels[c];
+            JSObject ch = new JSObject();
+            ch.put("consumers", fanout.consumers());
+            ch.put("registrations", fanout.registrations());
+            ch.put("fixesReceived", fanout.offered());
+            ch.put("fixesDelivered", fanout.delivered());
+            ch.put("fixesGated", fanout.gated());
+            out.put(SOURCES[c], ch);
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private LocationHub(Context ctx) {
+        fusedClient = LocationServices.getFusedLocationProviderClient(ctx);
+        locationManager = (LocationManager) ctx.getSystemService(Context.LOCATION_SERVICE);
+        channels = new LocationFanout[]{
+                new LocationFanout<>(new FusedProvider()),
+                new LocationFanout<>(new PlatformProvider(GPS, LocationManager.GPS_PROVIDER)),
+                new LocationFanout<>(new PlatformProvider(NETWORK, LocationManager.NETWORK_PROVIDER)),
+        };
+    }
+
+    /**
+     * Join {@code channel}, or change the demand on it. Fixes and callbacks
+     * go to {@code executor}; a client uses the same one on every channel.
+     */
+    void request(int channel, Client client, Executor executor, LocationFanout.Demand demand) {
+        Route[] r = routes.computeIfAbsent(client, c -> new Route[SOURCES.length]);
+        if (r[channel] == null) r[channel] = new Route(client, executor, SOURCES[channel]);
+        channels[channel].set(r[channel], demand);
+    }
+
+    void remove(int channel, Client client) {
+        Route[] r = routes.get(client);
+        if (r != null && r[channel] != null) channels[channel].remove(r[channel]);
+    }
+
+    /** Leave every channel (a service's teardown). */
+    void removeAll(Client client) {
+        Route[] r = routes.remove(client);
+        if (r == null) return;
+        for (int c = 0; c < r.length; c++) {
+            if (r[c] != null) channels[c].remove(r[c]);
+        }
+    }
+
+    boolean has(int channel, Client client) {
+        Route[] r = routes.get(client);
+        return r != null && r[channel] != null && channels[channel].has(r[channel]);
+    }
+
+    /** Drop and re-add the channel's subscription for everyone on it. */
+    void rearm(int channel) {
+        channels[channel].rearm();
+    }
+
+    private void offer(int channel, Location loc) {
+        channels[channel].offer(loc, loc.getTime(), loc.getLatitude(), loc.getLongitude());
+    }
+
+    /** Every client on {@code channel}, posted to its own executor. */
+    private void notifyClients(int channel, ClientCall call) {
+        for (Route[] r : routes.values()) {
+            Route route = r[channel];
+            if (route != null && channels[channel].has(route)) {
+                route.executor.execute(() -> call.run(route.client));
+            }
+        }
+    }
+
+    private interface ClientCall {
+        void run(Client client);
+    }
+
+    /** One client on one channel: the fanout's sink. */
+    private static final class Route implements LocationFanout.Sink<Location> {
+        final Client client;
+        final Executor executor;
+        final String source;
+
+        Route(Client client, Executor executor, String source) {
+            this.client = client;
+            this.executor = executor;
+            this.source = source;
+        }
+
+        @Override
+        public void deliver(Location fix) {
+            executor.execute(() -> client.onFix(fix, source));
+        }
+    }
+
+    private final class FusedProvider implements LocationFanout.Provider {
+        @Override
+        public void request(LocationFanout.Demand d) {
+            LocationRequest request = new LocationRequest.Builder(d.priority, d.intervalMs)
+                    .setMinUpdateIntervalMillis(d.minIntervalMs)
+                    .setMaxUpdateDelayMillis(d.maxDelayMs)
+                    .setMinUpdateDistanceMeters(d.minDistanceM)
+                    .build();
+            Log.d(TAG, "Fused request " + d);
+            try {
+                // Re-requesting with the same callback replaces the request in place.
+                fusedClient.requestLocationUpdates(request, fusedCallback, thread.looper())
+                        .addOnFailureListener(thread.executor, e -> {
+                            Log.e(TAG, "Fused requestLocationUpdates failed", e);
+                            notifyClients(FUSED, c -> c.onUnavailable(e));
+                        });
+            } catch (SecurityException e) {
+                Log.e(TAG, "Location permission denied (fused)", e);
+                // Called with the fanout locked: report from the hub thread.
+                thread.handler.post(() -> notifyClients(FUSED, c -> c.onUnavailable(e)));
+            }
+        }
+
+        @Override
+        public void remove() {
+            try {
+                fusedClient.removeLocationUpdates(fusedCallback);
+            } catch (Exception e) {
+                Log.e(TAG, "Error removing fused updates", e);
+            }
+        }
+    }
+
+    private final class PlatformProvider implements LocationFanout.Provider, LocationListener {
+        private final int channel;
+        private final String provider;
+
+        PlatformProvider(int channel, String provider) {
+            this.channel = channel;
+            this.provider = provider;
+        }
+
+        @Override
+        public void request(LocationFanout.Demand d) {
+            if (locationManager == null) return;
+            try {
+                locationManager.removeUpdates(this);
+                if (locationManager.isProviderEnabled(provider)) {
+                    locationManager.requestLocationUpdates(provider, d.intervalMs, d.minDistanceM,
+                            this, thread.looper());
+                }
+            } catch (SecurityException e) {
+                Log.e(TAG, "Location permission denied (" + provider + ")", e);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to start " + provider + " updates", e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (locationManager == null) return;
+            try {
+                locationManager.removeUpdates(this);
+            } catch (Exception e) {
+                Log.e(TAG, "Error removing " + provider + " updates", e);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Location location) {
+            if (location != null) offer(channel, location);
+        }
+
+        // Required no-op override for older API levels.
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            notifyClients(channel, Client::onProvidersChanged);
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            notifyClients(channel, Client::onProvidersChanged);
+        }
+    }
+}
@@ -23,6 +23,8 @@ public class MainActivity extends BridgeActivity {
         // Battery-optimization + background-location helpers used by the
         // top banner and the session-start readiness prompt.
         registerPlugin(DeviceSettingsPlugin.class);
+        // Recent on-device fixes for the map's first paint.
+        registerPlugin(FixJournalPlugin.class);
 
         // Read the user's saved theme (written by the web layer via
         // @capacitor/preferences, which stores under the "CapacitorStorage"
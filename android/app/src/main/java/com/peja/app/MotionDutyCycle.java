@@ -0,0 +1,95 @@
+package com.peja.app;
+
+/**
+ * Stationary-aware GPS duty cycling for the safety services (SOS + SML).
+ *
+ * Both services used to pin PRIORITY_HIGH_ACCURACY at 15s for hours, even
+ * with the phone lying on a table at home, which made them the biggest
+ * battery drain in the app. This state machine sits on top of the existing
+ * stillness anchor (30m, see SMLLocationService) and decides when the GNSS
+ * chip can rest:
+ *
+ *  - MOVING: high-accuracy fused request at the normal 15s cadence.
+ *  - STILL: the anchor has held for STILL_DWELL_MS with no real speed. The
+ *    service drops to a balanced-power (Wi-Fi/cell) request, still at 15s,
+ *    and keeps its 15s heartbeat by re-sending the anchored position and
+ *    still_since. Viewers see exactly what they saw before.
+ *
+ * Leaving STILL has to be fast, because "the user started moving" is the
+ * moment a safety session matters most. Any one of these flips back to
+ * MOVING, and the high-accuracy request then lands within one interval:
+ *  - chipset speed above STILL_MAX_SPEED_KMH,
+ *  - a fix whose accuracy circle sits entirely outside the anchor radius
+ *    (a 120m network fix 60m from the anchor is NOT movement),
+ *  - the accelerometer / significant-motion sensor firing.
+ */
+final class MotionDutyCycle {
+
+    enum State { MOVING, STILL }
+
+    /** How long the anchor must hold before the GNSS chip is released. */
+    static final long STILL_DWELL_MS = 120_000L;
+    /** Chipset speed above this means real movement, not GPS jitter. */
+    static final double STILL_MAX_SPEED_KMH = 5d;
+    /** Same radius as the stillness anchor the services already keep. */
+    static final double ANCHOR_RADIUS_M = 30d;
+
+    private State state = State.MOVING;
+    private long stateSinceMs;
+    // GPS-on accounting: time spent in MOVING (high accuracy) since start.
+    private long gpsOnAccumMs = 0L;
+
+    MotionDutyCycle(long nowMs) {
+        stateSinceMs = nowMs;
+    }
+
+    State state() {
+        return state;
+    }
+
+    boolean isStill() {
+        return state == State.STILL;
+    }
+
+    /**
+     * Feed an accepted fix. {@code distFromAnchorM} is measured against the
+     * anchor as it stood BEFORE this fix could replant it; {@code speedKmh}
+     * is null when unknown. Returns true when the state changed, i.e. the
+     * caller must re-register its location request.
+     */
+    boolean onFix(long nowMs, double distFromAnchorM, float accuracyM,
+                  Double speedKmh, long anchorAtMs) {
+        boolean fast = speedKmh != null && speedKmh > STILL_MAX_SPEED_KMH;
+        if (state == State.STILL) {
+            boolean outside = distFromAnchorM - accuracyM > ANCHOR_RADIUS_M;
+            if (fast || outside) return transition(State.MOVING, nowMs);
+            return false;
+        }
+        if (!fast && anchorAtMs > 0L && nowMs - anchorAtMs >= STILL_DWELL_MS) {
+            return transition(State.STILL, nowMs);
+        }
+        return false;
+    }
+
+    /** Motion sensor fired. Returns true when the state changed. */
+    boolean onMotionDetected(long nowMs) {
+        if (state != State.STILL) return false;
+        return transition(State.MOVING, nowMs);
+    }
+
+    /** Total milliseconds the high-accuracy request has been active. */
+    long gpsOnMs(long nowMs) {
+        return state == State.MOVING
+                ? gpsOnAccumMs + Math.max(0L, nowMs - stateSinceMs)
+                : gpsOnAccumMs;
+    }
+
+    private boolean transition(State next, long nowMs) {
+        if (state == State.MOVING) {
+            gpsOnAccumMs += Math.max(0L, nowMs - stateSinceMs);
+        }
+        state = next;
+        stateSinceMs = nowMs;
+        return true;
+    }
+}
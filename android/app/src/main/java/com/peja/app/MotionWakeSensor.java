@@ -0,0 +1,138 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * "The phone started moving" signal for services that have let the GNSS chip
+ * rest. Armed only while a service sits in a low-power state, so the cost is
+ * paid only when it saves far more.
+ *
+ * Prefers Sensor.TYPE_SIGNIFICANT_MOTION: a one-shot wake-up trigger
+ * evaluated in the sensor hub, effectively free. Many low-end devices don't
+ * ship it, so the fallback is the raw accelerometer at SENSOR_DELAY_NORMAL
+ * with a small jolt counter (a phone being picked up and carried shows
+ * repeated deviations from 1g; a table knock does not).
+ *
+ * The listener is called on the looper the owner passes in (its
+ * TrackingThread), at most once per arm() call. The accelerometer delivers
+ * there directly; the trigger sensor can only call back on main, so its
+ * event is posted over.
+ */
+final class MotionWakeSensor {
+
+    interface Listener {
+        void onMotion();
+    }
+
+    private static final String TAG = "MotionWakeSensor";
+
+    // Accelerometer fallback: |a| deviating from 1g by more than this
+    // (m/s^2) counts as a jolt; JOLTS_TO_FIRE jolts inside JOLT_WINDOW_MS
+    // means the phone is being carried.
+    private static final float JOLT_THRESHOLD = 1.5f;
+    private static final int JOLTS_TO_FIRE = 4;
+    private static final long JOLT_WINDOW_MS = 3_000L;
+
+    private final SensorManager sensorManager;
+    private final Listener listener;
+    private final Handler handler;
+    private boolean armed = false;
+
+    private TriggerEventListener triggerListener;
+    private SensorEventListener accelListener;
+    private int jolts = 0;
+    private long joltWindowStartMs = 0L;
+
+    MotionWakeSensor(Context ctx, Listener listener, Looper looper) {
+        this.sensorManager = (SensorManager) ctx.getSystemService(Context.SENSOR_SERVICE);
+        this.listener = listener;
+        this.handler = new Handler(looper);
+    }
+
+    boolean isArmed() {
+        return armed;
+    }
+
+    void arm() {
+        if (armed || sensorManager == null) return;
+        try {
+            Sensor sig = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+            if (sig != null) {
+                triggerListener = new TriggerEventListener() {
+                    @Override
+                    public void onTrigger(TriggerEvent event) {
+                        handler.post(MotionWakeSensor.this::fire);
+                    }
+                };
+                armed = sensorManager.requestTriggerSensor(triggerListener, sig);
+                if (armed) return;
+                triggerListener = null;
+            }
+            Sensor accel = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            if (accel == null) return;
+            jolts = 0;
+            joltWindowStartMs = 0L;
+            accelListener = new SensorEventListener() {
+                @Override
+                public void onSensorChanged(SensorEvent event) {
+                    onAccelSample(event.values);
+                }
+
+                @Override
+                public void onAccuracyChanged(Sensor sensor, int accuracy) {
+                }
+            };
+            armed = sensorManager.registerListener(
+                    accelListener, accel, SensorManager.SENSOR_DELAY_NORMAL, handler);
+            if (!armed) accelListener = null;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to arm motion sensor", e);
+            armed = false;
+        }
+    }
+
+    void disarm() {
+        if (sensorManager == null) return;
+        try {
+            if (triggerListener != null) {
+                Sensor sig = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+                if (sig != null) sensorManager.cancelTriggerSensor(triggerListener, sig);
+            }
+            if (accelListener != null) sensorManager.unregisterListener(accelListener);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to disarm motion sensor", e);
+        }
+        triggerListener = null;
+        accelListener = null;
+        armed = false;
+    }
+
+    private void onAccelSample(float[] v) {
+        if (v == null || v.length < 3) return;
+        double mag = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        if (Math.abs(mag - SensorManager.GRAVITY_EARTH) < JOLT_THRESHOLD) return;
+        long now = System.currentTimeMillis();
+        if (now - joltWindowStartMs > JOLT_WINDOW_MS) {
+            joltWindowStartMs = now;
+            jolts = 0;
+        }
+        if (++jolts >= JOLTS_TO_FIRE) fire();
+    }
+
+    private void fire() {
+        if (!armed) return;
+        // One-shot semantics for both paths: the owner re-arms when it
+        // goes low-power again.
+        disarm();
+        listener.onMotion();
+    }
+}
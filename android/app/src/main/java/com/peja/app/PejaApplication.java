@@ -0,0 +1,25 @@
+package com.peja.app;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+import androidx.work.Configuration;
+
+/**
+ * Runs in both processes, the app's and :tracker's, so it does nothing at
+ * startup. It exists for WorkManager: the manifest removes its startup
+ * initializer, so it runs in neither process, and each process initializes
+ * WorkManager on demand from this configuration the first time it asks
+ * (the app for its own work, the services in :tracker for the watchdog).
+ * Work itself always runs in the app process.
+ */
+public class PejaApplication extends Application implements Configuration.Provider {
+
+    @NonNull
+    @Override
+    public Configuration getWorkManagerConfiguration() {
+        return new Configuration.Builder()
+                .setDefaultProcessName(getPackageName())
+                .build();
+    }
+}
@@ -1,8 +1,5 @@
 package com.peja.app;
 
-import android.content.Context;
-import android.content.Intent;
-import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -24,9 +21,11 @@ import java.util.Map;
  * service from the background — which is the only reliable way to resurrect
  * tracking on those devices.
  *
- * The location services recover their in-flight state from prefs (see
- * SMLLocationService/SOSLocationService onStartCommand), so reviving just means
- * starting the service with no extras.
+ * The location services recover their in-flight state from the session
+ * registry, so reviving just means starting the service with no extras (see
+ * RestartOrchestrator, which also restarts stalled sessions locally). This
+ * service stays in the app process, where Firebase is initialized; the
+ * revive runs in :tracker through TrackerClient.
  */
 public class PejaMessagingService extends MessagingService {
 
@@ -39,7 +38,7 @@ public class PejaMessagingService extends MessagingService {
 
         if ("revive_tracking".equals(action)) {
             Log.d(TAG, "Revive push received");
-            reviveIfActive();
+            TrackerClient.revive(this);
             // Silent — do NOT call super, so no notification is shown.
             return;
         }
@@ -51,32 +50,4 @@ public class PejaMessagingService extends MessagingService {
     public void onNewToken(@NonNull String token) {
         super.onNewToken(token);
     }
-
-    private void reviveIfActive() {
-        reviveService(
-                SMLLocationService.PREFS_NAME,
-                new Intent(getApplicationContext(), SMLLocationService.class));
-        reviveService(
-                SOSLocationService.PREFS_NAME,
-                new Intent(getApplicationContext(), SOSLocationService.class));
-    }
-
-    private void reviveService(String prefsName, Intent intent) {
-        try {
-            boolean active = getSharedPreferences(prefsName, Context.MODE_PRIVATE)
-                    .getBoolean("is_active", false);
-            if (!active) return;
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                getApplicationContext().startForegroundService(intent);
-            } else {
-                getApplicationContext().startService(intent);
-            }
-            Log.d(TAG, "Revived " + intent.getComponent());
-        } catch (Exception e) {
-            // Background-start may still be refused on the most hostile OEMs —
-            // don't crash; the next cron tick will try again.
-            Log.e(TAG, "Failed to revive service", e);
-        }
-    }
 }
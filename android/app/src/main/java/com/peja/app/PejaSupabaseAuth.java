@@ -2,11 +2,18 @@ package com.peja.app;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.util.Base64;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.util.Log;
 
 import org.json.JSONObject;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -28,12 +35,31 @@ import okhttp3.Response;
  *    refresh token on every use; if SML and SOS each kept their own copy, the
  *    first service to refresh would invalidate the other's copy and kill its
  *    session. A single store means there is only ever one current pair.
- *  - Single-flight refresh. All refreshes go through one static lock, and the
- *    winner re-checks the store first, so two services hitting a 401 in the
- *    same second perform ONE network refresh, not two racing ones.
+ *  - Single-flight refresh (SessionRefresher). The first caller starts the
+ *    refresh and the rest await its result, after a re-check of the store,
+ *    so two services hitting a 401 in the same second perform ONE network
+ *    refresh, not two racing ones. No lock is held across the network:
+ *    storeTokens only ever waits for another store's commit.
+ *  - Off the write path. A background task refreshes shortly before expiry
+ *    (TokenRefreshPolicy), so writes only wait on GoTrue when the token is
+ *    seconds from expiry (that refresh failed) or a call came back 401.
  *  - Rate-limited failure. If Supabase rejects the refresh (network down,
- *    token revoked), we back off instead of hammering the auth endpoint every
- *    15s location tick.
+ *    token revoked), we back off exponentially instead of hammering the auth
+ *    endpoint every 15s location tick, and retry as soon as the network
+ *    returns.
+ *  - Parsed once. The stored token lives in memory as a TokenSnapshot,
+ *    published after every commit and emptied by clear, so the per-write
+ *    path reads a volatile instead of prefs plus two JWT parses.
+ *
+ * The store itself, its guards and the single-flight refresh live in
+ * SessionStore (plain Java, soak-tested on the JVM); this class supplies
+ * prefs, OkHttp, the background schedule and the network watch.
+ *
+ * One process only: :tracker, with the services that refresh. Neither
+ * SharedPreferences nor SessionStore's lock reach across processes, so a
+ * rotation in one would leave the other holding a consumed refresh token.
+ * The plugins in the app process store, read and clear the pair through
+ * TrackerProvider.
  */
 public final class PejaSupabaseAuth {
 
@@ -45,33 +71,104 @@ public final class PejaSupabaseAuth {
     private static final MediaType JSON_TYPE = MediaType.get("application/json");
 
     /**
-     * Refresh proactively when the token expires within this window. MUST
-     * stay below supabase-js's auto refresh margin (~90s before expiry):
-     * while the WebView is visible its refresher has to win the race and
-     * push the rotated pair down via updateToken. If the native side rotated
+     * Refresh (in the background) when the token expires within this window. MUST
+     * stay under 60s: supabase-js refreshes on the first of its 30s ticks
+     * within 90s of expiry, i.e. 60-90s before it, and while the WebView is
+     * visible its refresher has to win the race and push the rotated pair
+     * down via updateToken. If the native side rotated
      * first, the WebView would later replay the consumed refresh token and
      * GoTrue's reuse detection would revoke the whole session family.
      * NOTE: a backgrounded WebView is NOT race free. supabase-js stops its
      * refresh ticker when hidden and recovers with its persisted (stale)
      * pair on resume; the JS storage adapter in supabase.ts merges the
      * natively rotated pair into that read, and that merge is what makes
-     * native rotations here safe. Do not widen this margin past 90s.
+     * native rotations here safe. Do not widen this margin past 60s.
      */
-    private static final long EXPIRY_MARGIN_SECONDS = 60;
-    /** After a failed refresh, do not retry the auth endpoint for this long. */
-    private static final long FAILURE_BACKOFF_MS = 20_000L;
+    private static final long EXPIRY_MARGIN_SECONDS = TokenRefreshPolicy.LEAD_SECONDS;
 
-    private static final Object LOCK = new Object();
-    private static volatile long lastRefreshFailureMs = 0L;
+    private static final Object INIT = new Object();
+    private static final TokenRefreshPolicy POLICY = new TokenRefreshPolicy();
+    private static volatile SessionStore session;
+    private static final ScheduledExecutorService REFRESHER =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "peja-token-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+    /** The scheduled background refresh and its time; guarded by SCHEDULE. */
+    private static final Object SCHEDULE = new Object();
+    private static ScheduledFuture<?> pendingRefresh;
+    private static long pendingRefreshAtMs;
+    /** What the background refresh calls GoTrue with: the services' own client and keys. */
+    private static volatile Endpoint endpoint;
+    private static volatile boolean waitingForNetwork = false;
 
     private PejaSupabaseAuth() {
     }
 
+    private static final class Endpoint {
+        final Context app;
+        final OkHttpClient http;
+        final String url;
+        final String anonKey;
+
+        Endpoint(Context app, OkHttpClient http, String url, String anonKey) {
+            this.app = app;
+            this.http = http;
+            this.url = url;
+            this.anonKey = anonKey;
+        }
+    }
+
     private static SharedPreferences prefs(Context ctx) {
         return ctx.getApplicationContext()
                 .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
+    /** The process-wide store, persisted in prefs; created on first use. */
+    private static SessionStore session(Context ctx) {
+        SessionStore s = session;
+        if (s != null) return s;
+        SharedPreferences prefs = prefs(ctx);
+        synchronized (INIT) {
+            if (session == null) {
+                session = new SessionStore(new SessionStore.Persistence() {
+                    @Override
+                    public String readAccess() {
+                        return prefs.getString(KEY_ACCESS, "");
+                    }
+
+                    @Override
+                    public String readRefresh() {
+                        return prefs.getString(KEY_REFRESH, "");
+                    }
+
+                    @Override
+                    public void write(String accessToken, String refreshToken) {
+                        SharedPreferences.Editor editor = prefs.edit().putString(KEY_ACCESS, accessToken);
+                        if (refreshToken == null) {
+                            // keep the stored one
+                        } else if (refreshToken.isEmpty()) {
+                            editor.remove(KEY_REFRESH);
+                        } else {
+                            editor.putString(KEY_REFRESH, refreshToken);
+                        }
+                        // commit, not apply: a rotated refresh token exists nowhere else,
+                        // so an OEM kill right after rotation must not lose the async
+                        // write. All callers are off the main thread.
+                        editor.commit();
+                    }
+
+                    @Override
+                    public void clear() {
+                        prefs.edit().remove(KEY_ACCESS).remove(KEY_REFRESH).commit();
+                    }
+                }, POLICY, SessionRefresher.DEFAULT_AWAIT_MS);
+            }
+            return session;
+        }
+    }
+
     /**
      * Persist the current session pair. An empty/null refresh token keeps the
      * stored one (callers may only have a new access token in hand).
@@ -87,206 +184,223 @@ public final class PejaSupabaseAuth {
      *    account's refresh token.
      */
     public static void storeTokens(Context ctx, String accessToken, String refreshToken) {
-        if (accessToken == null || accessToken.isEmpty()) return;
-        synchronized (LOCK) {
-            SharedPreferences p = prefs(ctx);
-            String stored = p.getString(KEY_ACCESS, "");
-            boolean accountChanged = false;
-            if (stored != null && !stored.isEmpty() && !stored.equals(accessToken)) {
-                String storedSub = jwtSub(stored);
-                String incomingSub = jwtSub(accessToken);
-                if (!storedSub.isEmpty() && !incomingSub.isEmpty()
-                        && !storedSub.equals(incomingSub)) {
-                    accountChanged = true;
-                } else {
-                    long storedExp = jwtExpSeconds(stored);
-                    long incomingExp = jwtExpSeconds(accessToken);
-                    if (storedExp > 0 && incomingExp > 0 && incomingExp < storedExp) {
-                        Log.w(TAG, "Ignoring older token pair (incoming exp "
-                                + incomingExp + " < stored " + storedExp + ")");
-                        return;
-                    }
-                }
-            }
-            SharedPreferences.Editor editor = p.edit().putString(KEY_ACCESS, accessToken);
-            if (refreshToken != null && !refreshToken.isEmpty()) {
-                editor.putString(KEY_REFRESH, refreshToken);
-            } else if (accountChanged) {
-                editor.remove(KEY_REFRESH);
-            }
-            // commit, not apply: a rotated refresh token exists nowhere else,
-            // so an OEM kill right after rotation must not lose the async
-            // write. All callers are off the main thread.
-            editor.commit();
+        SessionStore store = session(ctx);
+        TokenSnapshot before = store.access();
+        int decision = store.store(accessToken, refreshToken);
+        if (decision < 0) return;
+        if (decision == TokenSnapshot.IGNORE_OLDER) {
+            Log.w(TAG, "Ignoring older token pair (incoming exp "
+                    + TokenSnapshot.of(accessToken).expSeconds + " < stored " + before.expSeconds + ")");
+            return;
         }
+        armRefresh(store.access());
     }
 
     /** Stored access token, or empty. Exposed for the plugins' getTokens. */
     public static String readAccess(Context ctx) {
-        String v = prefs(ctx).getString(KEY_ACCESS, "");
-        return v != null ? v : "";
+        return session(ctx).access().raw;
     }
 
     /** Stored refresh token, or empty. Exposed for the plugins' getTokens. */
     public static String readRefresh(Context ctx) {
-        String v = prefs(ctx).getString(KEY_REFRESH, "");
-        return v != null ? v : "";
+        return session(ctx).refreshToken();
     }
 
     /**
      * Wipe the stored pair. Called on sign-out so a valid refresh token for
-     * the old account never lingers on disk.
+     * the old account never lingers on disk. A refresh already on the wire
+     * is dropped when it lands instead of restoring the session.
      */
     public static void clear(Context ctx) {
-        synchronized (LOCK) {
-            prefs(ctx).edit().remove(KEY_ACCESS).remove(KEY_REFRESH).commit();
+        session(ctx).clear();
+        synchronized (SCHEDULE) {
+            if (pendingRefresh != null) pendingRefresh.cancel(false);
+            pendingRefresh = null;
         }
     }
 
     /**
      * Best current access token for a Supabase call. Returns the stored token
      * (or the caller's fallback when the store is empty, e.g. right after an
-     * app update restored an old service), refreshing it first when it is
-     * expired or about to expire. Never returns null; callers still handle a
+     * app update restored an old service). Refreshes inline only when it is
+     * about to expire; before that the background refresh is (re)armed and
+     * the call returns at once. Never returns null; callers still handle a
      * 401 with forceRefresh for the cases where the exp claim lied on us.
      */
     public static String getValidAccessToken(Context ctx, OkHttpClient http,
                                              String supabaseUrl, String anonKey,
                                              String fallback) {
-        String access = prefs(ctx).getString(KEY_ACCESS, "");
-        String fb = fallback != null ? fallback : "";
-        if (access == null || access.isEmpty()) {
-            access = fb;
-        } else if (!fb.isEmpty() && !fb.equals(access)) {
-            // Prefer whichever token is fresher. The store can hold a stale
-            // pair from a previous tracking session while the caller carries
-            // a fresh token from the start intent (the async seed may not
-            // have landed yet); using the stale one would trigger a refresh
-            // with a long-consumed refresh token and risk revoking the
-            // current session family.
-            long storedExp = jwtExpSeconds(access);
-            long fbExp = jwtExpSeconds(fb);
-            if (fbExp > storedExp) access = fb;
-        }
+        remember(ctx, http, supabaseUrl, anonKey);
+        long now = System.currentTimeMillis();
+        POLICY.onDemand(now);
+        SessionStore store = session(ctx);
+        TokenSnapshot access = hasEndpoint(supabaseUrl, anonKey)
+                ? store.validAccess(grant(http, supabaseUrl, anonKey), fallback, now)
+                : store.best(fallback);
         if (access.isEmpty()) return "";
-
-        long exp = jwtExpSeconds(access);
-        long nowSec = System.currentTimeMillis() / 1000L;
-        if (exp > 0 && nowSec >= exp - EXPIRY_MARGIN_SECONDS) {
-            String fresh = refreshLocked(ctx, http, supabaseUrl, anonKey, access);
-            if (fresh != null && !fresh.isEmpty()) return fresh;
-        }
-        return access;
+        armRefresh(access);
+        return access.raw;
     }
 
     /**
      * A call just failed with 401: refresh the session now. Returns the new
      * access token, or null when refresh is impossible right now (no refresh
-     * token, network down, backoff window). If another thread refreshed while
-     * we waited on the lock, its result is returned without a second network
-     * round trip.
+     * token, network down, backoff window). If another thread's refresh is in
+     * flight or has just landed, its result is returned without a second
+     * network round trip.
      */
     public static String forceRefresh(Context ctx, OkHttpClient http,
                                       String supabaseUrl, String anonKey,
                                       String failedToken) {
-        return refreshLocked(ctx, http, supabaseUrl, anonKey, failedToken);
+        remember(ctx, http, supabaseUrl, anonKey);
+        return refresh(ctx, http, supabaseUrl, anonKey, failedToken);
+    }
+
+    private static void remember(Context ctx, OkHttpClient http, String url, String anonKey) {
+        if (!hasEndpoint(url, anonKey)) return;
+        Endpoint e = endpoint;
+        if (e != null && e.http == http && e.url.equals(url) && e.anonKey.equals(anonKey)) return;
+        boolean first = e == null;
+        endpoint = new Endpoint(ctx.getApplicationContext(), http, url, anonKey);
+        if (first) watchNetwork(ctx.getApplicationContext());
     }
 
-    private static String refreshLocked(Context ctx, OkHttpClient http,
-                                        String supabaseUrl, String anonKey,
-                                        String staleToken) {
-        if (supabaseUrl == null || supabaseUrl.isEmpty()
-                || anonKey == null || anonKey.isEmpty()) {
-            return null;
+    /**
+     * Schedule the background refresh for {@code token}, or for the end of
+     * the failure backoff if that's later. No-op when already scheduled for
+     * that time, so every write may call it.
+     */
+    private static void armRefresh(TokenSnapshot token) {
+        long atMs = TokenRefreshPolicy.refreshAtMs(token.expSeconds);
+        if (atMs == 0L || endpoint == null) return; // exp unknown: the 401 retry covers it
+        atMs = Math.max(atMs, POLICY.retryAtMs());
+        synchronized (SCHEDULE) {
+            if (pendingRefresh != null && !pendingRefresh.isDone() && pendingRefreshAtMs == atMs) return;
+            if (pendingRefresh != null) pendingRefresh.cancel(false);
+            long delay = Math.max(0L, atMs - System.currentTimeMillis());
+            pendingRefresh = REFRESHER.schedule(PejaSupabaseAuth::backgroundRefresh, delay, TimeUnit.MILLISECONDS);
+            pendingRefreshAtMs = atMs;
         }
-        synchronized (LOCK) {
-            // Someone else may have refreshed while we waited on the lock.
-            String current = prefs(ctx).getString(KEY_ACCESS, "");
-            if (current != null && !current.isEmpty() && !current.equals(staleToken)) {
-                long exp = jwtExpSeconds(current);
-                long nowSec = System.currentTimeMillis() / 1000L;
-                if (exp <= 0 || nowSec < exp - 30) {
-                    return current;
-                }
-            }
+    }
 
-            long now = System.currentTimeMillis();
-            if (now - lastRefreshFailureMs < FAILURE_BACKOFF_MS) {
-                return null;
-            }
+    private static void backgroundRefresh() {
+        Endpoint e = endpoint;
+        if (e == null) return;
+        long now = System.currentTimeMillis();
+        // No writes lately (tracking stopped, WebView in charge): don't
+        // rotate a session nobody here is using. The next write re-arms.
+        if (POLICY.isIdle(now)) return;
+        if (!isOnline(e.app)) {
+            Log.d(TAG, "Offline; background refresh waits for the network");
+            waitingForNetwork = true;
+            return;
+        }
+        SessionStore store = session(e.app);
+        TokenSnapshot current = store.access();
+        if (current.isEmpty()) return;
+        if (current.expiresWithin(now / 1000L, EXPIRY_MARGIN_SECONDS)) {
+            refresh(e.app, e.http, e.url, e.anonKey, current.raw);
+        }
+        // Success re-armed from refresh; this covers failure (backoff)
+        // and a pair rotated by the WebView in the meantime.
+        armRefresh(store.access());
+    }
 
-            String refreshToken = prefs(ctx).getString(KEY_REFRESH, "");
-            if (refreshToken == null || refreshToken.isEmpty()) {
-                Log.w(TAG, "No refresh token stored; cannot refresh session natively");
-                lastRefreshFailureMs = now;
-                return null;
-            }
+    private static boolean isOnline(Context app) {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null) return true;
+            NetworkCapabilities caps = cm.getNetworkCapabilities(cm.getActiveNetwork());
+            return caps != null && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        } catch (Exception ex) {
+            return true; // can't tell: let the request decide
+        }
+    }
 
-            try {
-                String body = new JSONObject().put("refresh_token", refreshToken).toString();
-                Request request = new Request.Builder()
-                        .url(supabaseUrl + "/auth/v1/token?grant_type=refresh_token")
-                        .post(RequestBody.create(body, JSON_TYPE))
-                        .addHeader("apikey", anonKey)
-                        .addHeader("Content-Type", "application/json")
-                        .build();
-
-                Response response = http.newCall(request).execute();
-                String responseBody = response.body() != null ? response.body().string() : "";
-                int code = response.code();
-                response.close();
-
-                if (code >= 200 && code < 300) {
-                    JSONObject json = new JSONObject(responseBody);
-                    String newAccess = json.optString("access_token", "");
-                    String newRefresh = json.optString("refresh_token", "");
-                    if (!newAccess.isEmpty()) {
-                        storeTokens(ctx, newAccess, newRefresh);
-                        Log.d(TAG, "Session refreshed natively");
-                        return newAccess;
-                    }
-                    Log.e(TAG, "Refresh response had no access_token");
-                } else {
-                    // 400 with "refresh_token_not_found" or similar usually
-                    // means the WebView rotated the session after our copy was
-                    // stored. AuthContext pushes every rotation down through
-                    // updateToken, so the store heals on the next JS refresh
-                    // or app resume.
-                    Log.e(TAG, "Session refresh failed: " + code + " "
-                            + responseBody.substring(0, Math.min(responseBody.length(), 200)));
+    /** Retry at once when the network returns after an offline skip or failures. */
+    private static void watchNetwork(Context app) {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null) return;
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    if (!waitingForNetwork && POLICY.failures() == 0) return;
+                    waitingForNetwork = false;
+                    POLICY.onSuccess();
+                    SessionStore s = session;
+                    if (s != null) armRefresh(s.access());
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Session refresh error", e);
-            }
-            lastRefreshFailureMs = System.currentTimeMillis();
-            return null;
+            });
+        } catch (Exception ex) {
+            Log.w(TAG, "Network callback unavailable; refresh retries on backoff only", ex);
         }
     }
 
-    /**
-     * Epoch seconds from the JWT exp claim, or 0 when unparsable. A 0 means
-     * "unknown": callers skip proactive refresh and rely on the 401 retry.
-     */
-    static long jwtExpSeconds(String jwt) {
-        JSONObject payload = jwtPayload(jwt);
-        return payload != null ? payload.optLong("exp", 0) : 0;
+    private static String refresh(Context ctx, OkHttpClient http,
+                                  String supabaseUrl, String anonKey,
+                                  String staleToken) {
+        if (!hasEndpoint(supabaseUrl, anonKey)) return null;
+        SessionStore store = session(ctx);
+        String fresh = store.refresh(grant(http, supabaseUrl, anonKey), staleToken);
+        if (fresh != null) {
+            armRefresh(store.access());
+        } else if (store.refreshToken().isEmpty()) {
+            Log.w(TAG, "No refresh token stored; cannot refresh session natively");
+        } else if (!POLICY.mayAttempt(System.currentTimeMillis())) {
+            Log.w(TAG, "Next refresh attempt in "
+                    + (POLICY.retryAtMs() - System.currentTimeMillis()) / 1000L + "s");
+        }
+        return fresh;
     }
 
-    /** User id from the JWT sub claim, or empty when unparsable. */
-    static String jwtSub(String jwt) {
-        JSONObject payload = jwtPayload(jwt);
-        return payload != null ? payload.optString("sub", "") : "";
+    private static boolean hasEndpoint(String supabaseUrl, String anonKey) {
+        return supabaseUrl != null && !supabaseUrl.isEmpty() && anonKey != null && !anonKey.isEmpty();
     }
 
-    private static JSONObject jwtPayload(String jwt) {
-        try {
-            String[] parts = jwt.split("\\.");
-            if (parts.length < 2) return null;
-            byte[] decoded = Base64.decode(parts[1],
-                    Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
-            return new JSONObject(new String(decoded, "UTF-8"));
+    private static SessionRefresher.Grant grant(OkHttpClient http, String supabaseUrl, String anonKey) {
+        return refreshToken -> exchange(http, supabaseUrl, anonKey, refreshToken);
+    }
+
+    /** One refresh_token grant against GoTrue: {access, refresh}, or null when rejected. */
+    private static String[] exchange(OkHttpClient http, String supabaseUrl, String anonKey,
+                                     String refreshToken) throws Exception {
+        String body = new JSONObject().put("refresh_token", refreshToken).toString();
+        Request request = new Request.Builder()
+                .url(supabaseUrl + "/auth/v1/token?grant_type=refresh_token")
+                .post(RequestBody.create(body, JSON_TYPE))
+                .addHeader("apikey", anonKey)
+                .addHeader("Content-Type", "application/json")
+                .build();
+
+        String responseBody;
+        int code;
+        try (Response response = http.newCall(request).execute()) {
+            responseBody = response.body() != null ? response.body().string() : "";
+            code = response.code();
         } catch (Exception e) {
-            return null;
+            Log.e(TAG, "Session refresh error", e);
+            throw e;
+        }
+
+        if (code >= 200 && code < 300) {
+            JSONObject json = new JSONObject(responseBody);
+            String newAccess = json.optString("access_token", "");
+            String newRefresh = json.optString("refresh_token", "");
+            if (!newAccess.isEmpty()) {
+                Log.d(TAG, "Session refreshed natively");
+                return new String[]{newAccess, newRefresh};
+            }
+            Log.e(TAG, "Refresh response had no access_token");
+        } else {
+            // 400 with "refresh_token_not_found" or similar usually
+            // means the WebView rotated the session after our copy was
+            // stored. AuthContext pushes every rotation down through
+            // updateToken, so the store heals on the next JS refresh
+            // or app resume.
+            Log.e(TAG, "Session refresh failed: " + code + " "
+                    + responseBody.substring(0, Math.min(responseBody.length(), 200)));
         }
+        return null;
     }
 }
@@ -0,0 +1,33 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.os.PowerManager;
+
+/**
+ * WakeBudget's platform lock: one PARTIAL_WAKE_LOCK, not reference counted
+ * (WakeBudget does the counting), so a release always really releases.
+ */
+final class PowerLock implements WakeBudget.Lock {
+
+    private final PowerManager.WakeLock lock;
+
+    private PowerLock(Context ctx, String tag) {
+        PowerManager pm = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+        lock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, tag);
+        lock.setReferenceCounted(false);
+    }
+
+    static WakeBudget budget(Context ctx, String tag, long capMs) {
+        return new WakeBudget(new PowerLock(ctx, tag), capMs, System::currentTimeMillis);
+    }
+
+    @Override
+    public void acquire(long timeoutMs) {
+        lock.acquire(timeoutMs);
+    }
+
+    @Override
+    public void release() {
+        if (lock.isHeld()) lock.release();
+    }
+}
@@ -0,0 +1,128 @@
+package com.peja.app;
+
+/**
+ * Decides whether an ambient fix is worth a full presence beat. Every beat
+ * used to carry the full position and make the server upsert the presence
+ * row, though most of a day's beats repeat "same place, same accuracy".
+ *
+ * Positions are quantised to a geohash cell (precision 7 by default, about
+ * 150 x 150 m at the equator and narrower east-west further from it) plus
+ * an accuracy class. A full beat goes out when:
+ *  - the cell changes and the fix is CELL_HYSTERESIS_M from the last full
+ *    beat (so a phone sitting on a cell edge doesn't flap between two);
+ *  - the accuracy class improves (a GPS fix after Wi-Fi ones sharpens the
+ *    circle's dot; a worse one never replaces a better one);
+ *  - MAX_STALE_MS has passed since the last one (speed, battery and
+ *    still_since ride along with it);
+ *  - the gate was invalidated (a failed full beat, or the server asking).
+ * Anything else is a keepalive: key, cell and time only, which the server
+ * turns into at most an occasional captured_at touch.
+ *
+ * Synchronized: beats fail (and invalidate) on network threads.
+ */
+final class PresenceCellGate {
+
+    static final int DEFAULT_PRECISION = 7;
+    /**
+     * Refresh of the full row (battery, still_since) even with nothing
+     * moving; two parked keepalives' worth, so parking alternates.
+     */
+    static final long MAX_STALE_MS = 60 * 60_000L;
+    /** Same radius as the stillness anchor: less is fix noise. */
+    static final double CELL_HYSTERESIS_M = 30d;
+
+    /** Accuracy classes, best first: GPS, good Wi-Fi, Wi-Fi/cell, coarse. */
+    private static final float[] ACCURACY_CLASS_MAX_M = {20f, 65f, 200f};
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private final int precision;
+    private String cell;
+    private int accuracyClass = Integer.MAX_VALUE;
+    private double lat, lng;
+    private long lastFullMs = 0L;
+    private boolean invalid = true;
+
+    PresenceCellGate(int precision) {
+        this.precision = precision >= 5 && precision <= 9 ? precision : DEFAULT_PRECISION;
+    }
+
+    int precision() {
+        return precision;
+    }
+
+    /**
+     * Returns true when this fix should go out as a full beat, and records
+     * it as the new baseline; false means send a keepalive for {@link #cell()}.
+     */
+    synchronized boolean onFix(long nowMs, double fixLat, double fixLng, float accuracyM) {
+        String fixCell = geohash(fixLat, fixLng, precision);
+        int fixClass = accuracyClass(accuracyM);
+        boolean full = invalid
+                || nowMs - lastFullMs >= MAX_STALE_MS
+                || fixClass < accuracyClass
+                || !fixCell.equals(cell)
+                        && GeoMath.distanceM(lat, lng, fixLat, fixLng) >= CELL_HYSTERESIS_M;
+        if (!full) return false;
+        cell = fixCell;
+        accuracyClass = fixClass;
+        lat = fixLat;
+        lng = fixLng;
+        lastFullMs = nowMs;
+        invalid = false;
+        return true;
+    }
+
+    /** Cell of the last full beat, which keepalives vouch for. */
+    synchronized String cell() {
+        return cell;
+    }
+
+    /** Make the next fix a full beat (the last one may not have landed). */
+    synchronized void invalidate() {
+        invalid = true;
+    }
+
+    static int accuracyClass(float accuracyM) {
+        for (int i = 0; i < ACCURACY_CLASS_MAX_M.length; i++) {
+            if (accuracyM <= ACCURACY_CLASS_MAX_M[i]) return i;
+        }
+        return ACCURACY_CLASS_MAX_M.length;
+    }
+
+    /** Standard base-32 geohash of the given length. */
+    static String geohash(double lat, double lng, int length) {
+        double latLo = -90d, latHi = 90d, lngLo = -180d, lngHi = 180d;
+        char[] out = new char[length];
+        boolean even = true; // bits alternate lng, lat, starting with lng
+        int bit = 0, ch = 0, n = 0;
+        while (n < length) {
+            if (even) {
+                double mid = (lngLo + lngHi) / 2;
+                if (lng >= mid) {
+                    ch = (ch << 1) | 1;
+                    lngLo = mid;
+                } else {
+                    ch <<= 1;
+                    lngHi = mid;
+                }
+            } else {
+                double mid = (latLo + latHi) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    latLo = mid;
+                } else {
+                    ch <<= 1;
+                    latHi = mid;
+                }
+            }
+            even = !even;
+            if (++bit == 5) {
+                out[n++] = BASE32[ch];
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,238 @@
+package com.peja.app;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every path that brings a tracking session back: the swipe-from-recents
+ * alarm, boot, the server's revive push and the local watchdog.
+ *
+ * These used to live in each service's onTaskRemoved, two boot receivers
+ * (none for SML) and PejaMessagingService, each with its own copy of the
+ * start-a-foreground-service dance, and anything the OS killed stayed dead
+ * until the server cron noticed stale rows. Now the services report
+ * progress here (onServiceStarted, onWrite) into SessionHeartbeats, and
+ * TrackingWatchdogWorker calls check(): every 15 minutes, and every
+ * RestartPolicy.LIVE_CHECK_MS while an SOS or check-in is active. A session
+ * whose heartbeat went stale is restarted the way the boot and revive
+ * paths do it, by starting its service with no extras so it recovers from
+ * the SessionRegistry.
+ *
+ * All of it is best-effort on Android 12+: a foreground-service start from
+ * the background needs the battery-optimization exemption (or the window a
+ * high-priority push grants), and a refused one is simply retried later.
+ */
+final class RestartOrchestrator {
+
+    private static final String TAG = "RestartOrchestrator";
+    private static final String FILE_NAME = "peja_heartbeats.bin";
+    private static final String WATCHDOG_WORK = "peja-tracking-watchdog";
+    private static final String FOLLOW_UP_WORK = "peja-tracking-watchdog-follow-up";
+    static final String KEY_FOLLOW_UP = "follow_up";
+
+    // One alarm per session. The services' other PendingIntents use 0-6.
+    private static final int RESTART_REQUEST_SOS = 10;
+    private static final int RESTART_REQUEST_SML = 11;
+    private static final int RESTART_REQUEST_AMBIENT = 12;
+
+    private static volatile SessionHeartbeats heartbeats;
+    private static volatile boolean unavailable;
+
+    private RestartOrchestrator() {
+    }
+
+    /** The process-wide heartbeats, or null if the file could not be mapped. */
+    static SessionHeartbeats heartbeats(Context ctx) {
+        SessionHeartbeats h = heartbeats;
+        if (h != null || unavailable) return h;
+        synchronized (RestartOrchestrator.class) {
+            if (heartbeats == null && !unavailable) {
+                File file = new File(ctx.getApplicationContext().getFilesDir(), FILE_NAME);
+                try {
+                    heartbeats = SessionHeartbeats.open(file);
+                } catch (IOException e) {
+                    // The watchdog can't tell stalled from healthy; the
+                    // other restart paths still work.
+                    unavailable = true;
+                    Log.w(TAG, "Heartbeat file unavailable", e);
+                }
+            }
+            return heartbeats;
+        }
+    }
+
+    /** A service has (re)started a session: mark it live and make sure the watchdog runs. */
+    static void onServiceStarted(Context ctx, int session) {
+        onWrite(ctx, session);
+        try {
+            WorkManager wm = WorkManager.getInstance(ctx.getApplicationContext());
+            wm.enqueueUniquePeriodicWork(WATCHDOG_WORK, ExistingPeriodicWorkPolicy.KEEP,
+                    new PeriodicWorkRequest.Builder(TrackingWatchdogWorker.class, 15, TimeUnit.MINUTES)
+                            .build());
+            if (session != SessionHeartbeats.AMBIENT) scheduleFollowUp(wm, ExistingWorkPolicy.KEEP);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not schedule the tracking watchdog", e);
+        }
+    }
+
+    /** A service completed a write, successful or not. */
+    static void onWrite(Context ctx, int session) {
+        SessionHeartbeats h = heartbeats(ctx);
+        if (h != null) h.beat(session, System.currentTimeMillis());
+    }
+
+    private static void scheduleFollowUp(WorkManager wm, ExistingWorkPolicy policy) {
+        wm.enqueueUniqueWork(FOLLOW_UP_WORK, policy,
+                new OneTimeWorkRequest.Builder(TrackingWatchdogWorker.class)
+                        .setInitialDelay(RestartPolicy.LIVE_CHECK_MS, TimeUnit.MILLISECONDS)
+                        .setInputData(new Data.Builder().putBoolean(KEY_FOLLOW_UP, true).build())
+                        .build());
+    }
+
+    /**
+     * The watchdog pass: restart every active session whose heartbeat went
+     * stale. Returns how many restarts were attempted.
+     */
+    static int check(Context ctx, boolean followUp) {
+        SessionRegistry sessions = TrackingSessions.get(ctx);
+        SessionHeartbeats h = heartbeats(ctx);
+        long now = System.currentTimeMillis();
+        int restarted = 0;
+        boolean live = false;
+        boolean any = false;
+        for (int session = 0; session < SessionHeartbeats.SESSIONS; session++) {
+            if (!isActive(sessions, session)) continue;
+            any = true;
+            if (session != SessionHeartbeats.AMBIENT) live = true;
+            if (h == null || !h.claimRestart(session, now)) continue;
+            Log.w(TAG, "No progress from " + name(session) + " for "
+                    + (now - h.lastBeatMs(session)) / 1000L + "s, restarting");
+            start(ctx, session);
+            restarted++;
+        }
+        WorkManager wm = WorkManager.getInstance(ctx.getApplicationContext());
+        if (!any) {
+            wm.cancelUniqueWork(WATCHDOG_WORK);
+        } else if (live) {
+            // From the follow-up itself, queue behind the running request;
+            // KEEP would see it still running and end the chain.
+            scheduleFollowUp(wm, followUp ? ExistingWorkPolicy.APPEND_OR_REPLACE : ExistingWorkPolicy.KEEP);
+        }
+        return restarted;
+    }
+
+    /** Swiped from recents: restart the session shortly if it's still active. */
+    static void onTaskRemoved(Context ctx, int session, long delayMs) {
+        try {
+            if (!isActive(TrackingSessions.get(ctx), session)) return;
+            int flags = PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE;
+            Context app = ctx.getApplicationContext();
+            Intent restart = new Intent(app, serviceClass(session));
+            PendingIntent pi;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                pi = PendingIntent.getForegroundService(app, restartRequestCode(session), restart, flags);
+            } else {
+                pi = PendingIntent.getService(app, restartRequestCode(session), restart, flags);
+            }
+            AlarmManager am = (AlarmManager) app.getSystemService(Context.ALARM_SERVICE);
+            if (am == null) return;
+            long at = System.currentTimeMillis() + delayMs;
+            // setAndAllowWhileIdle fires even in Doze without needing the
+            // exact-alarm permission.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
+            } else {
+                am.set(AlarmManager.RTC_WAKEUP, at, pi);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to schedule " + name(session) + " restart on task removal", e);
+        }
+    }
+
+    /** After a reboot nothing is running: start every active session. */
+    static void onBoot(Context ctx) {
+        SessionRegistry sessions = TrackingSessions.get(ctx);
+        for (int session = 0; session < SessionHeartbeats.SESSIONS; session++) {
+            if (isActive(sessions, session)) start(ctx, session);
+        }
+    }
+
+    /** The server saw a stale SOS or check-in and pushed a revive. */
+    static void onRevivePush(Context ctx) {
+        SessionRegistry sessions = TrackingSessions.get(ctx);
+        if (isActive(sessions, SessionHeartbeats.SML)) start(ctx, SessionHeartbeats.SML);
+        if (isActive(sessions, SessionHeartbeats.SOS)) start(ctx, SessionHeartbeats.SOS);
+    }
+
+    private static boolean isActive(SessionRegistry sessions, int session) {
+        switch (session) {
+            case SessionHeartbeats.SOS:
+                SessionRegistry.Sos sos = sessions.sos();
+                return sos.active && !sos.sosId.isEmpty() && !sos.supabaseUrl.isEmpty();
+            case SessionHeartbeats.SML:
+                SessionRegistry.Sml sml = sessions.sml();
+                return sml.active && !sml.checkinId.isEmpty() && !sml.supabaseUrl.isEmpty();
+            default:
+                return sessions.ambient().active;
+        }
+    }
+
+    private static Class<?> serviceClass(int session) {
+        switch (session) {
+            case SessionHeartbeats.SOS:
+                return SOSLocationService.class;
+            case SessionHeartbeats.SML:
+                return SMLLocationService.class;
+            default:
+                return AmbientLocationService.class;
+        }
+    }
+
+    private static int restartRequestCode(int session) {
+        switch (session) {
+            case SessionHeartbeats.SOS:
+                return RESTART_REQUEST_SOS;
+            case SessionHeartbeats.SML:
+                return RESTART_REQUEST_SML;
+            default:
+                return RESTART_REQUEST_AMBIENT;
+        }
+    }
+
+    private static String name(int session) {
+        return serviceClass(session).getSimpleName();
+    }
+
+    /** Start the session's service with no extras: it recovers from the registry. */
+    private static void start(Context ctx, int session) {
+        Context app = ctx.getApplicationContext();
+        Intent intent = new Intent(app, serviceClass(session));
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                app.startForegroundService(intent);
+            } else {
+                app.startService(intent);
+            }
+            Log.d(TAG, "Started " + name(session));
+        } catch (Exception e) {
+            // Android 12+ refuses most background foreground-service
+            // starts; the next watchdog pass or app open tries again.
+            Log.e(TAG, "Failed to start " + name(session), e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.peja.app;
+
+/**
+ * When the on-device watchdog should restart a tracking session that has
+ * stopped making progress.
+ *
+ * Recovery used to wait for the server: the check-in cron marks a session
+ * stale two minutes after its last location write and sends a revive push,
+ * which needs FCM delivery and a network, and only covers SOS and SML.
+ * Now every service records a heartbeat (SessionHeartbeats) on start and
+ * on every write it completes, ok or not: a failing write is a network or
+ * auth problem a restart can't fix, but no write at all means the service
+ * or its process is gone. An active session whose heartbeat is older than
+ * its stall window gets restarted locally.
+ *
+ * The windows sit above each service's longest healthy silence: SOS and
+ * SML write at least every DeadReckoner.MAX_WRITE_GAP_MS (45s) or still
+ * heartbeat (15-60s), so two minutes, the server's own threshold; ambient
+ * can go a parked AmbientParkPolicy.KEEPALIVE_MS (30 min) between beats.
+ * A restart that doesn't bring the heartbeat back waits a doubling backoff
+ * before the next, so a service the OS keeps refusing isn't hammered; any
+ * heartbeat resets it.
+ */
+final class RestartPolicy {
+
+    static final long LIVE_STALL_MS = 2 * 60_000L;
+    static final long AMBIENT_STALL_MS = 45 * 60_000L;
+    static final long BACKOFF_MAX_MS = 30 * 60_000L;
+    /** Follow-up check while a live session runs; WorkManager's periodic floor is 15 min. */
+    static final long LIVE_CHECK_MS = 2 * 60_000L;
+
+    private RestartPolicy() {
+    }
+
+    static long stallMs(int session) {
+        return session == SessionHeartbeats.AMBIENT ? AMBIENT_STALL_MS : LIVE_STALL_MS;
+    }
+
+    /**
+     * Whether an active session should be restarted now. {@code restarts}
+     * counts attempts since its last heartbeat.
+     */
+    static boolean due(int session, long nowMs, long lastBeatMs, long lastRestartMs, int restarts) {
+        long stall = stallMs(session);
+        if (nowMs - lastBeatMs < stall) return false;
+        if (restarts == 0) return true;
+        long backoff = Math.min(BACKOFF_MAX_MS, stall << Math.min(restarts - 1, 16));
+        return nowMs - lastRestartMs >= backoff;
+    }
+}
@@ -1,6 +1,5 @@
 package com.peja.app;
 
-import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.util.Log;
@@ -23,6 +22,7 @@ public class SMLLocationPlugin extends Plugin {
         String supabaseKey = call.getString("supabaseKey", "");
         String accessToken = call.getString("accessToken", "");
         String refreshToken = call.getString("refreshToken", "");
+        String escalationUrl = call.getString("escalationUrl", "");
 
         if (checkinId.isEmpty() || supabaseUrl.isEmpty() || supabaseKey.isEmpty()) {
             call.reject("Missing required parameters");
@@ -31,12 +31,11 @@ public class SMLLocationPlugin extends Plugin {
 
         // Seed the shared token store so the service can refresh the session
         // natively after the WebView is backgrounded or killed. This is what
-        // keeps multi-hour tracking authenticated past token expiry. On a
-        // background thread: storeTokens takes the auth lock, which a native
-        // refresh can hold for a full network round trip, and the service
-        // start must not wait on that. The service's first writes fall back
-        // to the intent token until the seed lands.
-        new Thread(() -> PejaSupabaseAuth.storeTokens(getContext(), accessToken, refreshToken)).start();
+        // keeps multi-hour tracking authenticated past token expiry. Inline:
+        // storeTokens only waits on another store's commit (a native refresh
+        // no longer holds the auth lock over the network), and seeding before
+        // the start means the service's first write already has the pair.
+        TrackerClient.storeTokens(getContext(), accessToken, refreshToken);
 
         Log.d(TAG, "Starting SML tracking, checkinId: " + checkinId);
 
@@ -45,15 +44,13 @@ public class SMLLocationPlugin extends Plugin {
         intent.putExtra(SMLLocationService.EXTRA_SUPABASE_URL, supabaseUrl);
         intent.putExtra(SMLLocationService.EXTRA_SUPABASE_KEY, supabaseKey);
         intent.putExtra(SMLLocationService.EXTRA_ACCESS_TOKEN, accessToken);
+        intent.putExtra(SMLLocationService.EXTRA_ESCALATION_URL, escalationUrl);
 
         // Mark tracking active NOW, before the service's own saveState runs
         // on the main thread. The JS token-rotation push gates on isTracking;
         // without this a rotation landing in the start gap would be dropped
         // and the store left holding a consumed refresh token.
-        getContext().getSharedPreferences(SMLLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .edit()
-                .putBoolean("is_active", true)
-                .apply();
+        TrackerClient.setActive(getContext(), SessionHeartbeats.SML, true);
 
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -66,10 +63,7 @@ public class SMLLocationPlugin extends Plugin {
             // background (ForegroundServiceStartNotAllowedException). Don't
             // crash — report not-started so JS keeps its web fallback.
             Log.e(TAG, "Failed to start SML service", e);
-            getContext().getSharedPreferences(SMLLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                    .edit()
-                    .putBoolean("is_active", false)
-                    .apply();
+            TrackerClient.setActive(getContext(), SessionHeartbeats.SML, false);
             JSObject result = new JSObject();
             result.put("started", false);
             call.resolve(result);
@@ -89,10 +83,7 @@ public class SMLLocationPlugin extends Plugin {
         intent.setAction(SMLLocationService.ACTION_STOP);
         getContext().startService(intent);
 
-        getContext().getSharedPreferences(SMLLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .edit()
-                .putBoolean("is_active", false)
-                .apply();
+        TrackerClient.setActive(getContext(), SessionHeartbeats.SML, false);
 
         JSObject result = new JSObject();
         result.put("stopped", true);
@@ -110,18 +101,23 @@ public class SMLLocationPlugin extends Plugin {
             // holding a stale, already-used refresh token. The running
             // services read this store on every Supabase write; no restart
             // is needed.
-            PejaSupabaseAuth.storeTokens(getContext(), accessToken, refreshToken);
+            TrackerClient.storeTokens(getContext(), accessToken, refreshToken);
         }
         JSObject result = new JSObject();
         result.put("updated", !accessToken.isEmpty());
         call.resolve(result);
     }
 
+    @PluginMethod
+    public void getDiagnostics(PluginCall call) {
+        // GPS policy of the running SML session: indoor/outdoor sky view
+        // and how long the GNSS chip has actually been searching.
+        call.resolve(TrackerClient.diagnostics(getContext(), TrackingDiagnostics.SML));
+    }
+
     @PluginMethod
     public void isTracking(PluginCall call) {
-        boolean isActive = getContext()
-                .getSharedPreferences(SMLLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .getBoolean("is_active", false);
+        boolean isActive = TrackerClient.isActive(getContext(), SessionHeartbeats.SML);
 
         JSObject result = new JSObject();
         result.put("tracking", isActive);
@@ -134,9 +130,10 @@ public class SMLLocationPlugin extends Plugin {
         // (supabase.auth.setSession) instead of replaying its own stale
         // refresh token, which would trip GoTrue reuse detection and revoke
         // the whole session family.
+        String[] tokens = TrackerClient.readTokens(getContext());
         JSObject result = new JSObject();
-        result.put("accessToken", PejaSupabaseAuth.readAccess(getContext()));
-        result.put("refreshToken", PejaSupabaseAuth.readRefresh(getContext()));
+        result.put("accessToken", tokens[0]);
+        result.put("refreshToken", tokens[1]);
         call.resolve(result);
     }
 
@@ -144,7 +141,7 @@ public class SMLLocationPlugin extends Plugin {
     public void clearSession(PluginCall call) {
         // Called on sign-out so a valid refresh token for the old account
         // never lingers on disk.
-        PejaSupabaseAuth.clear(getContext());
+        TrackerClient.clearTokens(getContext());
         JSObject result = new JSObject();
         result.put("cleared", true);
         call.resolve(result);
@@ -1,32 +1,40 @@
 package com.peja.app;
 
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Build;
-import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.PowerManager;
+import android.os.Trace;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.time.Instant;
 import java.util.concurrent.TimeUnit;
 
@@ -47,31 +55,53 @@ public class SMLLocationService extends Service {
     public static final String TAG = "SMLLocationService";
     public static final String CHANNEL_ID = "peja_sml_channel";
     public static final int NOTIFICATION_ID = 9002;
+    /** Pre-registry session state; read once by TrackingSessions to import it. */
     public static final String PREFS_NAME = "peja_sml_prefs";
 
     public static final String EXTRA_CHECKIN_ID = "checkin_id";
     public static final String EXTRA_SUPABASE_URL = "supabase_url";
     public static final String EXTRA_SUPABASE_KEY = "supabase_key";
     public static final String EXTRA_ACCESS_TOKEN = "access_token";
+    public static final String EXTRA_ESCALATION_URL = "escalation_url";
 
     public static final String ACTION_STOP = "com.peja.app.STOP_SML_TRACKING";
+    /** The check-in deadline alarm (see CheckInDeadline). */
+    public static final String ACTION_CHECKIN_DEADLINE = "com.peja.app.SML_CHECKIN_DEADLINE";
+    private static final int DEADLINE_REQUEST_CODE = 6;
 
     private static final MediaType JSON_TYPE = MediaType.get("application/json");
 
+    // One-shot requests only; the subscriptions are the shared hub's.
     private FusedLocationProviderClient fusedLocationClient;
-    private LocationCallback locationCallback;
-    private PowerManager.WakeLock wakeLock;
+    private LocationHub hub;
+    // The CPU hold, one per service instance (see WakeBudget).
+    private WakeBudget wakeBudget;
 
     // Platform LocationManager as a GMS-independent fallback. On many low-end
     // MediaTek/Transsion devices the Google Play Services fused provider
     // silently delivers nothing, so we also listen to GPS + network providers
-    // directly, which don't depend on GMS.
+    // directly, which don't depend on GMS. All three are the hub's channels;
+    // locationManager is for the last-known read at start.
     private LocationManager locationManager;
-    private LocationListener gpsListener;
-    private LocationListener networkListener;
+    private final LocationHub.Client hubClient = new LocationHub.Client() {
+        @Override
+        public void onFix(Location location, String source) {
+            if (tracking) onDeliveredFix(location, source);
+        }
+
+        @Override
+        public void onProvidersChanged() {
+            if (stallWatch != null) stallWatch.onProvidersChanged();
+        }
+
+        @Override
+        public void onUnavailable(Exception e) {
+            // The platform channels carry on without Play services.
+        }
+    };
     // Throttle so the three sources (fused + GPS + network) don't flood the
     // backend; keeps the effective cadence near the intended 15s.
-    private volatile long lastSentMs = 0L;
+    private long lastSentMs = 0L;
     // Guards against re-registering listeners when onStartCommand is delivered
     // again to an already-running service (e.g. a revive push that arrives
     // while tracking is still alive).
@@ -82,13 +112,68 @@ public class SMLLocationService extends Service {
     //  - speed: chipset first (m/s), derived from successive fixes second
     //  - stillness: anchor point; moving >30m replants it; still_since is
     //    simply the anchor's timestamp (viewers only show it after 60s)
-    private volatile double lastLat = 0, lastLng = 0;
-    private volatile long lastAtMs = 0L;
-    private volatile double anchorLat = 0, anchorLng = 0;
-    private volatile long anchorAtMs = 0L;
+    // Confined to the tracking thread; the upload threads get copies.
+    private double lastLat = 0, lastLng = 0;
+    private long lastAtMs = 0L;
+    private GeoMath.Origin anchor;
+    private long anchorAtMs = 0L;
     // Accuracy gate state: when the last GOOD (<=150m) fix arrived, so
     // coarse network-provider fixes only pass while we're blind.
-    private volatile long lastGoodFixMs = 0L;
+    private long lastGoodFixMs = 0L;
+
+    // Stationary duty cycling (see MotionDutyCycle): while the anchor holds,
+    // the fused request drops to balanced power and the GPS listener is
+    // removed; the heartbeat keeps the 15s cadence from the anchor.
+    private static final long HEARTBEAT_MS = 15_000L;
+    // GPS and network listeners (the hub's platform channels) at the same cadence.
+    private static final LocationFanout.Demand PLATFORM_DEMAND =
+            LocationFanout.Demand.pinned(Priority.PRIORITY_HIGH_ACCURACY, HEARTBEAT_MS);
+    // 8h cap — long enough for a 4h check-in plus a "I'm OK" reset that
+    // extends it. Falls back to foreground-service-only after this expires;
+    // accuracy may degrade in Doze but the process stays alive.
+    private static final long WAKE_CAP_MS = 8 * 60 * 60 * 1000L;
+    private MotionDutyCycle dutyCycle;
+    // Velocity for the viewers' extrapolation, and which writes they can do without.
+    private final DeadReckoner reckoner = new DeadReckoner();
+    private MotionWakeSensor motionSensor;
+    // Location callbacks, timers and state all live on this thread (see
+    // TrackingThread); heartbeatHandler is its handler.
+    private TrackingThread tracker;
+    private Handler heartbeatHandler;
+    private final FixCost fixCost = new FixCost();
+    private final Runnable heartbeat = new Runnable() {
+        @Override
+        public void run() {
+            // Also the clock for the indoor probe windows, which open and
+            // close on their own schedule rather than on any fix.
+            applyGpsPolicy();
+            sendFingerprintFixIfBlind();
+            sendStillHeartbeat();
+            heartbeatHandler.postDelayed(this, HEARTBEAT_MS);
+        }
+    };
+
+    // Sky-view gate on top of the duty cycle (see SkyViewClassifier): while
+    // the GnssStatus reports say we're indoors, GPS only runs in short probe
+    // windows and the session rides on network fixes and the blind valve.
+    private SkyViewClassifier skyView;
+    private GnssSkyMonitor skyMonitor;
+    private long sessionStartMs = 0L;
+
+    // Learned cell/Wi-Fi positions (see FingerprintLocator): an extra source
+    // once we've been blind (no good fix) for FINGERPRINT_BLIND_MS.
+    private static final long FINGERPRINT_BLIND_MS = 60_000L;
+    private FingerprintLocator fingerprints;
+    // Fused going quiet under a live service (see FixStallDetector).
+    private FixStallDetector stall;
+    private FixStallWatch stallWatch;
+
+    // Every shipped fix, appended to files/sml_trails/<checkinId>.bin as it
+    // goes and uploaded simplified when the session stops (see TrailBuffer).
+    private static final String TRAIL_DIR = "sml_trails";
+    private TrailBuffer trail;
+    private DataOutputStream trailOut;
+    private String trailCheckinId = "";
 
     private final OkHttpClient httpClient = new OkHttpClient.Builder()
             .connectTimeout(10, TimeUnit.SECONDS)
@@ -108,11 +193,21 @@ public class SMLLocationService extends Service {
     private String supabaseUrl = "";
     private String supabaseKey = "";
     private String accessToken = "";
+    private String escalationUrl = "";
+
+    // The check-in's deadline, read back by every PATCH: an alarm that
+    // reports it missed from here the moment it passes (see CheckInDeadline).
+    private CheckInDeadline deadline;
+    private final Runnable deadlineTimer = this::onDeadlineAlarm;
 
     @Override
     public void onCreate() {
         super.onCreate();
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        hub = LocationHub.get(this);
+        tracker = new TrackingThread("peja-sml-tracking");
+        heartbeatHandler = tracker.handler;
+        wakeBudget = PowerLock.budget(this, "peja:sml_location_lock", WAKE_CAP_MS);
         createNotificationChannel();
     }
 
@@ -143,29 +238,46 @@ public class SMLLocationService extends Service {
 
         if (intent != null && ACTION_STOP.equals(intent.getAction())) {
             Log.d(TAG, "Stop action received");
+            cancelDeadlineAlarm();
+            // The trail is tracking state; onDestroy's teardown queues behind this.
+            heartbeatHandler.post(() -> {
+                closeTrail();
+                uploadPendingTrails(null);
+            });
             clearState();
             stopForegroundCompat();
             stopSelf();
             return START_NOT_STICKY;
         }
 
+        // The rest touches tracking state, which belongs to the tracking
+        // thread. An invalid start stops itself there; its registry entry
+        // is already inactive, so a sticky restart would stop again.
+        heartbeatHandler.post(() -> onStart(intent));
+        return START_STICKY;
+    }
+
+    /** onStartCommand past the foreground promotion and the stop action. */
+    private void onStart(Intent intent) {
         if (intent != null && intent.getStringExtra(EXTRA_CHECKIN_ID) != null) {
             checkinId = intent.getStringExtra(EXTRA_CHECKIN_ID);
             supabaseUrl = intent.getStringExtra(EXTRA_SUPABASE_URL) != null ? intent.getStringExtra(EXTRA_SUPABASE_URL) : "";
             supabaseKey = intent.getStringExtra(EXTRA_SUPABASE_KEY) != null ? intent.getStringExtra(EXTRA_SUPABASE_KEY) : "";
             accessToken = intent.getStringExtra(EXTRA_ACCESS_TOKEN) != null ? intent.getStringExtra(EXTRA_ACCESS_TOKEN) : "";
+            escalationUrl = intent.getStringExtra(EXTRA_ESCALATION_URL) != null ? intent.getStringExtra(EXTRA_ESCALATION_URL) : "";
         } else {
             // Restart with no extras — this is a START_STICKY restart after the
             // process was killed (e.g. the user swiped the app from recents).
-            // Recover the in-flight check-in from prefs and resume tracking.
-            android.content.SharedPreferences prefs =
-                    getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            if (prefs.getBoolean("is_active", false)) {
-                checkinId = prefs.getString("checkin_id", "");
-                supabaseUrl = prefs.getString("supabase_url", "");
-                supabaseKey = prefs.getString("supabase_key", "");
-                accessToken = prefs.getString("access_token", "");
-                Log.d(TAG, "Recovered SML check-in from prefs: " + checkinId);
+            // Recover the in-flight check-in from the session registry and
+            // resume tracking.
+            SessionRegistry.Sml saved = TrackingSessions.get(this).sml();
+            if (saved.active) {
+                checkinId = saved.checkinId;
+                supabaseUrl = saved.supabaseUrl;
+                supabaseKey = saved.supabaseKey;
+                accessToken = saved.accessToken;
+                escalationUrl = saved.escalationUrl;
+                Log.d(TAG, "Recovered SML check-in from the session registry: " + checkinId);
             }
         }
 
@@ -174,63 +286,72 @@ public class SMLLocationService extends Service {
             clearState();
             stopForegroundCompat();
             stopSelf();
-            return START_NOT_STICKY;
+            return;
         }
 
+        if (deadline == null) {
+            // A restart of the same check-in keeps the deadline it had.
+            SessionRegistry.Sml saved = TrackingSessions.get(this).sml();
+            deadline = new CheckInDeadline(saved.checkinId.equals(checkinId) ? saved.deadlineMs : 0L);
+        }
         saveState();
+        RestartOrchestrator.onServiceStarted(this, SessionHeartbeats.SML);
+        openTrail();
+        // A trail whose upload failed, or whose session was killed before
+        // its stop, goes up now that we have a network-capable service.
+        uploadPendingTrails(checkinId);
 
-        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        wakeLock = powerManager.newWakeLock(
-                PowerManager.PARTIAL_WAKE_LOCK,
-                "peja:sml_location_lock"
-        );
-        // 8h cap — long enough for a 4h check-in plus a "I'm OK" reset that
-        // extends it. Falls back to foreground-service-only after this expires;
-        // accuracy may degrade in Doze but the process stays alive.
-        wakeLock.acquire(8 * 60 * 60 * 1000L);
+        // Held for the whole check-in: the 15s heartbeat, the still re-sends
+        // and the stall watch all run between deliveries. Idempotent, so a
+        // re-delivered start keeps the one lock it has.
+        wakeBudget.keepAwake(true);
 
         startLocationUpdates();
+        armDeadline();
+        if (intent != null && ACTION_CHECKIN_DEADLINE.equals(intent.getAction())) onDeadlineAlarm();
 
         Log.d(TAG, "SML service started, checkinId: " + checkinId);
-
-        return START_STICKY;
     }
 
     private void startLocationUpdates() {
         if (tracking) return; // already registered — avoid duplicate listeners
         tracking = true;
 
-        // Strict 15s cadence regardless of movement, matching SOS. Pinning
-        // interval == minInterval == maxDelay forces a fresh fix every ~15s
-        // even when the user is stationary, which is the whole point of the
-        // safety check-in feature.
-        LocationRequest locationRequest = new LocationRequest.Builder(
-                Priority.PRIORITY_HIGH_ACCURACY,
-                15_000L
-        )
-                .setMinUpdateDistanceMeters(0f)
-                .setMinUpdateIntervalMillis(15_000L)
-                .setMaxUpdateDelayMillis(15_000L)
-                .build();
+        sessionStartMs = System.currentTimeMillis();
+        dutyCycle = new MotionDutyCycle(sessionStartMs);
+        motionSensor = new MotionWakeSensor(this, this::onMotionDetected, tracker.looper());
+        skyView = new SkyViewClassifier();
+        skyView.setGpsOn(sessionStartMs, true);
+        skyMonitor = new GnssSkyMonitor(this, skyView, state -> applyGpsPolicy(), tracker.looper());
+        skyMonitor.start();
+        fingerprints = FingerprintLocator.get(this);
+        stall = new FixStallDetector(sessionStartMs);
+        stallWatch = new FixStallWatch(this, TAG, stall, () -> HEARTBEAT_MS, new FixStallWatch.Rearm() {
+            @Override
+            public void rerequestFused() {
+                hub.rearm(LocationHub.FUSED);
+            }
+
+            @Override
+            public void addPlatformProviders() {
+                // Already listening; re-registering is the step here.
+                restartPlatformUpdates();
+            }
+
+            @Override
+            public void requestCurrentLocation() {
+                SMLLocationService.this.requestCurrentLocation();
+            }
 
-        locationCallback = new LocationCallback() {
             @Override
-            public void onLocationResult(LocationResult result) {
-                if (result == null || result.getLastLocation() == null) return;
-                onNewLocation(result.getLastLocation(), "fused");
+            public void reregister() {
+                rerequestFused();
+                restartPlatformUpdates();
             }
-        };
+        }, tracker.looper());
 
         // 1) GMS fused provider — best accuracy/battery when it works.
-        try {
-            fusedLocationClient.requestLocationUpdates(
-                    locationRequest,
-                    locationCallback,
-                    Looper.getMainLooper()
-            ).addOnFailureListener(e -> Log.e(TAG, "Fused requestLocationUpdates failed", e));
-        } catch (SecurityException e) {
-            Log.e(TAG, "Location permission denied (fused)", e);
-        }
+        requestFusedUpdates();
 
         // 2) Platform LocationManager — GMS-independent fallback so devices
         //    where fused delivers nothing still report location.
@@ -239,32 +360,173 @@ public class SMLLocationService extends Service {
         // 3) Send an immediate last-known fix so the viewer doesn't wait for
         //    the first periodic update.
         sendLastKnownNow();
+
+        publishDiagnostics();
+        heartbeatHandler.postDelayed(heartbeat, HEARTBEAT_MS);
+        stallWatch.start();
     }
 
-    private void startPlatformUpdates() {
-        try {
-            if (locationManager == null) {
-                locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-            }
-            if (locationManager == null) return;
+    /**
+     * Strict 15s cadence regardless of movement, matching SOS. Pinning
+     * interval == minInterval == maxDelay forces a fresh fix every ~15s
+     * even when the user is stationary, which is the whole point of the
+     * safety check-in feature. While still or indoors, the same cadence
+     * runs on balanced power (Wi-Fi/cell): enough to notice displacement,
+     * without keeping the GNSS chip searching.
+     */
+    private LocationFanout.Demand fusedDemand() {
+        int priority = skyView != null && skyView.isGpsOn()
+                ? Priority.PRIORITY_HIGH_ACCURACY
+                : Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+        return LocationFanout.Demand.pinned(priority, HEARTBEAT_MS);
+    }
 
-            gpsListener = new SimpleLocationListener("gps");
-            networkListener = new SimpleLocationListener("network");
+    /** Joins the hub's fused subscription, or updates what this session asks of it. */
+    private void requestFusedUpdates() {
+        hub.request(LocationHub.FUSED, hubClient, tracker.executor, fusedDemand());
+    }
 
-            if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
-                locationManager.requestLocationUpdates(
-                        LocationManager.GPS_PROVIDER, 15_000L, 0f,
-                        gpsListener, Looper.getMainLooper());
+    /**
+     * Re-register after a duty-cycle transition. The hub re-requests with
+     * the same callback, which replaces the previous request, so the new
+     * priority applies from the next delivery, i.e. within one 15s interval.
+     */
+    private void applyDutyCycle() {
+        boolean still = dutyCycle.isStill();
+        Log.d(TAG, still ? "Still: releasing GPS, balanced-power heartbeat"
+                : "Moving: back to high-accuracy GPS");
+        if (still) {
+            motionSensor.arm();
+        } else {
+            motionSensor.disarm();
+            // Starting to move is when an indoor user walks outside: probe
+            // the sky now instead of at the next scheduled window.
+            skyView.probeNow(System.currentTimeMillis());
+        }
+        applyGpsPolicy();
+    }
+
+    /**
+     * GPS runs only when the duty cycle (moving) AND the sky view (open, or
+     * inside a probe window) both want it. Re-registers only when that
+     * answer changes, so the 15s heartbeat calling this costs nothing.
+     */
+    private void applyGpsPolicy() {
+        if (!tracking || dutyCycle == null || skyView == null) return;
+        long now = System.currentTimeMillis();
+        boolean gps = !dutyCycle.isStill() && skyView.gpsWanted(now);
+        if (gps != skyView.isGpsOn()) {
+            skyView.setGpsOn(now, gps);
+            if (!gps && skyView.isObstructed()) {
+                Log.d(TAG, "Indoors: GPS off until the next probe window");
             }
-            if (locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
-                locationManager.requestLocationUpdates(
-                        LocationManager.NETWORK_PROVIDER, 15_000L, 0f,
-                        networkListener, Looper.getMainLooper());
+            requestFusedUpdates();
+            setGpsListenerEnabled(gps);
+        }
+        publishDiagnostics();
+    }
+
+    /** Network work off the tracking thread, with the CPU held until it's done. */
+    private void inBackground(Runnable work) {
+        wakeBudget.acquire(WakeBudget.Cause.UPLOAD);
+        new Thread(() -> {
+            try {
+                work.run();
+            } finally {
+                wakeBudget.release(WakeBudget.Cause.UPLOAD);
             }
+        }).start();
+    }
+
+    private void publishDiagnostics() {
+        TrackingDiagnostics.publish(TrackingDiagnostics.SML, new TrackingDiagnostics.Snapshot(
+                sessionStartMs, System.currentTimeMillis(), dutyCycle.isStill(), skyView, stall,
+                wakeBudget, fixCost));
+    }
+
+    private void onMotionDetected() {
+        if (dutyCycle != null && dutyCycle.onMotionDetected(System.currentTimeMillis())) {
+            applyDutyCycle();
+        }
+    }
+
+    /**
+     * Still-mode heartbeat: fused on balanced power may deliver late or get
+     * gated, so when nothing has gone out for a full cadence, re-send the
+     * anchored position. still_since keeps advancing on the viewer exactly
+     * as it would with fresh fixes.
+     */
+    private void sendStillHeartbeat() {
+        if (dutyCycle == null || !dutyCycle.isStill() || anchorAtMs == 0L) return;
+        long now = System.currentTimeMillis();
+        if (now - lastSentMs < HEARTBEAT_MS) return;
+        lastSentMs = now;
+        updateCheckinLocation(anchor.lat, anchor.lng, 0d, anchorAtMs, 0d, 0d, Double.NaN, now);
+    }
+
+    /**
+     * Blind and moving: GPS hasn't produced a good fix in a minute and the
+     * network provider offers nothing or a 1-2km cell fix. A fingerprint
+     * hit goes through onNewLocation like any other source, so the accuracy
+     * gate still decides whether it ships.
+     */
+    private void sendFingerprintFixIfBlind() {
+        if (fingerprints == null || dutyCycle == null || dutyCycle.isStill()) return;
+        long now = System.currentTimeMillis();
+        if (now - lastGoodFixMs < FINGERPRINT_BLIND_MS || now - lastSentMs < HEARTBEAT_MS) return;
+        Location loc = fingerprints.locate();
+        if (loc != null) onNewLocation(loc, FingerprintLocator.PROVIDER);
+    }
+
+    private void setGpsListenerEnabled(boolean enabled) {
+        if (!tracking) return;
+        if (enabled) hub.request(LocationHub.GPS, hubClient, tracker.executor, PLATFORM_DEMAND);
+        else hub.remove(LocationHub.GPS, hubClient);
+    }
+
+    private void startPlatformUpdates() {
+        hub.request(LocationHub.GPS, hubClient, tracker.executor, PLATFORM_DEMAND);
+        hub.request(LocationHub.NETWORK, hubClient, tracker.executor, PLATFORM_DEMAND);
+    }
+
+    /** Drop and re-add the platform listeners: location was toggled, or fused went quiet. */
+    private void restartPlatformUpdates() {
+        startPlatformUpdates();
+        hub.rearm(LocationHub.GPS);
+        hub.rearm(LocationHub.NETWORK);
+        // Mid-stall any fix beats none, so GPS stays on whatever the duty
+        // cycle says; onDeliveredFix hands it back to the policy.
+        if (!stall.isStalled()) setGpsListenerEnabled(skyView.isGpsOn());
+    }
+
+    /** Last step of the stall ladder: one fix on demand from fused. */
+    private void requestCurrentLocation() {
+        try {
+            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
+                    .addOnSuccessListener(tracker.executor, loc -> {
+                        if (loc != null && tracking) onDeliveredFix(loc, "current");
+                    })
+                    .addOnFailureListener(e -> Log.e(TAG, "getCurrentLocation failed", e));
         } catch (SecurityException e) {
-            Log.e(TAG, "Location permission denied (platform)", e);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to start platform location updates", e);
+            Log.e(TAG, "Location permission denied (current)", e);
+        }
+    }
+
+    /** A fix a provider actually delivered (not cached or estimated). */
+    private void onDeliveredFix(Location location, String source) {
+        wakeBudget.acquire(WakeBudget.Cause.DELIVERY);
+        Trace.beginSection("peja:sml fix");
+        long startNs = System.nanoTime();
+        try {
+            if (stallWatch.onFix(System.currentTimeMillis()) > 0L) {
+                publishDiagnostics();
+                setGpsListenerEnabled(skyView.isGpsOn());
+            }
+            onNewLocation(location, source);
+        } finally {
+            fixCost.record(System.nanoTime() - startNs, Looper.myLooper() == Looper.getMainLooper());
+            Trace.endSection();
+            wakeBudget.release(WakeBudget.Cause.DELIVERY);
         }
     }
 
@@ -289,23 +551,10 @@ public class SMLLocationService extends Service {
         }
     }
 
-    private class SimpleLocationListener implements LocationListener {
-        private final String source;
-        SimpleLocationListener(String source) { this.source = source; }
-        @Override public void onLocationChanged(Location location) {
-            if (location != null) {
-                onNewLocation(location, source);
-            }
-        }
-        // Required no-op overrides for older API levels.
-        @Override public void onStatusChanged(String provider, int status, Bundle extras) {}
-        @Override public void onProviderEnabled(String provider) {}
-        @Override public void onProviderDisabled(String provider) {}
-    }
-
     /** Throttle the three location sources to ~one write per 12s. */
     private void onNewLocation(Location location, String source) {
         long now = System.currentTimeMillis();
+        if (fingerprints != null) fingerprints.maybeLearn(location);
 
         // ── accuracy gate: never ship cell-tower junk while GPS works.
         // Coarse fixes (150-800m) pass only after 60s without a good one
@@ -317,7 +566,9 @@ public class SMLLocationService extends Service {
         // -> one coarse fix passes rather than going silent mid check-in.
         if (acc > 800f && (acc > 5000f || now - lastSentMs < 180_000L)) return;
         if (acc > 150f && acc <= 800f && now - lastGoodFixMs < 60_000L) return;
-        if (acc <= 150f) lastGoodFixMs = now;
+        // A fingerprint fix is an estimate from the cache, not a sign GPS
+        // works again; letting it reset the clock would end blind mode.
+        if (acc <= 150f && !FingerprintLocator.PROVIDER.equals(source)) lastGoodFixMs = now;
 
         if (now - lastSentMs < 12_000L) return;
         lastSentMs = now;
@@ -336,7 +587,7 @@ public class SMLLocationService extends Service {
         } else if (freshFix && lastAtMs > 0L) {
             double dt = (now - lastAtMs) / 1000.0;
             if (dt >= 1 && dt <= 60 && location.getAccuracy() < 100f) {
-                speedKmh = haversineM(lastLat, lastLng, lat, lng) / dt * 3.6d;
+                speedKmh = GeoMath.distanceM(lastLat, lastLng, lat, lng) / dt * 3.6d;
             }
         }
         if (speedKmh != null && speedKmh > 300d) speedKmh = null; // GPS teleport
@@ -344,28 +595,203 @@ public class SMLLocationService extends Service {
         lastLng = lng;
         lastAtMs = now;
 
-        // Stillness anchor: replant after ~30m of real movement.
-        if (anchorAtMs == 0L || haversineM(anchorLat, anchorLng, lat, lng) > 30d) {
-            anchorLat = lat;
-            anchorLng = lng;
+        // Stillness anchor: replant after ~30m of real movement. While the
+        // duty cycle is resting the GPS, fixes are mostly Wi-Fi/cell, so
+        // only a fix whose accuracy circle clears the anchor counts.
+        double fromAnchor = anchorAtMs == 0L ? 0d : anchor.distanceM(lat, lng);
+        boolean still = dutyCycle != null && dutyCycle.isStill();
+        boolean moved = still ? fromAnchor - acc > MotionDutyCycle.ANCHOR_RADIUS_M
+                : fromAnchor > MotionDutyCycle.ANCHOR_RADIUS_M;
+        if (anchorAtMs == 0L || moved) {
+            anchor = new GeoMath.Origin(lat, lng);
             anchorAtMs = now;
         }
+        // Only chipset speed may wake the GPS: speed derived from two
+        // Wi-Fi/cell fixes is mostly their wobble.
+        Double chipsetKmh = freshFix && location.hasSpeed() ? speedKmh : null;
+        if (dutyCycle != null
+                && dutyCycle.onFix(now, fromAnchor, acc, chipsetKmh, anchorAtMs)) {
+            applyDutyCycle();
+            still = dutyCycle.isStill();
+        }
+
+        // Steady, straight motion the viewers are already extrapolating
+        // doesn't need this write; the trail still gets the fix.
+        long fixMs = Math.min(location.getTime(), now);
+        journal(fixMs, lat, lng, acc, speedKmh, source);
+        reckoner.onFix(fixMs, lat, lng, acc,
+                freshFix && location.hasSpeed() ? (double) location.getSpeed() : null,
+                freshFix && location.hasBearing() ? (double) location.getBearing() : null);
+        if (!reckoner.shouldWrite(still)) {
+            Log.d(TAG, "SML location (" + source + "): on predicted track, write skipped");
+            recordTrail(lat, lng, now);
+            return;
+        }
 
         Log.d(TAG, "SML location (" + source + "): " + lat + ", " + lng
-                + (speedKmh != null ? " @ " + Math.round(speedKmh) + " km/h" : ""));
-        updateCheckinLocation(lat, lng, speedKmh, anchorAtMs);
+                + (speedKmh != null ? " @ " + Math.round(speedKmh) + " km/h" : "")
+                + (still ? " [still]" : ""));
+        if (still) {
+            // Heartbeat from the anchor: a balanced-power fix wobbles tens
+            // of metres around a phone that hasn't moved.
+            updateCheckinLocation(anchor.lat, anchor.lng, 0d, anchorAtMs, 0d, 0d, Double.NaN, fixMs);
+            recordTrail(anchor.lat, anchor.lng, now);
+        } else {
+            updateCheckinLocation(lat, lng, speedKmh, anchorAtMs, reckoner.writtenNorthMps(),
+                    reckoner.writtenEastMps(), reckoner.writtenHeadingDeg(), fixMs);
+            recordTrail(lat, lng, now);
+        }
+    }
+
+    /** Every accepted fix goes to the local journal, written or not. */
+    private void journal(long fixMs, double lat, double lng, float acc, Double speedKmh, String source) {
+        FixJournal j = FixJournalPlugin.journal(this);
+        if (j == null) return;
+        j.append(fixMs, lat, lng, acc, speedKmh != null ? (float) (speedKmh / 3.6d) : Float.NaN,
+                FixJournal.source(source), FixJournal.KIND_SML, FixJournal.tag(checkinId));
+    }
+
+    private File trailFile(String id) {
+        return new File(new File(getFilesDir(), TRAIL_DIR), id + ".bin");
+    }
+
+    /** Resume this check-in's trail file, or start one. */
+    private void openTrail() {
+        if (trailOut != null && checkinId.equals(trailCheckinId)) return;
+        closeTrail(); // a new check-in re-delivered to a running service
+        trail = null;
+        trailCheckinId = checkinId;
+        File file = trailFile(checkinId);
+        try {
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)))) {
+                    trail = TrailBuffer.readFrom(in);
+                } catch (IOException e) {
+                    trail = null; // shorter than a header: start over
+                }
+            }
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) throw new IOException("mkdirs " + dir);
+            if (trail == null) {
+                trail = new TrailBuffer(System.currentTimeMillis());
+                trailOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false), 64));
+                TrailBuffer.writeHeader(trailOut, trail.startMs());
+                trailOut.flush();
+            } else {
+                // Truncate a torn last record so appends stay aligned.
+                long whole = 16L + trail.size() * 12L;
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(whole);
+                }
+                trailOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64));
+                Log.d(TAG, "Resumed SML trail with " + trail.size() + " fixes");
+            }
+        } catch (IOException e) {
+            // The live PATCHes don't depend on the trail; carry on without it.
+            Log.e(TAG, "Failed to open SML trail file", e);
+            trail = null;
+            trailOut = null;
+        }
+    }
+
+    private void recordTrail(double lat, double lng, long now) {
+        if (trail == null || trailOut == null || !trail.add(lat, lng, now)) return;
+        try {
+            trail.writeLast(trailOut);
+            trailOut.flush(); // one 12-byte write per fix
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append SML trail", e);
+        }
+    }
+
+    private void closeTrail() {
+        if (trailOut == null) return;
+        try {
+            trailOut.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close SML trail file", e);
+        }
+        trailOut = null;
     }
 
-    private static double haversineM(double lat1, double lng1, double lat2, double lng2) {
-        double r = 6371000d;
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLng = Math.toRadians(lng2 - lng1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
-        return 2 * r * Math.asin(Math.sqrt(a));
+    /**
+     * Simplify and upload every finished trail file, except the one for
+     * {@code skipId} (the session still recording). One PATCH per check-in;
+     * a file is deleted only once its row took the trail, so a failed
+     * upload retries on the next SML start.
+     */
+    private void uploadPendingTrails(String skipId) {
+        File[] files = new File(getFilesDir(), TRAIL_DIR).listFiles();
+        if (files == null || files.length == 0) return;
+        if (supabaseUrl.isEmpty()) {
+            // A stop delivered to a fresh instance (the tracking one was
+            // killed): the credentials are still in the registry.
+            SessionRegistry.Sml saved = TrackingSessions.get(this).sml();
+            supabaseUrl = saved.supabaseUrl;
+            supabaseKey = saved.supabaseKey;
+            accessToken = saved.accessToken;
+        }
+        if (supabaseUrl.isEmpty() || supabaseKey.isEmpty()) return;
+        inBackground(() -> {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".bin")) continue;
+                String id = name.substring(0, name.length() - 4);
+                if (id.equals(skipId)) continue;
+                uploadTrail(file, id);
+            }
+        });
     }
 
+    private void uploadTrail(File file, String id) {
+        TrailBuffer t;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            t = TrailBuffer.readFrom(in);
+        } catch (IOException e) {
+            t = null;
+        }
+        if (t == null || t.size() < 2) {
+            // Nothing worth a row update (a session that never got a fix).
+            if (!file.delete()) Log.e(TAG, "Failed to delete empty trail " + id);
+            return;
+        }
+        int[] kept = TrailSimplifier.simplify(t, TrailSimplifier.DEFAULT_TOLERANCE_M);
+        String json = "{" +
+                "\"trail_polyline\":" + jsonString(TrailSimplifier.encodePolyline(t, kept)) + "," +
+                "\"trail_times\":" + jsonString(TrailSimplifier.encodeTimes(t, kept)) + "," +
+                "\"trail_started_at\":\"" + isoTimestamp(t.startMs()) + "\"," +
+                "\"trail_points\":" + kept.length + "," +
+                "\"trail_raw_points\":" + t.size() +
+                "}";
+        try {
+            Request.Builder builder = new Request.Builder()
+                    .url(supabaseUrl + "/rest/v1/safety_checkins?id=eq." + id)
+                    .patch(RequestBody.create(json, JSON_TYPE))
+                    .addHeader("apikey", supabaseKey)
+                    .addHeader("Content-Type", "application/json")
+                    .addHeader("Prefer", "return=minimal");
+            Response response = executeAuthed(builder);
+            int code = response.code();
+            response.close();
+            if (code < 400) {
+                Log.d(TAG, "SML trail uploaded: " + kept.length + "/" + t.size() + " fixes, " + json.length() + " bytes");
+                if (!file.delete()) Log.e(TAG, "Failed to delete uploaded trail " + id);
+            } else {
+                Log.e(TAG, "SML trail upload failed: " + code);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to upload SML trail", e);
+        }
+    }
+
+    /** Quote an encoded polyline for JSON; its alphabet (63-126) needs only backslash escaped. */
+    private static String jsonString(String s) {
+        return "\"" + s.replace("\\", "\\\\") + "\"";
+    }
+
+
     /** ISO-8601 for an epoch, matching the format the PATCH already uses. */
     private static String isoTimestamp(long epochMs) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -377,38 +803,55 @@ public class SMLLocationService extends Service {
         return fmt.format(new java.util.Date(epochMs));
     }
 
-    private void updateCheckinLocation(double lat, double lng, Double speedKmh, long stillSinceMs) {
-        new Thread(() -> {
+    /**
+     * PATCH the check-in's position. {@code velNorthMps}/{@code velEastMps}
+     * and {@code fixMs} let viewers move the marker along the vector until
+     * the next write; {@code headingDeg} is NaN when too slow to have one.
+     */
+    private void updateCheckinLocation(double lat, double lng, Double speedKmh, long stillSinceMs,
+                                       double velNorthMps, double velEastMps, double headingDeg,
+                                       long fixMs) {
+        inBackground(() -> {
             try {
                 String timestamp = isoTimestamp(System.currentTimeMillis());
                 // speed_kmh rounded to one decimal; null when unknown.
                 String speedStr = speedKmh != null
                         ? String.format(java.util.Locale.US, "%.1f", speedKmh)
                         : "null";
+                String headingStr = Double.isNaN(headingDeg) ? "null"
+                        : String.valueOf(Math.round(headingDeg));
 
                 String json = "{" +
                         "\"latitude\":" + lat + "," +
                         "\"longitude\":" + lng + "," +
                         "\"speed_kmh\":" + speedStr + "," +
+                        "\"heading\":" + headingStr + "," +
+                        "\"vel_n_mps\":" + String.format(java.util.Locale.US, "%.2f", velNorthMps) + "," +
+                        "\"vel_e_mps\":" + String.format(java.util.Locale.US, "%.2f", velEastMps) + "," +
+                        "\"fix_at\":\"" + isoTimestamp(fixMs) + "\"," +
                         "\"still_since\":\"" + isoTimestamp(stillSinceMs) + "\"," +
                         "\"location_updated_at\":\"" + timestamp + "\"," +
                         "\"updated_at\":\"" + timestamp + "\"" +
                         "}";
 
+                // Read back the status and deadline: a confirm moves the
+                // deadline, and the device arms its alarm from it.
                 Request.Builder builder = new Request.Builder()
-                        .url(supabaseUrl + "/rest/v1/safety_checkins?id=eq." + checkinId)
+                        .url(supabaseUrl + "/rest/v1/safety_checkins?id=eq." + checkinId
+                                + "&select=status,next_check_in_at")
                         .patch(RequestBody.create(json, JSON_TYPE))
                         .addHeader("apikey", supabaseKey)
                         .addHeader("Content-Type", "application/json")
-                        .addHeader("Prefer", "return=minimal");
+                        .addHeader("Prefer", "return=representation");
 
                 Response response = executeAuthed(builder);
                 int code = response.code();
+                String body = response.body() != null ? response.body().string() : "";
                 if (code >= 400) {
-                    String body = response.body() != null ? response.body().string() : "";
                     Log.e(TAG, "SML location update failed: " + code + " " + body);
                 } else {
                     Log.d(TAG, "SML location updated: " + code);
+                    onCheckinRow(body, response);
                 }
                 response.close();
                 noteWriteResult(code < 400);
@@ -416,7 +859,158 @@ public class SMLLocationService extends Service {
                 Log.e(TAG, "Failed to update SML location", e);
                 noteWriteResult(false);
             }
-        }).start();
+        });
+    }
+
+    /** Hand the row a PATCH read back to the deadline, on the tracking thread. */
+    private void onCheckinRow(String body, Response response) {
+        try {
+            JSONArray rows = new JSONArray(body);
+            // No row: the check-in is gone (ended, or not ours any more).
+            JSONObject row = rows.length() > 0 ? rows.getJSONObject(0) : new JSONObject();
+            boolean active = "active".equals(row.optString("status"));
+            long serverDeadline = CheckInDeadline.parseTimestamp(row.optString("next_check_in_at", null));
+            long serverNow = serverDate(response);
+            long localNow = System.currentTimeMillis();
+            heartbeatHandler.post(() -> {
+                if (deadline != null && tracking
+                        && deadline.onServerState(active, serverDeadline, serverNow, localNow)) {
+                    saveState();
+                    armDeadline();
+                }
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Unreadable check-in row: " + body, e);
+        }
+    }
+
+    /** The server's clock from a response's Date header, 0 when missing. */
+    private static long serverDate(Response response) {
+        java.util.Date date = response.headers().getDate("Date");
+        // The header has whole seconds: the middle of that second.
+        return date != null ? date.getTime() + 500L : 0L;
+    }
+
+    /**
+     * Arm the deadline alarm, or cancel it when nothing is pending. An exact
+     * allow-while-idle alarm fires on time in Doze and may start this
+     * service from the background; without the exact-alarm permission the
+     * inexact one can run late in Doze, so a handler timer backs it up while
+     * the service (and its wakelock) is alive, and the cron behind both.
+     */
+    private void armDeadline() {
+        heartbeatHandler.removeCallbacks(deadlineTimer);
+        long at = deadline != null && !escalationUrl.isEmpty() ? deadline.alarmAtMs() : 0L;
+        if (at == 0L) {
+            cancelDeadlineAlarm();
+            return;
+        }
+        heartbeatHandler.postDelayed(deadlineTimer, Math.max(0L, at - System.currentTimeMillis()));
+        AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        if (am == null) return;
+        PendingIntent pi = deadlinePendingIntent();
+        try {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || am.canScheduleExactAlarms()) {
+                am.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
+            } else {
+                am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
+            }
+        } catch (SecurityException e) {
+            // The exact-alarm permission was revoked between the check and the call.
+            am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
+        }
+    }
+
+    private void cancelDeadlineAlarm() {
+        heartbeatHandler.removeCallbacks(deadlineTimer);
+        try {
+            AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+            if (am != null) am.cancel(deadlinePendingIntent());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to cancel the check-in deadline alarm", e);
+        }
+    }
+
+    private PendingIntent deadlinePendingIntent() {
+        Intent intent = new Intent(this, SMLLocationService.class);
+        intent.setAction(ACTION_CHECKIN_DEADLINE);
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return PendingIntent.getForegroundService(this, DEADLINE_REQUEST_CODE, intent, flags);
+        }
+        return PendingIntent.getService(this, DEADLINE_REQUEST_CODE, intent, flags);
+    }
+
+    /** The alarm or the handler timer fired: escalate if the deadline has passed, else re-arm. */
+    private void onDeadlineAlarm() {
+        if (deadline == null || escalationUrl.isEmpty()) return;
+        boolean due = deadline.onAlarm(System.currentTimeMillis());
+        armDeadline();
+        if (due) postMissedCheckin();
+    }
+
+    /**
+     * Report the missed check-in to the server with the latest position.
+     * The server flips the row to missed and notifies the contacts unless
+     * a confirm or the cron got there first; either way it answers with the
+     * row, which settles the deadline.
+     */
+    private void postMissedCheckin() {
+        final String url = escalationUrl;
+        final String id = checkinId;
+        final double lat = lastLat, lng = lastLng;
+        final long fixMs = lastAtMs;
+        Log.w(TAG, "Check-in deadline passed, escalating " + id);
+        inBackground(() -> {
+            boolean answered = false;
+            boolean active = false;
+            long serverDeadline = 0L;
+            long serverNow = 0L;
+            try {
+                JSONObject json = new JSONObject();
+                json.put("checkin_id", id);
+                if (fixMs > 0L) {
+                    json.put("latitude", lat);
+                    json.put("longitude", lng);
+                    json.put("fix_at", isoTimestamp(fixMs));
+                }
+                Request.Builder builder = new Request.Builder()
+                        .url(url)
+                        .post(RequestBody.create(json.toString(), JSON_TYPE))
+                        .addHeader("Content-Type", "application/json");
+                Response response = executeAuthed(builder);
+                int code = response.code();
+                String body = response.body() != null ? response.body().string() : "";
+                serverNow = serverDate(response);
+                response.close();
+                if (code == 404) {
+                    answered = true; // no such check-in any more
+                } else if (code < 400) {
+                    JSONObject row = new JSONObject(body);
+                    answered = true;
+                    active = "active".equals(row.optString("status"));
+                    serverDeadline = CheckInDeadline.parseTimestamp(row.optString("next_check_in_at", null));
+                    Log.d(TAG, "Missed check-in posted, escalated: " + row.optBoolean("escalated"));
+                } else {
+                    Log.e(TAG, "Missed check-in post failed: " + code + " " + body);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to post missed check-in", e);
+            }
+            final boolean ok = answered, stillActive = active;
+            final long nextDeadline = serverDeadline, date = serverNow;
+            final long localNow = System.currentTimeMillis();
+            heartbeatHandler.post(() -> {
+                if (deadline == null || !tracking) return;
+                if (ok) {
+                    deadline.onEscalationResult(stillActive, nextDeadline, date, localNow);
+                } else {
+                    deadline.onEscalationFailed(localNow);
+                }
+                saveState();
+                armDeadline();
+            });
+        });
     }
 
     /**
@@ -452,6 +1046,7 @@ public class SMLLocationService extends Service {
      * and flips back the moment a write lands again.
      */
     private void noteWriteResult(boolean ok) {
+        RestartOrchestrator.onWrite(this, SessionHeartbeats.SML);
         if (ok) {
             writeFailures.set(0);
             if (degradedNotified) {
@@ -459,6 +1054,8 @@ public class SMLLocationService extends Service {
                 refreshNotification(false);
             }
         } else {
+            // The viewers may not have this write's vector: send the next fix.
+            reckoner.invalidate();
             int failures = writeFailures.incrementAndGet();
             if (failures >= FAILURE_NOTIFY_THRESHOLD && !degradedNotified) {
                 degradedNotified = true;
@@ -526,19 +1123,12 @@ public class SMLLocationService extends Service {
     }
 
     private void saveState() {
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString("checkin_id", checkinId)
-                .putString("supabase_url", supabaseUrl)
-                .putString("supabase_key", supabaseKey)
-                .putString("access_token", accessToken)
-                .putBoolean("is_active", true)
-                .apply();
+        TrackingSessions.get(this).putSml(new SessionRegistry.Sml(true, checkinId, supabaseUrl,
+                supabaseKey, accessToken, escalationUrl, deadline != null ? deadline.deadlineMs() : 0L));
     }
 
     private void clearState() {
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean("is_active", false)
-                .apply();
+        TrackingSessions.get(this).setSmlActive(false);
     }
 
     /** Remove the foreground notification across API levels (minSdk 24). */
@@ -558,63 +1148,34 @@ public class SMLLocationService extends Service {
         // The user swiped Peja out of recents. Android tears down the process
         // and this foreground service with it. If a check-in is still active,
         // schedule a near-immediate restart so location sharing survives the
-        // swipe. Best-effort: aggressive OEM battery managers may still block
-        // the relaunch, and the battery-optimization exemption greatly improves
-        // the odds. START_STICKY + the prefs recovery above resume tracking.
-        try {
-            boolean active = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-                    .getBoolean("is_active", false);
-            if (active) {
-                Intent restart = new Intent(getApplicationContext(), SMLLocationService.class);
-                PendingIntent pi;
-                int flags = PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    pi = PendingIntent.getForegroundService(this, 2, restart, flags);
-                } else {
-                    pi = PendingIntent.getService(this, 2, restart, flags);
-                }
-                AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-                if (am != null) {
-                    long at = System.currentTimeMillis() + 1000;
-                    // setAndAllowWhileIdle fires even in Doze without needing
-                    // the exact-alarm permission.
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                        am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
-                    } else {
-                        am.set(AlarmManager.RTC_WAKEUP, at, pi);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to schedule restart on task removal", e);
-        }
+        // swipe. START_STICKY + the registry recovery above resume tracking.
+        RestartOrchestrator.onTaskRemoved(this, SessionHeartbeats.SML, 1_000L);
         super.onTaskRemoved(rootIntent);
     }
 
     @Override
     public void onDestroy() {
         Log.d(TAG, "SML service destroyed");
-        try {
-            if (locationCallback != null) {
-                fusedLocationClient.removeLocationUpdates(locationCallback);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error removing SML location updates", e);
-        }
-        try {
-            if (locationManager != null) {
-                if (gpsListener != null) locationManager.removeUpdates(gpsListener);
-                if (networkListener != null) locationManager.removeUpdates(networkListener);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error removing platform location updates", e);
-        }
-        if (wakeLock != null && wakeLock.isHeld()) {
-            wakeLock.release();
-        }
+        tracker.finish(this::stopTracking);
         super.onDestroy();
     }
 
+    /** onDestroy's teardown, on the tracking thread. */
+    private void stopTracking() {
+        tracking = false; // for results still queued behind us
+        heartbeatHandler.removeCallbacks(heartbeat);
+        // Not the alarm: if the check-in is still active it restarts us.
+        heartbeatHandler.removeCallbacks(deadlineTimer);
+        if (stallWatch != null) stallWatch.stop();
+        if (motionSensor != null) motionSensor.disarm();
+        if (skyMonitor != null) skyMonitor.stop();
+        if (fingerprints != null) fingerprints.flush();
+        closeTrail();
+        TrackingDiagnostics.clear(TrackingDiagnostics.SML);
+        hub.removeAll(hubClient);
+        wakeBudget.endSession();
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -1,6 +1,5 @@
 package com.peja.app;
 
-import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.util.Log;
@@ -35,12 +34,11 @@ public class SOSLocationPlugin extends Plugin {
 
         // Seed the shared token store so the service can refresh the session
         // natively after the WebView is backgrounded or killed. This is what
-        // keeps multi-hour tracking authenticated past token expiry. On a
-        // background thread: storeTokens takes the auth lock, which a native
-        // refresh can hold for a full network round trip, and an SOS start
-        // must not wait on that. The service's first writes fall back to the
-        // intent token until the seed lands.
-        new Thread(() -> PejaSupabaseAuth.storeTokens(getContext(), accessToken, refreshToken)).start();
+        // keeps multi-hour tracking authenticated past token expiry. Inline,
+        // now that a native refresh never holds the auth lock over the
+        // network; an SOS start waits for one call into :tracker and its
+        // prefs commit at most.
+        TrackerClient.storeTokens(getContext(), accessToken, refreshToken);
 
         Log.d(TAG, "Starting tracking - mode: " + mode + ", sosId: " + sosId);
 
@@ -58,10 +56,7 @@ public class SOSLocationPlugin extends Plugin {
         // on the main thread. The JS token-rotation push gates on isTracking;
         // without this a rotation landing in the start gap would be dropped
         // and the store left holding a consumed refresh token.
-        getContext().getSharedPreferences(SOSLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .edit()
-                .putBoolean("is_active", true)
-                .apply();
+        TrackerClient.setActive(getContext(), SessionHeartbeats.SOS, true);
 
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -72,10 +67,7 @@ public class SOSLocationPlugin extends Plugin {
         } catch (Exception e) {
             // Don't crash if Android refuses a background FGS start.
             Log.e(TAG, "Failed to start SOS service", e);
-            getContext().getSharedPreferences(SOSLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                    .edit()
-                    .putBoolean("is_active", false)
-                    .apply();
+            TrackerClient.setActive(getContext(), SessionHeartbeats.SOS, false);
             JSObject result = new JSObject();
             result.put("started", false);
             call.resolve(result);
@@ -95,10 +87,7 @@ public class SOSLocationPlugin extends Plugin {
         intent.setAction(SOSLocationService.ACTION_STOP);
         getContext().startService(intent);
 
-        getContext().getSharedPreferences(SOSLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .edit()
-                .putBoolean("is_active", false)
-                .apply();
+        TrackerClient.setActive(getContext(), SessionHeartbeats.SOS, false);
 
         JSObject result = new JSObject();
         result.put("stopped", true);
@@ -113,18 +102,23 @@ public class SOSLocationPlugin extends Plugin {
             // Keep the shared store in sync while the WebView is alive so the
             // native refresher never holds a stale, already-rotated refresh
             // token. The running service reads this store on every write.
-            PejaSupabaseAuth.storeTokens(getContext(), accessToken, refreshToken);
+            TrackerClient.storeTokens(getContext(), accessToken, refreshToken);
         }
         JSObject result = new JSObject();
         result.put("updated", !accessToken.isEmpty());
         call.resolve(result);
     }
 
+    @PluginMethod
+    public void getDiagnostics(PluginCall call) {
+        // GPS policy of the running SOS session: indoor/outdoor sky view
+        // and how long the GNSS chip has actually been searching.
+        call.resolve(TrackerClient.diagnostics(getContext(), TrackingDiagnostics.SOS));
+    }
+
     @PluginMethod
     public void isTracking(PluginCall call) {
-        boolean isActive = getContext()
-                .getSharedPreferences(SOSLocationService.PREFS_NAME, Context.MODE_PRIVATE)
-                .getBoolean("is_active", false);
+        boolean isActive = TrackerClient.isActive(getContext(), SessionHeartbeats.SOS);
 
         JSObject result = new JSObject();
         result.put("tracking", isActive);
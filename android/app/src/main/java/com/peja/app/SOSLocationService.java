@@ -1,6 +1,5 @@
 package com.peja.app;
 
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -8,19 +7,17 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.location.Location;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.PowerManager;
+import android.os.Trace;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
@@ -41,6 +38,7 @@ public class SOSLocationService extends Service {
     public static final String TAG = "SOSLocationService";
     public static final String CHANNEL_ID = "peja_sos_channel";
     public static final int NOTIFICATION_ID = 9001;
+    /** Pre-registry session state; read once by TrackingSessions to import it. */
     public static final String PREFS_NAME = "peja_sos_prefs";
 
     public static final String EXTRA_SOS_ID = "sos_id";
@@ -56,13 +54,86 @@ public class SOSLocationService extends Service {
 
     private static final MediaType JSON_TYPE = MediaType.get("application/json");
 
+    // One-shot requests only; the subscriptions are the shared hub's.
     private FusedLocationProviderClient fusedLocationClient;
-    private LocationCallback locationCallback;
-    private PowerManager.WakeLock wakeLock;
+    private LocationHub hub;
+    // The CPU hold, one per service instance (see WakeBudget).
+    private WakeBudget wakeBudget;
     // Guards against re-registering updates when onStartCommand is delivered
     // again to an already-running service (e.g. a revive push).
     private boolean tracking = false;
 
+    // Stillness anchor (same 30m semantics as SML) driving the stationary
+    // duty cycle: while the anchor holds, the fused request drops to
+    // balanced power and the heartbeat re-sends the anchored position every
+    // 15s, so viewers keep their cadence while the GNSS chip rests.
+    private static final long HEARTBEAT_MS = 15_000L;
+    // Longest continuous CPU hold, as the old timed acquire had it.
+    private static final long WAKE_CAP_MS = 5 * 60 * 60 * 1000L;
+    private GeoMath.Origin anchor;
+    private long anchorAtMs = 0L;
+    private double lastBearing = 0.0;
+    // Activator only: the velocity sent with each write.
+    private final DeadReckoner reckoner = new DeadReckoner();
+    // Helper mode: last fix's accuracy and chipset speed (m/s, null when
+    // unknown) for the ETA/arrival engine.
+    private float lastAccuracy = 100f;
+    private Double lastSpeedMps = null;
+    private final HelperEtaEstimator eta = new HelperEtaEstimator();
+    // Helper mode: request cadence by remaining distance (see
+    // HelperCadenceBand), switched by the status poll.
+    private final HelperCadenceBand.Selector helperBand = new HelperCadenceBand.Selector();
+    private long lastSentMs = 0L;
+    private MotionDutyCycle dutyCycle;
+    private MotionWakeSensor motionSensor;
+    // Location callbacks, timers and state all live on this thread (see
+    // TrackingThread); heartbeatHandler is its handler.
+    private TrackingThread tracker;
+    private Handler heartbeatHandler;
+    private final FixCost fixCost = new FixCost();
+    private final Runnable heartbeat = new Runnable() {
+        @Override
+        public void run() {
+            applyGpsPolicy();
+            sendFingerprintFixIfBlind();
+            sendStillHeartbeat();
+            heartbeatHandler.postDelayed(this, HEARTBEAT_MS);
+        }
+    };
+    // Indoor gate on top of the duty cycle, same policy as SML (see
+    // SkyViewClassifier).
+    private SkyViewClassifier skyView;
+    private GnssSkyMonitor skyMonitor;
+    private long sessionStartMs = 0L;
+    // Learned cell/Wi-Fi positions, used when fused has gone quiet for
+    // FINGERPRINT_BLIND_MS (see FingerprintLocator).
+    private static final long FINGERPRINT_BLIND_MS = 45_000L;
+    private FingerprintLocator fingerprints;
+    // Fused going quiet under a live service (see FixStallDetector). The
+    // platform listeners only run between the ladder's second step and
+    // the next delivered fix.
+    private FixStallDetector stall;
+    private FixStallWatch stallWatch;
+    private boolean platformOn = false;
+
+    // This session on the hub's fused and platform channels.
+    private final LocationHub.Client hubClient = new LocationHub.Client() {
+        @Override
+        public void onFix(Location location, String source) {
+            onDeliveredFix(location);
+        }
+
+        @Override
+        public void onProvidersChanged() {
+            if (stallWatch != null) stallWatch.onProvidersChanged();
+        }
+
+        @Override
+        public void onUnavailable(Exception e) {
+            if (e instanceof SecurityException) stopSelf();
+        }
+    };
+
     private final OkHttpClient httpClient = new OkHttpClient.Builder()
             .connectTimeout(10, TimeUnit.SECONDS)
             .writeTimeout(10, TimeUnit.SECONDS)
@@ -96,6 +167,10 @@ public class SOSLocationService extends Service {
     public void onCreate() {
         super.onCreate();
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        hub = LocationHub.get(this);
+        tracker = new TrackingThread("peja-sos-tracking");
+        heartbeatHandler = tracker.handler;
+        wakeBudget = PowerLock.budget(this, "peja:sos_location_lock", WAKE_CAP_MS);
         createNotificationChannel();
     }
 
@@ -129,6 +204,15 @@ public class SOSLocationService extends Service {
             return START_NOT_STICKY;
         }
 
+        // The rest touches tracking state, which belongs to the tracking
+        // thread. An invalid start stops itself there; its registry entry
+        // is already inactive, so a sticky restart would stop again.
+        heartbeatHandler.post(() -> onStart(intent));
+        return START_STICKY;
+    }
+
+    /** onStartCommand past the foreground promotion and the stop action. */
+    private void onStart(Intent intent) {
         if (intent != null && intent.getStringExtra(EXTRA_SOS_ID) != null) {
             sosId = intent.getStringExtra(EXTRA_SOS_ID);
             supabaseUrl = intent.getStringExtra(EXTRA_SUPABASE_URL) != null ? intent.getStringExtra(EXTRA_SUPABASE_URL) : "";
@@ -141,18 +225,18 @@ public class SOSLocationService extends Service {
         } else {
             // Restart with no extras — START_STICKY restart after the process
             // was killed (e.g. the user swiped the app from recents). Recover
-            // the in-flight SOS from prefs and resume tracking.
-            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            if (prefs.getBoolean("is_active", false)) {
-                sosId = prefs.getString("sos_id", "");
-                supabaseUrl = prefs.getString("supabase_url", "");
-                supabaseKey = prefs.getString("supabase_key", "");
-                accessToken = prefs.getString("access_token", "");
-                mode = prefs.getString("mode", "activator");
-                helperId = prefs.getString("helper_id", "");
-                sosOwnerId = prefs.getString("sos_owner_id", "");
-                helperName = prefs.getString("helper_name", "");
-                Log.d(TAG, "Recovered SOS from prefs: " + sosId);
+            // the in-flight SOS from the session registry and resume tracking.
+            SessionRegistry.Sos saved = TrackingSessions.get(this).sos();
+            if (saved.active) {
+                sosId = saved.sosId;
+                supabaseUrl = saved.supabaseUrl;
+                supabaseKey = saved.supabaseKey;
+                accessToken = saved.accessToken;
+                mode = saved.mode;
+                helperId = saved.helperId;
+                sosOwnerId = saved.sosOwnerId;
+                helperName = saved.helperName;
+                Log.d(TAG, "Recovered SOS from the session registry: " + sosId);
             }
         }
 
@@ -161,96 +245,357 @@ public class SOSLocationService extends Service {
             clearState();
             stopForegroundCompat();
             stopSelf();
-            return START_NOT_STICKY;
+            return;
         }
 
         saveState();
+        RestartOrchestrator.onServiceStarted(this, SessionHeartbeats.SOS);
 
         // The startForeground above ran before the intent extras or prefs
         // populated the mode field, so a helper session briefly shows the
         // activator wording. Re-post now that mode is known.
         refreshNotification(degradedNotified);
 
-        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        wakeLock = powerManager.newWakeLock(
-                PowerManager.PARTIAL_WAKE_LOCK,
-                "peja:sos_location_lock"
-        );
-        wakeLock.acquire(5 * 60 * 60 * 1000L); // 5 hours max
+        // Idempotent: a re-delivered start keeps the one lock it has.
+        applyWakePolicy();
 
         startLocationUpdates();
 
         Log.d(TAG, "Service started - mode: " + mode + ", sosId: " + sosId);
-
-        return START_STICKY;
     }
 
     private void startLocationUpdates() {
         if (tracking) return; // already registered — avoid duplicate listeners
         tracking = true;
 
-        // Strict 15s cadence regardless of movement. Previously this was
-        // 10s preferred / 20m distance filter, which meant a stationary
-        // user got no updates at all. SOS requires continuous tracking even
-        // when motionless — pinning interval == minInterval == maxDelay
-        // forces an update every ~15s as long as a fresh fix is available.
-        LocationRequest locationRequest = new LocationRequest.Builder(
-                Priority.PRIORITY_HIGH_ACCURACY,
-                15_000L
-        )
-                .setMinUpdateDistanceMeters(0f)
-                .setMinUpdateIntervalMillis(15_000L)
-                .setMaxUpdateDelayMillis(15_000L)
-                .build();
-
-        locationCallback = new LocationCallback() {
+        sessionStartMs = System.currentTimeMillis();
+        dutyCycle = new MotionDutyCycle(sessionStartMs);
+        motionSensor = new MotionWakeSensor(this, this::onMotionDetected, tracker.looper());
+        skyView = new SkyViewClassifier();
+        skyView.setGpsOn(sessionStartMs, true);
+        skyMonitor = new GnssSkyMonitor(this, skyView, state -> applyGpsPolicy(), tracker.looper());
+        skyMonitor.start();
+        fingerprints = FingerprintLocator.get(this);
+        stall = new FixStallDetector(sessionStartMs);
+        stallWatch = new FixStallWatch(this, TAG, stall, this::cadenceMs, new FixStallWatch.Rearm() {
             @Override
-            public void onLocationResult(LocationResult result) {
-                if (result == null || result.getLastLocation() == null) return;
+            public void rerequestFused() {
+                hub.rearm(LocationHub.FUSED);
+            }
 
-                double lat = result.getLastLocation().getLatitude();
-                double lng = result.getLastLocation().getLongitude();
-                double bearing = result.getLastLocation().hasBearing()
-                        ? result.getLastLocation().getBearing()
-                        : 0.0;
+            @Override
+            public void addPlatformProviders() {
+                startPlatformUpdates();
+            }
 
-                Log.d(TAG, "Location update: " + lat + ", " + lng + " (mode: " + mode + ")");
+            @Override
+            public void requestCurrentLocation() {
+                SOSLocationService.this.requestCurrentLocation();
+            }
 
-                if ("activator".equals(mode)) {
-                    updateSOSLocation(lat, lng, bearing);
-                } else {
-                    updateHelperLocation(lat, lng);
+            @Override
+            public void reregister() {
+                rerequestFused();
+                if (platformOn) {
+                    hub.rearm(LocationHub.GPS);
+                    hub.rearm(LocationHub.NETWORK);
                 }
             }
-        };
+        }, tracker.looper());
+
+        // A refused permission comes back through onUnavailable.
+        requestFusedUpdates();
+        publishDiagnostics();
+        heartbeatHandler.postDelayed(heartbeat, HEARTBEAT_MS);
+        stallWatch.start();
+    }
+
+    /**
+     * Strict 15s cadence regardless of movement. Previously this was
+     * 10s preferred / 20m distance filter, which meant a stationary
+     * user got no updates at all. SOS requires continuous tracking even
+     * when motionless — pinning interval == minInterval == maxDelay
+     * forces an update every ~15s as long as a fresh fix is available.
+     * While the duty cycle reports STILL, or the sky view has the user
+     * indoors between probes, the same cadence runs on balanced power,
+     * which is enough to notice displacement. The subscription is shared
+     * (see LocationFanout), so another session may speed it up; this one
+     * is still handed a fix per cadence.
+     */
+    private LocationFanout.Demand fusedDemand() {
+        int priority = skyView != null && skyView.isGpsOn()
+                ? Priority.PRIORITY_HIGH_ACCURACY
+                : Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+        return LocationFanout.Demand.pinned(priority, cadenceMs());
+    }
+
+    /** 15s for the activator; the distance band's interval for a helper. */
+    private long cadenceMs() {
+        return isHelper() ? helperBand.current().intervalMs : HEARTBEAT_MS;
+    }
+
+    private boolean isHelper() {
+        return "helper".equals(mode);
+    }
 
+    /** Joins the hub's fused subscription, or updates what this session asks of it. */
+    private void requestFusedUpdates() {
+        hub.request(LocationHub.FUSED, hubClient, tracker.executor, fusedDemand());
+    }
+
+    /** Stall ladder, second step: GPS and network straight from LocationManager. */
+    private void startPlatformUpdates() {
+        LocationFanout.Demand demand =
+                LocationFanout.Demand.pinned(Priority.PRIORITY_HIGH_ACCURACY, cadenceMs());
+        hub.request(LocationHub.GPS, hubClient, tracker.executor, demand);
+        hub.request(LocationHub.NETWORK, hubClient, tracker.executor, demand);
+        platformOn = true;
+    }
+
+    private void stopPlatformUpdates() {
+        if (!platformOn) return;
+        hub.remove(LocationHub.GPS, hubClient);
+        hub.remove(LocationHub.NETWORK, hubClient);
+        platformOn = false;
+    }
+
+    /** Stall ladder, last step: one fix on demand from fused. */
+    private void requestCurrentLocation() {
         try {
-            fusedLocationClient.requestLocationUpdates(
-                    locationRequest,
-                    locationCallback,
-                    Looper.getMainLooper()
-            );
+            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
+                    .addOnSuccessListener(tracker.executor, loc -> {
+                        if (loc != null && tracking) onDeliveredFix(loc);
+                    })
+                    .addOnFailureListener(e -> Log.e(TAG, "getCurrentLocation failed", e));
         } catch (SecurityException e) {
-            Log.e(TAG, "Location permission denied", e);
-            stopSelf();
+            Log.e(TAG, "Location permission denied (current)", e);
+        }
+    }
+
+    /** A fix a provider actually delivered (not estimated from the fingerprint cache). */
+    private void onDeliveredFix(Location location) {
+        wakeBudget.acquire(WakeBudget.Cause.DELIVERY);
+        Trace.beginSection("peja:sos fix");
+        long startNs = System.nanoTime();
+        try {
+            if (stallWatch.onFix(System.currentTimeMillis()) > 0L) {
+                stopPlatformUpdates();
+                publishDiagnostics();
+            }
+            onNewLocation(location);
+        } finally {
+            fixCost.record(System.nanoTime() - startNs, Looper.myLooper() == Looper.getMainLooper());
+            Trace.endSection();
+            wakeBudget.release(WakeBudget.Cause.DELIVERY);
+        }
+    }
+
+    private void onNewLocation(Location location) {
+        long now = System.currentTimeMillis();
+        if (fingerprints != null) fingerprints.maybeLearn(location);
+        double lat = location.getLatitude();
+        double lng = location.getLongitude();
+        if (location.hasBearing()) lastBearing = location.getBearing();
+        float acc = location.hasAccuracy() ? location.getAccuracy() : 100f;
+
+        // Stillness anchor: replant after ~30m of real movement. In still
+        // mode fixes are Wi-Fi/cell, so only one whose accuracy circle
+        // clears the anchor counts as movement.
+        double fromAnchor = anchorAtMs == 0L ? 0d : anchor.distanceM(lat, lng);
+        boolean still = dutyCycle.isStill();
+        boolean moved = still ? fromAnchor - acc > MotionDutyCycle.ANCHOR_RADIUS_M
+                : fromAnchor > MotionDutyCycle.ANCHOR_RADIUS_M;
+        if (anchorAtMs == 0L || moved) {
+            anchor = new GeoMath.Origin(lat, lng);
+            anchorAtMs = now;
+        }
+        boolean freshFix = now - location.getTime() < 30_000L;
+        Double chipsetKmh = freshFix && location.hasSpeed() && location.getSpeed() >= 0f
+                ? location.getSpeed() * 3.6d : null;
+        lastAccuracy = acc;
+        lastSpeedMps = chipsetKmh != null ? chipsetKmh / 3.6d : null;
+        if (dutyCycle.onFix(now, fromAnchor, acc, chipsetKmh, anchorAtMs)) {
+            applyDutyCycle();
+            still = dutyCycle.isStill();
+        }
+
+        lastSentMs = now;
+        long fixMs = Math.min(location.getTime(), now);
+        journal(fixMs, lat, lng, acc, location.getProvider());
+        if ("activator".equals(mode)) {
+            // Every fix is written: the SOS maps draw the raw point, so a
+            // skipped write would leave helpers on a stale one. The vector
+            // rides along. Helpers' own rows are paced by their distance
+            // band instead.
+            reckoner.onFix(fixMs, lat, lng, acc, lastSpeedMps,
+                    freshFix && location.hasBearing() ? (double) location.getBearing() : null);
+            reckoner.onWrite(still);
+        }
+
+        Log.d(TAG, "Location update: " + lat + ", " + lng + " (mode: " + mode + ")"
+                + (still ? " [still]" : ""));
+        if (still) {
+            sendLocation(anchor.lat, anchor.lng, fixMs);
+        } else {
+            sendLocation(lat, lng, fixMs);
+        }
+    }
+
+    /** Every accepted fix goes to the local journal, written or not. */
+    private void journal(long fixMs, double lat, double lng, float acc, String provider) {
+        FixJournal j = FixJournalPlugin.journal(this);
+        if (j == null) return;
+        j.append(fixMs, lat, lng, acc, lastSpeedMps != null ? lastSpeedMps.floatValue() : Float.NaN,
+                FixJournal.source(provider), FixJournal.KIND_SOS, FixJournal.tag(sosId));
+    }
+
+    private void sendLocation(double lat, double lng, long fixMs) {
+        if ("activator".equals(mode)) {
+            if (dutyCycle != null && dutyCycle.isStill()) {
+                updateSOSLocation(lat, lng, lastBearing, 0d, 0d, fixMs);
+            } else {
+                updateSOSLocation(lat, lng, lastBearing,
+                        reckoner.writtenNorthMps(), reckoner.writtenEastMps(), fixMs);
+            }
+        } else {
+            // Anchored heartbeats are a standing helper: speed 0, not unknown.
+            boolean still = dutyCycle != null && dutyCycle.isStill();
+            updateHelperLocation(lat, lng, lastAccuracy, still ? Double.valueOf(0d) : lastSpeedMps);
+        }
+    }
+
+    /**
+     * Re-register after a duty-cycle transition. Re-requesting with the
+     * same callback replaces the previous request, so the new priority
+     * applies from the next delivery, i.e. within one 15s interval.
+     */
+    private void applyDutyCycle() {
+        boolean still = dutyCycle.isStill();
+        Log.d(TAG, still ? "Still: releasing GPS, balanced-power heartbeat"
+                : "Moving: back to high-accuracy GPS");
+        if (still) {
+            motionSensor.arm();
+        } else {
+            motionSensor.disarm();
+            skyView.probeNow(System.currentTimeMillis());
         }
+        applyGpsPolicy();
     }
 
-    private void updateSOSLocation(double lat, double lng, double bearing) {
+    /**
+     * High accuracy only when moving AND the sky is open (or a probe
+     * window is) AND, for a helper, the distance band asks for it;
+     * re-registers only when that answer changes.
+     */
+    private void applyGpsPolicy() {
+        applyGpsPolicy(false);
+    }
+
+    private void applyGpsPolicy(boolean cadenceChanged) {
+        if (!tracking || dutyCycle == null || skyView == null) return;
+        long now = System.currentTimeMillis();
+        boolean gps = !dutyCycle.isStill() && skyView.gpsWanted(now)
+                && (!isHelper() || helperBand.current().isHighAccuracy());
+        if (gps != skyView.isGpsOn() || cadenceChanged) {
+            skyView.setGpsOn(now, gps);
+            requestFusedUpdates();
+        }
+        publishDiagnostics();
+    }
+
+    /** Distance band changed: new interval (and maybe priority) now. */
+    private void onHelperBandChanged() {
+        HelperCadenceBand band = helperBand.current();
+        Log.d(TAG, "Helper cadence band " + band + ": " + band.intervalMs / 1000 + "s, "
+                + (band.isHighAccuracy() ? "high accuracy" : "balanced power"));
+        applyWakePolicy();
+        applyGpsPolicy(true);
+    }
+
+    /**
+     * The CPU stays up for the whole session, except for a helper in the
+     * FAR band: a fix a minute on balanced power, nothing that can't wait
+     * for the next delivery to wake us, so the lock is only held while a
+     * fix is handled and its upload is in flight.
+     */
+    private void applyWakePolicy() {
+        wakeBudget.keepAwake(!isHelper() || helperBand.current() != HelperCadenceBand.FAR);
+    }
+
+    /** Network work off the tracking thread, with the CPU held until it's done. */
+    private void inBackground(Runnable work) {
+        wakeBudget.acquire(WakeBudget.Cause.UPLOAD);
         new Thread(() -> {
             try {
-                String timestamp;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    timestamp = Instant.now().toString();
-                } else {
-                    timestamp = new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
-                            java.util.Locale.US).format(new java.util.Date());
-                }
+                work.run();
+            } finally {
+                wakeBudget.release(WakeBudget.Cause.UPLOAD);
+            }
+        }).start();
+    }
+
+    private void publishDiagnostics() {
+        TrackingDiagnostics.publish(TrackingDiagnostics.SOS, new TrackingDiagnostics.Snapshot(
+                sessionStartMs, System.currentTimeMillis(), dutyCycle.isStill(), skyView, stall,
+                wakeBudget, fixCost));
+    }
+
+    private void onMotionDetected() {
+        if (dutyCycle != null && dutyCycle.onMotionDetected(System.currentTimeMillis())) {
+            applyDutyCycle();
+        }
+    }
+
+    /**
+     * Fused has delivered nothing for three cadences while moving (deep
+     * indoors, no GMS network location): answer from the fingerprint cache
+     * rather than leave the helpers looking at a frozen marker.
+     */
+    private void sendFingerprintFixIfBlind() {
+        if (fingerprints == null || dutyCycle == null || dutyCycle.isStill()) return;
+        long blindMs = Math.max(FINGERPRINT_BLIND_MS, 3 * cadenceMs());
+        if (System.currentTimeMillis() - lastSentMs < blindMs) return;
+        Location loc = fingerprints.locate();
+        if (loc != null) onNewLocation(loc);
+    }
+
+    /** Still-mode heartbeat: re-send the anchor when a cadence went by empty. */
+    private void sendStillHeartbeat() {
+        if (dutyCycle == null || !dutyCycle.isStill() || anchorAtMs == 0L) return;
+        long now = System.currentTimeMillis();
+        if (now - lastSentMs < cadenceMs()) return;
+        lastSentMs = now;
+        sendLocation(anchor.lat, anchor.lng, now);
+    }
+
+    /** ISO-8601 for an epoch (the fix time rides along with last_updated). */
+    private static String isoTimestamp(long epochMs) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Instant.ofEpochMilli(epochMs).toString();
+        }
+        java.text.SimpleDateFormat fmt = new java.text.SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", java.util.Locale.US);
+        fmt.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
+        return fmt.format(new java.util.Date(epochMs));
+    }
+
+    /**
+     * PATCH the alert's position, with the velocity ({@code velNorthMps},
+     * {@code velEastMps}) and the time of the fix it was taken from.
+     */
+    private void updateSOSLocation(double lat, double lng, double bearing,
+                                   double velNorthMps, double velEastMps, long fixMs) {
+        inBackground(() -> {
+            try {
+                String timestamp = isoTimestamp(System.currentTimeMillis());
 
                 String json = "{" +
                         "\"latitude\":" + lat + "," +
                         "\"longitude\":" + lng + "," +
                         "\"bearing\":" + bearing + "," +
+                        "\"vel_n_mps\":" + String.format(java.util.Locale.US, "%.2f", velNorthMps) + "," +
+                        "\"vel_e_mps\":" + String.format(java.util.Locale.US, "%.2f", velEastMps) + "," +
+                        "\"fix_at\":\"" + isoTimestamp(fixMs) + "\"," +
                         "\"last_updated\":\"" + timestamp + "\"" +
                         "}";
 
@@ -275,7 +620,7 @@ public class SOSLocationService extends Service {
                 Log.e(TAG, "Failed to update SOS location", e);
                 noteWriteResult(false);
             }
-        }).start();
+        });
     }
 
     /**
@@ -311,6 +656,7 @@ public class SOSLocationService extends Service {
      * the moment a write lands again.
      */
     private void noteWriteResult(boolean ok) {
+        RestartOrchestrator.onWrite(this, SessionHeartbeats.SOS);
         if (ok) {
             writeFailures.set(0);
             if (degradedNotified) {
@@ -338,8 +684,9 @@ public class SOSLocationService extends Service {
         }
     }
 
-    private void updateHelperLocation(double lat, double lng) {
-        new Thread(() -> {
+    private void updateHelperLocation(double lat, double lng, float accuracyM, Double speedMps) {
+        final long fixMs = System.currentTimeMillis();
+        inBackground(() -> {
             try {
                 Request.Builder getBuilder = new Request.Builder()
                         .url(supabaseUrl + "/rest/v1/sos_alerts?id=eq." + sosId + "&select=latitude,longitude,status")
@@ -367,8 +714,14 @@ public class SOSLocationService extends Service {
                     Double sosLng = extractDouble(body, "longitude");
 
                     if (sosLat != null && sosLng != null) {
-                        double distanceKm = haversineKm(lat, lng, sosLat, sosLng);
-                        long etaMinutes = Math.max(1, Math.round((distanceKm / 30.0) * 60.0));
+                        // ETA from this helper's own speed history and how
+                        // fast they're actually closing in (see
+                        // HelperEtaEstimator), not a fixed 30 km/h.
+                        eta.onFix(fixMs, lat, lng, accuracyM, speedMps, sosLat, sosLng);
+                        long etaMinutes = eta.etaMinutes();
+                        if (helperBand.onPoll(eta.distanceM(), eta.etaSeconds())) {
+                            heartbeatHandler.post(this::onHelperBandChanged);
+                        }
 
                         String notifJson = "{" +
                                 "\"user_id\":\"" + sosOwnerId + "\"," +
@@ -406,7 +759,9 @@ public class SOSLocationService extends Service {
                         noteWriteResult(notifCode < 400);
                         if (notifCode >= 400) abortHelperIfDead();
 
-                        if (distanceKm <= 0.3) {
+                        // Arrival needs several in-radius fixes or a dwell,
+                        // so one multipath fix can't end tracking early.
+                        if (eta.hasArrived()) {
                             Log.d(TAG, "Helper arrived! Stopping tracking.");
                             clearState();
                             stopSelf();
@@ -422,7 +777,7 @@ public class SOSLocationService extends Service {
                 noteWriteResult(false);
                 abortHelperIfDead();
             }
-        }).start();
+        });
     }
 
     /**
@@ -439,16 +794,6 @@ public class SOSLocationService extends Service {
         stopSelf();
     }
 
-    private double haversineKm(double lat1, double lng1, double lat2, double lng2) {
-        double R = 6371.0;
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLng = Math.toRadians(lng2 - lng1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                        Math.sin(dLng / 2) * Math.sin(dLng / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
-    }
 
     private Double extractDouble(String json, String key) {
         Pattern pattern = Pattern.compile("\"" + key + "\"\\s*:\\s*([\\d.\\-]+)");
@@ -516,23 +861,12 @@ public class SOSLocationService extends Service {
     }
 
     private void saveState() {
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putString("sos_id", sosId)
-                .putString("supabase_url", supabaseUrl)
-                .putString("supabase_key", supabaseKey)
-                .putString("access_token", accessToken)
-                .putString("mode", mode)
-                .putString("helper_id", helperId)
-                .putString("sos_owner_id", sosOwnerId)
-                .putString("helper_name", helperName)
-                .putBoolean("is_active", true)
-                .apply();
+        TrackingSessions.get(this).putSos(new SessionRegistry.Sos(
+                true, sosId, supabaseUrl, supabaseKey, accessToken, mode, helperId, sosOwnerId, helperName));
     }
 
     private void clearState() {
-        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
-                .putBoolean("is_active", false)
-                .apply();
+        TrackingSessions.get(this).setSosActive(false);
     }
 
     /** Remove the foreground notification across API levels (minSdk 24). */
@@ -547,21 +881,21 @@ public class SOSLocationService extends Service {
         }
     }
 
-        private void cancelSOSInSupabase() {
+    private void cancelSOSInSupabase() {
         // Read saved state to get credentials
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String savedSosId = prefs.getString("sos_id", "");
-        String savedUrl = prefs.getString("supabase_url", "");
-        String savedKey = prefs.getString("supabase_key", "");
-        String savedToken = prefs.getString("access_token", "");
-        String savedMode = prefs.getString("mode", "activator");
+        SessionRegistry.Sos saved = TrackingSessions.get(this).sos();
+        String savedSosId = saved.sosId;
+        String savedUrl = saved.supabaseUrl;
+        String savedKey = saved.supabaseKey;
+        String savedToken = saved.accessToken;
+        String savedMode = saved.mode;
 
         // Only cancel the SOS if this is the activator (not a helper)
         if (!"activator".equals(savedMode) || savedSosId.isEmpty() || savedUrl.isEmpty()) {
             return;
         }
 
-        new Thread(() -> {
+        inBackground(() -> {
             try {
                 String timestamp;
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -577,7 +911,7 @@ public class SOSLocationService extends Service {
                         "}";
 
                 // Same self-refreshing auth as the location writes, but built
-                // from the saved prefs because the stop path can run before
+                // from the saved session because the stop path can run before
                 // the instance fields are populated.
                 Request.Builder builder = new Request.Builder()
                         .url(savedUrl + "/rest/v1/sos_alerts?id=eq." + savedSosId)
@@ -603,62 +937,38 @@ public class SOSLocationService extends Service {
             } catch (Exception e) {
                 Log.e(TAG, "Failed to cancel SOS in Supabase", e);
             }
-        }).start();
+        });
     }
 
     @Override
     public void onTaskRemoved(Intent rootIntent) {
         // The user swiped Peja out of recents. If an SOS is still active,
         // schedule a near-immediate restart so location sharing survives the
-        // swipe. Best-effort: aggressive OEM battery managers may still block
-        // the relaunch; the battery-optimization exemption greatly improves the
-        // odds. START_STICKY + the prefs recovery above resume tracking.
-        try {
-            boolean active = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-                    .getBoolean("is_active", false);
-            if (active) {
-                Intent restart = new Intent(getApplicationContext(), SOSLocationService.class);
-                PendingIntent pi;
-                int flags = PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    pi = PendingIntent.getForegroundService(this, 3, restart, flags);
-                } else {
-                    pi = PendingIntent.getService(this, 3, restart, flags);
-                }
-                AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-                if (am != null) {
-                    long at = System.currentTimeMillis() + 1000;
-                    // setAndAllowWhileIdle fires even in Doze without needing
-                    // the exact-alarm permission.
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                        am.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pi);
-                    } else {
-                        am.set(AlarmManager.RTC_WAKEUP, at, pi);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to schedule restart on task removal", e);
-        }
+        // swipe. START_STICKY + the registry recovery above resume tracking.
+        RestartOrchestrator.onTaskRemoved(this, SessionHeartbeats.SOS, 1_000L);
         super.onTaskRemoved(rootIntent);
     }
 
     @Override
     public void onDestroy() {
         Log.d(TAG, "Service destroyed");
-        try {
-            if (locationCallback != null) {
-                fusedLocationClient.removeLocationUpdates(locationCallback);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error removing location updates", e);
-        }
-        if (wakeLock != null && wakeLock.isHeld()) {
-            wakeLock.release();
-        }
+        tracker.finish(this::stopTracking);
         super.onDestroy();
     }
 
+    /** onDestroy's teardown, on the tracking thread. */
+    private void stopTracking() {
+        heartbeatHandler.removeCallbacks(heartbeat);
+        if (stallWatch != null) stallWatch.stop();
+        hub.removeAll(hubClient);
+        platformOn = false;
+        if (motionSensor != null) motionSensor.disarm();
+        if (skyMonitor != null) skyMonitor.stop();
+        if (fingerprints != null) fingerprints.flush();
+        TrackingDiagnostics.clear(TrackingDiagnostics.SOS);
+        wakeBudget.endSession();
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -0,0 +1,88 @@
+package com.peja.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Per-session progress marks for the restart watchdog: when each tracking
+ * service last completed a write, and the restarts attempted since.
+ *
+ * They have to outlive the process being watched, and the services beat on
+ * every write, so it is a small memory-mapped file like FixJournal: a beat
+ * is two absolute puts, and the marks are on disk the moment the process
+ * dies. Layout, little-endian: int magic, int version, then per session
+ * (SOS, SML, AMBIENT) long last beat ms, long last restart ms, long
+ * restarts. A header that doesn't match starts every session unmarked.
+ *
+ * RestartOrchestrator owns the process-wide instance.
+ */
+final class SessionHeartbeats {
+
+    static final int SOS = 0;
+    static final int SML = 1;
+    static final int AMBIENT = 2;
+    static final int SESSIONS = 3;
+
+    private static final int MAGIC = 0x50484254; // "PHBT"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int SLOT_BYTES = 24;
+    static final int FILE_BYTES = HEADER_BYTES + SESSIONS * SLOT_BYTES;
+
+    private final ByteBuffer buf;
+
+    SessionHeartbeats(ByteBuffer buf) {
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            for (int i = HEADER_BYTES; i < FILE_BYTES; i += 8) buf.putLong(i, 0L);
+            buf.putInt(4, VERSION);
+            buf.putInt(0, MAGIC);
+        }
+    }
+
+    static SessionHeartbeats open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() != FILE_BYTES) raf.setLength(FILE_BYTES);
+            return new SessionHeartbeats(channel.map(FileChannel.MapMode.READ_WRITE, 0L, FILE_BYTES));
+        }
+    }
+
+    private static int slot(int session) {
+        return HEADER_BYTES + session * SLOT_BYTES;
+    }
+
+    /** The session's service started or completed a write. */
+    synchronized void beat(int session, long nowMs) {
+        buf.putLong(slot(session), nowMs);
+        buf.putLong(slot(session) + 16, 0L);
+    }
+
+    synchronized long lastBeatMs(int session) {
+        return buf.getLong(slot(session));
+    }
+
+    synchronized int restarts(int session) {
+        return (int) buf.getLong(slot(session) + 16);
+    }
+
+    /**
+     * Record a restart if RestartPolicy says one is due; false otherwise.
+     * Claiming and recording in one step keeps a boot and a watchdog run
+     * racing each other to a single restart.
+     */
+    synchronized boolean claimRestart(int session, long nowMs) {
+        int at = slot(session);
+        int restarts = (int) buf.getLong(at + 16);
+        if (!RestartPolicy.due(session, nowMs, buf.getLong(at), buf.getLong(at + 8), restarts)) {
+            return false;
+        }
+        buf.putLong(at + 8, nowMs);
+        buf.putLong(at + 16, restarts + 1);
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package com.peja.app;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single-flight refresh of the shared Supabase session.
+ *
+ * PejaSupabaseAuth used to refresh inside a static monitor held across the
+ * GoTrue round trip, so storeTokens (updateToken, the plugins' start
+ * seeding) and every concurrent refresh sat behind the network; the
+ * plugins spawned threads just to seed tokens. Now the first caller
+ * starts the refresh and publishes a future; concurrent callers wait on
+ * that future (up to awaitMs) instead of a lock, and the store's commit
+ * is its own short critical section.
+ *
+ * What keeps rotation safe is unchanged:
+ *  - one grant per rotation: a caller that finds a refresh in flight
+ *    joins it, never starts a second one with the same refresh token;
+ *  - re-check first: a caller whose token was already replaced gets the
+ *    replacement without a grant;
+ *  - the new pair is committed through the store's recency and
+ *    account-change guards before anyone is told about it, and not at
+ *    all if the session was cleared or replaced while it was on the wire;
+ *  - failures back off (TokenRefreshPolicy).
+ *
+ * SessionStore backs the TokenStore and PejaSupabaseAuth the Grant.
+ */
+final class SessionRefresher {
+
+    /** The persisted session pair. */
+    interface TokenStore {
+        TokenSnapshot access();
+
+        String refreshToken();
+
+        /** Bumped whenever the session is replaced wholesale (sign-out, account change). */
+        long generation();
+
+        /**
+         * Persist a rotated pair through the store's guards; no network I/O.
+         * Returns false, storing nothing, when the generation has moved on
+         * since the refresh started.
+         */
+        boolean commit(long generation, String accessToken, String refreshToken);
+    }
+
+    /** One refresh_token grant: returns {access, refresh}, or throws. */
+    interface Grant {
+        String[] exchange(String refreshToken) throws Exception;
+    }
+
+    static final long DEFAULT_AWAIT_MS = 15_000L;
+    /** A replaced token this close to expiry is refreshed again rather than handed out. */
+    private static final long RECHECK_MARGIN_SECONDS = 30L;
+
+    private final TokenStore store;
+    private final TokenRefreshPolicy policy;
+    private final long awaitMs;
+    private final Object lock = new Object();
+    private CompletableFuture<String> inFlight; // guarded by lock
+
+    SessionRefresher(TokenStore store, TokenRefreshPolicy policy, long awaitMs) {
+        this.store = store;
+        this.policy = policy;
+        this.awaitMs = awaitMs;
+    }
+
+    /**
+     * Replace {@code staleToken}. Returns the new access token, or null
+     * when refresh is impossible right now (no refresh token, backoff
+     * window, grant failed, or the flight we joined took too long).
+     */
+    String refresh(Grant grant, String staleToken) {
+        CompletableFuture<String> flight;
+        String refreshToken;
+        long generation = 0L;
+        synchronized (lock) {
+            // Someone else may have refreshed already.
+            TokenSnapshot current = store.access();
+            long nowMs = System.currentTimeMillis();
+            if (!current.isEmpty() && !current.raw.equals(staleToken)
+                    && !current.expiresWithin(nowMs / 1000L, RECHECK_MARGIN_SECONDS)) {
+                return current.raw;
+            }
+            if (inFlight != null) {
+                flight = inFlight;
+                refreshToken = null;
+            } else {
+                if (!policy.mayAttempt(nowMs)) return null;
+                refreshToken = store.refreshToken();
+                if (refreshToken == null || refreshToken.isEmpty()) {
+                    policy.onFailure(nowMs);
+                    return null;
+                }
+                generation = store.generation();
+                flight = inFlight = new CompletableFuture<>();
+            }
+        }
+        return refreshToken != null ? lead(grant, refreshToken, generation, flight) : await(flight);
+    }
+
+    /** True while a grant is on the wire. */
+    boolean inFlight() {
+        synchronized (lock) {
+            return inFlight != null;
+        }
+    }
+
+    private String lead(Grant grant, String refreshToken, long generation,
+                        CompletableFuture<String> flight) {
+        String result = null;
+        boolean granted = false;
+        try {
+            String[] pair = grant.exchange(refreshToken);
+            if (pair != null && pair[0] != null && !pair[0].isEmpty()) {
+                granted = true;
+                policy.onSuccess();
+                // Committed before the flight lands: a caller arriving after
+                // it sees the new token in the re-check instead of granting.
+                // A session signed out meanwhile stays signed out.
+                if (store.commit(generation, pair[0], pair[1])) result = pair[0];
+            }
+        } catch (Exception e) {
+            // The grant logs its own failures; this flight just lands empty.
+        } finally {
+            if (!granted) policy.onFailure(System.currentTimeMillis());
+            synchronized (lock) {
+                inFlight = null;
+            }
+            flight.complete(result);
+        }
+        return result;
+    }
+
+    private String await(CompletableFuture<String> flight) {
+        try {
+            return flight.get(awaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+}
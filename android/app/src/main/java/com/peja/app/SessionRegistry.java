@@ -0,0 +1,407 @@
+package com.peja.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * The persisted state of the three tracking sessions (SOS, SML, ambient),
+ * one immutable snapshot each, in memory and in one small file.
+ *
+ * Before this the state was loose keys in peja_sos_prefs, peja_sml_prefs
+ * and peja_ambient_prefs, re-read key by key in onStartCommand, the boot
+ * receivers, the FCM revive path, the plugins' isTracking and every
+ * onTaskRemoved (each first touch parsing a whole XML file on the main
+ * thread), and rewritten key by key by every saveState. A flag flipped by
+ * the plugin and a saveState racing on the same file could land half of
+ * each. Now readers get a snapshot from memory, every change replaces a
+ * whole snapshot, and the file is rewritten whole (write, fsync, rename)
+ * off the caller's thread, coalescing bursts into one write.
+ *
+ * File: magic, version, then one length-prefixed section per session type
+ * and a CRC32 of everything before it. Readers skip section types they do
+ * not know and bytes past the fields they do, so a newer app version can
+ * add fields without breaking a downgrade; a torn or corrupt file reads as
+ * no file.
+ *
+ * TrackingSessions owns the process-wide instance.
+ */
+final class SessionRegistry {
+
+    private static final int MAGIC = 0x50534553; // "PSES"
+    static final int VERSION = 2;
+    private static final int TYPE_SOS = 1;
+    private static final int TYPE_SML = 2;
+    private static final int TYPE_AMBIENT = 3;
+
+    /** An SOS session: the activator's, or a helper's en route to one. */
+    static final class Sos {
+        final boolean active;
+        final String sosId;
+        final String supabaseUrl;
+        final String supabaseKey;
+        final String accessToken;
+        final String mode;
+        final String helperId;
+        final String sosOwnerId;
+        final String helperName;
+
+        Sos(boolean active, String sosId, String supabaseUrl, String supabaseKey, String accessToken,
+            String mode, String helperId, String sosOwnerId, String helperName) {
+            this.active = active;
+            this.sosId = nn(sosId);
+            this.supabaseUrl = nn(supabaseUrl);
+            this.supabaseKey = nn(supabaseKey);
+            this.accessToken = nn(accessToken);
+            this.mode = mode == null || mode.isEmpty() ? "activator" : mode;
+            this.helperId = nn(helperId);
+            this.sosOwnerId = nn(sosOwnerId);
+            this.helperName = nn(helperName);
+        }
+
+        Sos withActive(boolean active) {
+            return active == this.active ? this
+                    : new Sos(active, sosId, supabaseUrl, supabaseKey, accessToken, mode, helperId, sosOwnerId, helperName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sos)) return false;
+            Sos s = (Sos) o;
+            return active == s.active && sosId.equals(s.sosId) && supabaseUrl.equals(s.supabaseUrl)
+                    && supabaseKey.equals(s.supabaseKey) && accessToken.equals(s.accessToken)
+                    && mode.equals(s.mode) && helperId.equals(s.helperId)
+                    && sosOwnerId.equals(s.sosOwnerId) && helperName.equals(s.helperName);
+        }
+
+        @Override
+        public int hashCode() {
+            return sosId.hashCode() * 31 + (active ? 1 : 0);
+        }
+    }
+
+    /**
+     * A Safety Check-in (SML) session. {@code escalationUrl} is where the
+     * device reports a missed check-in itself (empty: leave it to the cron),
+     * {@code deadlineMs} the pending deadline on the device clock, 0 when
+     * none (see CheckInDeadline).
+     */
+    static final class Sml {
+        final boolean active;
+        final String checkinId;
+        final String supabaseUrl;
+        final String supabaseKey;
+        final String accessToken;
+        final String escalationUrl;
+        final long deadlineMs;
+
+        Sml(boolean active, String checkinId, String supabaseUrl, String supabaseKey, String accessToken) {
+            this(active, checkinId, supabaseUrl, supabaseKey, accessToken, "", 0L);
+        }
+
+        Sml(boolean active, String checkinId, String supabaseUrl, String supabaseKey, String accessToken,
+            String escalationUrl, long deadlineMs) {
+            this.active = active;
+            this.checkinId = nn(checkinId);
+            this.supabaseUrl = nn(supabaseUrl);
+            this.supabaseKey = nn(supabaseKey);
+            this.accessToken = nn(accessToken);
+            this.escalationUrl = nn(escalationUrl);
+            this.deadlineMs = deadlineMs;
+        }
+
+        Sml withActive(boolean active) {
+            return active == this.active ? this
+                    : new Sml(active, checkinId, supabaseUrl, supabaseKey, accessToken, escalationUrl, deadlineMs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sml)) return false;
+            Sml s = (Sml) o;
+            return active == s.active && checkinId.equals(s.checkinId) && supabaseUrl.equals(s.supabaseUrl)
+                    && supabaseKey.equals(s.supabaseKey) && accessToken.equals(s.accessToken)
+                    && escalationUrl.equals(s.escalationUrl) && deadlineMs == s.deadlineMs;
+        }
+
+        @Override
+        public int hashCode() {
+            return checkinId.hashCode() * 31 + (active ? 1 : 0);
+        }
+    }
+
+    /** Ambient (circle presence) tracking. */
+    static final class Ambient {
+        final boolean active;
+        final String endpoint;
+        final String deviceKey;
+        final long parkAfterMs;
+        final int cellPrecision;
+
+        Ambient(boolean active, String endpoint, String deviceKey, long parkAfterMs, int cellPrecision) {
+            this.active = active;
+            this.endpoint = nn(endpoint);
+            this.deviceKey = nn(deviceKey);
+            this.parkAfterMs = parkAfterMs;
+            this.cellPrecision = cellPrecision;
+        }
+
+        Ambient withActive(boolean active) {
+            return active == this.active ? this
+                    : new Ambient(active, endpoint, deviceKey, parkAfterMs, cellPrecision);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Ambient)) return false;
+            Ambient a = (Ambient) o;
+            return active == a.active && endpoint.equals(a.endpoint) && deviceKey.equals(a.deviceKey)
+                    && parkAfterMs == a.parkAfterMs && cellPrecision == a.cellPrecision;
+        }
+
+        @Override
+        public int hashCode() {
+            return deviceKey.hashCode() * 31 + (active ? 1 : 0);
+        }
+    }
+
+    static final Sos NO_SOS = new Sos(false, "", "", "", "", "activator", "", "", "");
+    static final Sml NO_SML = new Sml(false, "", "", "", "");
+    static final Ambient NO_AMBIENT = new Ambient(false, "", "", 0L, 0);
+
+    private final File file;
+    private final Executor writer;
+    private final Object lock = new Object();
+    private volatile Sos sos = NO_SOS;
+    private volatile Sml sml = NO_SML;
+    private volatile Ambient ambient = NO_AMBIENT;
+    private boolean writeQueued = false; // guarded by lock
+    private int writes = 0; // guarded by file
+
+    SessionRegistry(File file, Executor writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    /**
+     * Read the file into memory. Returns false when there is no readable
+     * file (first run after the prefs era, or a corrupt one), leaving every
+     * session inactive.
+     */
+    boolean load() {
+        byte[] bytes;
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(512);
+            byte[] chunk = new byte[512];
+            int n;
+            while ((n = in.read(chunk)) > 0) buf.write(chunk, 0, n);
+            bytes = buf.toByteArray();
+        } catch (IOException e) {
+            return false;
+        }
+        return decode(bytes);
+    }
+
+    Sos sos() {
+        return sos;
+    }
+
+    Sml sml() {
+        return sml;
+    }
+
+    Ambient ambient() {
+        return ambient;
+    }
+
+    void putSos(Sos s) {
+        synchronized (lock) {
+            if (s.equals(sos)) return;
+            sos = s;
+            queueWrite();
+        }
+    }
+
+    void putSml(Sml s) {
+        synchronized (lock) {
+            if (s.equals(sml)) return;
+            sml = s;
+            queueWrite();
+        }
+    }
+
+    void putAmbient(Ambient a) {
+        synchronized (lock) {
+            if (a.equals(ambient)) return;
+            ambient = a;
+            queueWrite();
+        }
+    }
+
+    void setSosActive(boolean active) {
+        synchronized (lock) {
+            putSos(sos.withActive(active));
+        }
+    }
+
+    void setSmlActive(boolean active) {
+        synchronized (lock) {
+            putSml(sml.withActive(active));
+        }
+    }
+
+    void setAmbientActive(boolean active) {
+        synchronized (lock) {
+            putAmbient(ambient.withActive(active));
+        }
+    }
+
+    /** Write the current state even though nothing changed (creates the file on first run). */
+    void persist() {
+        synchronized (lock) {
+            queueWrite();
+        }
+    }
+
+    /** File writes so far (a burst of changes shares one). */
+    int writes() {
+        synchronized (file) {
+            return writes;
+        }
+    }
+
+    // guarded by lock
+    private void queueWrite() {
+        if (writeQueued) return;
+        writeQueued = true;
+        writer.execute(this::write);
+    }
+
+    /** Writes the current state, whatever it is by now. */
+    private void write() {
+        byte[] bytes;
+        synchronized (lock) {
+            writeQueued = false;
+            bytes = encode(sos, sml, ambient);
+        }
+        synchronized (file) {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(bytes);
+                out.getFD().sync();
+            } catch (IOException e) {
+                return; // the previous file stays; the next change retries
+            }
+            if (tmp.renameTo(file)) writes++;
+        }
+    }
+
+    static byte[] encode(Sos sos, Sml sml, Ambient ambient) {
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            ByteArrayOutputStream section = new ByteArrayOutputStream(256);
+            DataOutputStream s = new DataOutputStream(section);
+            s.writeBoolean(sos.active);
+            s.writeUTF(sos.sosId);
+            s.writeUTF(sos.supabaseUrl);
+            s.writeUTF(sos.supabaseKey);
+            s.writeUTF(sos.accessToken);
+            s.writeUTF(sos.mode);
+            s.writeUTF(sos.helperId);
+            s.writeUTF(sos.sosOwnerId);
+            s.writeUTF(sos.helperName);
+            writeSection(out, TYPE_SOS, section);
+
+            s.writeBoolean(sml.active);
+            s.writeUTF(sml.checkinId);
+            s.writeUTF(sml.supabaseUrl);
+            s.writeUTF(sml.supabaseKey);
+            s.writeUTF(sml.accessToken);
+            s.writeUTF(sml.escalationUrl);
+            s.writeLong(sml.deadlineMs);
+            writeSection(out, TYPE_SML, section);
+
+            s.writeBoolean(ambient.active);
+            s.writeUTF(ambient.endpoint);
+            s.writeUTF(ambient.deviceKey);
+            s.writeLong(ambient.parkAfterMs);
+            s.writeInt(ambient.cellPrecision);
+            writeSection(out, TYPE_AMBIENT, section);
+
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(buf.toByteArray(), 0, buf.size());
+            out.writeLong(crc.getValue());
+            out.flush();
+            return buf.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory streams don't throw
+        }
+    }
+
+    private static void writeSection(DataOutputStream out, int type, ByteArrayOutputStream section)
+            throws IOException {
+        out.writeByte(type);
+        out.writeInt(section.size());
+        section.writeTo(out);
+        section.reset();
+    }
+
+    /** Replace the in-memory state from a file image; false (and no change) when it doesn't check out. */
+    boolean decode(byte[] bytes) {
+        if (bytes.length < 16) return false;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            long stored = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 8, 8)).readLong();
+            if (stored != crc.getValue() || in.readInt() != MAGIC || in.readInt() < 1) return false;
+            Sos sos = NO_SOS;
+            Sml sml = NO_SML;
+            Ambient ambient = NO_AMBIENT;
+            while (in.available() > 0) {
+                int type = in.readUnsignedByte();
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) return false;
+                byte[] body = new byte[length];
+                in.readFully(body);
+                DataInputStream s = new DataInputStream(new ByteArrayInputStream(body));
+                if (type == TYPE_SOS) {
+                    sos = new Sos(s.readBoolean(), s.readUTF(), s.readUTF(), s.readUTF(), s.readUTF(),
+                            s.readUTF(), s.readUTF(), s.readUTF(), s.readUTF());
+                } else if (type == TYPE_SML) {
+                    sml = new Sml(s.readBoolean(), s.readUTF(), s.readUTF(), s.readUTF(), s.readUTF());
+                    if (s.available() > 0) { // version 2
+                        sml = new Sml(sml.active, sml.checkinId, sml.supabaseUrl, sml.supabaseKey,
+                                sml.accessToken, s.readUTF(), s.readLong());
+                    }
+                } else if (type == TYPE_AMBIENT) {
+                    ambient = new Ambient(s.readBoolean(), s.readUTF(), s.readUTF(), s.readLong(), s.readInt());
+                }
+            }
+            synchronized (lock) {
+                this.sos = sos;
+                this.sml = sml;
+                this.ambient = ambient;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static String nn(String s) {
+        return s != null ? s : "";
+    }
+}
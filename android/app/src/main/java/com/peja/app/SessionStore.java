@@ -0,0 +1,163 @@
+package com.peja.app;
+
+/**
+ * The one stored Supabase session pair: its guards, its in-memory snapshot
+ * and its single-flight refresh, behind a persistence seam.
+ *
+ * PejaSupabaseAuth is the Android face of this (SharedPreferences for
+ * persistence, OkHttp for the grant, the background scheduler); keeping
+ * the invariants here, in plain Java, is what lets the soak test drive
+ * the real store from many threads against a local GoTrue stand-in.
+ *
+ * Sessions are numbered: clear and an account change start a new
+ * generation, and a refresh that was already on the wire for an older
+ * one is dropped when it lands. Without this, a grant in flight during
+ * sign-out (or a switch to another account) would write the previous
+ * session straight back into the store.
+ */
+final class SessionStore implements SessionRefresher.TokenStore {
+
+    /** Durable storage for the pair; every write must be durable when it returns. */
+    interface Persistence {
+        String readAccess();
+
+        String readRefresh();
+
+        /** {@code refreshToken} null keeps the stored one, empty removes it. */
+        void write(String accessToken, String refreshToken);
+
+        void clear();
+    }
+
+    private final Persistence persistence;
+    private final TokenRefreshPolicy policy;
+    private final SessionRefresher refresher;
+    /** Guards check, commit and publish. Never held across network I/O. */
+    private final Object lock = new Object();
+    private volatile TokenSnapshot snapshot; // null until loaded
+    private volatile long generation = 0L;
+    /** Last fallback seen: the services pass the same start-intent token every tick. */
+    private volatile TokenSnapshot lastFallback = TokenSnapshot.EMPTY;
+
+    SessionStore(Persistence persistence, TokenRefreshPolicy policy, long awaitMs) {
+        this.persistence = persistence;
+        this.policy = policy;
+        this.refresher = new SessionRefresher(this, policy, awaitMs);
+    }
+
+    /** The stored access token, parsed; loaded from persistence once. */
+    @Override
+    public TokenSnapshot access() {
+        TokenSnapshot s = snapshot;
+        if (s != null) return s;
+        synchronized (lock) {
+            if (snapshot == null) snapshot = TokenSnapshot.of(persistence.readAccess());
+            return snapshot;
+        }
+    }
+
+    @Override
+    public String refreshToken() {
+        String v = persistence.readRefresh();
+        return v != null ? v : "";
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Persist an incoming pair through the recency and account-change
+     * guards (TokenSnapshot.decideStore). Returns the decision, or -1 for
+     * an empty token. A new refresh token ends any failure backoff: the
+     * backoff was for the one it replaces.
+     */
+    int store(String accessToken, String refreshToken) {
+        if (accessToken == null || accessToken.isEmpty()) return -1;
+        int decision;
+        boolean newRefresh;
+        synchronized (lock) {
+            newRefresh = refreshToken != null && !refreshToken.isEmpty()
+                    && !refreshToken.equals(refreshToken());
+            decision = storeLocked(TokenSnapshot.of(accessToken), refreshToken);
+        }
+        if (newRefresh && decision != TokenSnapshot.IGNORE_OLDER) policy.onSuccess();
+        return decision;
+    }
+
+    /** The refresher's commit: dropped when the session it refreshed is gone. */
+    @Override
+    public boolean commit(long refreshedGeneration, String accessToken, String refreshToken) {
+        synchronized (lock) {
+            if (refreshedGeneration != generation) return false;
+            storeLocked(TokenSnapshot.of(accessToken), refreshToken);
+            return true;
+        }
+    }
+
+    private int storeLocked(TokenSnapshot incoming, String refreshToken) {
+        int decision = TokenSnapshot.decideStore(access(), incoming);
+        if (decision == TokenSnapshot.IGNORE_OLDER) return decision;
+        boolean hasRefresh = refreshToken != null && !refreshToken.isEmpty();
+        persistence.write(incoming.raw, hasRefresh ? refreshToken
+                : decision == TokenSnapshot.STORE_ACCOUNT_CHANGED ? "" : null);
+        if (decision == TokenSnapshot.STORE_ACCOUNT_CHANGED) generation++;
+        snapshot = incoming;
+        return decision;
+    }
+
+    /** Wipe the pair; refreshes already in flight land nowhere. */
+    void clear() {
+        synchronized (lock) {
+            persistence.clear();
+            generation++;
+            snapshot = TokenSnapshot.EMPTY;
+        }
+        policy.onSuccess();
+    }
+
+    /**
+     * Whichever of the stored token and the caller's fallback is fresher.
+     * The store can hold a stale pair from a previous tracking session
+     * while the caller carries a fresh token from the start intent (the
+     * seed may not have landed yet); using the stale one would trigger a
+     * refresh with a long-consumed refresh token and risk revoking the
+     * current session family.
+     */
+    TokenSnapshot best(String fallback) {
+        return TokenSnapshot.fresher(access(), parseFallback(fallback));
+    }
+
+    /**
+     * The best token for a call, refreshed inline only once it is about to
+     * expire (TokenRefreshPolicy.INLINE_MARGIN_SECONDS), so a write never
+     * leaves with a token that lapses in flight. Empty when there is no
+     * session at all.
+     */
+    TokenSnapshot validAccess(SessionRefresher.Grant grant, String fallback, long nowMs) {
+        TokenSnapshot access = best(fallback);
+        if (access.isEmpty()
+                || !access.expiresWithin(nowMs / 1000L, TokenRefreshPolicy.INLINE_MARGIN_SECONDS)) {
+            return access;
+        }
+        String fresh = refresher.refresh(grant, access.raw);
+        if (fresh == null) return access;
+        TokenSnapshot stored = access();
+        return stored.raw.equals(fresh) ? stored : TokenSnapshot.of(fresh);
+    }
+
+    /** Replace {@code staleToken} (single-flight); null when impossible right now. */
+    String refresh(SessionRefresher.Grant grant, String staleToken) {
+        return refresher.refresh(grant, staleToken);
+    }
+
+    private TokenSnapshot parseFallback(String token) {
+        if (token == null || token.isEmpty()) return TokenSnapshot.EMPTY;
+        TokenSnapshot f = lastFallback;
+        if (f.raw.equals(token)) return f;
+        f = TokenSnapshot.of(token);
+        lastFallback = f;
+        return f;
+    }
+}
@@ -0,0 +1,161 @@
+package com.peja.app;
+
+/**
+ * Indoor/outdoor call from GnssStatus, for the safety services' GPS policy.
+ *
+ * Indoors and between tall buildings a high-accuracy request keeps the GNSS
+ * chip searching for minutes, and what it eventually produces is a 300-2000m
+ * fix that the accuracy gate throws away anyway. This class watches the
+ * satellites the chip reports and decides when that search is pointless:
+ *
+ *  - OPEN: enough satellites used in the fix, with usable signal. GPS runs
+ *    as the duty cycle wants.
+ *  - OBSTRUCTED: the sky view has been bad for OBSTRUCTED_AFTER_MS straight.
+ *    GPS drops to a probe cycle (PROBE_WINDOW_MS of search every
+ *    PROBE_PERIOD_MS); network fixes and the accuracy gate's blind valve
+ *    carry the session in between.
+ *
+ * Getting out is deliberately quicker than getting in: OPEN_AFTER_GOOD good
+ * samples in a row (GnssStatus reports about once a second) flip back, so
+ * the user walking out of a building regains GPS within one probe window.
+ *
+ * The "good" bar is the mean C/N0 of the strongest satellites, not just the
+ * used-in-fix count: a phone by a window can hold 4 weak satellites and
+ * still produce garbage.
+ *
+ * Also keeps the real GPS-on time (what the chip actually spent searching),
+ * which MotionDutyCycle can't see once this class starts vetoing GPS.
+ */
+final class SkyViewClassifier {
+
+    enum State { OPEN, OBSTRUCTED }
+
+    /** Fewer satellites in the fix than this is a bad sample. */
+    static final int MIN_USED_IN_FIX = 4;
+    /** Mean C/N0 (dB-Hz) of the strongest TOP_N satellites below this is bad. */
+    static final float MIN_TOP_CN0_DBHZ = 25f;
+    /** How many of the strongest satellites the C/N0 mean is taken over. */
+    static final int TOP_N = 4;
+    /**
+     * Sustained-bad period before GPS backs off. Longer than a warm start's
+     * time to first fix, so a chip that's merely acquiring isn't mistaken
+     * for one that's indoors.
+     */
+    static final long OBSTRUCTED_AFTER_MS = 90_000L;
+    /** Consecutive good samples that return to OPEN. */
+    static final int OPEN_AFTER_GOOD = 2;
+    /** While obstructed, GPS searches for PROBE_WINDOW_MS every PROBE_PERIOD_MS. */
+    static final long PROBE_PERIOD_MS = 5 * 60_000L;
+    static final long PROBE_WINDOW_MS = 30_000L;
+
+    private State state = State.OPEN;
+    private long stateSinceMs = 0L;
+    private long badSinceMs = 0L;
+    private int goodRun = 0;
+    private long nextProbeAtMs = 0L;
+    private int lastUsedInFix = 0;
+    private float lastTopCn0 = 0f;
+
+    private boolean gpsOn = false;
+    private long gpsOnSinceMs = 0L;
+    private long gpsOnAccumMs = 0L;
+
+    State state() {
+        return state;
+    }
+
+    boolean isObstructed() {
+        return state == State.OBSTRUCTED;
+    }
+
+    long stateSinceMs() {
+        return stateSinceMs;
+    }
+
+    int lastUsedInFix() {
+        return lastUsedInFix;
+    }
+
+    float lastTopCn0() {
+        return lastTopCn0;
+    }
+
+    /**
+     * Feed one GnssStatus report. Only meaningful while GPS is searching;
+     * the caller should not feed reports from a chip that's been told to
+     * rest. Returns true when the state changed, i.e. the caller must
+     * re-apply its GPS policy.
+     */
+    boolean onStatus(long nowMs, int usedInFix, float topCn0DbHz) {
+        lastUsedInFix = usedInFix;
+        lastTopCn0 = topCn0DbHz;
+        boolean good = usedInFix >= MIN_USED_IN_FIX && topCn0DbHz >= MIN_TOP_CN0_DBHZ;
+        if (good) {
+            badSinceMs = 0L;
+            goodRun++;
+            if (state == State.OBSTRUCTED && goodRun >= OPEN_AFTER_GOOD) {
+                return transition(State.OPEN, nowMs);
+            }
+            return false;
+        }
+        goodRun = 0;
+        if (badSinceMs == 0L) badSinceMs = nowMs;
+        if (state == State.OPEN && nowMs - badSinceMs >= OBSTRUCTED_AFTER_MS) {
+            return transition(State.OBSTRUCTED, nowMs);
+        }
+        return false;
+    }
+
+    /**
+     * Whether GPS should be searching right now, as far as the sky is
+     * concerned: always when OPEN, only inside a probe window when
+     * OBSTRUCTED. The first probe starts one period after backing off.
+     */
+    boolean gpsWanted(long nowMs) {
+        if (state == State.OPEN) return true;
+        while (nowMs >= nextProbeAtMs + PROBE_WINDOW_MS) nextProbeAtMs += PROBE_PERIOD_MS;
+        return nowMs >= nextProbeAtMs;
+    }
+
+    /**
+     * Pull the next probe forward to now, e.g. when the user starts moving:
+     * walking out of a building shouldn't wait out the probe period.
+     */
+    void probeNow(long nowMs) {
+        if (state == State.OBSTRUCTED && !gpsWanted(nowMs)) nextProbeAtMs = nowMs;
+    }
+
+    /**
+     * Record what the caller actually did with the chip. Turning GPS on
+     * restarts the bad-sky clock: a report gap (chip off, or duty-cycled
+     * still) must not count as time spent searching under a bad sky.
+     */
+    void setGpsOn(long nowMs, boolean on) {
+        if (on == gpsOn) return;
+        if (gpsOn) gpsOnAccumMs += Math.max(0L, nowMs - gpsOnSinceMs);
+        gpsOn = on;
+        gpsOnSinceMs = nowMs;
+        if (on) {
+            badSinceMs = 0L;
+            goodRun = 0;
+        }
+    }
+
+    boolean isGpsOn() {
+        return gpsOn;
+    }
+
+    /** Total milliseconds GPS has been searching. */
+    long gpsOnMs(long nowMs) {
+        return gpsOn ? gpsOnAccumMs + Math.max(0L, nowMs - gpsOnSinceMs) : gpsOnAccumMs;
+    }
+
+    private boolean transition(State next, long nowMs) {
+        state = next;
+        stateSinceMs = nowMs;
+        nextProbeAtMs = nowMs + PROBE_PERIOD_MS;
+        badSinceMs = 0L;
+        goodRun = 0;
+        return true;
+    }
+}
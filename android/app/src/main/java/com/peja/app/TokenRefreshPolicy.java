@@ -0,0 +1,81 @@
+package com.peja.app;
+
+/**
+ * When PejaSupabaseAuth's background refresher should next call GoTrue.
+ *
+ * The refresh used to run inline: the first write inside the 60s expiry
+ * margin refreshed while holding the auth lock for a full round trip, and
+ * every other service's write queued behind it. A failure then blocked the
+ * endpoint for a flat 20s, retried by whichever write came next.
+ *
+ * Now a background task refreshes LEAD_SECONDS before exp. supabase-js
+ * ticks every 30s and refreshes on the first tick within 90s of exp, so
+ * a visible WebView refreshes 60-90s before exp; native waits until after
+ * the latest of those ticks, plus time for the WebView's round trip and
+ * updateToken, so the WebView keeps winning the rotation race (see
+ * PejaSupabaseAuth.EXPIRY_MARGIN_SECONDS). That is still well ahead of
+ * INLINE_MARGIN_SECONDS, so writes find a fresh token waiting, and only
+ * refresh inline when the background one failed.
+ * Failures back off exponentially from BACKOFF_BASE_MS to BACKOFF_MAX_MS;
+ * time spent offline doesn't count, and the network coming back retries
+ * at once.
+ *
+ * Synchronized: the scheduler, the write path's 401 retry and the network
+ * callback all consult it.
+ */
+final class TokenRefreshPolicy {
+
+    /** Background refresh this long before exp: after the WebView's last tick at 60. */
+    static final long LEAD_SECONDS = 45L;
+    /** A write refreshes inline when its token expires within this; under LEAD_SECONDS. */
+    static final long INLINE_MARGIN_SECONDS = 15L;
+    static final long BACKOFF_BASE_MS = 5_000L;
+    static final long BACKOFF_MAX_MS = 2 * 60_000L;
+    /** A process with no writes for this long has no session to keep alive. */
+    static final long IDLE_MS = 15 * 60_000L;
+
+    private int failures = 0;
+    private long retryAtMs = 0L;
+    private long lastDemandMs = 0L;
+
+    /** When to refresh a token expiring at {@code expSeconds}; 0 when exp is unknown. */
+    static long refreshAtMs(long expSeconds) {
+        return expSeconds > 0L ? (expSeconds - LEAD_SECONDS) * 1000L : 0L;
+    }
+
+    /** A write asked for a token: the session is in use. */
+    synchronized void onDemand(long nowMs) {
+        lastDemandMs = nowMs;
+    }
+
+    synchronized boolean isIdle(long nowMs) {
+        return nowMs - lastDemandMs >= IDLE_MS;
+    }
+
+    /** False inside a failure's backoff window. */
+    synchronized boolean mayAttempt(long nowMs) {
+        return nowMs >= retryAtMs;
+    }
+
+    /** Record a failed refresh; returns when to try again. */
+    synchronized long onFailure(long nowMs) {
+        long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(failures, 16));
+        failures++;
+        retryAtMs = nowMs + delay;
+        return retryAtMs;
+    }
+
+    /** A refresh landed, or the network came back (the backoff was likely about it). */
+    synchronized void onSuccess() {
+        failures = 0;
+        retryAtMs = 0L;
+    }
+
+    synchronized long retryAtMs() {
+        return retryAtMs;
+    }
+
+    synchronized int failures() {
+        return failures;
+    }
+}
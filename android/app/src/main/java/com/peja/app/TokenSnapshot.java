@@ -0,0 +1,225 @@
+package com.peja.app;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An access token with its exp and sub claims parsed once.
+ *
+ * Every native write asked PejaSupabaseAuth for a token, which read
+ * SharedPreferences and then split, Base64-decoded and JSON-parsed the
+ * stored JWT and the caller's fallback, every 15s per service; storing a
+ * pair parsed both sides again to compare sub and exp. The auth store now
+ * publishes one immutable snapshot per stored token behind a volatile, so
+ * the hot path is a field read and a long compare.
+ *
+ * The store's two guards live here as pure functions so they can be
+ * tested off-device (see {@link #decideStore}).
+ *
+ * Claims are read with a small decoder instead of android.util.Base64 and
+ * org.json because both are stubs in android.jar on the local JVM, where
+ * this class and SessionStore are unit-tested (there is no Robolectric in
+ * this project); with them every test token would parse as "exp
+ * unknown". It reads only exp and sub at the payload's top level.
+ */
+final class TokenSnapshot {
+
+    static final TokenSnapshot EMPTY = new TokenSnapshot("", 0L, "");
+
+    /** Store the incoming token. */
+    static final int STORE = 0;
+    /** Store it and drop the stored refresh token: a different user signed in. */
+    static final int STORE_ACCOUNT_CHANGED = 1;
+    /** Keep the stored pair: the incoming token expires earlier. */
+    static final int IGNORE_OLDER = 2;
+
+    /** The JWT as issued. */
+    final String raw;
+    /** Epoch seconds of the exp claim; 0 when unknown. */
+    final long expSeconds;
+    /** The sub claim (user id); empty when unknown. */
+    final String sub;
+
+    private TokenSnapshot(String raw, long expSeconds, String sub) {
+        this.raw = raw;
+        this.expSeconds = expSeconds;
+        this.sub = sub;
+    }
+
+    static TokenSnapshot of(String jwt) {
+        if (jwt == null || jwt.isEmpty()) return EMPTY;
+        try {
+            byte[] payload = payload(jwt);
+            if (payload == null) return new TokenSnapshot(jwt, 0L, "");
+            String json = new String(payload, StandardCharsets.UTF_8);
+            String exp = topLevelClaim(json, "exp");
+            String sub = topLevelClaim(json, "sub");
+            return new TokenSnapshot(jwt, exp != null ? (long) Double.parseDouble(exp) : 0L,
+                    sub != null ? sub : "");
+        } catch (RuntimeException e) {
+            // Unparsable claims are "unknown": callers skip proactive
+            // refresh and rely on the 401 retry.
+            return new TokenSnapshot(jwt, 0L, "");
+        }
+    }
+
+    boolean isEmpty() {
+        return raw.isEmpty();
+    }
+
+    /** True when exp is known and {@code nowSeconds} is within {@code marginSeconds} of it. */
+    boolean expiresWithin(long nowSeconds, long marginSeconds) {
+        return expSeconds > 0L && nowSeconds >= expSeconds - marginSeconds;
+    }
+
+    /**
+     * SessionStore.store's recency and account-change guards for
+     * storing {@code incoming} over {@code stored}.
+     */
+    static int decideStore(TokenSnapshot stored, TokenSnapshot incoming) {
+        if (stored.isEmpty() || stored.raw.equals(incoming.raw)) return STORE;
+        if (!stored.sub.isEmpty() && !incoming.sub.isEmpty() && !stored.sub.equals(incoming.sub)) {
+            return STORE_ACCOUNT_CHANGED;
+        }
+        if (stored.expSeconds > 0L && incoming.expSeconds > 0L && incoming.expSeconds < stored.expSeconds) {
+            return IGNORE_OLDER;
+        }
+        return STORE;
+    }
+
+    /**
+     * Whichever of the stored token and the caller's fallback expires
+     * later; the stored one on a tie or when the fallback is empty.
+     */
+    static TokenSnapshot fresher(TokenSnapshot stored, TokenSnapshot fallback) {
+        if (stored.isEmpty()) return fallback;
+        if (fallback.isEmpty()) return stored;
+        return fallback.expSeconds > stored.expSeconds ? fallback : stored;
+    }
+
+    /** The decoded middle segment, or null when it isn't base64url. */
+    static byte[] payload(String jwt) {
+        int first = jwt.indexOf('.');
+        if (first < 0) return null;
+        int second = jwt.indexOf('.', first + 1);
+        return base64UrlDecode(jwt, first + 1, second < 0 ? jwt.length() : second);
+    }
+
+    /** Unpadded (or padded) base64url of {@code s[from, to)}, or null on a bad character. */
+    static byte[] base64UrlDecode(String s, int from, int to) {
+        while (to > from && s.charAt(to - 1) == '=') to--;
+        int len = to - from;
+        if (len % 4 == 1) return null;
+        byte[] out = new byte[len * 3 / 4];
+        int acc = 0, bits = 0, n = 0;
+        for (int i = from; i < to; i++) {
+            int v = sextet(s.charAt(i));
+            if (v < 0) return null;
+            acc = (acc << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[n++] = (byte) (acc >> bits);
+            }
+        }
+        return out;
+    }
+
+    private static int sextet(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return c - 'a' + 26;
+        if (c >= '0' && c <= '9') return c - '0' + 52;
+        if (c == '-' || c == '+') return 62;
+        if (c == '_' || c == '/') return 63;
+        return -1;
+    }
+
+    /**
+     * Raw value of a top-level claim: the unescaped string for a string,
+     * the literal text for anything else; null when absent. Nested objects
+     * and arrays are skipped, not searched.
+     */
+    static String topLevelClaim(String json, String name) {
+        int depth = 0;
+        int i = 0, n = json.length();
+        while (i < n) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                int end = stringEnd(json, i);
+                if (end < 0) return null;
+                if (depth == 1) {
+                    int colon = skipSpace(json, end + 1);
+                    if (colon < n && json.charAt(colon) == ':') {
+                        // A key: compare, then either read or skip its value.
+                        boolean match = unescape(json, i + 1, end).equals(name);
+                        int v = skipSpace(json, colon + 1);
+                        if (match) return value(json, v);
+                        i = v;
+                        continue;
+                    }
+                }
+                i = end + 1;
+            } else {
+                if (c == '{' || c == '[') depth++;
+                else if (c == '}' || c == ']') depth--;
+                i++;
+            }
+        }
+        return null;
+    }
+
+    private static String value(String json, int i) {
+        if (i >= json.length()) return null;
+        if (json.charAt(i) == '"') {
+            int end = stringEnd(json, i);
+            return end < 0 ? null : unescape(json, i + 1, end);
+        }
+        int end = i;
+        while (end < json.length() && ",}] \t\r\n".indexOf(json.charAt(end)) < 0) end++;
+        return json.substring(i, end);
+    }
+
+    /** Index of the closing quote of the string opening at {@code open}, or -1. */
+    private static int stringEnd(String json, int open) {
+        for (int i = open + 1; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '"') return i;
+        }
+        return -1;
+    }
+
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) i++;
+        return i;
+    }
+
+    private static String unescape(String json, int from, int to) {
+        if (json.indexOf('\\', from) < 0 || json.indexOf('\\', from) >= to) {
+            return json.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = json.charAt(i);
+            if (c != '\\' || i + 1 >= to) {
+                sb.append(c);
+                continue;
+            }
+            char e = json.charAt(++i);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 < to) {
+                        sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default: sb.append(e); // \" \\ \/
+            }
+        }
+        return sb.toString();
+    }
+}
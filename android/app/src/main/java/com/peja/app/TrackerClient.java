@@ -0,0 +1,96 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * The app process's side of TrackerProvider: the plugins, the FCM service
+ * and the watchdog worker use these instead of PejaSupabaseAuth,
+ * TrackingSessions, TrackingDiagnostics and RestartOrchestrator, whose
+ * state lives in :tracker. Each call is a synchronous binder round trip
+ * (starting :tracker first if it isn't running), so keep them off the
+ * main thread, as the plugin calls already are.
+ *
+ * A failed call is logged and reads as "nothing there", like a fresh
+ * install would.
+ */
+final class TrackerClient {
+
+    private static final String TAG = "TrackerClient";
+
+    private TrackerClient() {
+    }
+
+    static void storeTokens(Context ctx, String accessToken, String refreshToken) {
+        Bundle in = new Bundle();
+        in.putString(TrackerProvider.KEY_ACCESS, accessToken);
+        in.putString(TrackerProvider.KEY_REFRESH, refreshToken);
+        call(ctx, TrackerProvider.STORE_TOKENS, null, in);
+    }
+
+    /** The stored pair, {access, refresh}; empty strings when none. */
+    static String[] readTokens(Context ctx) {
+        Bundle out = call(ctx, TrackerProvider.READ_TOKENS, null, null);
+        if (out == null) return new String[]{"", ""};
+        return new String[]{out.getString(TrackerProvider.KEY_ACCESS, ""),
+                out.getString(TrackerProvider.KEY_REFRESH, "")};
+    }
+
+    static void clearTokens(Context ctx) {
+        call(ctx, TrackerProvider.CLEAR_TOKENS, null, null);
+    }
+
+    /** {@code session} is a SessionHeartbeats session index. */
+    static void setActive(Context ctx, int session, boolean active) {
+        Bundle in = new Bundle();
+        in.putInt(TrackerProvider.KEY_SESSION, session);
+        in.putBoolean(TrackerProvider.KEY_ACTIVE, active);
+        call(ctx, TrackerProvider.SET_ACTIVE, null, in);
+    }
+
+    static boolean isActive(Context ctx, int session) {
+        Bundle in = new Bundle();
+        in.putInt(TrackerProvider.KEY_SESSION, session);
+        Bundle out = call(ctx, TrackerProvider.IS_ACTIVE, null, in);
+        return out != null && out.getBoolean(TrackerProvider.KEY_ACTIVE);
+    }
+
+    /** TrackingDiagnostics.toJs for {@code service}, plus the tracker process's memory. */
+    static JSObject diagnostics(Context ctx, String service) {
+        Bundle out = call(ctx, TrackerProvider.DIAGNOSTICS, service, null);
+        try {
+            if (out != null) return new JSObject(out.getString(TrackerProvider.KEY_JSON, "{}"));
+        } catch (Exception e) {
+            Log.w(TAG, "Unreadable diagnostics", e);
+        }
+        JSObject none = new JSObject();
+        none.put("running", false);
+        return none;
+    }
+
+    /** RestartOrchestrator.check in :tracker; the sessions restarted. */
+    static int check(Context ctx, boolean followUp) {
+        Bundle in = new Bundle();
+        in.putBoolean(RestartOrchestrator.KEY_FOLLOW_UP, followUp);
+        Bundle out = call(ctx, TrackerProvider.CHECK, null, in);
+        return out != null ? out.getInt(TrackerProvider.KEY_RESULT) : 0;
+    }
+
+    static void revive(Context ctx) {
+        call(ctx, TrackerProvider.REVIVE, null, null);
+    }
+
+    private static Bundle call(Context ctx, String method, String arg, Bundle extras) {
+        Uri uri = Uri.parse("content://" + ctx.getPackageName() + ".tracker");
+        try {
+            return ctx.getContentResolver().call(uri, method, arg, extras);
+        } catch (Exception e) {
+            Log.e(TAG, method + " failed", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.peja.app;
+
+import android.app.ActivityManager;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * The :tracker process's door for the app process (see TrackerClient).
+ *
+ * The three location services, their receivers and everything they share
+ * (the token store, the session registry, the heartbeats, the diagnostics,
+ * the location subscriptions in LocationHub) run in :tracker, away from
+ * the WebView: a bloated renderer or a low-memory kill of the
+ * backgrounded app no longer takes tracking with it, and the services'
+ * allocations don't share a heap with the bridge.
+ * That state stays single-process, so its locks and in-memory snapshots
+ * stay correct; the plugins, the FCM service and the watchdog worker,
+ * which run in the app process, reach it through call() instead of
+ * touching it directly. Binder threads, synchronous for the caller.
+ */
+public class TrackerProvider extends ContentProvider {
+
+    private static final String TAG = "TrackerProvider";
+
+    static final String STORE_TOKENS = "storeTokens";
+    static final String READ_TOKENS = "readTokens";
+    static final String CLEAR_TOKENS = "clearTokens";
+    static final String SET_ACTIVE = "setActive";
+    static final String IS_ACTIVE = "isActive";
+    static final String DIAGNOSTICS = "diagnostics";
+    static final String CHECK = "check";
+    static final String REVIVE = "revive";
+
+    static final String KEY_ACCESS = "access";
+    static final String KEY_REFRESH = "refresh";
+    static final String KEY_SESSION = "session";
+    static final String KEY_ACTIVE = "active";
+    static final String KEY_JSON = "json";
+    static final String KEY_RESULT = "result";
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        Context ctx = getContext();
+        if (ctx == null) return null;
+        Bundle in = extras != null ? extras : Bundle.EMPTY;
+        Bundle out = new Bundle();
+        switch (method) {
+            case STORE_TOKENS:
+                PejaSupabaseAuth.storeTokens(ctx, in.getString(KEY_ACCESS, ""), in.getString(KEY_REFRESH, ""));
+                break;
+            case READ_TOKENS:
+                out.putString(KEY_ACCESS, PejaSupabaseAuth.readAccess(ctx));
+                out.putString(KEY_REFRESH, PejaSupabaseAuth.readRefresh(ctx));
+                break;
+            case CLEAR_TOKENS:
+                PejaSupabaseAuth.clear(ctx);
+                break;
+            case SET_ACTIVE:
+                setActive(TrackingSessions.get(ctx), in.getInt(KEY_SESSION), in.getBoolean(KEY_ACTIVE));
+                break;
+            case IS_ACTIVE:
+                out.putBoolean(KEY_ACTIVE, isActive(TrackingSessions.get(ctx), in.getInt(KEY_SESSION)));
+                break;
+            case DIAGNOSTICS:
+                JSObject json = TrackingDiagnostics.toJs(arg);
+                JSObject tracker = processStats(ctx);
+                JSObject hub = LocationHub.diagnostics();
+                if (hub != null) tracker.put("locationHub", hub);
+                json.put("tracker", tracker);
+                out.putString(KEY_JSON, json.toString());
+                break;
+            case CHECK:
+                out.putInt(KEY_RESULT, RestartOrchestrator.check(ctx,
+                        in.getBoolean(RestartOrchestrator.KEY_FOLLOW_UP, false)));
+                break;
+            case REVIVE:
+                RestartOrchestrator.onRevivePush(ctx);
+                break;
+            default:
+                Log.w(TAG, "Unknown call " + method);
+                return null;
+        }
+        return out;
+    }
+
+    private static void setActive(SessionRegistry sessions, int session, boolean active) {
+        switch (session) {
+            case SessionHeartbeats.SOS:
+                sessions.setSosActive(active);
+                break;
+            case SessionHeartbeats.SML:
+                sessions.setSmlActive(active);
+                break;
+            default:
+                sessions.setAmbientActive(active);
+                break;
+        }
+    }
+
+    private static boolean isActive(SessionRegistry sessions, int session) {
+        switch (session) {
+            case SessionHeartbeats.SOS:
+                return sessions.sos().active;
+            case SessionHeartbeats.SML:
+                return sessions.sml().active;
+            default:
+                return sessions.ambient().active;
+        }
+    }
+
+    /**
+     * This process's footprint and standing with the low-memory killer:
+     * PSS and RSS, the Java heap in use against its limit, and
+     * oom_score_adj (lower survives longer; a foreground service sits at
+     * 200 while the backgrounded app process climbs past 900).
+     */
+    private static JSObject processStats(Context ctx) {
+        JSObject out = new JSObject();
+        Debug.MemoryInfo mem = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(mem);
+        Runtime rt = Runtime.getRuntime();
+        out.put("pid", Process.myPid());
+        out.put("uptimeMs", SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+        out.put("pssKb", mem.getTotalPss());
+        out.put("rssKb", procLong("/proc/self/status", "VmRSS:"));
+        out.put("javaHeapKb", (rt.totalMemory() - rt.freeMemory()) / 1024L);
+        out.put("javaHeapLimitKb", rt.maxMemory() / 1024L);
+        out.put("oomScoreAdj", procLong("/proc/self/oom_score_adj", ""));
+        ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) {
+            ActivityManager.MemoryInfo sys = new ActivityManager.MemoryInfo();
+            am.getMemoryInfo(sys);
+            out.put("deviceLowMemory", sys.lowMemory);
+        }
+        return out;
+    }
+
+    /** The first number on the line starting with {@code prefix}, or -1. */
+    private static long procLong(String path, String prefix) {
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith(prefix)) continue;
+                String digits = line.substring(prefix.length()).replaceAll("[^0-9-]", "");
+                return digits.isEmpty() ? -1L : Long.parseLong(digits);
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Could not read " + path, e);
+        }
+        return -1L;
+    }
+
+    // Not a data provider: call() is the whole interface.
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        return 0;
+    }
+}
@@ -0,0 +1,24 @@
+package com.peja.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Resume every active tracking session (SOS, check-in, ambient) after a
+ * reboot. Best-effort: Android 12+ can refuse a location foreground-service
+ * start from BOOT_COMPLETED on some OEMs; the watchdog, a revive push or
+ * the next app open picks the session up then.
+ */
+public class TrackingBootReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "TrackingBootReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) return;
+        Log.d(TAG, "Boot completed, resuming active tracking sessions");
+        RestartOrchestrator.onBoot(context);
+    }
+}
@@ -0,0 +1,137 @@
+package com.peja.app;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest GPS-policy, fix-stall, wakelock and fix-cost snapshot per tracking
+ * service, for the plugins' getDiagnostics(). The services publish from
+ * their TrackingThread whenever the policy changes and on their heartbeat;
+ * TrackerProvider reads on a binder thread. Snapshots are immutable, so a
+ * read never sees half an update.
+ *
+ * In-process only, and that process is :tracker: the plugins read it
+ * through TrackerClient.diagnostics. After a process death there is simply
+ * no snapshot until the restarted service publishes again, which
+ * getDiagnostics reports as {"running": false}.
+ */
+final class TrackingDiagnostics {
+
+    static final String SOS = "sos";
+    static final String SML = "sml";
+
+    static final class Snapshot {
+        final long sessionStartMs;
+        final long publishedAtMs;
+        final boolean still;
+        final SkyViewClassifier.State sky;
+        final long skySinceMs;
+        final int usedInFix;
+        final float topCn0DbHz;
+        final boolean gpsOn;
+        final long gpsOnMs;
+        final int fixStalls;
+        final long fixStalledMs;
+        final long longestFixStallMs;
+        final long currentFixStallMs;
+        final long wakeHeldMs;
+        final long[] wakeHeldByCauseMs;
+        final long[] wakeHeldPerHourMs;
+        final int wakeAcquisitions;
+        final long fixesHandled;
+        final long fixHandlingMeanUs;
+        final long fixHandlingMaxUs;
+        final long fixesOnMainThread;
+        final long mainThreadUsPerFix;
+
+        Snapshot(long sessionStartMs, long publishedAtMs, boolean still, SkyViewClassifier sky,
+                 FixStallDetector stall, WakeBudget wake, FixCost fixCost) {
+            this.sessionStartMs = sessionStartMs;
+            this.publishedAtMs = publishedAtMs;
+            this.still = still;
+            this.sky = sky.state();
+            this.skySinceMs = sky.stateSinceMs();
+            this.usedInFix = sky.lastUsedInFix();
+            this.topCn0DbHz = sky.lastTopCn0();
+            this.gpsOn = sky.isGpsOn();
+            this.gpsOnMs = sky.gpsOnMs(publishedAtMs);
+            this.fixStalls = stall.stalls();
+            this.fixStalledMs = stall.stalledMs();
+            this.longestFixStallMs = stall.longestStallMs();
+            this.currentFixStallMs = stall.currentStallMs(publishedAtMs);
+            this.wakeHeldMs = wake.heldMs();
+            WakeBudget.Cause[] causes = WakeBudget.Cause.values();
+            this.wakeHeldByCauseMs = new long[causes.length];
+            for (WakeBudget.Cause c : causes) wakeHeldByCauseMs[c.ordinal()] = wake.heldMs(c);
+            this.wakeHeldPerHourMs = wake.heldPerHour(WakeBudget.HOURS);
+            this.wakeAcquisitions = wake.acquisitions();
+            this.fixesHandled = fixCost.fixes();
+            this.fixHandlingMeanUs = fixCost.meanUs();
+            this.fixHandlingMaxUs = fixCost.maxUs();
+            this.fixesOnMainThread = fixCost.fixesOnMainThread();
+            this.mainThreadUsPerFix = fixCost.mainThreadUsPerFix();
+        }
+
+        void putInto(JSObject out) {
+            long sessionMs = Math.max(1L, publishedAtMs - sessionStartMs);
+            out.put("running", true);
+            out.put("publishedAt", publishedAtMs);
+            out.put("sessionMs", sessionMs);
+            out.put("still", still);
+            out.put("indoor", sky == SkyViewClassifier.State.OBSTRUCTED);
+            out.put("skySince", skySinceMs);
+            out.put("satellitesUsedInFix", usedInFix);
+            out.put("topCn0DbHz", Math.round(topCn0DbHz * 10f) / 10d);
+            out.put("gpsOn", gpsOn);
+            out.put("gpsOnMs", gpsOnMs);
+            out.put("gpsDutyPercent", Math.round(gpsOnMs * 1000d / sessionMs) / 10d);
+            out.put("fixStalls", fixStalls);
+            out.put("fixStalledMs", fixStalledMs);
+            out.put("longestFixStallMs", longestFixStallMs);
+            out.put("currentFixStallMs", currentFixStallMs);
+            out.put("wakeHeldMs", wakeHeldMs);
+            out.put("wakeHeldPercent", Math.round(wakeHeldMs * 1000d / sessionMs) / 10d);
+            out.put("wakeAcquisitions", wakeAcquisitions);
+            JSObject byCause = new JSObject();
+            for (WakeBudget.Cause c : WakeBudget.Cause.values()) {
+                byCause.put(c.name().toLowerCase(Locale.US), wakeHeldByCauseMs[c.ordinal()]);
+            }
+            out.put("wakeHeldByCauseMs", byCause);
+            JSArray perHour = new JSArray();
+            for (long ms : wakeHeldPerHourMs) perHour.put(ms);
+            out.put("wakeHeldPerHourMs", perHour);
+            out.put("fixesHandled", fixesHandled);
+            out.put("fixHandlingMeanUs", fixHandlingMeanUs);
+            out.put("fixHandlingMaxUs", fixHandlingMaxUs);
+            out.put("fixesOnMainThread", fixesOnMainThread);
+            out.put("mainThreadUsPerFix", mainThreadUsPerFix);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Snapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    private TrackingDiagnostics() {
+    }
+
+    static void publish(String service, Snapshot snapshot) {
+        SNAPSHOTS.put(service, snapshot);
+    }
+
+    static void clear(String service) {
+        SNAPSHOTS.remove(service);
+    }
+
+    static JSObject toJs(String service) {
+        JSObject out = new JSObject();
+        Snapshot s = SNAPSHOTS.get(service);
+        if (s == null) {
+            out.put("running", false);
+        } else {
+            s.putInto(out);
+        }
+        return out;
+    }
+}
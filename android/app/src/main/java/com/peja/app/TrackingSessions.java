@@ -0,0 +1,90 @@
+package com.peja.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The process-wide SessionRegistry: peja_sessions.bin in the app's files
+ * dir, written on one background thread. Only the :tracker process loads
+ * it (two processes would each hold their own snapshot and overwrite each
+ * other's file); the plugins go through TrackerClient. The first load after an update
+ * imports the state the prefs-era services left behind (so a session
+ * running across the update still resumes) and then empties those prefs.
+ */
+final class TrackingSessions {
+
+    private static final String TAG = "TrackingSessions";
+    private static final String FILE_NAME = "peja_sessions.bin";
+
+    private static final Executor WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "peja-sessions");
+        t.setDaemon(true);
+        return t;
+    });
+    private static volatile SessionRegistry registry;
+
+    private TrackingSessions() {
+    }
+
+    static SessionRegistry get(Context ctx) {
+        SessionRegistry r = registry;
+        if (r != null) return r;
+        Context app = ctx.getApplicationContext();
+        synchronized (TrackingSessions.class) {
+            if (registry == null) {
+                SessionRegistry loaded = new SessionRegistry(new File(app.getFilesDir(), FILE_NAME), WRITER);
+                if (!loaded.load()) importLegacy(app, loaded);
+                registry = loaded;
+            }
+            return registry;
+        }
+    }
+
+    /** One-time move from the per-service prefs files. */
+    private static void importLegacy(Context app, SessionRegistry r) {
+        SharedPreferences sos = app.getSharedPreferences(SOSLocationService.PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences sml = app.getSharedPreferences(SMLLocationService.PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences ambient = app.getSharedPreferences(AmbientLocationService.PREFS_NAME, Context.MODE_PRIVATE);
+        if (sos.getAll().isEmpty() && sml.getAll().isEmpty() && ambient.getAll().isEmpty()) {
+            r.persist();
+            return;
+        }
+        r.putSos(new SessionRegistry.Sos(
+                sos.getBoolean("is_active", false),
+                sos.getString("sos_id", ""),
+                sos.getString("supabase_url", ""),
+                sos.getString("supabase_key", ""),
+                sos.getString("access_token", ""),
+                sos.getString("mode", "activator"),
+                sos.getString("helper_id", ""),
+                sos.getString("sos_owner_id", ""),
+                sos.getString("helper_name", "")));
+        r.putSml(new SessionRegistry.Sml(
+                sml.getBoolean("is_active", false),
+                sml.getString("checkin_id", ""),
+                sml.getString("supabase_url", ""),
+                sml.getString("supabase_key", ""),
+                sml.getString("access_token", "")));
+        r.putAmbient(new SessionRegistry.Ambient(
+                ambient.getBoolean("is_active", false),
+                ambient.getString("endpoint", ""),
+                ambient.getString("device_key", ""),
+                ambient.getLong("park_after_ms", 0L),
+                ambient.getInt("cell_precision", 0)));
+        r.persist();
+        // Queued behind the registry's own write, so the prefs only go
+        // once the file holding their state is on disk.
+        WRITER.execute(() -> {
+            if (r.writes() == 0) return; // not on disk: keep the prefs for the next load
+            sos.edit().clear().commit();
+            sml.edit().clear().commit();
+            ambient.edit().clear().commit();
+        });
+        Log.d(TAG, "Imported session state from prefs");
+    }
+}
@@ -0,0 +1,66 @@
+package com.peja.app;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tracking service's own looper. The fused and platform listeners, the
+ * GnssStatus and motion callbacks, Play services task results, the
+ * heartbeat and the stall watch all used to run on the main looper, which
+ * in the app process was the WebView's too; SML went through it three
+ * times a cadence. They all run here now, so the service's location and
+ * motion state is confined to this thread: onStartCommand only promotes
+ * to foreground and hands the intent over, and onDestroy waits for the
+ * teardown here.
+ */
+final class TrackingThread {
+
+    private static final String TAG = "TrackingThread";
+    /** How long onDestroy waits for the teardown before quitting anyway. */
+    private static final long FINISH_TIMEOUT_MS = 2_000L;
+
+    private final HandlerThread thread;
+    final Handler handler;
+    /** For Play services task listeners, which otherwise call back on main. */
+    final Executor executor;
+
+    TrackingThread(String name) {
+        thread = new HandlerThread(name);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        executor = handler::post;
+    }
+
+    Looper looper() {
+        return thread.getLooper();
+    }
+
+    /**
+     * Run {@code teardown} on this thread after whatever is already queued,
+     * wait for it (bounded), then let the thread go once its queue drains.
+     */
+    void finish(Runnable teardown) {
+        CountDownLatch done = new CountDownLatch(1);
+        handler.post(() -> {
+            try {
+                teardown.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(FINISH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, thread.getName() + ": teardown still running, not waiting");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread.quitSafely();
+    }
+}
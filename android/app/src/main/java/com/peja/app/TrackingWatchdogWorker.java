@@ -0,0 +1,28 @@
+package com.peja.app;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * WorkManager entry point for RestartOrchestrator.check: survives the
+ * process it watches, which an in-process timer can't. WorkManager runs
+ * it in the app process; the check itself runs in :tracker, where the
+ * heartbeats and the session registry live (starting it if need be).
+ */
+public class TrackingWatchdogWorker extends Worker {
+
+    public TrackingWatchdogWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        TrackerClient.check(getApplicationContext(),
+                getInputData().getBoolean(RestartOrchestrator.KEY_FOLLOW_UP, false));
+        return Result.success();
+    }
+}
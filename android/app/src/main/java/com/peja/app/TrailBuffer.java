@@ -0,0 +1,113 @@
+package com.peja.app;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Every fix an SML session shipped, for the trail uploaded when it ends.
+ * Until now only the latest point was PATCHed onto safety_checkins, so the
+ * ~1,000 fixes of a 4-hour check-in vanished.
+ *
+ * Primitive columns (lat/lng as 1e-7 degree ints, time as seconds since the
+ * session start), 12 bytes per fix. The on-disk form is the same 12-byte
+ * record appended per fix after a small header, so a service restarted by
+ * START_STICKY resumes the trail instead of starting a new one, and a torn
+ * last record after a kill is simply dropped on read.
+ *
+ * SMLLocationService owns the file.
+ */
+final class TrailBuffer {
+
+    private static final int MAGIC = 0x5054524C; // "PTRL"
+    private static final int VERSION = 1;
+    /** Hard cap: ~12 hours at the 15s cadence. Older fixes beyond it drop. */
+    static final int MAX_FIXES = 3_000;
+
+    private final long startMs;
+    private int[] latE7 = new int[256];
+    private int[] lngE7 = new int[256];
+    private int[] tSec = new int[256];
+    private int size = 0;
+
+    TrailBuffer(long startMs) {
+        this.startMs = startMs;
+    }
+
+    long startMs() {
+        return startMs;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double lat(int i) {
+        return latE7[i] / 1e7;
+    }
+
+    double lng(int i) {
+        return lngE7[i] / 1e7;
+    }
+
+    long timeMs(int i) {
+        return startMs + tSec[i] * 1000L;
+    }
+
+    /**
+     * Append a fix. Returns false when it was not kept: a repeat of the last
+     * point within a minute (still-mode anchor heartbeats), or the cap.
+     */
+    boolean add(double lat, double lng, long timeMs) {
+        int la = (int) Math.round(lat * 1e7);
+        int ln = (int) Math.round(lng * 1e7);
+        int t = (int) Math.max(0L, (timeMs - startMs) / 1000L);
+        if (size > 0 && la == latE7[size - 1] && ln == lngE7[size - 1]
+                && t - tSec[size - 1] < 60) return false;
+        if (size == MAX_FIXES) return false;
+        if (size == latE7.length) {
+            int cap = Math.min(MAX_FIXES, size * 2);
+            latE7 = Arrays.copyOf(latE7, cap);
+            lngE7 = Arrays.copyOf(lngE7, cap);
+            tSec = Arrays.copyOf(tSec, cap);
+        }
+        latE7[size] = la;
+        lngE7[size] = ln;
+        tSec[size] = t;
+        size++;
+        return true;
+    }
+
+    /** Header for a new trail file. */
+    static void writeHeader(DataOutputStream out, long startMs) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(startMs);
+    }
+
+    /** Append the last added fix as one record. */
+    void writeLast(DataOutputStream out) throws IOException {
+        int i = size - 1;
+        out.writeInt(latE7[i]);
+        out.writeInt(lngE7[i]);
+        out.writeInt(tSec[i]);
+    }
+
+    /** Rebuild from a trail file; null when it isn't one. */
+    static TrailBuffer readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+        TrailBuffer trail = new TrailBuffer(in.readLong());
+        try {
+            while (true) {
+                int la = in.readInt();
+                int ln = in.readInt();
+                int t = in.readInt();
+                trail.add(la / 1e7, ln / 1e7, trail.startMs + t * 1000L);
+            }
+        } catch (EOFException endOrTornRecord) {
+            return trail;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.peja.app;
+
+import java.util.Arrays;
+
+/**
+ * Error-bounded Douglas-Peucker over a TrailBuffer, and the encodings the
+ * simplified trail is uploaded in.
+ *
+ * Simplification works in a local equirectangular projection around the
+ * trail's first point (metres, sub-metre error over a city-sized trail) and
+ * measures each dropped fix against the kept SEGMENT, not the infinite
+ * line, so the bound also holds at the ends of a back-and-forth walk. Every
+ * original fix lies within the tolerance of the simplified path; the 1e-5
+ * degree polyline quantisation adds at most ~0.8 m on top.
+ *
+ * Encodings: the standard Google encoded polyline (precision 5) for the
+ * coordinates, and the kept fixes' times as seconds since trail start,
+ * delta-encoded with the same signed 5-bit-chunk scheme, so a client that
+ * already decodes polylines decodes the times with the same routine.
+ *
+ * Iterative (explicit stack), so a 12-hour trail can't overflow the stack
+ * of the upload thread.
+ */
+final class TrailSimplifier {
+
+    /** Default tolerance: below a phone's own fix error on foot. */
+    static final double DEFAULT_TOLERANCE_M = 10d;
+
+    private TrailSimplifier() {}
+
+    /** Indices (ascending) of the fixes Douglas-Peucker keeps. */
+    static int[] simplify(TrailBuffer trail, double toleranceM) {
+        int n = trail.size();
+        if (n <= 2) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+        double cosLat = Math.cos(Math.toRadians(trail.lat(0)));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (trail.lng(i) - trail.lng(0)) * GeoMath.M_PER_DEG * cosLat;
+            y[i] = (trail.lat(i) - trail.lat(0)) * GeoMath.M_PER_DEG;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = keep[n - 1] = true;
+        int kept = 2;
+        // Each pending span is pushed as (first, last); at most n-1 spans.
+        int[] stack = new int[2 * n];
+        int sp = 0;
+        stack[sp++] = 0;
+        stack[sp++] = n - 1;
+        double tol2 = toleranceM * toleranceM;
+        while (sp > 0) {
+            int last = stack[--sp];
+            int first = stack[--sp];
+            double worst = -1d;
+            int worstAt = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d2 = segmentDist2(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d2 > worst) {
+                    worst = d2;
+                    worstAt = i;
+                }
+            }
+            if (worstAt < 0 || worst <= tol2) continue;
+            keep[worstAt] = true;
+            kept++;
+            stack[sp++] = first;
+            stack[sp++] = worstAt;
+            stack[sp++] = worstAt;
+            stack[sp++] = last;
+        }
+
+        int[] out = new int[kept];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) out[j++] = i;
+        }
+        return out;
+    }
+
+    /** Squared distance from P to segment AB. */
+    static double segmentDist2(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0d ? 0d : ((px - ax) * dx + (py - ay) * dy) / len2;
+        if (t < 0d) t = 0d;
+        else if (t > 1d) t = 1d;
+        double ex = px - (ax + t * dx), ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+
+    /** Google encoded polyline (precision 5) of the given fixes. */
+    static String encodePolyline(TrailBuffer trail, int[] indices) {
+        StringBuilder sb = new StringBuilder(indices.length * 8);
+        long prevLat = 0L, prevLng = 0L;
+        for (int i : indices) {
+            long la = Math.round(trail.lat(i) * 1e5);
+            long ln = Math.round(trail.lng(i) * 1e5);
+            encodeSigned(la - prevLat, sb);
+            encodeSigned(ln - prevLng, sb);
+            prevLat = la;
+            prevLng = ln;
+        }
+        return sb.toString();
+    }
+
+    /** The fixes' times as delta-encoded seconds since the trail start. */
+    static String encodeTimes(TrailBuffer trail, int[] indices) {
+        StringBuilder sb = new StringBuilder(indices.length * 3);
+        long prev = 0L;
+        for (int i : indices) {
+            long s = (trail.timeMs(i) - trail.startMs()) / 1000L;
+            encodeSigned(s - prev, sb);
+            prev = s;
+        }
+        return sb.toString();
+    }
+
+    /** Decodes an encoded polyline to [lat0, lng0, lat1, lng1, ...]. */
+    static double[] decodePolyline(String encoded) {
+        long[] v = decodeSigned(encoded);
+        double[] out = new double[v.length];
+        long lat = 0L, lng = 0L;
+        for (int i = 0; i + 1 < v.length; i += 2) {
+            lat += v[i];
+            lng += v[i + 1];
+            out[i] = lat / 1e5;
+            out[i + 1] = lng / 1e5;
+        }
+        return out;
+    }
+
+    /** Decodes {@link #encodeTimes} back to seconds since trail start. */
+    static long[] decodeTimes(String encoded) {
+        long[] v = decodeSigned(encoded);
+        for (int i = 1; i < v.length; i++) v[i] += v[i - 1];
+        return v;
+    }
+
+    private static void encodeSigned(long value, StringBuilder sb) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+
+    private static long[] decodeSigned(String encoded) {
+        long[] out = new long[encoded.length()];
+        int n = 0, i = 0;
+        while (i < encoded.length()) {
+            long result = 0L;
+            int shift = 0, b;
+            do {
+                b = encoded.charAt(i++) - 63;
+                result |= (long) (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20 && i < encoded.length());
+            out[n++] = (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
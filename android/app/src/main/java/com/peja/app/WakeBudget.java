@@ -0,0 +1,180 @@
+package com.peja.app;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * The one partial wakelock a safety service holds, and who it is held for.
+ *
+ * Each onStartCommand used to create and acquire a fresh PowerManager
+ * lock (5h for SOS, 8h for SML), and every re-delivery (a revive push, a
+ * restart from JS, the watchdog) left the previous one held until its
+ * timeout, since onDestroy only released the last. Now a service owns one
+ * budget for its lifetime, and every reason to keep the CPU up is a Cause
+ * on it: SESSION is a flag (keepAwake, idempotent however often the
+ * service is started), the others are reference counts taken around a fix
+ * being handled or a request in flight. The underlying lock is acquired
+ * when the first cause appears and released when the last one goes, so
+ * with SESSION off the CPU can sleep between deliveries and uploads.
+ * Teardown (endSession) drops SESSION and DELIVERY only: an upload still in
+ * flight, like the trail or the cancel sent on stop, keeps the CPU until
+ * its thread releases, or until capMs.
+ *
+ * Held time is charged to the lock as a whole, per wall-clock hour for the
+ * last HOURS hours, and to each cause separately (causes overlap, so those
+ * add up to more than the total). A continuous hold still ends at capMs,
+ * as the old timed acquire did; the time past the cap is not charged.
+ *
+ * PowerLock is the Android side. Synchronized: the upload threads release
+ * from the background.
+ */
+final class WakeBudget {
+
+    /** The platform lock, acquired and released only on the 0/1 edges. */
+    interface Lock {
+        void acquire(long timeoutMs);
+
+        void release();
+    }
+
+    enum Cause { SESSION, DELIVERY, UPLOAD }
+
+    static final int HOURS = 24;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private final Lock lock;
+    private final long capMs;
+    private final LongSupplier clock;
+
+    private final int[] counts = new int[Cause.values().length];
+    private final long[] causeSinceMs = new long[Cause.values().length];
+    private final long[] causeHeldMs = new long[Cause.values().length];
+    private int total = 0;
+    private long heldSinceMs = 0L;
+    private long heldMs = 0L;
+    private int acquisitions = 0;
+    // Ring of wall-clock hours: hourOf[i] says which hour heldPerHour[i] is.
+    private final long[] hourOf = new long[HOURS];
+    private final long[] heldPerHour = new long[HOURS];
+
+    WakeBudget(Lock lock, long capMs, LongSupplier clock) {
+        this.lock = lock;
+        this.capMs = capMs;
+        this.clock = clock;
+        Arrays.fill(hourOf, -1L);
+    }
+
+    /** Hold the lock for the whole session, or stop doing so. Idempotent. */
+    synchronized void keepAwake(boolean on) {
+        boolean held = counts[Cause.SESSION.ordinal()] > 0;
+        if (on && !held) acquire(Cause.SESSION);
+        else if (!on && held) release(Cause.SESSION);
+    }
+
+    synchronized void acquire(Cause cause) {
+        long now = clock.getAsLong();
+        int c = cause.ordinal();
+        if (counts[c]++ == 0) causeSinceMs[c] = now;
+        if (total++ == 0) {
+            heldSinceMs = now;
+            acquisitions++;
+            lock.acquire(capMs);
+        }
+    }
+
+    /** Unbalanced releases (a delivery outliving endSession) are ignored. */
+    synchronized void release(Cause cause) {
+        int c = cause.ordinal();
+        if (counts[c] == 0) return;
+        long now = clock.getAsLong();
+        if (--counts[c] == 0) causeHeldMs[c] += capped(causeSinceMs[c], now);
+        if (--total == 0) {
+            charge(now);
+            lock.release();
+        }
+    }
+
+    /** onDestroy: drop the session and its deliveries; uploads end on their own. */
+    synchronized void endSession() {
+        drop(Cause.SESSION);
+        drop(Cause.DELIVERY);
+    }
+
+    synchronized boolean isHeld() {
+        return total > 0;
+    }
+
+    synchronized boolean isHeldFor(Cause cause) {
+        return counts[cause.ordinal()] > 0;
+    }
+
+    /** Times the platform lock was actually acquired. */
+    synchronized int acquisitions() {
+        return acquisitions;
+    }
+
+    /** Total held time, including the hold in progress. */
+    synchronized long heldMs() {
+        return heldMs + (total > 0 ? capped(heldSinceMs, clock.getAsLong()) : 0L);
+    }
+
+    synchronized long heldMs(Cause cause) {
+        int c = cause.ordinal();
+        return causeHeldMs[c] + (counts[c] > 0 ? capped(causeSinceMs[c], clock.getAsLong()) : 0L);
+    }
+
+    /**
+     * Held time in each of the last {@code hours} wall-clock hours, oldest
+     * first, the current (partial) hour last, including the hold in progress.
+     */
+    synchronized long[] heldPerHour(int hours) {
+        long now = clock.getAsLong();
+        long current = now / HOUR_MS;
+        long[] out = new long[Math.min(hours, HOURS)];
+        for (int i = 0; i < out.length; i++) {
+            long hour = current - (out.length - 1 - i);
+            int slot = (int) Math.floorMod(hour, (long) HOURS);
+            if (hourOf[slot] == hour) out[i] = heldPerHour[slot];
+            if (total > 0) out[i] += overlap(heldSinceMs, Math.min(now, heldSinceMs + capMs), hour);
+        }
+        return out;
+    }
+
+    private void drop(Cause cause) {
+        int c = cause.ordinal();
+        if (counts[c] == 0) return;
+        long now = clock.getAsLong();
+        causeHeldMs[c] += capped(causeSinceMs[c], now);
+        total -= counts[c];
+        counts[c] = 0;
+        if (total == 0) {
+            charge(now);
+            lock.release();
+        }
+    }
+
+    private long capped(long sinceMs, long nowMs) {
+        return Math.max(0L, Math.min(nowMs - sinceMs, capMs));
+    }
+
+    /** Close the hold that started at heldSinceMs, spreading it over its hours. */
+    private void charge(long nowMs) {
+        long end = Math.min(nowMs, heldSinceMs + capMs);
+        if (end <= heldSinceMs) return;
+        heldMs += end - heldSinceMs;
+        for (long hour = heldSinceMs / HOUR_MS; hour <= (end - 1) / HOUR_MS; hour++) {
+            int slot = (int) Math.floorMod(hour, (long) HOURS);
+            if (hourOf[slot] != hour) {
+                hourOf[slot] = hour;
+                heldPerHour[slot] = 0L;
+            }
+            heldPerHour[slot] += overlap(heldSinceMs, end, hour);
+        }
+    }
+
+    private static long overlap(long fromMs, long toMs, long hour) {
+        long start = Math.max(fromMs, hour * HOUR_MS);
+        long end = Math.min(toMs, (hour + 1) * HOUR_MS);
+        return Math.max(0L, end - start);
+    }
+}
@@ -0,0 +1,100 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import com.google.android.gms.location.ActivityTransition;
+import com.google.android.gms.location.DetectedActivity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Feeds synthetic activity-transition sequences through the selector and
+ * asserts the resulting request schedule: which profiles get registered,
+ * in which order, and that unchanged profiles never re-register.
+ */
+public class AmbientCadenceProfileTest {
+
+    private static final int ENTER = ActivityTransition.ACTIVITY_TRANSITION_ENTER;
+    private static final int EXIT = ActivityTransition.ACTIVITY_TRANSITION_EXIT;
+
+    /** Registrations a service would make: the initial one plus each change. */
+    private static List<AmbientCadenceProfile> schedule(int[][] events) {
+        AmbientCadenceProfile.Selector selector = new AmbientCadenceProfile.Selector();
+        List<AmbientCadenceProfile> registered = new ArrayList<>();
+        registered.add(selector.current());
+        for (int[] e : events) {
+            if (selector.onTransition(e[0], e[1])) registered.add(selector.current());
+        }
+        return registered;
+    }
+
+    @Test
+    public void commuteSequence() {
+        List<AmbientCadenceProfile> s = schedule(new int[][] {
+                {DetectedActivity.STILL, ENTER},
+                {DetectedActivity.STILL, EXIT},
+                {DetectedActivity.WALKING, ENTER},
+                {DetectedActivity.WALKING, EXIT},
+                {DetectedActivity.IN_VEHICLE, ENTER},
+                {DetectedActivity.IN_VEHICLE, EXIT},
+                {DetectedActivity.WALKING, ENTER},
+                {DetectedActivity.WALKING, EXIT},
+                {DetectedActivity.STILL, ENTER},
+        });
+        assertEquals(Arrays.asList(
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.STILL,
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.WALKING,
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.IN_VEHICLE,
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.WALKING,
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.STILL), s);
+    }
+
+    @Test
+    public void unchangedProfileNeverReRegisters() {
+        List<AmbientCadenceProfile> s = schedule(new int[][] {
+                {DetectedActivity.WALKING, ENTER},
+                {DetectedActivity.WALKING, ENTER},
+                // RUNNING shares the WALKING profile.
+                {DetectedActivity.RUNNING, ENTER},
+                // EXIT of an activity we're no longer in is stale.
+                {DetectedActivity.WALKING, EXIT},
+                // Ignored activity types.
+                {DetectedActivity.TILTING, ENTER},
+                {DetectedActivity.UNKNOWN, ENTER},
+        });
+        assertEquals(Arrays.asList(
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.WALKING), s);
+    }
+
+    @Test
+    public void enterWithoutExitSwitchesDirectly() {
+        List<AmbientCadenceProfile> s = schedule(new int[][] {
+                {DetectedActivity.WALKING, ENTER},
+                {DetectedActivity.ON_BICYCLE, ENTER},
+                {DetectedActivity.WALKING, EXIT},
+        });
+        assertEquals(Arrays.asList(
+                AmbientCadenceProfile.DEFAULT,
+                AmbientCadenceProfile.WALKING,
+                AmbientCadenceProfile.ON_BICYCLE), s);
+    }
+
+    @Test
+    public void profilesScaleWithSpeed() {
+        assertTrue(AmbientCadenceProfile.STILL.intervalMs > AmbientCadenceProfile.DEFAULT.intervalMs);
+        assertTrue(AmbientCadenceProfile.IN_VEHICLE.intervalMs < AmbientCadenceProfile.WALKING.intervalMs);
+        assertEquals(90_000L, AmbientCadenceProfile.DEFAULT.minBeatGapMs());
+        assertEquals(120_000L, AmbientCadenceProfile.DEFAULT.minIntervalMs());
+        assertTrue(AmbientCadenceProfile.IN_VEHICLE.minBeatGapMs() < 60_000L);
+    }
+}
@@ -0,0 +1,92 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Simulated day for ambient parking: home overnight, a commute, a day at
+ * the office, a commute back. Counts fused deliveries, request
+ * registrations and beats with and without the exit-geofence park.
+ */
+public class AmbientParkPolicyTest {
+
+    private static final long MIN = 60_000L;
+    private static final long INTERVAL_MS = 3 * MIN;
+
+    @Test
+    public void parksOnlyAfterConfiguredStillness() {
+        AmbientParkPolicy p = new AmbientParkPolicy(0L);
+        assertEquals(AmbientParkPolicy.DEFAULT_PARK_AFTER_MS, p.parkAfterMs());
+        assertFalse(p.shouldPark(19 * MIN, 1L));
+        assertTrue(p.shouldPark(20 * MIN + 1L, 1L));
+        p.onParked(20 * MIN);
+        assertFalse("never park twice", p.shouldPark(40 * MIN, 1L));
+        // Configured values are clamped to a sane minimum.
+        assertEquals(AmbientParkPolicy.MIN_PARK_AFTER_MS, new AmbientParkPolicy(MIN).parkAfterMs());
+    }
+
+    /** Position along a 1D day, in metres from home. */
+    private static double positionAt(long t) {
+        long h = t / (60 * MIN);
+        double m = (t % (60 * MIN)) / (double) MIN;
+        if (h < 7 || (h == 7 && m < 30)) return 0d;
+        if (h == 7) return (m - 30) / 30d * 12_000d;          // commute out
+        if (h < 17) return 12_000d;                             // office
+        if (h == 17 && m < 30) return 12_000d - m / 30d * 12_000d; // commute back
+        return 0d;
+    }
+
+    private static int[] simulate(boolean parkingEnabled) {
+        AmbientParkPolicy policy = new AmbientParkPolicy(AmbientParkPolicy.DEFAULT_PARK_AFTER_MS);
+        int deliveries = 0, registrations = 1, beats = 0;
+        double anchor = positionAt(0);
+        long anchorAt = 1L;
+        long nextKeepalive = 0L;
+        long day = 24 * 60 * MIN;
+        for (long t = 1L; t < day; t += MIN) {
+            double pos = positionAt(t);
+            if (policy.isParked()) {
+                if (Math.abs(pos - anchor) > AmbientParkPolicy.GEOFENCE_RADIUS_M) {
+                    policy.onUnparked();
+                    registrations++;
+                    deliveries++; // the one getCurrentLocation on exit
+                    beats++;
+                    anchor = pos;
+                    anchorAt = t;
+                } else if (t >= nextKeepalive) {
+                    beats++;
+                    nextKeepalive = policy.nextKeepaliveAt(t);
+                }
+                continue;
+            }
+            if (t % INTERVAL_MS != 1L) continue;
+            deliveries++;
+            beats++;
+            if (Math.abs(pos - anchor) > 30d) {
+                anchor = pos;
+                anchorAt = t;
+            }
+            if (parkingEnabled && policy.shouldPark(t, anchorAt)) {
+                policy.onParked(t);
+                nextKeepalive = policy.nextKeepaliveAt(t);
+            }
+        }
+        return new int[] {deliveries, registrations, beats};
+    }
+
+    @Test
+    public void simulatedDayCountsRequestsAndBeats() {
+        int[] polling = simulate(false);
+        int[] parked = simulate(true);
+        System.out.println("Ambient day, polling: " + polling[0] + " fixes, " + polling[1]
+                + " registrations, " + polling[2] + " beats");
+        System.out.println("Ambient day, parked:  " + parked[0] + " fixes, " + parked[1]
+                + " registrations, " + parked[2] + " beats");
+        assertEquals(480, polling[0]);
+        assertTrue("parking should remove most fixes", parked[0] < polling[0] / 4);
+        assertTrue("keepalives still keep presence fresh", parked[2] >= 40);
+        assertTrue(parked[2] < polling[2] / 3);
+        assertTrue("each geofence exit re-registers once", parked[1] <= 4);
+    }
+}
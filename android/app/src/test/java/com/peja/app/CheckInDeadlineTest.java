@@ -0,0 +1,194 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The check-in deadline timer on a fake clock: skewed device clocks,
+ * confirms that move the deadline, early and failed alarms, and how soon
+ * after the deadline the contacts hear about it compared with the cron.
+ */
+public class CheckInDeadlineTest {
+
+    private static final long MIN = 60_000L;
+    private static final long T0 = 1_790_000_000_000L; // server clock at session start
+
+    /** A device clock {@code skewMs} off the server's, the server's Date header truncated to the second. */
+    private static final class Clock {
+        final long skewMs;
+        long serverMs = T0;
+
+        Clock(long skewMs) {
+            this.skewMs = skewMs;
+        }
+
+        long local() {
+            return serverMs + skewMs;
+        }
+
+        long dateHeader() {
+            return serverMs / 1000L * 1000L;
+        }
+    }
+
+    @Test
+    public void firesOnTheServerDeadlineWhateverTheDeviceClockSays() {
+        for (long skew : new long[]{0L, 90_000L, -7 * MIN, 3_600_000L}) {
+            Clock c = new Clock(skew);
+            CheckInDeadline d = new CheckInDeadline(0L);
+            long deadline = T0 + 30 * MIN;
+            assertTrue(d.onServerState(true, deadline, c.dateHeader(), c.local()));
+            long fireLocal = d.alarmAtMs();
+            long fireServer = fireLocal - skew;
+            assertTrue("skew " + skew, fireServer > deadline);
+            assertTrue("skew " + skew, fireServer <= deadline + CheckInDeadline.GRACE_MS + 1_000L);
+
+            c.serverMs = fireServer - 1L;
+            assertFalse(d.onAlarm(c.local()));
+            c.serverMs = fireServer;
+            assertTrue(d.onAlarm(c.local()));
+        }
+    }
+
+    @Test
+    public void confirmMovesTheDeadlineAndNothingEscalates() {
+        Clock c = new Clock(20_000L);
+        CheckInDeadline d = new CheckInDeadline(0L);
+        long deadline = T0 + 30 * MIN;
+        int posts = 0;
+        // A write every 15s; the user taps "I'm OK" at 20 min and the deadline moves to 50.
+        for (; c.serverMs < T0 + 45 * MIN; c.serverMs += 15_000L) {
+            if (c.serverMs == T0 + 20 * MIN) deadline = c.serverMs + 30 * MIN;
+            d.onServerState(true, deadline, c.dateHeader(), c.local());
+            if (d.onAlarm(c.local())) posts++;
+        }
+        assertEquals(0, posts);
+        assertEquals(T0 + 50 * MIN + c.skewMs, d.deadlineMs(), 1_000L);
+
+        // Repeated reads of the same deadline don't re-arm.
+        assertFalse(d.onServerState(true, deadline, c.dateHeader(), c.local()));
+    }
+
+    @Test
+    public void earlyAlarmsRearmAndTheServerHasTheLastWord() {
+        Clock c = new Clock(0L);
+        CheckInDeadline d = new CheckInDeadline(0L);
+        long deadline = T0 + 10 * MIN;
+        d.onServerState(true, deadline, c.dateHeader(), c.local());
+
+        // An inexact alarm (no exact-alarm permission) firing a bit early.
+        c.serverMs = deadline - 40_000L;
+        assertFalse(d.onAlarm(c.local()));
+
+        c.serverMs = d.alarmAtMs();
+        assertTrue(d.onAlarm(c.local()));
+        // Nothing fires twice while the post is out.
+        assertFalse(d.onAlarm(c.local() + 1_000L));
+        // The server's clock disagreed ("not yet"): it returns the deadline.
+        assertTrue(d.onEscalationResult(true, deadline, deadline - 500L, c.local()));
+        assertTrue(d.alarmAtMs() > c.local());
+
+        c.serverMs = d.alarmAtMs();
+        assertTrue(d.onAlarm(c.local()));
+        // Escalated: missed now, nothing left to arm.
+        d.onEscalationResult(false, deadline, c.dateHeader(), c.local());
+        assertEquals(0L, d.alarmAtMs());
+        assertFalse(d.onAlarm(c.local() + 10 * MIN));
+
+        // A confirm makes it active again with a fresh deadline.
+        c.serverMs += 5 * MIN;
+        assertTrue(d.onServerState(true, c.serverMs + 30 * MIN, c.dateHeader(), c.local()));
+        assertEquals(c.local() + 30 * MIN + CheckInDeadline.GRACE_MS, d.alarmAtMs(), 1_000L);
+    }
+
+    @Test
+    public void failedPostsRetryUntilAnswered() {
+        Clock c = new Clock(0L);
+        CheckInDeadline d = new CheckInDeadline(0L);
+        long deadline = T0 + MIN;
+        d.onServerState(true, deadline, c.dateHeader(), c.local());
+        int posts = 0;
+        long escalatedAt = 0L;
+        for (; c.serverMs < T0 + 10 * MIN && escalatedAt == 0L; c.serverMs += 1_000L) {
+            if (!d.onAlarm(c.local())) continue;
+            posts++;
+            // Offline for the first three minutes past the deadline.
+            if (c.serverMs < deadline + 3 * MIN) {
+                d.onEscalationFailed(c.local());
+            } else {
+                d.onEscalationResult(false, deadline, c.dateHeader(), c.local());
+                escalatedAt = c.serverMs;
+            }
+        }
+        assertEquals(7, posts); // one at the deadline, five retries, one answered
+        assertTrue(escalatedAt - (deadline + 3 * MIN) <= CheckInDeadline.RETRY_MS);
+    }
+
+    @Test
+    public void aPostThatNeverAnswersIsRetried() {
+        Clock c = new Clock(0L);
+        CheckInDeadline d = new CheckInDeadline(0L);
+        d.onServerState(true, T0 + MIN, c.dateHeader(), c.local());
+        c.serverMs = d.alarmAtMs();
+        assertTrue(d.onAlarm(c.local()));
+        assertEquals(c.local() + CheckInDeadline.RETRY_MS, d.alarmAtMs());
+        c.serverMs += CheckInDeadline.RETRY_MS;
+        assertTrue(d.onAlarm(c.local()));
+    }
+
+    @Test
+    public void aRestoredDeadlineArmsBeforeTheFirstWrite() {
+        CheckInDeadline d = new CheckInDeadline(T0 + 5 * MIN);
+        assertEquals(T0 + 5 * MIN + CheckInDeadline.GRACE_MS, d.alarmAtMs());
+        // The first write says the cron already marked it missed.
+        assertTrue(d.onServerState(false, T0 + 5 * MIN, T0 + 6 * MIN, T0 + 6 * MIN));
+        assertEquals(0L, d.alarmAtMs());
+    }
+
+    @Test
+    public void parsesPostgrestTimestamps() {
+        assertEquals(0L, CheckInDeadline.parseTimestamp("1970-01-01T00:00:00+00:00"));
+        assertEquals(1_792_398_600_123L, CheckInDeadline.parseTimestamp("2026-10-19T08:30:00.123456+00:00"));
+        assertEquals(1_792_398_600_000L, CheckInDeadline.parseTimestamp("2026-10-19T08:30:00Z"));
+        assertEquals(1_792_398_600_500L, CheckInDeadline.parseTimestamp("2026-10-19T09:30:00.5+01:00"));
+        assertEquals(951_782_400_000L, CheckInDeadline.parseTimestamp("2000-02-29T00:00:00+00:00"));
+        assertEquals(0L, CheckInDeadline.parseTimestamp("yesterday"));
+        assertEquals(0L, CheckInDeadline.parseTimestamp(null));
+    }
+
+    @Test
+    public void escalationLatencyAgainstTheCron() {
+        Random rnd = new Random(11);
+        int n = 2_000;
+        long[] device = new long[n];
+        long[] cron = new long[n];
+        for (int i = 0; i < n; i++) {
+            Clock c = new Clock(rnd.nextInt(600_001) - 300_000L);
+            CheckInDeadline d = new CheckInDeadline(0L);
+            long deadline = T0 + 30 * MIN + rnd.nextInt((int) (30 * MIN));
+            c.serverMs = T0 + rnd.nextInt(15_000);
+            d.onServerState(true, deadline, c.dateHeader(), c.local());
+            // An exact alarm lands within a second; the post takes up to 3s.
+            c.serverMs = d.alarmAtMs() - c.skewMs + rnd.nextInt(1_000);
+            assertTrue(d.onAlarm(c.local()));
+            device[i] = c.serverMs + rnd.nextInt(3_000) - deadline;
+            // The cron: every minute on the minute, then its own run time
+            // (the warn pass first) before the missed pass, up to 10s.
+            cron[i] = ((deadline / MIN) + 1) * MIN + rnd.nextInt(10_000) - deadline;
+        }
+        Arrays.sort(device);
+        Arrays.sort(cron);
+        System.out.println(String.format(Locale.US,
+                "Deadline to escalation (p50 / p95 / max, s): device alarm %.1f / %.1f / %.1f; "
+                        + "server cron %.1f / %.1f / %.1f",
+                device[n / 2] / 1000.0, device[n * 95 / 100] / 1000.0, device[n - 1] / 1000.0,
+                cron[n / 2] / 1000.0, cron[n * 95 / 100] / 1000.0, cron[n - 1] / 1000.0));
+        assertTrue(device[n - 1] <= CheckInDeadline.GRACE_MS + 1_000L + 1_000L + 3_000L);
+        assertTrue(device[n / 2] < cron[n / 2]);
+    }
+}
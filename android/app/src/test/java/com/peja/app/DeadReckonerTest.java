@@ -0,0 +1,187 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Replays a drive (straights, turns, lights) and a walk at the 15s fix
+ * cadence, scoring what a viewer sees every second: before, the last
+ * written point; after, the written point extrapolated along its vector.
+ * Reports viewer error and write counts.
+ */
+public class DeadReckonerTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final double LAT0 = 6.5244, LNG0 = 3.3792;
+    private static final long FIX_MS = 15_000L;
+    /** The web map stops extrapolating a vector older than this. */
+    private static final long VIEWER_MAX_EXTRAPOLATE_MS = 60_000L;
+
+    private static double lat(double northM) {
+        return LAT0 + northM / GeoMath.M_PER_DEG;
+    }
+
+    private static double lng(double eastM) {
+        return LNG0 + eastM / (GeoMath.M_PER_DEG * Math.cos(Math.toRadians(LAT0)));
+    }
+
+    /** True path at 1 s resolution: north, east (m), speed (m/s), heading (deg). */
+    private static double[][] path(Random rnd, double[][] legs) {
+        // legs: {durationS, speedMps, headingDeg}
+        int total = 0;
+        for (double[] leg : legs) total += (int) leg[0];
+        double[][] out = new double[total][4];
+        double n = 0, e = 0, v = 0;
+        int i = 0;
+        for (double[] leg : legs) {
+            for (int s = 0; s < (int) leg[0]; s++, i++) {
+                v += (leg[1] * (1 + rnd.nextGaussian() * 0.03) - v) * 0.3; // accelerate smoothly
+                double h = Math.toRadians(leg[2]);
+                n += v * Math.cos(h);
+                e += v * Math.sin(h);
+                out[i] = new double[]{n, e, v, leg[2]};
+            }
+        }
+        return out;
+    }
+
+    /** {viewer mean error, viewer p95 error, writes} before, then after. */
+    private static double[][] replay(Random rnd, double[][] truth, double noiseM) {
+        DeadReckoner dr = new DeadReckoner();
+        // Viewer state: last written row.
+        double oldN = 0, oldE = 0;
+        double newN = 0, newE = 0, newVN = 0, newVE = 0;
+        long newFixAt = T0;
+        int oldWrites = 0, newWrites = 0;
+        double[] oldErr = new double[truth.length], newErr = new double[truth.length];
+        for (int s = 0; s < truth.length; s++) {
+            long t = T0 + s * 1000L;
+            double[] p = truth[s];
+            if (s % (FIX_MS / 1000) == 0) {
+                double fn = p[0] + rnd.nextGaussian() * noiseM, fe = p[1] + rnd.nextGaussian() * noiseM;
+                Double speed = Math.max(0, p[2] + rnd.nextGaussian() * 0.3);
+                Double bearing = p[2] > 1.0 ? p[3] + rnd.nextGaussian() * 5 : null;
+                dr.onFix(t, lat(fn), lng(fe), (float) (noiseM * 1.5), speed, bearing);
+                oldN = fn;
+                oldE = fe;
+                oldWrites++;
+                boolean still = p[2] < 0.3; // the duty cycle's view, roughly
+                if (dr.shouldWrite(still)) {
+                    newN = fn;
+                    newE = fe;
+                    newVN = dr.writtenNorthMps();
+                    newVE = dr.writtenEastMps();
+                    newFixAt = dr.writtenFixMs();
+                    newWrites++;
+                }
+            }
+            double age = Math.min(t - newFixAt, VIEWER_MAX_EXTRAPOLATE_MS) / 1000d;
+            oldErr[s] = Math.hypot(p[0] - oldN, p[1] - oldE);
+            newErr[s] = Math.hypot(p[0] - (newN + newVN * age), p[1] - (newE + newVE * age));
+        }
+        return new double[][]{stats(oldErr, oldWrites), stats(newErr, newWrites)};
+    }
+
+    private static double[] stats(double[] err, int writes) {
+        double sum = 0;
+        for (double e : err) sum += e;
+        double[] sorted = err.clone();
+        Arrays.sort(sorted);
+        return new double[]{sum / err.length, sorted[(int) (sorted.length * 0.95)], writes};
+    }
+
+    private static void report(String label, double[][] r) {
+        System.out.println(String.format(java.util.Locale.US,
+                "%s: viewer error mean %.0f m / p95 %.0f m with %d writes (was %.0f m / %.0f m with %d)",
+                label, r[1][0], r[1][1], (int) r[1][2], r[0][0], r[0][1], (int) r[0][2]));
+    }
+
+    @Test
+    public void driveFewerWritesAndSmallerViewerError() {
+        Random rnd = new Random(1);
+        double[][] truth = path(rnd, new double[][]{
+                {240, 16, 45}, {30, 0, 45}, {300, 18, 45}, {200, 12, 135},
+                {45, 0, 135}, {400, 22, 100}, {150, 9, 190}, {60, 0, 190}, {200, 14, 280}});
+        double[][] r = replay(rnd, truth, 5);
+        report("Drive 27 min", r);
+        assertTrue(r[1][2] < r[0][2] * 0.8);
+        assertTrue(r[1][0] < r[0][0] / 2);
+    }
+
+    @Test
+    public void walkFewerWritesWithoutWorseViewer() {
+        Random rnd = new Random(2);
+        double[][] truth = path(rnd, new double[][]{
+                {600, 1.4, 0}, {300, 1.3, 90}, {120, 0, 90}, {600, 1.4, 180}});
+        double[][] r = replay(rnd, truth, 6);
+        report("Walk 27 min", r);
+        assertTrue(r[1][2] <= r[0][2]);
+        assertTrue(r[1][0] < r[0][0]);
+    }
+
+    @Test
+    public void turnForcesAWrite() {
+        DeadReckoner dr = new DeadReckoner();
+        long t = T0;
+        for (int i = 0; i < 4; i++, t += FIX_MS) {
+            dr.onFix(t, lat(i * 240), lng(0), 5f, 16d, 0d);
+            dr.shouldWrite(false);
+        }
+        // Straight on: predictable, skipped.
+        dr.onFix(t, lat(4 * 240), lng(0), 5f, 16d, 0d);
+        assertFalse(dr.shouldWrite(false));
+        t += FIX_MS;
+        // Right turn: the vector swings, so it must go out.
+        dr.onFix(t, lat(4 * 240 + 60), lng(180), 5f, 16d, 90d);
+        assertTrue(dr.shouldWrite(false));
+        // Smoothed: half-way round after one sample, the next write finishes it.
+        assertEquals(45d, dr.writtenHeadingDeg(), 10d);
+    }
+
+    @Test
+    public void gapCapAndInvalidate() {
+        DeadReckoner dr = new DeadReckoner();
+        long t = T0;
+        int writes = 0;
+        for (int i = 0; i < 20; i++, t += FIX_MS) {
+            dr.onFix(t, lat(i * 240), lng(0), 5f, 16d, 0d);
+            if (dr.shouldWrite(false)) writes++;
+        }
+        // Perfectly straight, but never more than MAX_WRITE_GAP_MS apart.
+        assertTrue(writes >= 20 * FIX_MS / DeadReckoner.MAX_WRITE_GAP_MS);
+        dr.onFix(t, lat(20 * 240), lng(0), 5f, 16d, 0d);
+        dr.invalidate();
+        assertTrue(dr.shouldWrite(false));
+    }
+
+    @Test
+    public void onWriteTakesEveryFixAsTheBaseline() {
+        // SOS: every fix goes out, each carrying the vector as of that fix.
+        DeadReckoner dr = new DeadReckoner();
+        long t = T0;
+        for (int i = 0; i < 4; i++, t += FIX_MS) {
+            dr.onFix(t, lat(i * 240), lng(0), 5f, 16d, 0d);
+            dr.onWrite(false);
+            assertEquals(t, dr.writtenFixMs());
+        }
+        assertEquals(16d, dr.writtenNorthMps(), 1d);
+        dr.onFix(t, lat(4 * 240), lng(0), 5f, 16d, 0d);
+        dr.onWrite(true);
+        assertEquals(0d, dr.writtenNorthMps(), 0d);
+    }
+
+    @Test
+    public void stillAndSlowWriteZeroVector() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.onFix(T0, LAT0, LNG0, 10f, 0.4d, null);
+        assertTrue(dr.shouldWrite(false));
+        assertEquals(0d, dr.writtenNorthMps(), 0d);
+        assertTrue(Double.isNaN(dr.writtenHeadingDeg()));
+        dr.onFix(T0 + FIX_MS, LAT0, LNG0, 10f, 0d, null);
+        assertTrue(dr.shouldWrite(true)); // still mode always writes
+    }
+}
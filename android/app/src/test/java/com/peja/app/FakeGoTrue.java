@@ -0,0 +1,224 @@
+package com.peja.app;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local GoTrue stand-in for the session tests: the refresh_token grant over
+ * HTTP, sign-in and sign-out, with GoTrue's rotation rules. Refresh tokens
+ * are single use and belong to a session family; presenting a consumed one
+ * is a reuse and, as in GoTrue, revokes the whole family. Access tokens
+ * carry sub, session_id and an exp that strictly increases across every
+ * token issued, so recency comparisons in the store are never ties.
+ * Latency and failures can be injected per request.
+ */
+final class FakeGoTrue {
+
+    final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    /** Refresh token -> session family, for every token ever issued. */
+    private final Map<String, String> family = new HashMap<>();
+    private final Set<String> live = new HashSet<>();
+    private final Set<String> used = new HashSet<>();
+    private final Set<String> revoked = new HashSet<>();
+    private long lastExp = 0L;
+    private int families = 0;
+    /** Grant requests received, counted on arrival (requests counts them once answered). */
+    final AtomicInteger arrivals = new AtomicInteger();
+    int rotations = 0;
+    int requests = 0;
+    /** Consumed refresh tokens presented again: each one a breach. */
+    int reuses = 0;
+    /** Grants attempted for a family already signed out or revoked. */
+    int revokedUses = 0;
+    int injectedFailures = 0;
+    volatile long delayMs = 0L;
+    volatile long jitterMs = 0L;
+    volatile double failureRate = 0.0;
+    volatile boolean failing = false;
+    volatile long ttlSeconds = 3600L;
+
+    FakeGoTrue() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/auth/v1/token", ex -> {
+            arrivals.incrementAndGet();
+            String body = read(ex.getRequestBody());
+            String token = TokenSnapshot.topLevelClaim(body, "refresh_token");
+            long jitter = jitterMs;
+            sleep(delayMs + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0L));
+            int code;
+            String out;
+            synchronized (this) {
+                requests++;
+                String fam = token != null ? family.get(token) : null;
+                if (failing || ThreadLocalRandom.current().nextDouble() < failureRate) {
+                    injectedFailures++;
+                    code = 500;
+                    out = "{\"error\":\"unavailable\"}";
+                } else if (token != null && live.remove(token)) {
+                    used.add(token);
+                    rotations++;
+                    code = 200;
+                    out = session(subOf(fam), fam);
+                } else {
+                    if (fam != null && revoked.contains(fam)) {
+                        revokedUses++;
+                    } else if (used.contains(token)) {
+                        reuses++;
+                        revoke(fam);
+                    }
+                    code = 400;
+                    out = "{\"error\":\"invalid_grant\",\"error_description\":\"Refresh Token Not Found\"}";
+                }
+            }
+            byte[] bytes = out.getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(code, bytes.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** A fresh session family for {@code sub}: {access, refresh}. */
+    synchronized String[] signIn(String sub) {
+        String fam = "f" + (++families) + "-" + sub;
+        String json = session(sub, fam);
+        return new String[]{TokenSnapshot.topLevelClaim(json, "access_token"),
+                TokenSnapshot.topLevelClaim(json, "refresh_token")};
+    }
+
+    /** Sign-out: every refresh token of the family stops working. */
+    synchronized void signOut(String sessionId) {
+        revoke(sessionId);
+    }
+
+    synchronized boolean isRevoked(String sessionId) {
+        return revoked.contains(sessionId);
+    }
+
+    /** What PostgREST would say to this bearer: signature aside, exp and family. */
+    synchronized boolean accepts(String accessToken) {
+        TokenSnapshot t = TokenSnapshot.of(accessToken);
+        String sid = TokenSnapshot.topLevelClaim(payload(accessToken), "session_id");
+        return !t.isEmpty() && !t.expiresWithin(System.currentTimeMillis() / 1000L, 0L)
+                && sid != null && !revoked.contains(sid);
+    }
+
+    /** The session_id claim of an access token, or null. */
+    static String sessionId(String accessToken) {
+        return TokenSnapshot.topLevelClaim(payload(accessToken), "session_id");
+    }
+
+    static String jwt(String sub, long exp) {
+        return jwt(sub, exp, "s0");
+    }
+
+    private static String jwt(String sub, long exp, String sessionId) {
+        Base64.Encoder enc = Base64.getUrlEncoder().withoutPadding();
+        String payload = "{\"aud\":\"authenticated\",\"exp\":" + exp + ",\"sub\":\"" + sub
+                + "\",\"session_id\":\"" + sessionId + "\",\"user_metadata\":{\"sub\":\"nested\"}}";
+        return enc.encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + enc.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".sig";
+    }
+
+    /** The refresh_token grant over HTTP, as the app's OkHttp one does it. */
+    SessionRefresher.Grant grant() {
+        return refreshToken -> {
+            HttpURLConnection c = (HttpURLConnection) new URL(
+                    url() + "/auth/v1/token?grant_type=refresh_token").openConnection();
+            c.setRequestMethod("POST");
+            c.setDoOutput(true);
+            c.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream os = c.getOutputStream()) {
+                os.write(("{\"refresh_token\":\"" + refreshToken + "\"}").getBytes(StandardCharsets.UTF_8));
+            }
+            int code = c.getResponseCode();
+            if (code < 200 || code >= 300) {
+                read(c.getErrorStream());
+                return null;
+            }
+            String body = read(c.getInputStream());
+            return new String[]{TokenSnapshot.topLevelClaim(body, "access_token"),
+                    TokenSnapshot.topLevelClaim(body, "refresh_token")};
+        };
+    }
+
+    // guarded by this
+    private String session(String sub, String fam) {
+        long exp = Math.max(lastExp + 1, System.currentTimeMillis() / 1000L + ttlSeconds);
+        lastExp = exp;
+        String refresh = "r" + family.size() + "-" + fam;
+        family.put(refresh, fam);
+        live.add(refresh);
+        return "{\"access_token\":\"" + jwt(sub, exp, fam)
+                + "\",\"token_type\":\"bearer\",\"expires_in\":" + ttlSeconds
+                + ",\"refresh_token\":\"" + refresh + "\"}";
+    }
+
+    // guarded by this
+    private void revoke(String fam) {
+        if (fam == null) return;
+        revoked.add(fam);
+        live.removeIf(t -> fam.equals(family.get(t)));
+    }
+
+    private static String subOf(String fam) {
+        return fam.substring(fam.indexOf('-') + 1);
+    }
+
+    private static String payload(String jwt) {
+        if (jwt == null) return "";
+        String[] parts = jwt.split("\\.");
+        if (parts.length < 2) return "";
+        return new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+    }
+
+    static String read(InputStream in) {
+        if (in == null) return "";
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
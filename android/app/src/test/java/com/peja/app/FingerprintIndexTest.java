@@ -0,0 +1,296 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fingerprint index behaviour (learning, LRU, persistence) plus a
+ * city-scale benchmark: a 20x20 km city with 150k access points and a
+ * 600m cell grid, a month of one user's routine learned from GPS, then
+ * blind lookups on and off that routine.
+ */
+public class FingerprintIndexTest {
+
+    private static final double LAT0 = 6.45, LNG0 = 3.35;
+    private static final double M_PER_DEG = 111_320d;
+
+    private static long[] keys(long... k) {
+        return k;
+    }
+
+    @Test
+    public void wifiLookupAfterLearning() {
+        FingerprintIndex idx = new FingerprintIndex(64);
+        long ap1 = FingerprintIndex.wifiKey(0xA0B1C2D3E4F5L);
+        long ap2 = FingerprintIndex.wifiKey(0xA0B1C2D3E4F6L);
+        for (int i = 0; i < 5; i++) {
+            idx.learn(keys(ap1, ap2), 2, LAT0 + i * 1e-5, LNG0, 8f);
+        }
+        FingerprintIndex.Estimate e = idx.lookup(keys(ap1), 1);
+        assertNotNull(e);
+        assertEquals(LAT0 + 2e-5, e.lat, 2e-5);
+        assertEquals(FingerprintIndex.WIFI_MIN_ACCURACY_M, e.accuracyM, 0.01f);
+        assertEquals(1, e.wifiHits);
+    }
+
+    @Test
+    public void singleSightingAndCoarseFixesAreNotTrusted() {
+        FingerprintIndex idx = new FingerprintIndex(64);
+        long ap = FingerprintIndex.wifiKey(1L);
+        idx.learn(keys(ap), 1, LAT0, LNG0, 8f);
+        assertNull(idx.lookup(keys(ap), 1));
+        idx.learn(keys(ap), 1, LAT0, LNG0, 400f); // network fix: ignored
+        assertNull(idx.lookup(keys(ap), 1));
+    }
+
+    @Test
+    public void cellOnlyReportsCellAccuracy() {
+        FingerprintIndex idx = new FingerprintIndex(64);
+        long cell = FingerprintIndex.cellKey(3, 621, 20, 1234, 99_001L);
+        assertFalse(FingerprintIndex.isWifiKey(cell));
+        // Seen across ~1.2 km of a district.
+        for (int i = 0; i <= 12; i++) {
+            idx.learn(keys(cell), 1, LAT0 + i * 100 / M_PER_DEG, LNG0, 10f);
+        }
+        FingerprintIndex.Estimate e = idx.lookup(keys(cell), 1);
+        assertNotNull(e);
+        assertTrue(e.accuracyM >= FingerprintIndex.CELL_MIN_ACCURACY_M);
+        assertEquals(0, e.wifiHits);
+    }
+
+    @Test
+    public void lruEvictsTheLeastRecentlyUsedKey() {
+        FingerprintIndex idx = new FingerprintIndex(4);
+        for (long k = 1; k <= 4; k++) idx.learn(keys(FingerprintIndex.wifiKey(k)), 1, LAT0, LNG0, 5f);
+        // Touch key 1 so key 2 is now the oldest.
+        idx.learn(keys(FingerprintIndex.wifiKey(1)), 1, LAT0, LNG0, 5f);
+        idx.learn(keys(FingerprintIndex.wifiKey(5)), 1, LAT0, LNG0, 5f);
+        assertEquals(4, idx.size());
+        idx.learn(keys(FingerprintIndex.wifiKey(1)), 1, LAT0, LNG0, 5f);
+        assertNotNull(idx.lookup(keys(FingerprintIndex.wifiKey(1)), 1));
+        // Key 2 was evicted; relearning it starts from one sighting.
+        idx.learn(keys(FingerprintIndex.wifiKey(2)), 1, LAT0, LNG0, 5f);
+        assertNull(idx.lookup(keys(FingerprintIndex.wifiKey(2)), 1));
+    }
+
+    @Test
+    public void churnMatchesReferenceLru() {
+        int cap = 256;
+        FingerprintIndex idx = new FingerprintIndex(cap);
+        LinkedHashMap<Long, Integer> ref = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > cap;
+            }
+        };
+        Random rnd = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            long k = FingerprintIndex.wifiKey(rnd.nextInt(1_000));
+            idx.learn(keys(k), 1, LAT0, LNG0, 5f);
+            ref.merge(k, 1, Integer::sum);
+        }
+        assertEquals(cap, idx.size());
+        for (Map.Entry<Long, Integer> e : ref.entrySet()) {
+            boolean trusted = e.getValue() >= FingerprintIndex.MIN_SIGHTINGS;
+            // Count since (re)insertion isn't tracked by the reference, so
+            // only check presence of keys the reference saw repeatedly.
+            if (trusted && e.getValue() > 200) {
+                assertNotNull(idx.lookup(keys(e.getKey()), 1));
+            }
+        }
+    }
+
+    @Test
+    public void persistenceRoundTripKeepsEntriesAndRecency() throws Exception {
+        FingerprintIndex idx = new FingerprintIndex(8);
+        for (long k = 1; k <= 8; k++) {
+            idx.learn(keys(FingerprintIndex.wifiKey(k)), 1, LAT0 + k * 1e-4, LNG0, 5f);
+            idx.learn(keys(FingerprintIndex.wifiKey(k)), 1, LAT0 + k * 1e-4, LNG0, 5f);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        idx.writeTo(new DataOutputStream(bytes));
+
+        FingerprintIndex back = new FingerprintIndex(8);
+        back.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(8, back.size());
+        FingerprintIndex.Estimate e = back.lookup(keys(FingerprintIndex.wifiKey(3)), 1);
+        assertEquals(LAT0 + 3e-4, e.lat, 1e-6);
+        // Key 1 was least recent before saving, so it is evicted first.
+        back.learn(keys(FingerprintIndex.wifiKey(9)), 1, LAT0, LNG0, 5f);
+        assertNull(back.lookup(keys(FingerprintIndex.wifiKey(1)), 1));
+        assertNotNull(back.lookup(keys(FingerprintIndex.wifiKey(2)), 1));
+
+        FingerprintIndex small = new FingerprintIndex(4);
+        small.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(4, small.size());
+        assertNotNull(small.lookup(keys(FingerprintIndex.wifiKey(8)), 1));
+    }
+
+    // ── city-scale benchmark ──
+
+    private static final double CITY_M = 20_000d;
+    private static final int AP_COUNT = 150_000;
+    private static final double AP_RANGE_M = 60d;
+    private static final double CELL_SPACING_M = 600d;
+    private static final double BUCKET_M = 100d;
+
+    /** Synthetic city: APs bucketed on a 100m grid for fast range queries. */
+    private static final class City {
+        final double[] apX = new double[AP_COUNT], apY = new double[AP_COUNT];
+        final int buckets = (int) (CITY_M / BUCKET_M);
+        final int[] bucketStart = new int[buckets * buckets + 1];
+        final int[] bucketAps = new int[AP_COUNT];
+
+        City(Random rnd) {
+            int[] bucketOf = new int[AP_COUNT];
+            for (int i = 0; i < AP_COUNT; i++) {
+                apX[i] = rnd.nextDouble() * CITY_M;
+                apY[i] = rnd.nextDouble() * CITY_M;
+                bucketOf[i] = bucket(apX[i], apY[i]);
+                bucketStart[bucketOf[i] + 1]++;
+            }
+            for (int b = 0; b < buckets * buckets; b++) bucketStart[b + 1] += bucketStart[b];
+            int[] fill = Arrays.copyOf(bucketStart, bucketStart.length);
+            for (int i = 0; i < AP_COUNT; i++) bucketAps[fill[bucketOf[i]]++] = i;
+        }
+
+        int bucket(double x, double y) {
+            int bx = Math.min(buckets - 1, Math.max(0, (int) (x / BUCKET_M)));
+            int by = Math.min(buckets - 1, Math.max(0, (int) (y / BUCKET_M)));
+            return by * buckets + bx;
+        }
+
+        /** Fingerprint at (x, y): up to 8 APs in range plus the serving cell. */
+        int scan(double x, double y, long[] out) {
+            int n = 0;
+            int bx = (int) (x / BUCKET_M), by = (int) (y / BUCKET_M);
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int cx = bx + dx, cy = by + dy;
+                    if (cx < 0 || cy < 0 || cx >= buckets || cy >= buckets) continue;
+                    int b = cy * buckets + cx;
+                    for (int j = bucketStart[b]; j < bucketStart[b + 1] && n < 8; j++) {
+                        int ap = bucketAps[j];
+                        if (Math.hypot(apX[ap] - x, apY[ap] - y) <= AP_RANGE_M) {
+                            out[n++] = FingerprintIndex.wifiKey(0x02_0000_0000L + ap);
+                        }
+                    }
+                }
+            }
+            long cx = Math.round(x / CELL_SPACING_M), cy = Math.round(y / CELL_SPACING_M);
+            out[n++] = FingerprintIndex.cellKey(3, 621, 20, (int) (cx / 4 * 100 + cy / 4), cx * 1000 + cy);
+            return n;
+        }
+    }
+
+    private static double lat(double y) {
+        return LAT0 + y / M_PER_DEG;
+    }
+
+    private static double lng(double x) {
+        return LNG0 + x / (M_PER_DEG * Math.cos(Math.toRadians(LAT0)));
+    }
+
+    @Test
+    public void cityScaleHitRateAndLookupCost() {
+        Random rnd = new Random(42);
+        City city = new City(rnd);
+        // Routine: home, work, market, church, a friend's place.
+        double[][] places = new double[5][2];
+        for (double[] p : places) {
+            p[0] = 3_000 + rnd.nextDouble() * 14_000;
+            p[1] = 3_000 + rnd.nextDouble() * 14_000;
+        }
+        FingerprintIndex idx = new FingerprintIndex(8192);
+        long[] scan = new long[16];
+        int learnedFixes = 0;
+        for (int day = 0; day < 30; day++) {
+            int from = 0;
+            for (int leg = 0; leg < 4; leg++) {
+                int to = leg == 3 ? 0 : 1 + rnd.nextInt(4);
+                double[] a = places[from], b = places[to];
+                double len = Math.hypot(b[0] - a[0], b[1] - a[1]);
+                // 15s fixes at ~5 m/s (walk + danfo), with GPS noise.
+                for (double d = 0; d < len; d += 75) {
+                    double x = a[0] + (b[0] - a[0]) * d / len + rnd.nextGaussian() * 15;
+                    double y = a[1] + (b[1] - a[1]) * d / len + rnd.nextGaussian() * 15;
+                    int n = city.scan(x, y, scan);
+                    idx.learn(scan, n, lat(y + rnd.nextGaussian() * 6), lng(x + rnd.nextGaussian() * 6), 9f);
+                    learnedFixes++;
+                }
+                from = to;
+            }
+        }
+
+        // Blind queries: on the routine, and anywhere in the city.
+        int queries = 2_000;
+        long[][] qKeys = new long[queries * 2][];
+        double[][] truth = new double[queries * 2][];
+        for (int q = 0; q < queries * 2; q++) {
+            double x, y;
+            if (q < queries) {
+                double[] a = places[rnd.nextInt(5)], b = places[rnd.nextInt(5)];
+                double t = rnd.nextDouble();
+                x = a[0] + (b[0] - a[0]) * t + rnd.nextGaussian() * 15;
+                y = a[1] + (b[1] - a[1]) * t + rnd.nextGaussian() * 15;
+            } else {
+                x = rnd.nextDouble() * CITY_M;
+                y = rnd.nextDouble() * CITY_M;
+            }
+            long[] k = new long[16];
+            int n = city.scan(x, y, k);
+            qKeys[q] = Arrays.copyOf(k, n);
+            truth[q] = new double[]{x, y};
+        }
+        int routineHits = 0, cityHits = 0, wifiAnswers = 0, withinAccuracy = 0;
+        double[] errs = new double[queries];
+        for (int q = 0; q < queries * 2; q++) {
+            FingerprintIndex.Estimate e = idx.lookup(qKeys[q], qKeys[q].length);
+            if (e == null) continue;
+            if (q >= queries) {
+                cityHits++;
+                continue;
+            }
+            double ex = (e.lng - LNG0) * M_PER_DEG * Math.cos(Math.toRadians(LAT0));
+            double ey = (e.lat - LAT0) * M_PER_DEG;
+            double err = Math.hypot(ex - truth[q][0], ey - truth[q][1]);
+            errs[routineHits++] = err;
+            if (e.wifiHits > 0) wifiAnswers++;
+            if (err <= e.accuracyM * 2) withinAccuracy++;
+        }
+        Arrays.sort(errs, 0, routineHits);
+        double medianErr = errs[routineHits / 2];
+
+        int iterations = 200_000;
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long[] k = qKeys[i % qKeys.length];
+            FingerprintIndex.Estimate e = idx.lookup(k, k.length);
+            if (e != null) sink += e.wifiHits;
+        }
+        double nsPerLookup = (System.nanoTime() - t0) / (double) iterations;
+
+        System.out.println("Fingerprint index: " + learnedFixes + " fixes learned, " + idx.size()
+                + " keys; routine hit " + routineHits * 100 / queries + "% (Wi-Fi "
+                + wifiAnswers * 100 / Math.max(1, routineHits) + "%, median err "
+                + Math.round(medianErr) + " m, " + withinAccuracy * 100 / Math.max(1, routineHits)
+                + "% within 2x reported accuracy); city-wide hit " + cityHits * 100 / queries
+                + "%; lookup " + Math.round(nsPerLookup) + " ns (" + sink % 2 + ")");
+
+        assertTrue(idx.size() <= 8192);
+        assertTrue("routine hit rate", routineHits >= queries * 9 / 10);
+        assertTrue("median error " + medianErr, medianErr < 120);
+        assertTrue("honest accuracy", withinAccuracy >= routineHits * 8 / 10);
+    }
+}
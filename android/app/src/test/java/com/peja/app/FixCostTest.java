@@ -0,0 +1,41 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FixCostTest {
+
+    @Test
+    public void emptyReadsAsZero() {
+        FixCost c = new FixCost();
+        assertEquals(0L, c.fixes());
+        assertEquals(0L, c.meanUs());
+        assertEquals(0L, c.maxUs());
+        assertEquals(0L, c.mainThreadUsPerFix());
+    }
+
+    @Test
+    public void separatesMainThreadTimeFromTheRest() {
+        FixCost c = new FixCost();
+        // Three fixes handled on main (before), five on the tracking thread.
+        for (int i = 0; i < 3; i++) c.record(900_000L, true);
+        for (int i = 0; i < 5; i++) c.record(500_000L, false);
+        c.record(-1L, false); // a clock step, not a fix
+        assertEquals(8L, c.fixes());
+        assertEquals(3L, c.fixesOnMainThread());
+        assertEquals(650L, c.meanUs());
+        assertEquals(900L, c.maxUs());
+        assertEquals(337L, c.mainThreadUsPerFix());
+    }
+
+    @Test
+    public void offTheMainThreadCostsItNothing() {
+        FixCost c = new FixCost();
+        for (int i = 0; i < 1_000; i++) c.record(200_000L + i, false);
+        assertEquals(0L, c.fixesOnMainThread());
+        assertEquals(0L, c.mainThreadUsPerFix());
+        assertEquals(200L, c.meanUs());
+        assertEquals(200L, c.maxUs());
+    }
+}
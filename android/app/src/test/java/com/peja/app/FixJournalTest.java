@@ -0,0 +1,216 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Ring wrap, reopen after the process is gone, range and kind filtering
+ * and header recovery of the fix journal, plus append and range-read cost.
+ */
+public class FixJournalTest {
+
+    private static final long T0 = 1_760_000_000_000L;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, "peja_fixes.ring");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private static void append(FixJournal j, long timeMs, byte kind) {
+        j.append(timeMs, -1.2921 + timeMs % 1000 * 1e-6, 36.8219, 8f, 1.5f,
+                FixJournal.SOURCE_GPS, kind, FixJournal.tag("sess"));
+    }
+
+    private static ByteBuffer records(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void roundTripsTheRecordLayout() throws Exception {
+        FixJournal j = FixJournal.open(file, 64);
+        j.append(T0, -1.2921234, 36.8219876, 12.5f, Float.NaN,
+                FixJournal.source("fingerprint"), FixJournal.KIND_SML, FixJournal.tag("checkin-1"));
+
+        ByteBuffer r = records(j.range(T0, T0, (byte) 0, 10));
+        assertEquals(FixJournal.RECORD_BYTES, r.remaining());
+        assertEquals(T0, r.getLong(0));
+        assertEquals(-1.2921234, r.getInt(8) / 1e7, 1e-7);
+        assertEquals(36.8219876, r.getInt(12) / 1e7, 1e-7);
+        assertEquals(12.5f, r.getFloat(16), 0f);
+        assertTrue(Float.isNaN(r.getFloat(20)));
+        assertEquals(FixJournal.SOURCE_FINGERPRINT, r.get(24));
+        assertEquals(FixJournal.KIND_SML, r.get(25));
+        assertEquals("checkin-1".hashCode(), r.getInt(28));
+    }
+
+    @Test
+    public void wrapsKeepingTheNewestAndSurvivesReopen() throws Exception {
+        FixJournal j = FixJournal.open(file, 100);
+        for (int i = 0; i < 250; i++) append(j, T0 + i * 3_000L, FixJournal.KIND_SOS);
+        assertEquals(100, j.size());
+
+        // A new process maps the same file.
+        FixJournal reopened = FixJournal.open(file, 100);
+        assertEquals(100, reopened.size());
+        ByteBuffer r = records(reopened.range(0L, Long.MAX_VALUE, (byte) 0, 1_000));
+        assertEquals(100 * FixJournal.RECORD_BYTES, r.remaining());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(T0 + (150 + i) * 3_000L, r.getLong(i * FixJournal.RECORD_BYTES));
+        }
+        append(reopened, T0 + 250 * 3_000L, FixJournal.KIND_SOS);
+        assertEquals(T0 + 250 * 3_000L, records(reopened.range(T0 + 250 * 3_000L, Long.MAX_VALUE,
+                (byte) 0, 10)).getLong(0));
+    }
+
+    @Test
+    public void aReaderMappedEarlierSeesLaterAppends() throws Exception {
+        // The app process maps the file for range() while :tracker appends.
+        FixJournal writer = FixJournal.open(file, 100);
+        FixJournal reader = FixJournal.open(file, 100);
+        assertEquals(0, reader.size());
+        for (int i = 0; i < 130; i++) append(writer, T0 + i * 3_000L, FixJournal.KIND_SML);
+        assertEquals(100, reader.size());
+        ByteBuffer r = records(reader.range(T0 + 120 * 3_000L, Long.MAX_VALUE, (byte) 0, 1_000));
+        assertEquals(10 * FixJournal.RECORD_BYTES, r.remaining());
+        assertEquals(T0 + 129 * 3_000L, r.getLong(9 * FixJournal.RECORD_BYTES));
+    }
+
+    @Test
+    public void aReaderOnAnotherMappingNeverSeesATornRecord() throws Exception {
+        // Two mappings of one file, as :tracker and the app process have:
+        // neither instance's lock covers the other. Every field of a record
+        // is derived from its append number, so a half-overwritten copy shows.
+        FixJournal writer = FixJournal.open(file, 64);
+        FixJournal reader = FixJournal.open(file, 64);
+        int appends = 2_000_000;
+        Thread t = new Thread(() -> {
+            for (int i = 0; i < appends; i++) {
+                writer.append(T0 + i * 1_000L, i * 1e-7, -i * 1e-7, 5f, 0f,
+                        FixJournal.SOURCE_GPS, FixJournal.KIND_SOS, i);
+            }
+        });
+        t.start();
+        long reads = 0, records = 0;
+        while (t.isAlive()) {
+            ByteBuffer r = records(reader.range(0L, Long.MAX_VALUE, (byte) 0, 64));
+            assertTrue(r.remaining() <= 64 * FixJournal.RECORD_BYTES);
+            long prev = -1L;
+            for (int at = 0; at < r.remaining(); at += FixJournal.RECORD_BYTES) {
+                long seq = (r.getLong(at) - T0) / 1_000L;
+                assertEquals(seq, r.getInt(at + 8));
+                assertEquals(-seq, r.getInt(at + 12));
+                assertEquals(seq, r.getInt(at + 28));
+                assertTrue(seq > prev);
+                prev = seq;
+                records++;
+            }
+            reads++;
+        }
+        t.join();
+        assertTrue(reads > 0 && records > 0);
+        assertEquals(64, reader.size());
+        ByteBuffer last = records(reader.range(0L, Long.MAX_VALUE, (byte) 0, 64));
+        assertEquals(appends - 1, last.getInt(63 * FixJournal.RECORD_BYTES + 28));
+    }
+
+    @Test
+    public void filtersByTimeAndKindAndCapsToTheNewest() throws Exception {
+        FixJournal j = FixJournal.open(file, 1_000);
+        for (int i = 0; i < 600; i++) {
+            append(j, T0 + i * 1_000L, i % 3 == 0 ? FixJournal.KIND_AMBIENT : FixJournal.KIND_SML);
+        }
+        // Ambient is a few seconds behind the SML fixes around it.
+        append(j, T0 + 598_000L, FixJournal.KIND_AMBIENT);
+
+        ByteBuffer all = records(j.range(T0 + 100_000L, T0 + 199_000L, (byte) 0, 1_000));
+        assertEquals(100 * FixJournal.RECORD_BYTES, all.remaining());
+        assertEquals(T0 + 100_000L, all.getLong(0));
+
+        ByteBuffer sml = records(j.range(T0 + 100_000L, T0 + 199_000L, FixJournal.KIND_SML, 1_000));
+        for (int at = 0; at < sml.remaining(); at += FixJournal.RECORD_BYTES) {
+            assertEquals(FixJournal.KIND_SML, sml.get(at + 25));
+        }
+        assertEquals(67, sml.remaining() / FixJournal.RECORD_BYTES);
+
+        ByteBuffer newest = records(j.range(T0, Long.MAX_VALUE, (byte) 0, 5));
+        assertEquals(5 * FixJournal.RECORD_BYTES, newest.remaining());
+        assertEquals(T0 + 598_000L, newest.getLong(4 * FixJournal.RECORD_BYTES));
+
+        assertEquals(0, j.range(T0 + 700_000L, T0 + 800_000L, (byte) 0, 10).length);
+    }
+
+    @Test
+    public void foreignOrResizedFileStartsEmpty() throws Exception {
+        FixJournal j = FixJournal.open(file, 100);
+        for (int i = 0; i < 10; i++) append(j, T0 + i, FixJournal.KIND_SOS);
+        assertEquals(0, FixJournal.open(file, 200).size());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0xDEADBEEF);
+        }
+        FixJournal garbled = FixJournal.open(file, 200);
+        assertEquals(0, garbled.size());
+        append(garbled, T0, FixJournal.KIND_SOS);
+        assertEquals(1, FixJournal.open(file, 200).size());
+    }
+
+    @Test
+    public void appendAndRangeCost() throws Exception {
+        FixJournal j = FixJournal.open(file, FixJournal.DEFAULT_CAPACITY);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int n = 200_000;
+        long appendNs = 0, allocated = 0;
+        for (int pass = 0; pass < 2; pass++) { // first pass warms up
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long t = System.nanoTime();
+            for (int i = 0; i < n; i++) append(j, T0 + i * 3_000L, FixJournal.KIND_SOS);
+            appendNs = System.nanoTime() - t;
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+
+        // An hour at one fix per 3s, the newest of the full ring.
+        long to = T0 + (n - 1) * 3_000L;
+        long from = to - 3_600_000L;
+        int rounds = 500;
+        byte[] hour = null;
+        long readNs = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long t = System.nanoTime();
+            for (int i = 0; i < rounds; i++) hour = j.range(from, to, (byte) 0, 100_000);
+            readNs = System.nanoTime() - t;
+        }
+        assertEquals(1_201, hour.length / FixJournal.RECORD_BYTES);
+        System.out.println(String.format(Locale.US,
+                "Fix journal: append %.0f ns/op, %d B allocated over %d appends; "
+                        + "1 h range (%d fixes, %d B) %.1f us",
+                (double) appendNs / n, allocated, n, hour.length / FixJournal.RECORD_BYTES,
+                hour.length, readNs / 1e3 / rounds));
+        // Thread-allocation counters are TLAB-granular; anything per-append
+        // would be megabytes here.
+        assertTrue(allocated < 64 * 1024);
+    }
+}
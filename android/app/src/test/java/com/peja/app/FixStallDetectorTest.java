@@ -0,0 +1,88 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FixStallDetectorTest {
+
+    private static final long CADENCE = 15_000L;
+
+    /** Poll once per cadence from {@code fromMs} to {@code toMs}; "t_s:STEP" for each step. */
+    private static List<String> ladder(FixStallDetector d, long fromMs, long toMs) {
+        List<String> steps = new ArrayList<>();
+        for (long t = fromMs; t <= toMs; t += CADENCE) {
+            FixStallDetector.Step step = d.poll(t, CADENCE);
+            if (step != FixStallDetector.Step.NONE) steps.add(t / 1000L + ":" + step);
+        }
+        return steps;
+    }
+
+    @Test
+    public void regularDeliveryNeverEscalates() {
+        FixStallDetector d = new FixStallDetector(0L);
+        for (long t = 0L; t < 3_600_000L; t += 1_000L) {
+            // Fixes up to two cadences apart (a late batched delivery).
+            if (t % 30_000L == 0L) d.onFix(t);
+            if (t % CADENCE == 0L) assertEquals(FixStallDetector.Step.NONE, d.poll(t, CADENCE));
+        }
+        assertEquals(0, d.stalls());
+    }
+
+    @Test
+    public void escalatesOneStepEveryTwoCadencesInsideTwoMinutes() {
+        FixStallDetector d = new FixStallDetector(0L);
+        d.onFix(0L);
+        assertEquals(Arrays.asList("45:REREQUEST_FUSED", "75:ADD_PLATFORM", "105:CURRENT_LOCATION",
+                "135:CURRENT_LOCATION", "165:CURRENT_LOCATION"), ladder(d, 15_000L, 180_000L));
+        assertTrue(d.isStalled());
+        assertTrue(d.wantsPlatform());
+        assertEquals(180_000L, d.currentStallMs(180_000L));
+    }
+
+    @Test
+    public void theFixThatEndsAStallRecordsItsLength() {
+        FixStallDetector d = new FixStallDetector(0L);
+        assertEquals(0L, d.onFix(10_000L));
+        ladder(d, 15_000L, 75_000L); // re-request, then platform
+        assertEquals(70_000L, d.onFix(80_000L));
+        assertFalse(d.isStalled());
+        assertEquals(0L, d.currentStallMs(81_000L));
+
+        ladder(d, 90_000L, 300_000L);
+        assertEquals(230_000L, d.onFix(310_000L));
+        assertEquals(2, d.stalls());
+        assertEquals(300_000L, d.stalledMs());
+        assertEquals(230_000L, d.longestStallMs());
+        // A fresh stall climbs the ladder from the top again.
+        assertEquals(Arrays.asList("355:REREQUEST_FUSED"), ladder(d, 325_000L, 355_000L));
+    }
+
+    @Test
+    public void providerToggleCountsAsTheFirstTwoSteps() {
+        FixStallDetector d = new FixStallDetector(0L);
+        // Outside a stall a toggle changes nothing: the service re-registered.
+        d.onProvidersChanged(20_000L);
+        assertFalse(d.isStalled());
+
+        assertEquals(FixStallDetector.Step.REREQUEST_FUSED, d.poll(45_000L, CADENCE));
+        d.onProvidersChanged(50_000L); // GPS switched back on
+        assertTrue(d.wantsPlatform());
+        assertEquals(FixStallDetector.Step.NONE, d.poll(60_000L, CADENCE));
+        assertEquals(FixStallDetector.Step.CURRENT_LOCATION, d.poll(80_000L, CADENCE));
+    }
+
+    @Test
+    public void scalesWithTheHelperCadence() {
+        FixStallDetector d = new FixStallDetector(0L);
+        long far = 60_000L;
+        assertEquals(FixStallDetector.Step.NONE, d.poll(150_000L, far));
+        assertEquals(FixStallDetector.Step.REREQUEST_FUSED, d.poll(180_000L, far));
+        assertEquals(FixStallDetector.Step.NONE, d.poll(240_000L, far));
+        assertEquals(FixStallDetector.Step.ADD_PLATFORM, d.poll(300_000L, far));
+    }
+}
@@ -0,0 +1,171 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Error of each distance path against Vincenty on WGS84 over random point
+ * pairs, bearing/destination round trips, and a microbenchmark of the
+ * variants the services call per fix.
+ */
+public class GeoMathTest {
+
+    /** Vincenty inverse on the WGS84 ellipsoid, metres (reference only). */
+    private static double vincentyM(double lat1, double lng1, double lat2, double lng2) {
+        double a = 6_378_137d, f = 1 / 298.257223563, b = a * (1 - f);
+        double L = Math.toRadians(lng2 - lng1);
+        double U1 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat1)));
+        double U2 = Math.atan((1 - f) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(U1), cosU1 = Math.cos(U1), sinU2 = Math.sin(U2), cosU2 = Math.cos(U2);
+        double lambda = L, prev;
+        double sinSigma, cosSigma, sigma, cosSqAlpha, cos2SigmaM;
+        int iter = 0;
+        do {
+            double sinL = Math.sin(lambda), cosL = Math.cos(lambda);
+            sinSigma = Math.sqrt((cosU2 * sinL) * (cosU2 * sinL)
+                    + (cosU1 * sinU2 - sinU1 * cosU2 * cosL) * (cosU1 * sinU2 - sinU1 * cosU2 * cosL));
+            if (sinSigma == 0) return 0;
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosL;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinL / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha;
+            double C = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+            prev = lambda;
+            lambda = L + (1 - C) * f * sinAlpha * (sigma + C * sinSigma
+                    * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+        } while (Math.abs(lambda - prev) > 1e-12 && ++iter < 200);
+        double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+        double A = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double B = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double dSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return b * A * (sigma - dSigma);
+    }
+
+    /** A random point within {@code maxM} metres of (lat, lng). */
+    private static double[] near(Random rnd, double lat, double lng, double maxM) {
+        return GeoMath.destination(lat, lng, rnd.nextDouble() * 360, rnd.nextDouble() * maxM);
+    }
+
+    @Test
+    public void shortRangeWithinSphereErrorOfVincenty() {
+        Random rnd = new Random(1);
+        double worstRel = 0, worstFlatVsHav = 0, worstOriginVsHav = 0;
+        for (int i = 0; i < 20_000; i++) {
+            double lat = -70 + rnd.nextDouble() * 140, lng = -180 + rnd.nextDouble() * 360;
+            double[] p = near(rnd, lat, lng, 1_000);
+            if (GeoMath.haversineM(lat, lng, p[0], p[1]) < 1) continue;
+            double ref = vincentyM(lat, lng, p[0], p[1]);
+            double flat = GeoMath.equirectM(lat, lng, p[0], p[1]);
+            double hav = GeoMath.haversineM(lat, lng, p[0], p[1]);
+            double origin = new GeoMath.Origin(lat, lng).distanceM(p[0], p[1]);
+            worstRel = Math.max(worstRel, Math.abs(flat - ref) / ref);
+            worstFlatVsHav = Math.max(worstFlatVsHav, Math.abs(flat - hav));
+            worstOriginVsHav = Math.max(worstOriginVsHav, Math.abs(origin - hav));
+        }
+        System.out.println("Under 1 km, |lat| < 70: equirect vs Vincenty " + String.format(java.util.Locale.US,
+                "%.3f%%", worstRel * 100) + "; vs haversine " + String.format(java.util.Locale.US,
+                "%.3f m (mean-lat cos), %.3f m (cached origin cos)", worstFlatVsHav, worstOriginVsHav));
+        // The sphere-vs-ellipsoid error (up to ~0.56% by direction and
+        // latitude); the flat path adds nothing measurable on top.
+        assertTrue(worstRel < 0.006);
+        assertTrue(worstFlatVsHav < 0.05);
+        // The cached cosine is the origin's own; over the 30 m anchor radius
+        // the difference is millimetres, over a full kilometre under a metre.
+        assertTrue(worstOriginVsHav < 1.0);
+    }
+
+    @Test
+    public void longRangeWithinSphereErrorOfVincenty() {
+        Random rnd = new Random(2);
+        double worstRel = 0;
+        for (int i = 0; i < 20_000; i++) {
+            double lat1 = -80 + rnd.nextDouble() * 160, lng1 = -180 + rnd.nextDouble() * 360;
+            double lat2 = -80 + rnd.nextDouble() * 160, lng2 = -180 + rnd.nextDouble() * 360;
+            double ref = vincentyM(lat1, lng1, lat2, lng2);
+            if (ref < 1_000 || ref > 19_000_000) continue; // near-antipodal: Vincenty itself struggles
+            double d = GeoMath.distanceM(lat1, lng1, lat2, lng2);
+            worstRel = Math.max(worstRel, Math.abs(d - ref) / ref);
+        }
+        System.out.println("1 km - 19,000 km: haversine vs Vincenty "
+                + String.format(java.util.Locale.US, "%.3f%%", worstRel * 100));
+        assertTrue(worstRel < 0.006);
+    }
+
+    @Test
+    public void distanceIsSymmetricAndZeroOnItself() {
+        Random rnd = new Random(3);
+        for (int i = 0; i < 1_000; i++) {
+            double lat = -80 + rnd.nextDouble() * 160, lng = -180 + rnd.nextDouble() * 360;
+            double[] p = near(rnd, lat, lng, 5_000);
+            assertEquals(0d, GeoMath.distanceM(lat, lng, lat, lng), 0d);
+            assertEquals(GeoMath.distanceM(lat, lng, p[0], p[1]),
+                    GeoMath.distanceM(p[0], p[1], lat, lng), 1e-6);
+        }
+    }
+
+    @Test
+    public void destinationRoundTripsThroughBearingAndDistance() {
+        Random rnd = new Random(4);
+        for (int i = 0; i < 5_000; i++) {
+            double lat = -80 + rnd.nextDouble() * 160, lng = -180 + rnd.nextDouble() * 360;
+            double brg = rnd.nextDouble() * 360, dist = 1 + rnd.nextDouble() * 50_000;
+            double[] p = GeoMath.destination(lat, lng, brg, dist);
+            assertEquals(dist, GeoMath.haversineM(lat, lng, p[0], p[1]), dist * 1e-9 + 1e-6);
+            double back = GeoMath.bearingDeg(lat, lng, p[0], p[1]);
+            double diff = Math.abs(back - brg);
+            assertTrue("bearing " + brg + " -> " + back, Math.min(diff, 360 - diff) < 1e-6);
+            assertTrue(p[1] >= -180 && p[1] < 180);
+        }
+        assertEquals(90d, GeoMath.bearingDeg(0, 0, 0, 1), 1e-9);
+        assertEquals(0d, GeoMath.bearingDeg(0, 0, 1, 0), 1e-9);
+        assertEquals(270d, GeoMath.bearingDeg(0, 1, 0, 0), 1e-9);
+    }
+
+    @Test
+    public void microbenchmark() {
+        Random rnd = new Random(5);
+        int n = 4_096;
+        double[] lat = new double[n], lng = new double[n];
+        for (int i = 0; i < n; i++) {
+            double[] p = near(rnd, 6.5244, 3.3792, 300);
+            lat[i] = p[0];
+            lng[i] = p[1];
+        }
+        GeoMath.Origin origin = new GeoMath.Origin(6.5244, 3.3792);
+        int iterations = 2_000_000;
+        double sink = 0;
+        long[] ns = new long[4];
+        for (int round = 0; round < 3; round++) { // first rounds warm the JIT
+            long t = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += GeoMath.haversineM(6.5244, 3.3792, lat[i & (n - 1)], lng[i & (n - 1)]);
+            }
+            ns[0] = System.nanoTime() - t;
+            t = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += GeoMath.equirectM(6.5244, 3.3792, lat[i & (n - 1)], lng[i & (n - 1)]);
+            }
+            ns[1] = System.nanoTime() - t;
+            t = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += origin.distanceM(lat[i & (n - 1)], lng[i & (n - 1)]);
+            }
+            ns[2] = System.nanoTime() - t;
+            t = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += vincentyM(6.5244, 3.3792, lat[i & (n - 1)], lng[i & (n - 1)]);
+            }
+            ns[3] = System.nanoTime() - t;
+        }
+        System.out.println(String.format(java.util.Locale.US,
+                "ns/op: haversine %.1f, equirect %.1f, cached origin %.1f, Vincenty %.1f (%d)",
+                ns[0] / (double) iterations, ns[1] / (double) iterations,
+                ns[2] / (double) iterations, ns[3] / (double) iterations, (long) sink % 2));
+        assertTrue(sink > 0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Band selection, re-registration counting, and a replayed 12 km approach
+ * comparing location request counts against the old fixed 15s cadence.
+ */
+public class HelperCadenceBandTest {
+
+    @Test
+    public void bandsByDistanceAndEta() {
+        assertEquals(HelperCadenceBand.FAR, HelperCadenceBand.forApproach(12_000, -1, 0));
+        assertEquals(HelperCadenceBand.MID, HelperCadenceBand.forApproach(3_000, -1, 0));
+        assertEquals(HelperCadenceBand.NEAR, HelperCadenceBand.forApproach(800, -1, 0));
+        // 8 km out but 4 min away on a motorway: promoted by ETA.
+        assertEquals(HelperCadenceBand.NEAR, HelperCadenceBand.forApproach(8_000, 240, 0));
+        assertEquals(HelperCadenceBand.MID, HelperCadenceBand.forApproach(8_000, 600, 0));
+    }
+
+    @Test
+    public void reRegistersOnlyOnBandChange() {
+        HelperCadenceBand.Selector sel = new HelperCadenceBand.Selector();
+        assertEquals(HelperCadenceBand.NEAR, sel.current());
+        assertTrue(sel.onPoll(12_000, 1_800));
+        assertFalse(sel.onPoll(11_800, 1_750));
+        assertFalse(sel.onPoll(11_500, 1_700));
+        assertTrue(sel.onPoll(4_900, 800));
+        assertEquals(HelperCadenceBand.MID, sel.current());
+        assertFalse(sel.onPoll(4_500, 700));
+    }
+
+    @Test
+    public void noiseAtABoundaryDoesNotFlap() {
+        HelperCadenceBand.Selector sel = new HelperCadenceBand.Selector();
+        sel.onPoll(20_000, -1);
+        Random rnd = new Random(5);
+        int changes = 0;
+        // Helper parked right at the 5 km line with 150 m of fix noise.
+        for (int i = 0; i < 200; i++) {
+            if (sel.onPoll(5_000 + rnd.nextGaussian() * 150, -1)) changes++;
+        }
+        assertEquals(1, changes); // FAR -> MID once, then stays
+        // Backing away only demotes past the margin.
+        assertFalse(sel.onPoll(5_900, -1));
+        assertTrue(sel.onPoll(6_100, -1));
+    }
+
+    @Test
+    public void approachReplayRequestCounts() {
+        // 12 km straight-line approach at ~30 km/h average, polled once per
+        // delivered fix like the service does, with 40 m fix noise.
+        Random rnd = new Random(9);
+        HelperCadenceBand.Selector sel = new HelperCadenceBand.Selector();
+        double dist = 12_000d;
+        long t = 0L;
+        int fixes = 0, registrations = 1, highAccuracyFixes = 0;
+        while (dist > HelperEtaEstimator.ARRIVAL_RADIUS_M) {
+            long interval = sel.current().intervalMs;
+            t += interval;
+            dist -= 8.3d * interval / 1000d * (0.8 + rnd.nextDouble() * 0.4);
+            fixes++;
+            if (sel.current().isHighAccuracy()) highAccuracyFixes++;
+            double noisy = dist + rnd.nextGaussian() * 40;
+            long etaS = Math.round(noisy / 8.3d);
+            if (sel.onPoll(noisy, etaS)) registrations++;
+        }
+        int oldFixes = (int) (t / 15_000L);
+        System.out.println("12 km approach: " + fixes + " fixes (" + highAccuracyFixes
+                + " high-accuracy) vs " + oldFixes + " at fixed 15s; "
+                + registrations + " request registrations");
+        assertTrue(fixes < oldFixes * 2 / 3);
+        assertTrue(highAccuracyFixes < oldFixes / 2);
+        // Initial + NEAR->FAR + FAR->MID + MID->NEAR, nothing more.
+        assertEquals(4, registrations);
+    }
+}
@@ -0,0 +1,196 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays walking and driving approach traces (street-grid routes with GPS
+ * noise, chipset speed jitter and, for driving, traffic-light stops) and
+ * compares ETA error against the old fixed-30 km/h rule, plus the arrival
+ * hysteresis against a single multipath fix.
+ */
+public class HelperEtaEstimatorTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final double SOS_LAT = 6.5244, SOS_LNG = 3.3792;
+    private static final double M_PER_DEG = 111_320d;
+    private static final long TICK_MS = 15_000L;
+
+    /** One fix of a trace, plus the true time left to reach the SOS. */
+    private static final class Fix {
+        final long t;
+        final double lat, lng;
+        final float acc;
+        final Double speed;
+        long trueRemainingS;
+
+        Fix(long t, double lat, double lng, float acc, Double speed) {
+            this.t = t;
+            this.lat = lat;
+            this.lng = lng;
+            this.acc = acc;
+            this.speed = speed;
+        }
+    }
+
+    private static double lat(double northM) {
+        return SOS_LAT + northM / M_PER_DEG;
+    }
+
+    private static double lng(double eastM) {
+        return SOS_LNG + eastM / (M_PER_DEG * Math.cos(Math.toRadians(SOS_LAT)));
+    }
+
+    /**
+     * Street-grid approach from (east, north) metres: drive/walk the east
+     * leg, then the north leg, at {@code cruise} m/s, stopping for
+     * {@code stopS} seconds every {@code stopEveryM} metres.
+     */
+    private static List<Fix> trace(Random rnd, double east, double north, double cruise,
+                                   double stopEveryM, int stopS, double noiseM, boolean chipset) {
+        List<Fix> out = new ArrayList<>();
+        double route = Math.abs(east) + Math.abs(north);
+        double travelled = 0d, sinceStop = 0d;
+        int stopLeft = 0;
+        long t = T0;
+        while (travelled < route) {
+            double v;
+            if (stopLeft > 0) {
+                v = 0d;
+                stopLeft -= (int) (TICK_MS / 1000);
+            } else {
+                v = Math.max(0.3d, cruise * (1 + rnd.nextGaussian() * 0.15));
+                double step = v * TICK_MS / 1000d;
+                travelled = Math.min(route, travelled + step);
+                sinceStop += step;
+                if (stopEveryM > 0 && sinceStop >= stopEveryM) {
+                    sinceStop = 0d;
+                    stopLeft = stopS;
+                }
+            }
+            double e, n;
+            if (travelled < Math.abs(east)) {
+                e = east - Math.signum(east) * travelled;
+                n = north;
+            } else {
+                e = 0d;
+                n = north - Math.signum(north) * (travelled - Math.abs(east));
+            }
+            double ne = e + rnd.nextGaussian() * noiseM, nn = n + rnd.nextGaussian() * noiseM;
+            Double speed = chipset ? Math.max(0d, v + rnd.nextGaussian() * 0.3) : null;
+            out.add(new Fix(t, lat(nn), lng(ne), (float) (noiseM * 1.5), speed));
+            t += TICK_MS;
+        }
+        long end = t - TICK_MS;
+        for (Fix f : out) f.trueRemainingS = (end - f.t) / 1000L;
+        return out;
+    }
+
+    /** Mean absolute ETA error (s) over fixes with at least 3 min to go. */
+    private static double[] replay(List<Fix> trace) {
+        HelperEtaEstimator est = new HelperEtaEstimator();
+        double newErr = 0, oldErr = 0;
+        int n = 0;
+        for (Fix f : trace) {
+            est.onFix(f.t, f.lat, f.lng, f.acc, f.speed, SOS_LAT, SOS_LNG);
+            if (f.trueRemainingS < 180L) continue;
+            double oldEta = est.distanceM() / (30d / 3.6d);
+            newErr += Math.abs(est.etaSeconds() - f.trueRemainingS);
+            oldErr += Math.abs(oldEta - f.trueRemainingS);
+            n++;
+        }
+        return new double[]{newErr / n, oldErr / n};
+    }
+
+    @Test
+    public void walkingEtaBeatsFixedThirtyKmh() {
+        Random rnd = new Random(1);
+        List<Fix> walk = trace(rnd, 1_200, -900, 1.35, 0, 0, 8, true);
+        double[] err = replay(walk);
+        System.out.println("Walking 2.1 km: mean ETA error " + Math.round(err[0]) + " s (was "
+                + Math.round(err[1]) + " s at fixed 30 km/h)");
+        assertTrue(err[0] < err[1] / 4);
+    }
+
+    @Test
+    public void arterialDriveEtaWithoutChipsetSpeed() {
+        Random rnd = new Random(2);
+        List<Fix> drive = trace(rnd, -3_000, 7_000, 17, 2_000, 40, 10, false);
+        double[] err = replay(drive);
+        System.out.println("Arterial drive 10 km: mean ETA error " + Math.round(err[0]) + " s (was "
+                + Math.round(err[1]) + " s at fixed 30 km/h)");
+        assertTrue(err[0] < err[1]);
+    }
+
+    @Test
+    public void stopAndGoDriveEta() {
+        // Urban stop-and-go averages close to the old fixed rate, so the
+        // old rule is least wrong here; the buffer-wide speed must still
+        // average the red lights in rather than chase them.
+        Random rnd = new Random(2);
+        List<Fix> drive = trace(rnd, -5_000, 4_000, 13, 700, 45, 10, false);
+        double[] err = replay(drive);
+        System.out.println("Stop-and-go drive 9 km: mean ETA error " + Math.round(err[0]) + " s (was "
+                + Math.round(err[1]) + " s at fixed 30 km/h)");
+        assertTrue(err[0] < err[1]);
+    }
+
+    @Test
+    public void singleMultipathFixDoesNotEndTracking() {
+        Random rnd = new Random(3);
+        List<Fix> walk = trace(rnd, 1_200, -900, 1.35, 0, 0, 8, true);
+        HelperEtaEstimator est = new HelperEtaEstimator();
+        int glitchAt = walk.size() / 2;
+        long arrivedAt = -1L, enteredAt = -1L;
+        for (int i = 0; i < walk.size(); i++) {
+            Fix f = walk.get(i);
+            if (i == glitchAt) {
+                // One fix snapped next to the SOS, claiming 20m accuracy.
+                est.onFix(f.t, lat(40), lng(-30), 20f, 1.2d, SOS_LAT, SOS_LNG);
+                assertFalse(est.hasArrived());
+                continue;
+            }
+            est.onFix(f.t, f.lat, f.lng, f.acc, f.speed, SOS_LAT, SOS_LNG);
+            if (enteredAt < 0 && est.distanceM() <= HelperEtaEstimator.ARRIVAL_RADIUS_M) enteredAt = f.t;
+            if (arrivedAt < 0 && est.hasArrived()) arrivedAt = f.t;
+        }
+        assertTrue(arrivedAt > 0);
+        // Declared within three cadences of really entering the radius.
+        assertTrue(arrivedAt - enteredAt <= 3 * TICK_MS);
+    }
+
+    @Test
+    public void coarseFixInsideRadiusDoesNotCount() {
+        HelperEtaEstimator est = new HelperEtaEstimator();
+        for (int i = 0; i < 5; i++) {
+            est.onFix(T0 + i * TICK_MS, lat(100), lng(0), 900f, null, SOS_LAT, SOS_LNG);
+        }
+        assertFalse(est.hasArrived());
+    }
+
+    @Test
+    public void dwellBetweenRadiiStillArrives() {
+        HelperEtaEstimator est = new HelperEtaEstimator();
+        // Alternating 250m / 350m: the 350m fixes sit in the hysteresis
+        // band, neither counting nor resetting.
+        est.onFix(T0, lat(250), lng(0), 15f, 0.5d, SOS_LAT, SOS_LNG);
+        est.onFix(T0 + 20_000L, lat(350), lng(0), 15f, 0.5d, SOS_LAT, SOS_LNG);
+        assertFalse(est.hasArrived());
+        est.onFix(T0 + 50_000L, lat(250), lng(0), 15f, 0.5d, SOS_LAT, SOS_LNG);
+        assertTrue(est.hasArrived());
+    }
+
+    @Test
+    public void etaFallsBackToOldRateWithoutHistory() {
+        HelperEtaEstimator est = new HelperEtaEstimator();
+        assertEquals(-1L, est.etaMinutes());
+        est.onFix(T0, lat(5_000), lng(0), 10f, null, SOS_LAT, SOS_LNG);
+        // 5 km x 1.35 detour at 30 km/h = 13.5 min.
+        assertEquals(14L, est.etaMinutes());
+    }
+}
@@ -0,0 +1,229 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import com.google.android.gms.location.Priority;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The shared subscription: registrations only when the merged demand
+ * changes, each session gated at its own cadence and distance filter, and
+ * the provider traffic of SOS, SML and ambient together against three
+ * separate subscriptions.
+ */
+public class LocationFanoutTest {
+
+    private static final long T0 = 1_760_000_000_000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final double LAT = -1.2921;
+    private static final double LNG = 36.8219;
+    /** Degrees of latitude per metre. */
+    private static final double DEG_PER_M = 1d / 111_320d;
+
+    private static final LocationFanout.Demand SOS = LocationFanout.Demand.pinned(
+            Priority.PRIORITY_HIGH_ACCURACY, 15_000L);
+    private static final LocationFanout.Demand SML = LocationFanout.Demand.pinned(
+            Priority.PRIORITY_HIGH_ACCURACY, 15_000L);
+    private static final LocationFanout.Demand SML_STILL = LocationFanout.Demand.pinned(
+            Priority.PRIORITY_BALANCED_POWER_ACCURACY, 15_000L);
+
+    /** Counts what the platform would see. */
+    private static final class FakeProvider implements LocationFanout.Provider {
+        final List<LocationFanout.Demand> requests = new ArrayList<>();
+        int removes;
+        LocationFanout.Demand active;
+
+        @Override
+        public void request(LocationFanout.Demand merged) {
+            requests.add(merged);
+            active = merged;
+        }
+
+        @Override
+        public void remove() {
+            removes++;
+            active = null;
+        }
+    }
+
+    /** A session's handler: counts fixes, and the same fix twice. */
+    private static final class Session implements LocationFanout.Sink<long[]> {
+        final List<Long> times = new ArrayList<>();
+        int duplicates;
+
+        @Override
+        public void deliver(long[] fix) {
+            if (!times.isEmpty() && times.get(times.size() - 1) == fix[0]) duplicates++;
+            times.add(fix[0]);
+        }
+
+        long maxGapMs() {
+            long max = 0L;
+            for (int i = 1; i < times.size(); i++) max = Math.max(max, times.get(i) - times.get(i - 1));
+            return max;
+        }
+    }
+
+    private static int offer(LocationFanout<long[]> f, long timeMs, double northM) {
+        return f.offer(new long[]{timeMs}, timeMs, LAT + northM * DEG_PER_M, LNG);
+    }
+
+    @Test
+    public void registersTheStrictestDemandAndOnlyWhenItChanges() {
+        FakeProvider p = new FakeProvider();
+        LocationFanout<long[]> f = new LocationFanout<>(p);
+        Session ambient = new Session(), sml = new Session(), sos = new Session();
+
+        f.set(ambient, AmbientCadenceProfile.STILL.demand());
+        assertEquals(AmbientCadenceProfile.STILL.demand(), p.active);
+
+        f.set(sml, SML_STILL);
+        assertEquals(new LocationFanout.Demand(Priority.PRIORITY_BALANCED_POWER_ACCURACY,
+                15_000L, 15_000L, 15_000L, 0f), p.active);
+
+        f.set(sos, SOS);
+        assertEquals(SOS, p.active);
+        assertEquals(3, p.requests.size());
+
+        // SML goes moving: nothing stricter than SOS already asked for.
+        f.set(sml, SML);
+        f.set(sml, SML);
+        f.set(ambient, AmbientCadenceProfile.IN_VEHICLE.demand());
+        assertEquals(3, p.requests.size());
+
+        // SOS ends; SML's high accuracy still holds.
+        f.remove(sos);
+        f.remove(sos);
+        assertEquals(3, p.requests.size());
+
+        f.remove(sml);
+        assertEquals(AmbientCadenceProfile.IN_VEHICLE.demand(), p.active);
+        assertEquals(4, p.requests.size());
+        assertEquals(0, p.removes);
+
+        f.remove(ambient);
+        assertNull(p.active);
+        assertNull(f.registered());
+        assertEquals(1, p.removes);
+        assertEquals(4, f.registrations());
+
+        f.rearm(); // nobody left: nothing to re-arm
+        assertEquals(1, p.removes);
+    }
+
+    @Test
+    public void eachSessionKeepsItsOwnCadence() {
+        FakeProvider p = new FakeProvider();
+        LocationFanout<long[]> f = new LocationFanout<>(p);
+        Session sos = new Session(), helper = new Session(), ambient = new Session();
+        f.set(sos, SOS);
+        f.set(helper, LocationFanout.Demand.pinned(Priority.PRIORITY_BALANCED_POWER_ACCURACY,
+                HelperCadenceBand.FAR.intervalMs));
+        f.set(ambient, AmbientCadenceProfile.WALKING.demand());
+
+        // An hour of the merged 15s stream, arriving up to a second early or
+        // late, while walking north at 1.4 m/s.
+        long offered = 0;
+        for (long t = 0; t < HOUR; t += 15_000L) {
+            long jitter = (t / 15_000L) % 3 - 1;
+            offer(f, T0 + t + jitter * 1_000L, t / 1000d * 1.4);
+            offered++;
+        }
+        assertEquals(offered, sos.times.size());
+        assertEquals(60, helper.times.size());
+        assertTrue(helper.maxGapMs() <= 62_000L);
+        // minInterval is 80s: the provider's own floor, on a 15s grid.
+        assertEquals(40, ambient.times.size());
+        assertTrue(ambient.maxGapMs() <= 92_000L);
+        assertEquals(offered * 3 - sos.times.size() - helper.times.size() - ambient.times.size(),
+                f.gated());
+    }
+
+    @Test
+    public void distanceFilterHoldsForTheSessionThatAskedForIt() {
+        LocationFanout<long[]> f = new LocationFanout<>(new FakeProvider());
+        Session sml = new Session(), ambient = new Session();
+        f.set(sml, SML_STILL);
+        f.set(ambient, AmbientCadenceProfile.STILL.demand()); // 10 min, 50 m
+
+        for (long t = 0; t < HOUR; t += 15_000L) offer(f, T0 + t, 0d);
+        assertEquals(240, sml.times.size());
+        assertEquals(1, ambient.times.size());
+
+        offer(f, T0 + HOUR, 30d); // under 50 m
+        offer(f, T0 + HOUR + 15_000L, 60d);
+        assertEquals(2, ambient.times.size());
+        assertEquals(T0 + HOUR + 15_000L, (long) ambient.times.get(1));
+    }
+
+    @Test
+    public void aRedeliveredFixIsNotProcessedTwice() {
+        FakeProvider p = new FakeProvider();
+        LocationFanout<long[]> f = new LocationFanout<>(p);
+        Session sos = new Session(), sml = new Session();
+        f.set(sos, SOS);
+        f.set(sml, SML);
+
+        offer(f, T0, 0d);
+        // The stall ladder re-arms; fused answers with the last fix again,
+        // and a batch overlapping the previous one arrives.
+        f.rearm();
+        assertEquals(1, p.removes);
+        assertEquals(2, p.requests.size());
+        assertEquals(SOS, p.active);
+        offer(f, T0, 0d);
+        offer(f, T0 - 15_000L, 0d);
+        offer(f, T0 + 15_000L, 0d);
+
+        assertEquals(0, sos.duplicates);
+        assertEquals(0, sml.duplicates);
+        assertEquals(2, sos.times.size());
+        assertEquals(4L, f.gated());
+    }
+
+    @Test
+    public void threeSessionsOnOneSubscription() {
+        // SML checked in and moving, ambient walking, then an hour helping
+        // with an SOS in the NEAR band, with the band changing twice.
+        LocationFanout.Demand nearHelper = LocationFanout.Demand.pinned(
+                Priority.PRIORITY_HIGH_ACCURACY, HelperCadenceBand.NEAR.intervalMs);
+        LocationFanout.Demand midHelper = LocationFanout.Demand.pinned(
+                Priority.PRIORITY_HIGH_ACCURACY, HelperCadenceBand.MID.intervalMs);
+
+        // Before: each session its own fused request, SML also GPS + network.
+        int separateRegistrations = 1 + 2 /* SML */ + 1 /* ambient */ + 1 + 2 /* SOS + bands */;
+        long separateCallbacks = HOUR / 15_000L * 3 /* SML fused, gps, network */
+                + HOUR / AmbientCadenceProfile.WALKING.intervalMs
+                + HOUR / 2 / HelperCadenceBand.NEAR.intervalMs + HOUR / 2 / HelperCadenceBand.MID.intervalMs;
+
+        FakeProvider fused = new FakeProvider();
+        LocationFanout<long[]> f = new LocationFanout<>(fused);
+        Session sml = new Session(), ambient = new Session(), sos = new Session();
+        f.set(sml, SML);
+        f.set(ambient, AmbientCadenceProfile.WALKING.demand());
+        f.set(sos, nearHelper);
+        for (long t = 0; t < HOUR; t += 15_000L) {
+            if (t == HOUR / 2) f.set(sos, midHelper);
+            offer(f, T0 + t, t / 1000d * 1.4);
+        }
+        f.set(sos, nearHelper);
+        f.remove(sos);
+
+        assertEquals(1, fused.requests.size());
+        assertEquals(0, sml.duplicates + ambient.duplicates + sos.duplicates);
+        assertEquals(240, sml.times.size());
+        assertEquals(120 + 60, sos.times.size());
+        assertEquals(240L, f.offered());
+        System.out.println(String.format(Locale.US,
+                "Location fanout, SML + ambient + SOS helper, 1 h: %d registration(s) (was %d), "
+                        + "%d provider callbacks (was %d), %d delivered, %d gated",
+                f.registrations(), separateRegistrations, f.offered(), separateCallbacks,
+                f.delivered(), f.gated()));
+        assertTrue(f.offered() < separateCallbacks / 2);
+    }
+}
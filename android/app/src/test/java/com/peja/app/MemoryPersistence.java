@@ -0,0 +1,81 @@
+package com.peja.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SessionStore persistence in memory, with the behaviour of a prefs
+ * commit(): writes take writeMs (plus up to jitterMs) and are visible once
+ * they return. A caller that marks the start of an operation with
+ * {@link #begin()} gets the time until its write or clear actually started
+ * recorded as lock wait.
+ */
+final class MemoryPersistence implements SessionStore.Persistence {
+
+    private static final ThreadLocal<Long> STARTED = new ThreadLocal<>();
+
+    private volatile String access = "";
+    private volatile String refresh = "";
+    volatile long writeMs = 0L;
+    volatile long jitterMs = 0L;
+    private final List<Long> waitsNs = new ArrayList<>();
+
+    @Override
+    public String readAccess() {
+        return access;
+    }
+
+    @Override
+    public String readRefresh() {
+        return refresh;
+    }
+
+    @Override
+    public void write(String accessToken, String refreshToken) {
+        entered();
+        latency();
+        if (refreshToken != null) refresh = refreshToken;
+        access = accessToken;
+    }
+
+    @Override
+    public void clear() {
+        entered();
+        latency();
+        access = "";
+        refresh = "";
+    }
+
+    /** Marks the start of a store/clear on this thread. */
+    static void begin() {
+        STARTED.set(System.nanoTime());
+    }
+
+    /** Ends a store/clear that never reached persistence (e.g. an ignored older pair). */
+    static void end() {
+        STARTED.remove();
+    }
+
+    /** Recorded lock waits, in ns. */
+    synchronized long[] waitsNs() {
+        long[] out = new long[waitsNs.size()];
+        for (int i = 0; i < out.length; i++) out[i] = waitsNs.get(i);
+        return out;
+    }
+
+    private void entered() {
+        Long started = STARTED.get();
+        if (started == null) return;
+        STARTED.remove();
+        long waited = System.nanoTime() - started;
+        synchronized (this) {
+            waitsNs.add(waited);
+        }
+    }
+
+    private void latency() {
+        long jitter = jitterMs;
+        FakeGoTrue.sleep(writeMs + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0L));
+    }
+}
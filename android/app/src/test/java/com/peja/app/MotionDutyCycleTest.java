@@ -0,0 +1,79 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Transitions of the stationary duty cycle, plus a GPS-on benchmark: one
+ * simulated hour of a typical evening (walk home, sit still, walk out)
+ * replayed at the services' 15s cadence.
+ */
+public class MotionDutyCycleTest {
+
+    private static final long TICK_MS = 15_000L;
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long DWELL = MotionDutyCycle.STILL_DWELL_MS;
+
+    @Test
+    public void entersStillAfterDwellAndLeavesOnSpeed() {
+        MotionDutyCycle dc = new MotionDutyCycle(T0);
+        assertFalse(dc.onFix(T0 + 60_000L, 5d, 10f, 0.5d, T0));
+        assertTrue(dc.onFix(T0 + DWELL, 5d, 10f, 0.5d, T0));
+        assertTrue(dc.isStill());
+        assertTrue(dc.onFix(T0 + DWELL + TICK_MS, 5d, 10f, 12d, T0));
+        assertFalse(dc.isStill());
+    }
+
+    @Test
+    public void coarseFixInsideItsAccuracyCircleIsNotMovement() {
+        MotionDutyCycle dc = new MotionDutyCycle(T0);
+        dc.onFix(T0 + DWELL, 0d, 10f, null, T0);
+        assertTrue(dc.isStill());
+        // 80m away but only 120m accurate: could be the same spot.
+        assertFalse(dc.onFix(T0 + DWELL + TICK_MS, 80d, 120f, null, T0));
+        // 200m away with 40m accuracy: definitely left the anchor.
+        assertTrue(dc.onFix(T0 + DWELL + 2 * TICK_MS, 200d, 40f, null, T0));
+    }
+
+    @Test
+    public void motionSensorWakesOnlyFromStill() {
+        MotionDutyCycle dc = new MotionDutyCycle(T0);
+        assertFalse(dc.onMotionDetected(T0 + 1_000L));
+        dc.onFix(T0 + DWELL, 0d, 10f, null, T0);
+        assertTrue(dc.onMotionDetected(T0 + DWELL + 1_000L));
+        assertEquals(MotionDutyCycle.State.MOVING, dc.state());
+    }
+
+    @Test
+    public void gpsOnTimePerHourBenchmark() {
+        long hour = 3_600_000L;
+        MotionDutyCycle dc = new MotionDutyCycle(T0);
+        long anchorAt = T0;
+        double pos = 0d; // metres along a straight walk
+        double anchorPos = 0d;
+        for (long t = T0; t <= T0 + hour; t += TICK_MS) {
+            boolean walking = t - T0 < 10 * 60_000L || t - T0 >= 50 * 60_000L;
+            if (walking) pos += 1.4d * (TICK_MS / 1000d);
+            double fromAnchor = Math.abs(pos - anchorPos);
+            float acc = dc.isStill() ? 60f : 8f;
+            boolean moved = dc.isStill()
+                    ? fromAnchor - acc > MotionDutyCycle.ANCHOR_RADIUS_M
+                    : fromAnchor > MotionDutyCycle.ANCHOR_RADIUS_M;
+            if (moved) {
+                anchorPos = pos;
+                anchorAt = t;
+            }
+            Double speed = dc.isStill() ? null : (walking ? 5.4d : 0.3d);
+            dc.onFix(t, fromAnchor, acc, speed, anchorAt);
+        }
+        long before = hour;
+        long after = dc.gpsOnMs(T0 + hour);
+        System.out.println("GPS-on per hour: before " + before / 60_000L + " min, after "
+                + after / 60_000L + " min");
+        // 40 still minutes minus the 2 min dwell and one wake-up interval.
+        assertTrue("duty cycle should release GPS for most of the still span",
+                after <= 25 * 60_000L);
+        assertTrue("walking spans must stay on high accuracy", after >= 20 * 60_000L);
+    }
+}
@@ -0,0 +1,205 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Geohash vectors, the full-beat triggers, and a replayed week of ambient
+ * beats (home, commute, office, evenings out) comparing body bytes and
+ * presence-row writes against a full beat every time.
+ */
+public class PresenceCellGateTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final double M_PER_DEG = 111_320d;
+    private static final String KEY = "pbk_" + "0123456789abcdef0123456789abcdef0123456789abcdef";
+    /** Server-side windows (route.ts KEEPALIVE_TOUCH_MS, LAST_USED_GRANULARITY_MS). */
+    private static final long TOUCH_MS = 10 * 60_000L;
+    private static final long LAST_USED_MS = 60 * 60_000L;
+
+    private static double[] offset(double lat, double lng, double northM, double eastM) {
+        return new double[]{lat + northM / M_PER_DEG,
+                lng + eastM / (M_PER_DEG * Math.cos(Math.toRadians(lat)))};
+    }
+
+    @Test
+    public void geohashMatchesReferenceVectors() {
+        assertEquals("ezs42", PresenceCellGate.geohash(42.6, -5.6, 5));
+        assertEquals("u4pruydqqvj", PresenceCellGate.geohash(57.64911, 10.40744, 11));
+        assertEquals("s14", PresenceCellGate.geohash(6.5244, 3.3792, 3)); // Lagos
+    }
+
+    @Test
+    public void jitterInsideACellIsKeepalives() {
+        PresenceCellGate gate = new PresenceCellGate(7);
+        Random rnd = new Random(1);
+        double[] home = {6.52440, 3.37920};
+        assertTrue(gate.onFix(T0, home[0], home[1], 40f));
+        int full = 0;
+        for (int i = 1; i <= 4; i++) { // 12 minutes of Wi-Fi fixes
+            double[] p = offset(home[0], home[1], rnd.nextGaussian() * 8, rnd.nextGaussian() * 8);
+            if (gate.onFix(T0 + i * 180_000L, p[0], p[1], 40f)) full++;
+        }
+        assertEquals(0, full);
+        // Staleness forces one through even if nothing changed.
+        assertTrue(gate.onFix(T0 + PresenceCellGate.MAX_STALE_MS, home[0], home[1], 40f));
+    }
+
+    @Test
+    public void accuracyUpgradeIsFullDowngradeIsNot() {
+        PresenceCellGate gate = new PresenceCellGate(7);
+        assertTrue(gate.onFix(T0, 6.5244, 3.3792, 120f));
+        assertTrue(gate.onFix(T0 + 60_000L, 6.5244, 3.3792, 12f));
+        assertFalse(gate.onFix(T0 + 120_000L, 6.5244, 3.3792, 150f));
+        assertFalse(gate.onFix(T0 + 180_000L, 6.5244, 3.3792, 15f));
+    }
+
+    @Test
+    public void cellEdgeDoesNotFlap() {
+        PresenceCellGate gate = new PresenceCellGate(7);
+        // Find a cell edge: step east until the cell changes.
+        double lat = 6.5244, lng = 3.3792;
+        String start = PresenceCellGate.geohash(lat, lng, 7);
+        while (PresenceCellGate.geohash(lat, lng, 7).equals(start)) lng += 1e-6;
+        Random rnd = new Random(2);
+        gate.onFix(T0, lat, lng, 30f);
+        int full = 0;
+        for (int i = 1; i <= 4; i++) {
+            double[] p = offset(lat, lng, 0, rnd.nextGaussian() * 6);
+            if (gate.onFix(T0 + i * 180_000L, p[0], p[1], 30f)) full++;
+        }
+        assertEquals(0, full);
+        // Actually walking away crosses for real.
+        double[] away = offset(lat, lng, 0, -200);
+        assertTrue(gate.onFix(T0 + 900_000L, away[0], away[1], 30f));
+    }
+
+    @Test
+    public void invalidateForcesNextFull() {
+        PresenceCellGate gate = new PresenceCellGate(7);
+        gate.onFix(T0, 6.5244, 3.3792, 30f);
+        assertFalse(gate.onFix(T0 + 60_000L, 6.5244, 3.3792, 30f));
+        gate.invalidate();
+        assertTrue(gate.onFix(T0 + 120_000L, 6.5244, 3.3792, 30f));
+    }
+
+    /** Bytes and row writes for one strategy over the replay. */
+    private static final class Tally {
+        long bytes, writes, full, keepalive;
+        long lastWriteMs = Long.MIN_VALUE / 2;
+        long lastUsedMs = Long.MIN_VALUE / 2;
+    }
+
+    private static String fullBody(double lat, double lng, float acc) {
+        return "{\"key\":\"" + KEY + "\",\"lat\":" + lat + ",\"lng\":" + lng
+                + ",\"accuracy_m\":" + Math.round(acc) + ",\"speed_kmh\":null"
+                + ",\"still_since\":\"2026-10-19T08:12:33.123Z\",\"battery_pct\":74}";
+    }
+
+    private static String keepaliveBody(String cell, long now) {
+        return "{\"key\":\"" + KEY + "\",\"keepalive\":true,\"cell\":\"" + cell + "\",\"t\":" + now / 1000L + "}";
+    }
+
+    /** One beat through both strategies. */
+    private static void beat(long now, double lat, double lng, float acc,
+                             PresenceCellGate gate, Tally before, Tally after) {
+        // Before: every beat upserts presence and stamps last_used_at.
+        before.bytes += fullBody(lat, lng, acc).length();
+        before.writes += 2;
+        before.full++;
+        if (gate.onFix(now, lat, lng, acc)) {
+            after.bytes += fullBody(lat, lng, acc).length();
+            after.writes++;
+            if (now - after.lastUsedMs >= LAST_USED_MS) {
+                after.writes++;
+                after.lastUsedMs = now;
+            }
+            after.full++;
+            after.lastWriteMs = now;
+        } else {
+            after.bytes += keepaliveBody(gate.cell(), now).length();
+            after.keepalive++;
+            if (now - after.lastWriteMs >= TOUCH_MS) {
+                after.writes++;
+                after.lastWriteMs = now;
+            }
+        }
+    }
+
+    /**
+     * Beats while staying put: the service's ~3 min beats until it parks
+     * after 20 minutes, then the 30-min parked keepalive.
+     */
+    private static long stay(Random rnd, long t, long untilMs, double[] at, float baseAcc,
+                             PresenceCellGate gate, Tally before, Tally after) {
+        long arrived = t;
+        while (t < untilMs) {
+            double[] p = offset(at[0], at[1], rnd.nextGaussian() * 12, rnd.nextGaussian() * 12);
+            float acc = (float) (baseAcc * (0.7 + rnd.nextDouble() * 0.8));
+            beat(t, p[0], p[1], acc, gate, before, after);
+            t += t - arrived < AmbientParkPolicy.DEFAULT_PARK_AFTER_MS ? 180_000L : AmbientParkPolicy.KEEPALIVE_MS;
+        }
+        return untilMs;
+    }
+
+    /** Beats while travelling from a to b at speedMps, one per gapMs. */
+    private static long travel(Random rnd, long t, double[] a, double[] b, double speedMps, long gapMs,
+                               PresenceCellGate gate, Tally before, Tally after) {
+        double northM = (b[0] - a[0]) * M_PER_DEG;
+        double eastM = (b[1] - a[1]) * M_PER_DEG * Math.cos(Math.toRadians(a[0]));
+        double dist = Math.hypot(northM, eastM);
+        long dur = (long) (dist / speedMps * 1000);
+        for (long dt = gapMs; dt < dur; dt += gapMs) {
+            double f = dt / (double) dur;
+            double[] p = offset(a[0], a[1], northM * f + rnd.nextGaussian() * 10, eastM * f + rnd.nextGaussian() * 10);
+            beat(t + dt, p[0], p[1], (float) (15 + rnd.nextDouble() * 30), gate, before, after);
+        }
+        return t + dur;
+    }
+
+    @Test
+    public void weekReplayBytesAndWrites() {
+        Random rnd = new Random(7);
+        PresenceCellGate gate = new PresenceCellGate(PresenceCellGate.DEFAULT_PRECISION);
+        Tally before = new Tally(), after = new Tally();
+        double[] home = {6.5244, 3.3792};
+        double[] office = offset(home[0], home[1], 6_000, 9_000);
+        double[] lunch = offset(office[0], office[1], 350, -200);
+        double[] friend = offset(home[0], home[1], -2_500, 1_500);
+        long day = 24 * 3_600_000L, h = 3_600_000L;
+        long midnight = T0 - T0 % day;
+        for (int d = 0; d < 7; d++) {
+            long base = midnight + d * day;
+            boolean weekday = d < 5;
+            long t = stay(rnd, base, base + 7 * h + rnd.nextInt(40) * 60_000L, home, 40f, gate, before, after);
+            if (weekday) {
+                t = travel(rnd, t, home, office, 8.5, 60_000L, gate, before, after);
+                t = stay(rnd, t, base + 12 * h + 30 * 60_000L, office, 35f, gate, before, after);
+                t = travel(rnd, t, office, lunch, 1.3, 120_000L, gate, before, after);
+                t = stay(rnd, t, t + 45 * 60_000L, lunch, 60f, gate, before, after);
+                t = travel(rnd, t, lunch, office, 1.3, 120_000L, gate, before, after);
+                t = stay(rnd, t, base + 17 * h + 30 * 60_000L, office, 35f, gate, before, after);
+                t = travel(rnd, t, office, home, 7.0, 60_000L, gate, before, after);
+            } else {
+                t = stay(rnd, t, base + 14 * h, home, 40f, gate, before, after);
+                t = travel(rnd, t, home, friend, 1.4, 120_000L, gate, before, after);
+                t = stay(rnd, t, base + 19 * h, friend, 50f, gate, before, after);
+                t = travel(rnd, t, friend, home, 1.4, 120_000L, gate, before, after);
+            }
+            stay(rnd, t, base + day, home, 40f, gate, before, after);
+        }
+        System.out.println("Ambient week: " + before.full + " beats, " + before.bytes / 1024 + " KiB body, "
+                + before.writes + " row writes -> " + after.full + " full + " + after.keepalive
+                + " keepalives, " + after.bytes / 1024 + " KiB body, " + after.writes + " row writes ("
+                + (100 - after.bytes * 100 / before.bytes) + "% fewer bytes, "
+                + (100 - after.writes * 100 / before.writes) + "% fewer writes)");
+        // Beats on the move stay full (they change cell), so the body saving
+        // is bounded by the stationary share; the row writes fall further
+        // because keepalives inside the touch window write nothing.
+        assertTrue(after.bytes < before.bytes * 85 / 100);
+        assertTrue(after.writes < before.writes / 2);
+    }
+}
@@ -0,0 +1,151 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Heartbeat persistence, restart backoff, no restarts of healthy sessions,
+ * and recovery time after a simulated kill: the local watchdog against the
+ * server cron's stale-row revive it backs up.
+ */
+public class RestartPolicyTest {
+
+    private static final long MIN = 60_000L;
+
+    private static SessionHeartbeats memory() {
+        return new SessionHeartbeats(ByteBuffer.allocate(SessionHeartbeats.FILE_BYTES));
+    }
+
+    @Test
+    public void heartbeatsSurviveReopenAndForeignFilesReset() throws Exception {
+        File dir = Files.createTempDirectory("heartbeats").toFile();
+        File file = new File(dir, "peja_heartbeats.bin");
+        try {
+            SessionHeartbeats h = SessionHeartbeats.open(file);
+            h.beat(SessionHeartbeats.SML, 1_000L);
+            assertTrue(h.claimRestart(SessionHeartbeats.SOS, 10 * MIN));
+
+            SessionHeartbeats reopened = SessionHeartbeats.open(file);
+            assertEquals(1_000L, reopened.lastBeatMs(SessionHeartbeats.SML));
+            assertEquals(1, reopened.restarts(SessionHeartbeats.SOS));
+            // The restart just recorded holds off a second one.
+            assertFalse(reopened.claimRestart(SessionHeartbeats.SOS, 10 * MIN + 1_000L));
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.writeInt(0x12345678);
+            }
+            SessionHeartbeats reset = SessionHeartbeats.open(file);
+            assertEquals(0L, reset.lastBeatMs(SessionHeartbeats.SML));
+            assertEquals(0, reset.restarts(SessionHeartbeats.SOS));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void refusedRestartsBackOffUntilABeat() {
+        SessionHeartbeats h = memory();
+        h.beat(SessionHeartbeats.SOS, 0L);
+        List<Long> attempts = new ArrayList<>();
+        // The OS refuses every start: no beat comes back.
+        for (long t = 0L; t <= 120 * MIN; t += 30_000L) {
+            if (h.claimRestart(SessionHeartbeats.SOS, t)) attempts.add(t / MIN);
+        }
+        assertEquals(Arrays.asList(2L, 4L, 8L, 16L, 32L, 62L, 92L), attempts);
+
+        h.beat(SessionHeartbeats.SOS, 121 * MIN);
+        assertEquals(0, h.restarts(SessionHeartbeats.SOS));
+        assertFalse(h.claimRestart(SessionHeartbeats.SOS, 122 * MIN));
+        assertTrue(h.claimRestart(SessionHeartbeats.SOS, 123 * MIN));
+    }
+
+    @Test
+    public void healthySessionsAreNeverRestarted() {
+        Random rnd = new Random(7);
+        SessionHeartbeats h = memory();
+        long day = 24 * 60 * MIN;
+        // SOS: every write 15-45s apart (predicted-track skips), some 60s
+        // helper cadences, plus up to 20s for a 401 retry round trip.
+        long nextSos = 0L;
+        // Ambient parked most of the day: a keepalive every 30 min, up to
+        // 5 min late in Doze.
+        long nextAmbient = 0L;
+        int restarts = 0;
+        for (long t = 0L; t < day; t += 1_000L) {
+            if (t >= nextSos) {
+                h.beat(SessionHeartbeats.SOS, t);
+                nextSos = t + (rnd.nextInt(10) == 0 ? 60_000L : 15_000L + rnd.nextInt(30_001))
+                        + rnd.nextInt(20_001);
+            }
+            if (t >= nextAmbient) {
+                h.beat(SessionHeartbeats.AMBIENT, t);
+                nextAmbient = t + 30 * MIN + rnd.nextInt(5 * 60_001);
+            }
+            if (t % RestartPolicy.LIVE_CHECK_MS == 0L) {
+                if (h.claimRestart(SessionHeartbeats.SOS, t)) restarts++;
+                if (h.claimRestart(SessionHeartbeats.AMBIENT, t)) restarts++;
+            }
+        }
+        assertEquals(0, restarts);
+    }
+
+    /** When a kill at {@code killMs} gets noticed by checks every {@code everyMs} from {@code phaseMs}. */
+    private static long recoveredAt(long killMs, long lastWriteMs, long phaseMs, long everyMs,
+                                    long jitterMs, Random rnd) {
+        SessionHeartbeats h = memory();
+        h.beat(SessionHeartbeats.SML, lastWriteMs);
+        for (long t = phaseMs; ; t += everyMs + (jitterMs > 0 ? rnd.nextInt((int) jitterMs) : 0)) {
+            if (t >= killMs && h.claimRestart(SessionHeartbeats.SML, t)) return t;
+        }
+    }
+
+    @Test
+    public void recoveryAfterSimulatedKill() {
+        Random rnd = new Random(42);
+        int n = 2_000;
+        long[] periodic = new long[n];
+        long[] followUp = new long[n];
+        long[] cron = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = 10 * MIN;
+            long kill = start + rnd.nextInt((int) (60 * MIN));
+            // The write before the kill: the service wrote every 15-45s.
+            long lastWrite = kill - rnd.nextInt(45_001);
+            // WorkManager's 15 min periodic alone, arbitrary phase, up to 5 min flex.
+            periodic[i] = recoveredAt(kill, lastWrite, rnd.nextInt((int) (15 * MIN)), 15 * MIN,
+                    5 * MIN, rnd) - kill;
+            // Plus the follow-up chain every LIVE_CHECK_MS, up to 30s late.
+            followUp[i] = recoveredAt(kill, lastWrite, start + rnd.nextInt((int) RestartPolicy.LIVE_CHECK_MS),
+                    RestartPolicy.LIVE_CHECK_MS, 30_000L, rnd) - kill;
+            // Server: every minute, rows over 2 min stale get a revive push
+            // (FCM delivery time not included).
+            long t = (kill / MIN + 1) * MIN;
+            while (t - lastWrite <= 2 * MIN) t += MIN;
+            cron[i] = t - kill;
+        }
+        Arrays.sort(periodic);
+        Arrays.sort(followUp);
+        Arrays.sort(cron);
+        System.out.println(String.format(Locale.US,
+                "Recovery after a kill (p50 / p95 / max, s): periodic watchdog only %d / %d / %d; "
+                        + "with the follow-up chain %d / %d / %d; server cron revive %d / %d / %d + push delivery",
+                periodic[n / 2] / 1000, periodic[n * 95 / 100] / 1000, periodic[n - 1] / 1000,
+                followUp[n / 2] / 1000, followUp[n * 95 / 100] / 1000, followUp[n - 1] / 1000,
+                cron[n / 2] / 1000, cron[n * 95 / 100] / 1000, cron[n - 1] / 1000));
+        // Within a stall window plus one (late) follow-up check.
+        assertTrue(followUp[n - 1] <= RestartPolicy.LIVE_STALL_MS + RestartPolicy.LIVE_CHECK_MS + 30_000L);
+        assertTrue(followUp[n / 2] < periodic[n / 2]);
+    }
+}
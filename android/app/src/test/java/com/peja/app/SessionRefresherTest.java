@@ -0,0 +1,154 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight refresh under contention against a local GoTrue stand-in
+ * (FakeGoTrue) that rotates refresh tokens and, like GoTrue, treats a
+ * reused one as a breach. Asserts exactly one grant per rotation, that stores never wait
+ * on the network, and failure/timeout behaviour for the callers that
+ * joined a flight.
+ */
+public class SessionRefresherTest {
+
+    private static final String USER = "6f1c2a9e-3b7d-4e8f-9a0b-1c2d3e4f5a6b";
+
+    private FakeGoTrue gotrue;
+    private SessionStore store;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        gotrue = new FakeGoTrue();
+        store = new SessionStore(new MemoryPersistence(), new TokenRefreshPolicy(), 10_000L);
+        String[] first = gotrue.signIn(USER);
+        // Seeded as near expiry, so the first rotation is due.
+        store.store(FakeGoTrue.jwt(USER, System.currentTimeMillis() / 1000L + 30), first[1]);
+        pool = Executors.newFixedThreadPool(48);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        gotrue.stop();
+    }
+
+    /** {@code n} callers refreshing {@code stale} at once; their results. */
+    private List<String> stampede(SessionRefresher r, SessionRefresher.Grant g, String stale, int n)
+            throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            futures.add(pool.submit(() -> {
+                gate.await();
+                return r.refresh(g, stale);
+            }));
+        }
+        gate.countDown();
+        List<String> out = new ArrayList<>();
+        for (Future<String> f : futures) out.add(f.get(30, TimeUnit.SECONDS));
+        return out;
+    }
+
+    @Test
+    public void exactlyOneGrantPerRotationUnderContention() throws Exception {
+        SessionRefresher r = new SessionRefresher(store, new TokenRefreshPolicy(), 10_000L);
+        SessionRefresher.Grant g = gotrue.grant();
+        gotrue.delayMs = 40L;
+        int rounds = 25, threads = 48;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            String stale = store.access().raw;
+            List<String> results = stampede(r, g, stale, threads);
+            String fresh = store.access().raw;
+            assertNotEquals(stale, fresh);
+            for (String result : results) assertEquals(fresh, result);
+        }
+        System.out.println(String.format(java.util.Locale.US,
+                "%d rotations x %d callers: %d grants, %d requests, %d reuses (%.0f ms)",
+                rounds, threads, gotrue.rotations, gotrue.requests, gotrue.reuses,
+                (System.nanoTime() - start) / 1e6));
+        assertEquals(rounds, gotrue.rotations);
+        assertEquals(rounds, gotrue.requests);
+        assertEquals(0, gotrue.reuses);
+    }
+
+    @Test
+    public void storeNeverWaitsOnTheNetwork() throws Exception {
+        SessionRefresher r = new SessionRefresher(store, new TokenRefreshPolicy(), 10_000L);
+        gotrue.delayMs = 600L;
+        String stale = store.access().raw;
+        Future<String> refresh = pool.submit(() -> r.refresh(gotrue.grant(), stale));
+        while (!r.inFlight()) Thread.sleep(1);
+        // The WebView pushes a pair it rotated itself while ours is on the wire.
+        String webview = FakeGoTrue.jwt(USER, System.currentTimeMillis() / 1000L + 7200);
+        long t = System.nanoTime();
+        store.store(webview, "r-webview");
+        long storeMs = (System.nanoTime() - t) / 1_000_000L;
+        assertTrue("store took " + storeMs + " ms", storeMs < 100);
+        assertTrue(r.inFlight());
+        assertNotNull(refresh.get(10, TimeUnit.SECONDS));
+        // Recency guard: the native result expires earlier, so the WebView's pair stays.
+        assertEquals(webview, store.access().raw);
+        assertEquals("r-webview", store.refreshToken());
+    }
+
+    @Test
+    public void failedFlightReturnsNullToAllAndBacksOff() throws Exception {
+        TokenRefreshPolicy policy = new TokenRefreshPolicy();
+        SessionRefresher r = new SessionRefresher(store, policy, 10_000L);
+        SessionRefresher.Grant g = gotrue.grant();
+        gotrue.failing = true;
+        gotrue.delayMs = 40L;
+        String stale = store.access().raw;
+        for (String result : stampede(r, g, stale, 32)) assertNull(result);
+        assertEquals(1, gotrue.requests);
+        assertEquals(1, policy.failures());
+        // Inside the backoff window: no request at all.
+        assertNull(r.refresh(g, stale));
+        assertEquals(1, gotrue.requests);
+        // The refresh token was never consumed, so it still works afterwards.
+        gotrue.failing = false;
+        policy.onSuccess();
+        assertNotNull(r.refresh(g, stale));
+        assertEquals(1, gotrue.rotations);
+    }
+
+    @Test
+    public void joinerTimesOutLeaderStillLands() throws Exception {
+        SessionRefresher r = new SessionRefresher(store, new TokenRefreshPolicy(), 100L);
+        gotrue.delayMs = 500L;
+        String stale = store.access().raw;
+        Future<String> leader = pool.submit(() -> r.refresh(gotrue.grant(), stale));
+        while (!r.inFlight()) Thread.sleep(1);
+        long t = System.nanoTime();
+        assertNull(r.refresh(gotrue.grant(), stale));
+        long waitedMs = (System.nanoTime() - t) / 1_000_000L;
+        assertTrue(waitedMs >= 90 && waitedMs < 400);
+        assertNotNull(leader.get(10, TimeUnit.SECONDS));
+        assertEquals(1, gotrue.requests);
+    }
+
+    @Test
+    public void replacedTokenIsReturnedWithoutAGrant() {
+        SessionRefresher r = new SessionRefresher(store, new TokenRefreshPolicy(), 10_000L);
+        String stale = store.access().raw;
+        String fresh = r.refresh(gotrue.grant(), stale);
+        assertNotNull(fresh);
+        // A second service's 401 with the same old token: no second grant.
+        assertEquals(fresh, r.refresh(gotrue.grant(), stale));
+        assertEquals(1, gotrue.requests);
+    }
+}
@@ -0,0 +1,226 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Round trip, versioning and torn-file handling of the session registry
+ * file, write coalescing, and a cold-start read of the registry against
+ * parsing the three prefs XML files it replaces.
+ */
+public class SessionRegistryTest {
+
+    private static final SessionRegistry.Sos SOS = new SessionRegistry.Sos(true, "sos-1",
+            "https://x.supabase.co", "anon", "eyJ.a.b", "helper", "h-1", "owner-1", "Ada");
+    private static final SessionRegistry.Sml SML = new SessionRegistry.Sml(true, "checkin-1",
+            "https://x.supabase.co", "anon", "eyJ.c.d", "https://peja.app/api/checkin/missed/", 1_790_001_800_000L);
+    private static final SessionRegistry.Ambient AMBIENT = new SessionRegistry.Ambient(true,
+            "https://x.supabase.co/functions/v1/ambient", "dev-key", 600_000L, 7);
+
+    private File dir;
+    private File file;
+    private final List<Runnable> queued = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("registry").toFile();
+        file = new File(dir, "peja_sessions.bin");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private void drain() {
+        while (!queued.isEmpty()) queued.remove(0).run();
+    }
+
+    @Test
+    public void roundTripsEverySessionType() {
+        SessionRegistry r = new SessionRegistry(file, Runnable::run);
+        r.putSos(SOS);
+        r.putSml(SML);
+        r.putAmbient(AMBIENT);
+        r.setSmlActive(false);
+
+        SessionRegistry reloaded = new SessionRegistry(file, Runnable::run);
+        assertTrue(reloaded.load());
+        assertEquals(SOS, reloaded.sos());
+        assertEquals(SML.withActive(false), reloaded.sml());
+        assertEquals("checkin-1", reloaded.sml().checkinId);
+        assertEquals(AMBIENT, reloaded.ambient());
+        assertFalse(new File(dir, "peja_sessions.bin.tmp").exists());
+    }
+
+    @Test
+    public void missingOrTornFileReadsAsNoFile() throws Exception {
+        SessionRegistry r = new SessionRegistry(file, Runnable::run);
+        assertFalse(r.load());
+        assertSame(SessionRegistry.NO_SOS, r.sos());
+
+        byte[] good = SessionRegistry.encode(SOS, SML, AMBIENT);
+        for (int cut = 0; cut < good.length; cut += 7) {
+            byte[] torn = new byte[cut];
+            System.arraycopy(good, 0, torn, 0, cut);
+            assertFalse("cut at " + cut, r.decode(torn));
+        }
+        byte[] flipped = good.clone();
+        flipped[20] ^= 0x40;
+        assertFalse(r.decode(flipped));
+        assertSame(SessionRegistry.NO_SML, r.sml());
+        assertTrue(r.decode(good));
+    }
+
+    @Test
+    public void newerFileWithExtraFieldsAndSectionsStillReads() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(0x50534553);
+        out.writeInt(SessionRegistry.VERSION + 1);
+        ByteArrayOutputStream section = new ByteArrayOutputStream();
+        DataOutputStream s = new DataOutputStream(section);
+        s.writeBoolean(true);
+        s.writeUTF("checkin-9");
+        s.writeUTF("https://x.supabase.co");
+        s.writeUTF("anon");
+        s.writeUTF("tok");
+        s.writeUTF("https://peja.app/api/checkin/missed/");
+        s.writeLong(1_790_001_800_000L);
+        s.writeLong(42L); // a field this version doesn't know
+        out.writeByte(2);
+        out.writeInt(section.size());
+        section.writeTo(out);
+        out.writeByte(99); // a session type this version doesn't know
+        out.writeInt(3);
+        out.write(new byte[]{1, 2, 3});
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(buf.toByteArray());
+        out.writeLong(crc.getValue());
+
+        SessionRegistry r = new SessionRegistry(file, Runnable::run);
+        assertTrue(r.decode(buf.toByteArray()));
+        assertEquals("checkin-9", r.sml().checkinId);
+        assertTrue(r.sml().active);
+        assertEquals(1_790_001_800_000L, r.sml().deadlineMs);
+        assertFalse(r.sos().active);
+    }
+
+    @Test
+    public void versionOneCheckInsReadWithoutADeadline() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(0x50534553);
+        out.writeInt(1);
+        ByteArrayOutputStream section = new ByteArrayOutputStream();
+        DataOutputStream s = new DataOutputStream(section);
+        s.writeBoolean(true);
+        s.writeUTF("checkin-9");
+        s.writeUTF("https://x.supabase.co");
+        s.writeUTF("anon");
+        s.writeUTF("tok");
+        out.writeByte(2);
+        out.writeInt(section.size());
+        section.writeTo(out);
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(buf.toByteArray());
+        out.writeLong(crc.getValue());
+
+        SessionRegistry r = new SessionRegistry(file, Runnable::run);
+        assertTrue(r.decode(buf.toByteArray()));
+        assertEquals("checkin-9", r.sml().checkinId);
+        assertEquals("", r.sml().escalationUrl);
+        assertEquals(0L, r.sml().deadlineMs);
+    }
+
+    @Test
+    public void burstsCoalesceAndRepeatsDoNotWrite() {
+        SessionRegistry r = new SessionRegistry(file, queued::add);
+        // A start: the plugin flips the flag, then the service saves its state.
+        r.setSosActive(true);
+        r.putSos(SOS);
+        r.putAmbient(AMBIENT);
+        assertEquals(1, queued.size());
+        drain();
+        assertEquals(1, r.writes());
+        // A sticky restart saving the same state again.
+        r.putSos(SOS);
+        r.setSosActive(true);
+        assertTrue(queued.isEmpty());
+        r.setSosActive(false);
+        drain();
+        assertEquals(2, r.writes());
+
+        SessionRegistry reloaded = new SessionRegistry(file, Runnable::run);
+        assertTrue(reloaded.load());
+        assertEquals(SOS.withActive(false), reloaded.sos());
+        assertEquals(AMBIENT, reloaded.ambient());
+    }
+
+    /** A SharedPreferences file as the framework writes it. */
+    private static byte[] prefsXml(String... kv) {
+        StringBuilder sb = new StringBuilder("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+        for (int i = 0; i < kv.length; i += 2) {
+            if (kv[i].equals("is_active")) {
+                sb.append("    <boolean name=\"is_active\" value=\"").append(kv[i + 1]).append("\" />\n");
+            } else {
+                sb.append("    <string name=\"").append(kv[i]).append("\">").append(kv[i + 1]).append("</string>\n");
+            }
+        }
+        return sb.append("</map>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void coldReadAgainstThePrefsFiles() throws Exception {
+        byte[][] xml = {
+                prefsXml("sos_id", SOS.sosId, "supabase_url", SOS.supabaseUrl, "supabase_key", SOS.supabaseKey,
+                        "access_token", SOS.accessToken, "mode", SOS.mode, "helper_id", SOS.helperId,
+                        "sos_owner_id", SOS.sosOwnerId, "helper_name", SOS.helperName, "is_active", "true"),
+                prefsXml("checkin_id", SML.checkinId, "supabase_url", SML.supabaseUrl,
+                        "supabase_key", SML.supabaseKey, "access_token", SML.accessToken, "is_active", "true"),
+                prefsXml("endpoint", AMBIENT.endpoint, "device_key", AMBIENT.deviceKey, "is_active", "true")};
+        byte[] bin = SessionRegistry.encode(SOS, SML, AMBIENT);
+        DocumentBuilder parser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        int rounds = 2_000;
+        long xmlNs = 0, binNs = 0;
+        for (int pass = 0; pass < 2; pass++) { // first pass warms up
+            long t = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                for (byte[] x : xml) parser.parse(new ByteArrayInputStream(x));
+            }
+            xmlNs = System.nanoTime() - t;
+            t = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                assertTrue(new SessionRegistry(file, Runnable::run).decode(bin));
+            }
+            binNs = System.nanoTime() - t;
+        }
+        int xmlBytes = xml[0].length + xml[1].length + xml[2].length;
+        System.out.println(String.format(Locale.US,
+                "Cold read of all three sessions: 3 prefs XML files %d B, %.1f us -> registry %d B, %.1f us",
+                xmlBytes, xmlNs / 1e3 / rounds, bin.length, binNs / 1e3 / rounds));
+        assertTrue(bin.length < xmlBytes);
+        assertTrue(binNs < xmlNs);
+    }
+}
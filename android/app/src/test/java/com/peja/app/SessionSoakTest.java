@@ -0,0 +1,337 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Concurrency soak of the native session store against FakeGoTrue.
+ *
+ * Service threads do what the location services do on every write
+ * (getValidAccessToken, then forceRefresh on a 401) while GoTrue answers
+ * with injected latency and failures and periodically rejects the current
+ * token for everyone at once. A WebView actor signs in and out, switches
+ * accounts and merges native rotations into its own session the way the
+ * supabase.ts adapter does (getTokens); plugin threads replay its current
+ * and older pairs through storeTokens. Persistence writes are slow, like a
+ * prefs commit.
+ *
+ * Reports rotations, store lock-wait percentiles and per-op latency, and
+ * fails on any refresh token reuse, on a session that comes back after
+ * sign-out, and on a store left holding a session the WebView no longer
+ * owns. Runs for peja.soak.seconds (default 4).
+ */
+public class SessionSoakTest {
+
+    private static final String USER_A = "6f1c2a9e-3b7d-4e8f-9a0b-1c2d3e4f5a6b";
+    private static final String USER_B = "0d9e8f7a-6b5c-4d3e-8f2a-1b0c9d8e7f6a";
+    private static final int SERVICES = 6;
+    private static final int PLUGINS = 2;
+
+    private FakeGoTrue gotrue;
+    private MemoryPersistence persistence;
+    private SessionStore store;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        gotrue = new FakeGoTrue();
+        persistence = new MemoryPersistence();
+        store = new SessionStore(persistence, new TokenRefreshPolicy(), SessionRefresher.DEFAULT_AWAIT_MS);
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        gotrue.stop();
+    }
+
+    /** The WebView's own session: its family and the pairs it has held, oldest first. */
+    private static final class WebView {
+        final ReentrantReadWriteLock order = new ReentrantReadWriteLock();
+        final List<String[]> pairs = new CopyOnWriteArrayList<>();
+        volatile String user = "";
+        volatile String family = "";
+        long exp = 0L;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0L;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static String summary(String label, long[] ns) {
+        long[] sorted = ns.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.US, "%s n=%d p50=%.2f p95=%.2f p99=%.2f max=%.2f ms", label, sorted.length,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6,
+                percentile(sorted, 0.99) / 1e6, sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0.0);
+    }
+
+    private static long[] toArray(List<Long> values) {
+        long[] out = new long[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
+    @Test
+    public void randomizedInterleavingsNeverReuseOrResurrect() throws Exception {
+        long seconds = Long.getLong("peja.soak.seconds", 4L);
+        gotrue.delayMs = 15L;
+        gotrue.jitterMs = 60L;
+        gotrue.failureRate = 0.02;
+        persistence.writeMs = 1L;
+        persistence.jitterMs = 3L;
+        SessionRefresher.Grant grant = gotrue.grant();
+
+        WebView web = new WebView();
+        signIn(web, USER_A);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicLong rejectedBefore = new AtomicLong(0L); // 401 storm: tokens issued before this exp are refused
+        AtomicInteger accepted = new AtomicInteger(), rejected = new AtomicInteger();
+        AtomicInteger forced = new AtomicInteger(), forcedFailed = new AtomicInteger();
+        AtomicInteger stores = new AtomicInteger(), clears = new AtomicInteger(), switches = new AtomicInteger();
+        AtomicInteger resurrections = new AtomicInteger(), foreign = new AtomicInteger();
+        List<Long> validNs = new CopyOnWriteArrayList<>();
+        List<Long> forceNs = new CopyOnWriteArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> actors = new ArrayList<>();
+
+        for (int i = 0; i < SERVICES; i++) {
+            actors.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    long t = System.nanoTime();
+                    TokenSnapshot token = store.validAccess(grant, null, System.currentTimeMillis());
+                    validNs.add(System.nanoTime() - t);
+                    if (token.isEmpty()) {
+                        FakeGoTrue.sleep(2);
+                        continue;
+                    }
+                    boolean ok = gotrue.accepts(token.raw) && token.expSeconds > rejectedBefore.get()
+                            && rnd.nextInt(100) != 0;
+                    if (ok) {
+                        accepted.incrementAndGet();
+                    } else {
+                        rejected.incrementAndGet();
+                        forced.incrementAndGet();
+                        t = System.nanoTime();
+                        if (store.refresh(grant, token.raw) == null) forcedFailed.incrementAndGet();
+                        forceNs.add(System.nanoTime() - t);
+                    }
+                    FakeGoTrue.sleep(1 + rnd.nextInt(4));
+                }
+                return null;
+            }));
+        }
+
+        for (int i = 0; i < PLUGINS; i++) {
+            actors.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    web.order.readLock().lock();
+                    try {
+                        List<String[]> pairs = new ArrayList<>(web.pairs);
+                        if (!pairs.isEmpty()) {
+                            // Mostly the current pair; sometimes a replay of an older one.
+                            String[] pair = rnd.nextInt(3) == 0
+                                    ? pairs.get(rnd.nextInt(pairs.size()))
+                                    : pairs.get(pairs.size() - 1);
+                            MemoryPersistence.begin();
+                            store.store(pair[0], pair[1]);
+                            MemoryPersistence.end();
+                            stores.incrementAndGet();
+                        }
+                    } finally {
+                        web.order.readLock().unlock();
+                    }
+                    FakeGoTrue.sleep(2 + rnd.nextInt(8));
+                }
+                return null;
+            }));
+        }
+
+        // Every 250 ms GoTrue refuses everything issued so far, so all
+        // services hit a 401 with the same token at once.
+        actors.add(pool.submit(() -> {
+            start.await();
+            while (System.nanoTime() < deadline) {
+                FakeGoTrue.sleep(250);
+                TokenSnapshot current = store.access();
+                rejectedBefore.accumulateAndGet(current.expSeconds, Math::max);
+            }
+            return null;
+        }));
+
+        actors.add(pool.submit(() -> {
+            start.await();
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                FakeGoTrue.sleep(20 + rnd.nextInt(60));
+                int action = rnd.nextInt(20);
+                if (action == 0) {
+                    // Sign out: wipe natively, revoke at GoTrue, give any
+                    // refresh on the wire time to land, then check.
+                    web.order.writeLock().lock();
+                    try {
+                        String signedOut = web.family;
+                        MemoryPersistence.begin();
+                        store.clear();
+                        clears.incrementAndGet();
+                        gotrue.signOut(signedOut);
+                        web.pairs.clear();
+                        web.user = "";
+                        web.family = "";
+                    } finally {
+                        web.order.writeLock().unlock();
+                    }
+                    FakeGoTrue.sleep(gotrue.delayMs + gotrue.jitterMs);
+                    if (!store.access().isEmpty()) resurrections.incrementAndGet();
+                    signIn(web, rnd.nextBoolean() ? USER_A : USER_B);
+                } else if (action == 1) {
+                    // Switch account without a native clear.
+                    switches.incrementAndGet();
+                    signIn(web, USER_A.equals(web.user) ? USER_B : USER_A);
+                } else {
+                    // supabase.ts merge: adopt the native pair when it is this
+                    // session's and newer, reading it the way getTokens does.
+                    web.order.writeLock().lock();
+                    try {
+                        TokenSnapshot access = TokenSnapshot.of(store.access().raw);
+                        String refresh = store.refreshToken();
+                        String sid = FakeGoTrue.sessionId(access.raw);
+                        if (access.isEmpty()) {
+                            foreign.incrementAndGet();
+                        } else if (!web.family.equals(sid)) {
+                            foreign.incrementAndGet();
+                        } else if (access.expSeconds > web.exp) {
+                            web.exp = access.expSeconds;
+                            web.pairs.add(new String[]{access.raw, refresh});
+                        }
+                    } finally {
+                        web.order.writeLock().unlock();
+                    }
+                }
+            }
+            return null;
+        }));
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : actors) f.get(seconds + 60, TimeUnit.SECONDS);
+        double elapsedS = (System.nanoTime() - t0) / 1e9;
+
+        long[] waits = persistence.waitsNs();
+        System.out.println(String.format(Locale.US,
+                "soak %.1f s, %d services, %d plugin threads: %d grant requests, %d rotations, "
+                        + "%d injected failures, %d reuses, %d revoked-family grants",
+                elapsedS, SERVICES, PLUGINS, gotrue.requests, gotrue.rotations,
+                gotrue.injectedFailures, gotrue.reuses, gotrue.revokedUses));
+        System.out.println(String.format(Locale.US,
+                "  writes %d accepted / %d rejected; forceRefresh %d (%d null); storeTokens %d, "
+                        + "clears %d, account switches %d; resurrections %d, foreign sessions %d",
+                accepted.get(), rejected.get(), forced.get(), forcedFailed.get(), stores.get(),
+                clears.get(), switches.get(), resurrections.get(), foreign.get()));
+        System.out.println("  " + summary("store/clear lock wait", waits));
+        System.out.println("  " + summary("getValidAccessToken", toArray(validNs)));
+        System.out.println("  " + summary("forceRefresh", toArray(forceNs)));
+
+        assertEquals("refresh token reuse", 0, gotrue.reuses);
+        assertEquals("session resurrected after sign-out", 0, resurrections.get());
+        assertEquals("store held a session the WebView does not own", 0, foreign.get());
+        assertTrue(gotrue.rotations > 10);
+        assertTrue(clears.get() > 0 || seconds < 2);
+        // Stores wait for other commits, never for a grant (>= 15 ms here).
+        long[] sorted = waits.clone();
+        Arrays.sort(sorted);
+        assertTrue(summary("lock wait", waits), percentile(sorted, 0.95) < TimeUnit.MILLISECONDS.toNanos(15));
+    }
+
+    /** The WebView signs in and pushes its first pair, as updateToken does. */
+    private void signIn(WebView web, String user) {
+        String[] pair = gotrue.signIn(user);
+        web.order.writeLock().lock();
+        try {
+            web.pairs.clear();
+            web.pairs.add(pair);
+            web.user = user;
+            web.family = FakeGoTrue.sessionId(pair[0]);
+            web.exp = TokenSnapshot.of(pair[0]).expSeconds;
+            MemoryPersistence.begin();
+            store.store(pair[0], pair[1]);
+            MemoryPersistence.end();
+        } finally {
+            web.order.writeLock().unlock();
+        }
+    }
+
+    @Test
+    public void expiredTokenStampedeRefreshesOnce() throws Exception {
+        gotrue.delayMs = 50L;
+        String[] pair = gotrue.signIn(USER_A);
+        store.store(FakeGoTrue.jwt(USER_A, System.currentTimeMillis() / 1000L - 5), pair[1]);
+        SessionRefresher.Grant grant = gotrue.grant();
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Future<TokenSnapshot>> calls = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            calls.add(pool.submit(() -> {
+                gate.await();
+                return store.validAccess(grant, null, System.currentTimeMillis());
+            }));
+        }
+        gate.countDown();
+        List<String> results = new ArrayList<>();
+        for (Future<TokenSnapshot> f : calls) results.add(f.get(10, TimeUnit.SECONDS).raw);
+        for (String result : results) assertEquals(store.access().raw, result);
+        assertEquals(1, gotrue.rotations);
+        assertEquals(0, gotrue.reuses);
+    }
+
+    @Test
+    public void refreshInFlightDuringSignOutDoesNotRestoreTheSession() throws Exception {
+        gotrue.delayMs = 300L;
+        String[] pair = gotrue.signIn(USER_A);
+        store.store(pair[0], pair[1]);
+        Future<String> refresh = pool.submit(() -> store.refresh(gotrue.grant(), pair[0]));
+        while (gotrue.arrivals.get() == 0 && !refresh.isDone()) Thread.sleep(1);
+        store.clear();
+        assertNull(refresh.get(10, TimeUnit.SECONDS));
+        assertEquals(1, gotrue.rotations);
+        assertTrue(store.access().isEmpty());
+        assertEquals("", store.refreshToken());
+    }
+
+    @Test
+    public void refreshInFlightDuringAccountSwitchKeepsTheNewAccount() throws Exception {
+        gotrue.delayMs = 300L;
+        String[] a = gotrue.signIn(USER_A);
+        store.store(a[0], a[1]);
+        Future<String> refresh = pool.submit(() -> store.refresh(gotrue.grant(), a[0]));
+        while (gotrue.arrivals.get() == 0 && !refresh.isDone()) Thread.sleep(1);
+        String[] b = gotrue.signIn(USER_B);
+        store.store(b[0], b[1]);
+        assertNull(refresh.get(10, TimeUnit.SECONDS));
+        assertEquals(USER_B, store.access().sub);
+        assertEquals(b[1], store.refreshToken());
+    }
+}
@@ -0,0 +1,106 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Sky-view transitions and the probe cycle, plus a GPS-on replay: an hour
+ * spent moving inside a mall (bad sky) with a walk outside at the end,
+ * driven the way the services drive it (1 Hz GnssStatus while the chip
+ * searches, 15s policy ticks).
+ */
+public class SkyViewClassifierTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long BAD_FOR = SkyViewClassifier.OBSTRUCTED_AFTER_MS;
+
+    @Test
+    public void sustainedBadSkyBacksOff() {
+        SkyViewClassifier sky = new SkyViewClassifier();
+        sky.setGpsOn(T0, true);
+        assertFalse(sky.onStatus(T0 + 1_000L, 2, 18f));
+        assertFalse(sky.onStatus(T0 + BAD_FOR / 2, 1, 15f));
+        assertTrue(sky.onStatus(T0 + 1_000L + BAD_FOR, 0, 12f));
+        assertTrue(sky.isObstructed());
+        assertFalse(sky.gpsWanted(T0 + BAD_FOR + 10_000L));
+    }
+
+    @Test
+    public void oneGoodSampleResetsTheBadClock() {
+        SkyViewClassifier sky = new SkyViewClassifier();
+        sky.setGpsOn(T0, true);
+        sky.onStatus(T0, 1, 15f);
+        sky.onStatus(T0 + BAD_FOR - 1_000L, 1, 15f);
+        sky.onStatus(T0 + BAD_FOR, 7, 33f);
+        assertFalse(sky.onStatus(T0 + BAD_FOR + 1_000L, 1, 15f));
+        assertFalse(sky.isObstructed());
+    }
+
+    @Test
+    public void manyWeakSatellitesStillCountAsBad() {
+        SkyViewClassifier sky = new SkyViewClassifier();
+        sky.setGpsOn(T0, true);
+        sky.onStatus(T0, 6, 20f);
+        assertTrue(sky.onStatus(T0 + BAD_FOR, 6, 20f));
+    }
+
+    @Test
+    public void probeWindowsAndQuickReturn() {
+        SkyViewClassifier sky = new SkyViewClassifier();
+        sky.setGpsOn(T0, true);
+        sky.onStatus(T0, 0, 10f);
+        sky.onStatus(T0 + BAD_FOR, 0, 10f);
+        long off = T0 + BAD_FOR;
+        long probe = off + SkyViewClassifier.PROBE_PERIOD_MS;
+        assertFalse(sky.gpsWanted(probe - 1_000L));
+        assertTrue(sky.gpsWanted(probe));
+        assertFalse(sky.gpsWanted(probe + SkyViewClassifier.PROBE_WINDOW_MS));
+        assertTrue(sky.gpsWanted(probe + SkyViewClassifier.PROBE_PERIOD_MS));
+
+        // Next probe finds satellites: two good reports and it's open again.
+        long next = probe + SkyViewClassifier.PROBE_PERIOD_MS;
+        assertFalse(sky.onStatus(next + 1_000L, 8, 35f));
+        assertTrue(sky.onStatus(next + 2_000L, 8, 35f));
+        assertTrue(sky.gpsWanted(next + 60_000L));
+    }
+
+    @Test
+    public void probeNowPullsTheWindowForward() {
+        SkyViewClassifier sky = new SkyViewClassifier();
+        sky.setGpsOn(T0, true);
+        sky.onStatus(T0, 0, 10f);
+        sky.onStatus(T0 + BAD_FOR, 0, 10f);
+        long t = T0 + BAD_FOR + 60_000L;
+        assertFalse(sky.gpsWanted(t));
+        sky.probeNow(t);
+        assertTrue(sky.gpsWanted(t));
+        assertFalse(sky.gpsWanted(t + SkyViewClassifier.PROBE_WINDOW_MS));
+    }
+
+    @Test
+    public void gpsOnTimeIndoorsBenchmark() {
+        long hour = 3_600_000L;
+        long outsideAt = T0 + 50 * 60_000L;
+        SkyViewClassifier sky = new SkyViewClassifier();
+        sky.setGpsOn(T0, true);
+        long reopenedAt = 0L;
+        for (long t = T0; t <= T0 + hour; t += 1_000L) {
+            if ((t - T0) % 15_000L == 0L) {
+                sky.setGpsOn(t, sky.gpsWanted(t));
+            }
+            if (!sky.isGpsOn()) continue;
+            boolean outside = t >= outsideAt;
+            boolean changed = outside ? sky.onStatus(t, 9, 38f) : sky.onStatus(t, 2, 17f);
+            if (changed && !sky.isObstructed()) reopenedAt = t;
+        }
+        long onMin = sky.gpsOnMs(T0 + hour) / 60_000L;
+        System.out.println("Indoor hour GPS-on: 60 min before -> " + onMin + " min with sky gate;"
+                + " GPS back " + (reopenedAt - outsideAt) / 1000L + "s after walking out");
+        // 1.5 min to decide, then 30s every 5 min for 48.5 min, then the
+        // last 10 min outside.
+        assertTrue("GPS-on " + onMin + " min", onMin <= 20);
+        assertTrue(reopenedAt > 0L);
+        assertTrue(reopenedAt - outsideAt <= SkyViewClassifier.PROBE_PERIOD_MS);
+    }
+}
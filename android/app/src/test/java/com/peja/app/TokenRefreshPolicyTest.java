@@ -0,0 +1,154 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Refresh timing against the supabase-js margin, the backoff curve, and
+ * a replay of three services writing every 15s through hourly token
+ * expiry and a GoTrue outage, counting writes that waited on refresh I/O
+ * and calls to the auth endpoint, before and after.
+ */
+public class TokenRefreshPolicyTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long HOUR_S = 3_600L;
+    /** supabase-js's last tick before exp lands this long before it; native must come after. */
+    private static final long JS_LATEST_S = 60L;
+    /** The inline margin the write path used before. */
+    private static final long OLD_MARGIN_S = 60L;
+    private static final long OLD_BACKOFF_MS = 20_000L;
+
+    @Test
+    public void refreshesAfterTheWebViewAndAheadOfWrites() {
+        assertTrue(TokenRefreshPolicy.LEAD_SECONDS < JS_LATEST_S);
+        assertTrue(TokenRefreshPolicy.LEAD_SECONDS > TokenRefreshPolicy.INLINE_MARGIN_SECONDS);
+        assertTrue(TokenRefreshPolicy.INLINE_MARGIN_SECONDS > 0L);
+        long exp = T0 / 1000L + HOUR_S;
+        assertEquals((exp - TokenRefreshPolicy.LEAD_SECONDS) * 1000L, TokenRefreshPolicy.refreshAtMs(exp));
+        assertEquals(0L, TokenRefreshPolicy.refreshAtMs(0L));
+    }
+
+    @Test
+    public void backoffDoublesToACapAndResets() {
+        TokenRefreshPolicy p = new TokenRefreshPolicy();
+        long[] expected = {5_000, 10_000, 20_000, 40_000, 80_000, 120_000, 120_000};
+        for (long delay : expected) {
+            assertEquals(T0 + delay, p.onFailure(T0));
+            assertFalse(p.mayAttempt(T0 + delay - 1));
+            assertTrue(p.mayAttempt(T0 + delay));
+        }
+        for (int i = 0; i < 100; i++) p.onFailure(T0); // no shift overflow
+        assertEquals(T0 + TokenRefreshPolicy.BACKOFF_MAX_MS, p.retryAtMs());
+        p.onSuccess();
+        assertTrue(p.mayAttempt(T0));
+        assertEquals(0, p.failures());
+    }
+
+    @Test
+    public void idleWithoutDemand() {
+        TokenRefreshPolicy p = new TokenRefreshPolicy();
+        p.onDemand(T0);
+        assertFalse(p.isIdle(T0 + TokenRefreshPolicy.IDLE_MS - 1));
+        assertTrue(p.isIdle(T0 + TokenRefreshPolicy.IDLE_MS));
+    }
+
+    /**
+     * Four hours, three services writing every 15s (staggered), a token
+     * lasting an hour, GoTrue answering in rttMs, and an outage of
+     * outageMs starting five minutes before the second hour.
+     * Returns {writes that waited on refresh I/O, auth endpoint calls, writes sent with an expired token}.
+     */
+    private static long[] replay(boolean background, long rttMs, long outageMs) {
+        long expS = T0 / 1000L + HOUR_S;
+        long outageFrom = T0 + 2 * HOUR_S * 1000L - 5 * 60_000L;
+        long outageTo = outageFrom + outageMs;
+        long waited = 0, calls = 0, failedWrites = 0;
+        long lockedUntil = 0L; // the auth lock, held for the round trip
+        long oldLastFailure = Long.MIN_VALUE / 2;
+        TokenRefreshPolicy policy = new TokenRefreshPolicy();
+        long nextBackground = TokenRefreshPolicy.refreshAtMs(expS);
+        long end = T0 + 4 * HOUR_S * 1000L;
+        for (long t = T0; t < end; t += 1_000L) {
+            boolean up = t < outageFrom || t >= outageTo;
+            if (background && t >= nextBackground) {
+                if (policy.mayAttempt(t)) {
+                    calls++;
+                    lockedUntil = t + rttMs;
+                    if (up) {
+                        policy.onSuccess();
+                        expS = (t + rttMs) / 1000L + HOUR_S;
+                        nextBackground = TokenRefreshPolicy.refreshAtMs(expS);
+                    } else {
+                        nextBackground = policy.onFailure(t);
+                    }
+                } else {
+                    nextBackground = policy.retryAtMs();
+                }
+            }
+            for (int svc = 0; svc < 3; svc++) {
+                if ((t / 1000L + svc * 5) % 15 != 0) continue; // staggered 15s writers
+                long nowS = t / 1000L;
+                boolean expired = nowS >= expS;
+                if (!background && nowS >= expS - OLD_MARGIN_S) {
+                    // Old path: refresh inline under the lock.
+                    if (t - oldLastFailure >= OLD_BACKOFF_MS) {
+                        if (t >= lockedUntil) {
+                            calls++;
+                            lockedUntil = t + rttMs;
+                            if (up) expS = (t + rttMs) / 1000L + HOUR_S;
+                            else oldLastFailure = t;
+                        }
+                        waited++;
+                        expired = t / 1000L >= expS;
+                    }
+                } else if (background && nowS >= expS - TokenRefreshPolicy.INLINE_MARGIN_SECONDS
+                        && policy.mayAttempt(t)) {
+                    // Inline, just short of expiry: the background one failed.
+                    calls++;
+                    waited++;
+                    if (up) {
+                        policy.onSuccess();
+                        expS = (t + rttMs) / 1000L + HOUR_S;
+                        nextBackground = TokenRefreshPolicy.refreshAtMs(expS);
+                        expired = false;
+                    } else {
+                        nextBackground = policy.onFailure(t);
+                    }
+                } else if (t < lockedUntil) {
+                    // Another write's refresh holds the lock (old path only
+                    // ever takes it on the write path; the background's does
+                    // not block token reads).
+                    if (!background) waited++;
+                }
+                if (expired) failedWrites++;
+            }
+        }
+        return new long[]{waited, calls, failedWrites};
+    }
+
+    @Test
+    public void replayNoWriteWaitsWhileGoTrueIsUp() {
+        long[] before = replay(false, 400, 0);
+        long[] after = replay(true, 400, 0);
+        System.out.println("4 h, 3 writers, GoTrue up: writes waiting on refresh "
+                + before[0] + " -> " + after[0] + ", auth calls " + before[1] + " -> " + after[1]);
+        assertTrue(before[0] >= 3);
+        assertEquals(0, after[0]);
+        assertEquals(0, after[2]);
+    }
+
+    @Test
+    public void replayOutageBacksOffExponentially() {
+        long[] before = replay(false, 400, 10 * 60_000L);
+        long[] after = replay(true, 400, 10 * 60_000L);
+        System.out.println("4 h, 3 writers, 10 min GoTrue outage at expiry: auth calls "
+                + before[1] + " -> " + after[1] + ", writes waiting " + before[0] + " -> " + after[0]
+                + ", expired-token writes " + before[2] + " -> " + after[2]);
+        assertTrue(after[1] * 2 < before[1]);
+        assertTrue(after[0] < before[0]);
+        // The inline margin still refreshes ahead of exp once backoff allows.
+        assertTrue(after[2] <= before[2]);
+    }
+}
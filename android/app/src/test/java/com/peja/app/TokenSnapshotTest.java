@@ -0,0 +1,231 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * The base64url decoder against the JDK's, claim extraction from
+ * GoTrue-shaped tokens, the store's recency and account-change guards,
+ * and a benchmark of the per-write token lookup before and after.
+ */
+public class TokenSnapshotTest {
+
+    private static final long EXP = 1_700_003_600L;
+    private static final String USER_A = "6f1c2a9e-3b7d-4e8f-9a0b-1c2d3e4f5a6b";
+    private static final String USER_B = "0a9b8c7d-6e5f-4a3b-2c1d-0e9f8a7b6c5d";
+
+    /** A GoTrue-shaped access token (header.payload.signature, unpadded). */
+    private static String jwt(String sub, long exp) {
+        String header = "{\"alg\":\"HS256\",\"kid\":\"k1\",\"typ\":\"JWT\"}";
+        String payload = "{\"aud\":\"authenticated\",\"exp\":" + exp + ",\"iat\":" + (exp - 3600)
+                + ",\"iss\":\"https://example.supabase.co/auth/v1\",\"sub\":\"" + sub + "\""
+                + ",\"email\":\"ada@example.com\",\"phone\":\"\""
+                + ",\"app_metadata\":{\"provider\":\"google\",\"providers\":[\"google\"]}"
+                + ",\"user_metadata\":{\"avatar_url\":\"https://lh3.example.com/a.png\","
+                + "\"email\":\"ada@example.com\",\"email_verified\":true,\"full_name\":\"Ada \\u00d3\","
+                + "\"iss\":\"https://accounts.google.com\",\"provider_id\":\"1048\",\"sub\":\"1048\"}"
+                + ",\"role\":\"authenticated\",\"aal\":\"aal1\""
+                + ",\"amr\":[{\"method\":\"oauth\",\"timestamp\":" + (exp - 3600) + "}]"
+                + ",\"session_id\":\"c3f1e2d4-5a6b-7c8d-9e0f-1a2b3c4d5e6f\",\"is_anonymous\":false}";
+        Base64.Encoder enc = Base64.getUrlEncoder().withoutPadding();
+        return enc.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + enc.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "."
+                + enc.encodeToString(new byte[32]);
+    }
+
+    @Test
+    public void base64UrlMatchesJdkForEveryLength() {
+        Random rnd = new Random(1);
+        for (int len = 0; len < 300; len++) {
+            byte[] data = new byte[len];
+            rnd.nextBytes(data);
+            String unpadded = Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+            String padded = Base64.getUrlEncoder().encodeToString(data);
+            assertArrayEquals(data, TokenSnapshot.base64UrlDecode(unpadded, 0, unpadded.length()));
+            assertArrayEquals(data, TokenSnapshot.base64UrlDecode(padded, 0, padded.length()));
+        }
+        assertNull(TokenSnapshot.base64UrlDecode("ab$d", 0, 4));
+        assertNull(TokenSnapshot.base64UrlDecode("abcde", 0, 5));
+    }
+
+    @Test
+    public void readsTopLevelClaimsNotNestedOnes() {
+        TokenSnapshot t = TokenSnapshot.of(jwt(USER_A, EXP));
+        assertEquals(EXP, t.expSeconds);
+        // user_metadata.sub is the provider's id; the user is the top-level one.
+        assertEquals(USER_A, t.sub);
+        assertEquals("authenticated", TokenSnapshot.topLevelClaim("{\"a\":{\"role\":\"x\"},\"role\":\"authenticated\"}", "role"));
+        assertEquals("a\"b", TokenSnapshot.topLevelClaim("{ \"s\" : \"a\\\"b\" }", "s"));
+        assertNull(TokenSnapshot.topLevelClaim("{\"x\":[\"sub\",\"y\"]}", "sub"));
+    }
+
+    /** header.payload.sig around a raw JSON payload, unpadded base64url. */
+    private static String token(String payload) {
+        return "h." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".s";
+    }
+
+    @Test
+    public void unescapesKeysAndValuesAndNeverReadsInsideAString() {
+        // A value that looks like a "sub" key once its quotes are unescaped.
+        assertEquals("real", TokenSnapshot.topLevelClaim(
+                "{\"note\":\"x\\\",\\\"sub\\\":\\\"evil\",\"sub\":\"real\"}", "sub"));
+        // An escaped key still names the claim.
+        assertEquals(USER_A, TokenSnapshot.topLevelClaim("{\"s\\u0075b\":\"" + USER_A + "\"}", "sub"));
+        assertEquals("a\\b/c\n\u00e9\"", TokenSnapshot.topLevelClaim(
+                "{\"sub\":\"a\\\\b\\/c\\n\\u00e9\\\"\"}", "sub"));
+        // A trailing backslash escapes the closing quote: the string never ends.
+        assertNull(TokenSnapshot.topLevelClaim("{\"sub\":\"abc\\\"}", "sub"));
+
+        TokenSnapshot t = TokenSnapshot.of(token("{\"sub\":\"a\\u002db\",\"exp\":" + EXP + "}"));
+        assertEquals("a-b", t.sub);
+        assertEquals(EXP, t.expSeconds);
+    }
+
+    @Test
+    public void nestedObjectsWithTheSameKeyAreSkipped() {
+        String json = "{\"user_metadata\":{\"sub\":\"1048\",\"deep\":{\"sub\":\"z\",\"exp\":1}},"
+                + "\"amr\":[{\"sub\":\"q\",\"exp\":2},[\"sub\"]],\"exp\":" + EXP + ",\"sub\":\"top\"}";
+        assertEquals("top", TokenSnapshot.topLevelClaim(json, "sub"));
+        assertEquals(String.valueOf(EXP), TokenSnapshot.topLevelClaim(json, "exp"));
+        TokenSnapshot t = TokenSnapshot.of(token(json));
+        assertEquals("top", t.sub);
+        assertEquals(EXP, t.expSeconds);
+
+        // Only nested: absent, not borrowed from the child.
+        TokenSnapshot nestedOnly = TokenSnapshot.of(token("{\"user_metadata\":{\"sub\":\"1048\",\"exp\":9}}"));
+        assertEquals("", nestedOnly.sub);
+        assertEquals(0L, nestedOnly.expSeconds);
+        // Whitespace and newlines between tokens.
+        assertEquals("top", TokenSnapshot.topLevelClaim("{\n  \"a\" : { \"sub\" : \"n\" } ,\n  \"sub\" :\t\"top\"\n}", "sub"));
+    }
+
+    @Test
+    public void paddingAndInvalidBase64() {
+        byte[] payload = ("{\"sub\":\"" + USER_A + "\",\"exp\":" + EXP + "}").getBytes(StandardCharsets.UTF_8);
+        for (int extra = 0; extra < 3; extra++) {
+            // Payload lengths hitting each padding case, padded and not.
+            byte[] p = java.util.Arrays.copyOf(payload, payload.length + extra);
+            for (int i = payload.length; i < p.length; i++) p[i] = ' ';
+            String padded = Base64.getUrlEncoder().encodeToString(p);
+            TokenSnapshot t = TokenSnapshot.of("h." + padded + ".s");
+            assertEquals(USER_A, t.sub);
+            assertEquals(EXP, t.expSeconds);
+        }
+        // The standard alphabet decodes the same as the URL-safe one.
+        byte[] data = {(byte) 0xfb, (byte) 0xff, (byte) 0xbf};
+        assertArrayEquals(data, TokenSnapshot.base64UrlDecode("-_-_", 0, 4));
+        assertArrayEquals(data, TokenSnapshot.base64UrlDecode("+/+/", 0, 4));
+
+        assertNull(TokenSnapshot.base64UrlDecode("ab=c", 0, 4));  // padding mid-string
+        assertNull(TokenSnapshot.base64UrlDecode("ab c", 0, 4));  // whitespace
+        assertNull(TokenSnapshot.base64UrlDecode("a===", 0, 4));  // one sextet is no byte
+        assertArrayEquals(new byte[0], TokenSnapshot.base64UrlDecode("====", 0, 4));
+        assertNull(TokenSnapshot.payload("no-dots"));
+        assertArrayEquals(new byte[0], TokenSnapshot.payload("h..s"));
+
+        for (String bad : new String[]{"h..s", "h.a===.s", token("not json"), token("{\"sub\":\"abc"),
+                token("{\"exp\":}"), token("[\"exp\",1]")}) {
+            TokenSnapshot t = TokenSnapshot.of(bad);
+            assertEquals(bad, t.raw);
+            assertEquals(0L, t.expSeconds);
+            assertEquals("", t.sub);
+        }
+    }
+
+    @Test
+    public void garbageIsUnknownNotAnError() {
+        for (String bad : new String[]{"abc", "a.b.c", "a.%%%.c", "x." + Base64.getUrlEncoder()
+                .encodeToString("{\"exp\":\"soon\"}".getBytes(StandardCharsets.UTF_8)) + ".s"}) {
+            TokenSnapshot t = TokenSnapshot.of(bad);
+            assertEquals(bad, t.raw);
+            assertEquals(0L, t.expSeconds);
+            assertFalse(t.expiresWithin(Long.MAX_VALUE, 60));
+        }
+        assertSame(TokenSnapshot.EMPTY, TokenSnapshot.of(null));
+        assertSame(TokenSnapshot.EMPTY, TokenSnapshot.of(""));
+    }
+
+    @Test
+    public void recencyGuardKeepsTheFresherToken() {
+        TokenSnapshot stored = TokenSnapshot.of(jwt(USER_A, EXP));
+        // The WebView relaunching with its cached pre-rotation session.
+        assertEquals(TokenSnapshot.IGNORE_OLDER,
+                TokenSnapshot.decideStore(stored, TokenSnapshot.of(jwt(USER_A, EXP - 3000))));
+        assertEquals(TokenSnapshot.STORE,
+                TokenSnapshot.decideStore(stored, TokenSnapshot.of(jwt(USER_A, EXP + 3600))));
+        assertEquals(TokenSnapshot.STORE, TokenSnapshot.decideStore(stored, stored));
+        assertEquals(TokenSnapshot.STORE,
+                TokenSnapshot.decideStore(TokenSnapshot.EMPTY, TokenSnapshot.of(jwt(USER_A, EXP))));
+        // Unknown exp on either side can't prove it older.
+        assertEquals(TokenSnapshot.STORE, TokenSnapshot.decideStore(stored, TokenSnapshot.of("opaque")));
+    }
+
+    @Test
+    public void accountChangeDropsRefreshEvenWhenOlder() {
+        TokenSnapshot stored = TokenSnapshot.of(jwt(USER_A, EXP));
+        assertEquals(TokenSnapshot.STORE_ACCOUNT_CHANGED,
+                TokenSnapshot.decideStore(stored, TokenSnapshot.of(jwt(USER_B, EXP + 60))));
+        assertEquals(TokenSnapshot.STORE_ACCOUNT_CHANGED,
+                TokenSnapshot.decideStore(stored, TokenSnapshot.of(jwt(USER_B, EXP - 3000))));
+    }
+
+    @Test
+    public void fresherPrefersLaterExpiry() {
+        TokenSnapshot stored = TokenSnapshot.of(jwt(USER_A, EXP));
+        TokenSnapshot newer = TokenSnapshot.of(jwt(USER_A, EXP + 600));
+        assertSame(newer, TokenSnapshot.fresher(stored, newer));
+        assertSame(stored, TokenSnapshot.fresher(stored, TokenSnapshot.of(jwt(USER_A, EXP)))); // tie
+        assertSame(stored, TokenSnapshot.fresher(stored, TokenSnapshot.EMPTY));
+        assertSame(newer, TokenSnapshot.fresher(TokenSnapshot.EMPTY, newer));
+        assertTrue(stored.expiresWithin(EXP - 60, 60));
+        assertFalse(stored.expiresWithin(EXP - 61, 60));
+    }
+
+    /** The old per-call work: split, decode, parse; for exp of both tokens. */
+    private static long oldLookup(String storedJwt, String fallbackJwt) {
+        long storedExp = oldExp(storedJwt), fbExp = oldExp(fallbackJwt);
+        String access = fbExp > storedExp ? fallbackJwt : storedJwt;
+        return oldExp(access);
+    }
+
+    private static long oldExp(String jwt) {
+        String[] parts = jwt.split("\\.");
+        byte[] decoded = Base64.getUrlDecoder().decode(parts[1]);
+        String exp = TokenSnapshot.topLevelClaim(new String(decoded, StandardCharsets.UTF_8), "exp");
+        return Long.parseLong(exp);
+    }
+
+    private static volatile TokenSnapshot published;
+
+    @Test
+    public void benchmarkPerWriteLookup() {
+        String a = jwt(USER_A, EXP), fb = jwt(USER_A, EXP - 600);
+        published = TokenSnapshot.of(a);
+        TokenSnapshot fbSnap = TokenSnapshot.of(fb);
+        int iterations = 200_000;
+        long sink = 0, oldNs = 0, newNs = 0;
+        for (int round = 0; round < 3; round++) { // first rounds warm the JIT
+            long t = System.nanoTime();
+            for (int i = 0; i < iterations; i++) sink += oldLookup(a, fb);
+            oldNs = System.nanoTime() - t;
+            t = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                TokenSnapshot s = TokenSnapshot.fresher(published, fbSnap);
+                sink += s.expiresWithin(EXP - 3600 + i, 60) ? 1 : s.expSeconds;
+            }
+            newNs = System.nanoTime() - t;
+        }
+        System.out.println(String.format(java.util.Locale.US,
+                "Token lookup (%d-char JWT): split+decode+parse x3 %.0f ns, snapshot %.1f ns (%d)",
+                a.length(), oldNs / (double) iterations, newNs / (double) iterations, sink % 2));
+        // Without android.util.Base64/org.json on the JVM the "before" here
+        // is cheaper than on-device; still over an order of magnitude.
+        assertTrue(newNs * 10 < oldNs);
+    }
+}
@@ -0,0 +1,197 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+/**
+ * Douglas-Peucker error bound and compression on replayed 4-hour check-in
+ * traces (walking street grid with dwells, a drive), polyline round trips,
+ * and the trail file surviving a torn last record.
+ */
+public class TrailSimplifierTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final double LAT0 = 6.5244, LNG0 = 3.3792;
+    private static final double M_PER_DEG = 111_320d;
+    private static final long TICK_MS = 15_000L;
+
+    private static double lat(double northM) {
+        return LAT0 + northM / M_PER_DEG;
+    }
+
+    private static double lng(double eastM) {
+        return LNG0 + eastM / (M_PER_DEG * Math.cos(Math.toRadians(LAT0)));
+    }
+
+    /**
+     * Four hours on foot: legs of 100-600 m along a street grid, turning at
+     * junctions, with 10-40 minute dwells (shops, a friend's place) where
+     * the service ships the still anchor, and 6 m of GPS noise on the move.
+     */
+    private static TrailBuffer walkingCheckin(Random rnd) {
+        TrailBuffer trail = new TrailBuffer(T0);
+        double e = 0, n = 0;
+        int heading = 0; // 0 E, 1 N, 2 W, 3 S
+        long t = T0, end = T0 + 4 * 3_600_000L;
+        while (t < end) {
+            if (rnd.nextDouble() < 0.3) {
+                long dwellEnd = t + (10 + rnd.nextInt(30)) * 60_000L;
+                for (; t < dwellEnd && t < end; t += TICK_MS) trail.add(lat(n), lng(e), t);
+            }
+            double leg = 100 + rnd.nextDouble() * 500;
+            for (double walked = 0; walked < leg && t < end; t += TICK_MS) {
+                double step = 1.4 * (1 + rnd.nextGaussian() * 0.1) * TICK_MS / 1000d;
+                walked += step;
+                if (heading == 0) e += step;
+                else if (heading == 1) n += step;
+                else if (heading == 2) e -= step;
+                else n -= step;
+                trail.add(lat(n + rnd.nextGaussian() * 6), lng(e + rnd.nextGaussian() * 6), t);
+            }
+            heading = (heading + (rnd.nextBoolean() ? 1 : 3)) % 4;
+        }
+        return trail;
+    }
+
+    /** A 40 km drive along a gently curving road, then back streets. */
+    private static TrailBuffer drive(Random rnd) {
+        TrailBuffer trail = new TrailBuffer(T0);
+        double e = 0, n = 0, bearing = 0.4;
+        long t = T0;
+        for (int i = 0; i < 200; i++, t += TICK_MS) {
+            bearing += rnd.nextGaussian() * 0.05;
+            double step = 22 * TICK_MS / 1000d;
+            e += step * Math.sin(bearing);
+            n += step * Math.cos(bearing);
+            trail.add(lat(n + rnd.nextGaussian() * 5), lng(e + rnd.nextGaussian() * 5), t);
+        }
+        for (int i = 0; i < 80; i++, t += TICK_MS) {
+            if (i % 8 == 0) bearing += (rnd.nextBoolean() ? 1 : -1) * Math.PI / 2;
+            double step = 9 * TICK_MS / 1000d;
+            e += step * Math.sin(bearing);
+            n += step * Math.cos(bearing);
+            trail.add(lat(n + rnd.nextGaussian() * 5), lng(e + rnd.nextGaussian() * 5), t);
+        }
+        return trail;
+    }
+
+    /** Largest distance (m) from any original fix to the decoded path. */
+    private static double maxDeviationM(TrailBuffer trail, double[] path) {
+        double cosLat = Math.cos(Math.toRadians(LAT0));
+        double worst = 0;
+        for (int i = 0; i < trail.size(); i++) {
+            double px = trail.lng(i) * M_PER_DEG * cosLat, py = trail.lat(i) * M_PER_DEG;
+            double best = Double.MAX_VALUE;
+            for (int j = 0; j + 3 < path.length; j += 2) {
+                best = Math.min(best, TrailSimplifier.segmentDist2(px, py,
+                        path[j + 1] * M_PER_DEG * cosLat, path[j] * M_PER_DEG,
+                        path[j + 3] * M_PER_DEG * cosLat, path[j + 2] * M_PER_DEG));
+            }
+            worst = Math.max(worst, Math.sqrt(best));
+        }
+        return worst;
+    }
+
+    private static void checkTrace(String label, TrailBuffer trail) {
+        int[] kept = TrailSimplifier.simplify(trail, TrailSimplifier.DEFAULT_TOLERANCE_M);
+        String poly = TrailSimplifier.encodePolyline(trail, kept);
+        String times = TrailSimplifier.encodeTimes(trail, kept);
+        double[] path = TrailSimplifier.decodePolyline(poly);
+        long[] secs = TrailSimplifier.decodeTimes(times);
+
+        assertEquals(kept.length * 2, path.length);
+        assertEquals(kept.length, secs.length);
+        for (int k = 0; k < kept.length; k++) {
+            assertEquals((trail.timeMs(kept[k]) - T0) / 1000L, secs[k]);
+        }
+        // Tolerance plus the 1e-5 degree quantisation (~0.8 m diagonal).
+        double dev = maxDeviationM(trail, path);
+        assertTrue(label + " deviation " + dev, dev <= TrailSimplifier.DEFAULT_TOLERANCE_M + 1d);
+
+        int rawJsonBytes = trail.size() * 60; // {"lat":..,"lng":..,"t":..} per fix
+        int bytes = poly.length() + times.length();
+        System.out.println(label + ": " + trail.size() + " fixes -> " + kept.length + " points ("
+                + String.format(java.util.Locale.US, "%.1f", (double) trail.size() / kept.length)
+                + "x), " + bytes + " bytes encoded vs ~" + rawJsonBytes + " as JSON; max deviation "
+                + String.format(java.util.Locale.US, "%.1f", dev) + " m");
+    }
+
+    @Test
+    public void walkingCheckinWithinBound() {
+        TrailBuffer trail = walkingCheckin(new Random(1));
+        checkTrace("4h walking check-in", trail);
+        assertTrue(TrailSimplifier.simplify(trail, 10d).length < trail.size() / 3);
+    }
+
+    @Test
+    public void driveWithinBound() {
+        TrailBuffer trail = drive(new Random(2));
+        checkTrace("Drive", trail);
+        assertTrue(TrailSimplifier.simplify(trail, 10d).length < trail.size() / 2);
+    }
+
+    @Test
+    public void outAndBackKeepsTheTurnaround() {
+        // Straight out 500 m and back: a line-distance DP would drop the far
+        // end (it lies on the line between start and finish).
+        TrailBuffer trail = new TrailBuffer(T0);
+        for (int i = 0; i <= 20; i++) trail.add(lat(0), lng(i * 25), T0 + i * TICK_MS);
+        for (int i = 19; i >= 0; i--) trail.add(lat(0), lng(i * 25), T0 + (40 - i) * TICK_MS);
+        int[] kept = TrailSimplifier.simplify(trail, 10d);
+        assertEquals(3, kept.length);
+        assertEquals(20, kept[1]);
+    }
+
+    @Test
+    public void polylineMatchesReferenceEncoding() {
+        // The worked example from the encoded polyline format documentation.
+        TrailBuffer trail = new TrailBuffer(T0);
+        trail.add(38.5, -120.2, T0);
+        trail.add(40.7, -120.95, T0 + 60_000L);
+        trail.add(43.252, -126.453, T0 + 90_000L);
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@",
+                TrailSimplifier.encodePolyline(trail, new int[]{0, 1, 2}));
+        assertArrayEquals(new long[]{0, 60, 90},
+                TrailSimplifier.decodeTimes(TrailSimplifier.encodeTimes(trail, new int[]{0, 1, 2})));
+    }
+
+    @Test
+    public void stillHeartbeatsAreNotRepeated() {
+        TrailBuffer trail = new TrailBuffer(T0);
+        assertTrue(trail.add(LAT0, LNG0, T0));
+        assertFalse(trail.add(LAT0, LNG0, T0 + 15_000L));
+        assertFalse(trail.add(LAT0, LNG0, T0 + 45_000L));
+        // Once a minute the anchor is kept, so the dwell shows in the times.
+        assertTrue(trail.add(LAT0, LNG0, T0 + 60_000L));
+    }
+
+    @Test
+    public void trailFileSurvivesTornRecord() throws Exception {
+        TrailBuffer trail = walkingCheckin(new Random(3));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TrailBuffer.writeHeader(out, trail.startMs());
+        TrailBuffer copy = new TrailBuffer(trail.startMs());
+        for (int i = 0; i < trail.size(); i++) {
+            copy.add(trail.lat(i), trail.lng(i), trail.timeMs(i));
+            copy.writeLast(out);
+        }
+        out.writeInt(123); // killed mid-record
+        TrailBuffer back = TrailBuffer.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertNotNull(back);
+        assertEquals(trail.size(), back.size());
+        for (int i = 0; i < trail.size(); i++) {
+            assertEquals(trail.lat(i), back.lat(i), 0d);
+            assertEquals(trail.lng(i), back.lng(i), 0d);
+            assertEquals(trail.timeMs(i), back.timeMs(i));
+        }
+    }
+}
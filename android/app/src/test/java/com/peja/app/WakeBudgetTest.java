@@ -0,0 +1,240 @@
+package com.peja.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One lock per session however often the service is started, balanced
+ * acquire/release across restarts and upload threads, uploads outliving
+ * teardown, release between deliveries, and the per-cause and per-hour
+ * accounting.
+ */
+public class WakeBudgetTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long T0 = 1_760_000_400_000L - 1_760_000_400_000L % HOUR; // on an hour
+    private static final long CAP = 5 * HOUR;
+
+    /** Counts platform calls the way PowerManager would see them. */
+    private static final class FakeLock implements WakeBudget.Lock {
+        int acquires;
+        int releases;
+        boolean held;
+        long lastTimeoutMs;
+
+        @Override
+        public void acquire(long timeoutMs) {
+            acquires++;
+            held = true;
+            lastTimeoutMs = timeoutMs;
+        }
+
+        @Override
+        public void release() {
+            releases++;
+            held = false;
+        }
+    }
+
+    private long now = T0;
+
+    private WakeBudget budget(FakeLock lock) {
+        return new WakeBudget(lock, CAP, () -> now);
+    }
+
+    /** What onStartCommand and a fix delivery do with the budget. */
+    private static void start(WakeBudget b) {
+        b.keepAwake(true);
+    }
+
+    private static void deliver(WakeBudget b) {
+        b.acquire(WakeBudget.Cause.DELIVERY);
+        b.acquire(WakeBudget.Cause.UPLOAD); // the upload thread starts
+        b.release(WakeBudget.Cause.DELIVERY);
+    }
+
+    @Test
+    public void repeatedStartsHoldOneLock() {
+        FakeLock lock = new FakeLock();
+        WakeBudget b = budget(lock);
+        for (int i = 0; i < 50; i++) {
+            // Revive pushes, JS restarts and watchdog restarts, with fixes between.
+            start(b);
+            now += 60_000L;
+            deliver(b);
+            now += 400L;
+            b.release(WakeBudget.Cause.UPLOAD);
+        }
+        assertEquals(1, lock.acquires);
+        assertEquals(0, lock.releases);
+        assertEquals(CAP, lock.lastTimeoutMs);
+        assertTrue(b.isHeldFor(WakeBudget.Cause.SESSION));
+        assertFalse(b.isHeldFor(WakeBudget.Cause.UPLOAD));
+
+        b.endSession(); // onDestroy
+        assertFalse(lock.held);
+        assertEquals(1, lock.releases);
+        assertFalse(b.isHeld());
+    }
+
+    @Test
+    public void noLockOutlivesItsServiceAcrossRecreations() {
+        List<FakeLock> locks = new ArrayList<>();
+        for (int life = 0; life < 20; life++) {
+            // Each onCreate gets a fresh budget; onDestroy may land mid-upload.
+            FakeLock lock = new FakeLock();
+            locks.add(lock);
+            WakeBudget b = budget(lock);
+            for (int start = 0; start <= life % 4; start++) start(b);
+            deliver(b);
+            deliver(b);
+            b.endSession();
+            // The upload threads finishing after onDestroy.
+            b.release(WakeBudget.Cause.UPLOAD);
+            b.release(WakeBudget.Cause.UPLOAD);
+            b.release(WakeBudget.Cause.DELIVERY);
+            now += 1_000L;
+        }
+        for (FakeLock lock : locks) {
+            assertFalse(lock.held);
+            assertEquals(1, lock.acquires);
+            assertEquals(1, lock.releases);
+        }
+    }
+
+    @Test
+    public void stopKeepsTheCpuForTheUploadInFlight() {
+        // ACTION_STOP: the trail (or the SOS cancel) goes out, then onDestroy.
+        FakeLock lock = new FakeLock();
+        WakeBudget b = budget(lock);
+        start(b);
+        b.acquire(WakeBudget.Cause.DELIVERY);
+        b.acquire(WakeBudget.Cause.UPLOAD);
+        now += 100L;
+        b.endSession();
+        assertTrue(lock.held);
+        assertFalse(b.isHeldFor(WakeBudget.Cause.SESSION));
+        assertFalse(b.isHeldFor(WakeBudget.Cause.DELIVERY));
+        assertTrue(b.isHeldFor(WakeBudget.Cause.UPLOAD));
+
+        now += 2_000L;
+        b.release(WakeBudget.Cause.UPLOAD);
+        assertFalse(lock.held);
+        assertEquals(1, lock.acquires);
+        assertEquals(1, lock.releases);
+        assertEquals(2_100L, b.heldMs());
+        assertEquals(2_100L, b.heldMs(WakeBudget.Cause.UPLOAD));
+        assertEquals(100L, b.heldMs(WakeBudget.Cause.SESSION));
+
+        // An upload started after teardown still gets its own hold.
+        b.acquire(WakeBudget.Cause.UPLOAD);
+        assertTrue(lock.held);
+        b.endSession();
+        assertTrue(lock.held);
+        b.release(WakeBudget.Cause.UPLOAD);
+        assertFalse(lock.held);
+    }
+
+    @Test
+    public void concurrentUploadsBalance() throws Exception {
+        FakeLock lock = new FakeLock();
+        WakeBudget b = new WakeBudget(lock, CAP, System::currentTimeMillis);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    b.acquire(WakeBudget.Cause.UPLOAD);
+                    b.release(WakeBudget.Cause.UPLOAD);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertFalse(b.isHeld());
+        assertFalse(lock.held);
+        assertEquals(lock.acquires, lock.releases);
+    }
+
+    @Test
+    public void releasesBetweenDeliveriesWithoutASessionHold() {
+        // A FAR-band helper: a fix a minute, 200 ms of handling, a 1.3 s upload.
+        FakeLock lock = new FakeLock();
+        WakeBudget b = budget(lock);
+        start(b);
+        now += 60_000L;
+        b.keepAwake(false);
+        assertFalse(lock.held);
+        int fixes = 0;
+        for (long end = now + 2 * HOUR; now < end; now += 60_000L - 1_300L) {
+            deliver(b);
+            now += 200L;
+            assertTrue(lock.held);
+            now += 1_100L;
+            b.release(WakeBudget.Cause.UPLOAD);
+            assertFalse(lock.held);
+            fixes++;
+        }
+        assertEquals(1 + fixes, lock.acquires);
+        assertEquals(lock.acquires, lock.releases);
+        assertEquals(60_000L + fixes * 1_300L, b.heldMs());
+        assertEquals(60_000L, b.heldMs(WakeBudget.Cause.SESSION));
+        assertEquals(fixes * 1_300L, b.heldMs(WakeBudget.Cause.UPLOAD));
+        assertEquals(0L, b.heldMs(WakeBudget.Cause.DELIVERY)); // released at the same instant
+
+        long[] hours = b.heldPerHour(3);
+        long sum = 0L;
+        for (long h : hours) sum += h;
+        assertEquals(b.heldMs(), sum);
+        System.out.println(String.format(Locale.US,
+                "Wake budget, FAR helper: %d fixes, held %.1f s/h (was 3600 s/h), %d acquisitions",
+                fixes, hours[1] / 1000d, lock.acquires));
+        assertTrue(hours[1] < 90_000L);
+    }
+
+    @Test
+    public void chargesEachHourAndStopsAtTheCap() {
+        FakeLock lock = new FakeLock();
+        WakeBudget b = budget(lock);
+        now = T0 + HOUR / 2;
+        start(b);
+        now = T0 + 2 * HOUR + HOUR / 4;
+        // Still held: the report includes the hold in progress.
+        assertArrayEquals(new long[]{HOUR / 2, HOUR, HOUR / 4}, b.heldPerHour(3));
+        now = T0 + 7 * HOUR; // past the 5 h cap the platform already let go
+        b.endSession();
+        assertEquals(CAP, b.heldMs());
+        assertEquals(CAP, b.heldMs(WakeBudget.Cause.SESSION));
+        long[] hours = b.heldPerHour(WakeBudget.HOURS);
+        assertEquals(0L, hours[WakeBudget.HOURS - 1]);
+        assertEquals(0L, hours[WakeBudget.HOURS - 2]);
+        assertEquals(HOUR / 2, hours[WakeBudget.HOURS - 3]); // 5:00-5:30, where the cap hit
+        assertEquals(HOUR / 2, hours[WakeBudget.HOURS - 8]);
+
+        // A day later the old hours have rolled out of the report.
+        now += 30 * HOUR;
+        for (long h : b.heldPerHour(WakeBudget.HOURS)) assertEquals(0L, h);
+        assertEquals(CAP, b.heldMs());
+    }
+
+    @Test
+    public void unbalancedReleasesAreIgnored() {
+        FakeLock lock = new FakeLock();
+        WakeBudget b = budget(lock);
+        b.release(WakeBudget.Cause.UPLOAD);
+        b.keepAwake(false);
+        b.endSession();
+        assertEquals(0, lock.acquires);
+        assertEquals(0, lock.releases);
+
+        b.acquire(WakeBudget.Cause.UPLOAD);
+        b.release(WakeBudget.Cause.DELIVERY);
+        assertTrue(lock.held);
+        b.release(WakeBudget.Cause.UPLOAD);
+        assertFalse(lock.held);
+    }
+}
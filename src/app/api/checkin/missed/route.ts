@@ -0,0 +1,76 @@
+import { NextRequest, NextResponse } from "next/server";
+import { getSupabaseAdmin } from "../../_supabaseAdmin";
+import { requireUser, authErrorResponse } from "../../_auth";
+import { escalateMissedCheckins } from "../../_checkinEscalation";
+
+// Posted by SMLLocationService when its deadline alarm fires, with the
+// latest position it has. Escalates the same way the cron does, judged on
+// the server's clock: a deadline that hasn't passed here (clock skew, or a
+// confirm that landed first) is answered with the row so the device
+// re-arms, never escalated.
+export async function POST(req: NextRequest) {
+  try {
+    const { user } = await requireUser(req);
+    const supabaseAdmin = getSupabaseAdmin();
+
+    const { checkin_id, latitude, longitude, fix_at } = await req.json();
+    if (!checkin_id) {
+      return NextResponse.json({ error: "Missing checkin_id" }, { status: 400 });
+    }
+
+    const { data: checkin } = await supabaseAdmin
+      .from("safety_checkins")
+      .select("*")
+      .eq("id", checkin_id)
+      .eq("user_id", user.id)
+      .maybeSingle();
+
+    if (!checkin) {
+      return NextResponse.json({ error: "No such check-in" }, { status: 404 });
+    }
+
+    const now = new Date();
+
+    // The contacts are about to be told to look at the map: make sure it
+    // shows the device's newest fix (a typeof check, so 0 counts).
+    if (checkin.status === "active" && typeof latitude === "number" && typeof longitude === "number") {
+      // Same columns as the native PATCH: fix_at is when the fix was
+      // taken, location_updated_at when it reached us.
+      const fixAt = fix_at && !Number.isNaN(Date.parse(fix_at)) ? new Date(fix_at) : now;
+      await supabaseAdmin
+        .from("safety_checkins")
+        .update({
+          latitude,
+          longitude,
+          fix_at: (fixAt > now ? now : fixAt).toISOString(),
+          location_updated_at: now.toISOString(),
+          updated_at: now.toISOString(),
+        })
+        .eq("id", checkin.id);
+    }
+
+    let escalated = false;
+    if (checkin.status === "active" && new Date(checkin.next_check_in_at) < now) {
+      escalated = (await escalateMissedCheckins(supabaseAdmin, [checkin], now)) > 0;
+    }
+
+    // Re-read: the flip above, a concurrent confirm or the cron may each
+    // have moved the row on since the first read.
+    const { data: row } = await supabaseAdmin
+      .from("safety_checkins")
+      .select("status, next_check_in_at")
+      .eq("id", checkin.id)
+      .maybeSingle();
+
+    return NextResponse.json({
+      escalated,
+      status: row?.status ?? checkin.status,
+      next_check_in_at: row?.next_check_in_at ?? checkin.next_check_in_at,
+    });
+  } catch (error: any) {
+    return (
+      authErrorResponse(error) ??
+      NextResponse.json({ error: error.message || "Server error" }, { status: 500 })
+    );
+  }
+}
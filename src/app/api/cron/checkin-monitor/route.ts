@@ -2,6 +2,7 @@ import { NextRequest, NextResponse } from "next/server";
 import { getSupabaseAdmin } from "../../_supabaseAdmin";
 import { sendPushToUser, sendSilentDataToUser } from "../../_firebaseAdmin";
 import { escalateStaleBeaconSos } from "../../_beaconEscalation";
+import { escalateMissedCheckins } from "../../_checkinEscalation";
 
 export async function GET(req: NextRequest) {
   const authHeader = req.headers.get("authorization");
@@ -83,104 +84,10 @@ export async function GET(req: NextRequest) {
     .lt("next_check_in_at", now.toISOString())
     .limit(BATCH);
 
-  // Phase 1: flip each overdue row to "missed" under the status='active'
-  // guard (in parallel), keeping only the ones we actually won.
-  const flipped = await Promise.all(
-    (overdueCheckins || []).map(async (checkin) => {
-      const newMissedCount = (checkin.missed_count || 0) + 1;
-      const { data: updated, error: updateError } = await supabaseAdmin
-        .from("safety_checkins")
-        .update({
-          status: "missed",
-          missed_count: newMissedCount,
-          updated_at: now.toISOString(),
-        })
-        .eq("id", checkin.id)
-        .eq("status", "active")
-        // Re-check the deadline in the UPDATE itself. If the user tapped
-        // "I'm OK" between our SELECT and this UPDATE, confirm pushed
-        // next_check_in_at into the future, so this no longer matches and we
-        // don't fire a false "missed check-in" alert to their contacts.
-        .lt("next_check_in_at", now.toISOString())
-        .select("id");
-      // No row updated → we lost the race to a confirm (or another worker).
-      if (updateError || !updated || updated.length === 0) return null;
-      return { checkin, newMissedCount };
-    })
-  );
-  const won = flipped.filter(
-    (x): x is { checkin: any; newMissedCount: number } => x !== null
-  );
-
-  if (won.length > 0) {
-    // Phase 2: resolve all names in ONE query instead of one per check-in.
-    const ownerIds = Array.from(new Set(won.map((w) => w.checkin.user_id)));
-    const { data: owners } = await supabaseAdmin
-      .from("users")
-      .select("id, full_name")
-      .in("id", ownerIds);
-    const nameById = new Map(
-      (owners || []).map((u: { id: string; full_name: string | null }) => [u.id, u.full_name])
-    );
-
-    // Phase 3: build every notification row up front and insert them all in
-    // ONE call, then fire pushes in parallel. No per-check-in await chain.
-    const rows: any[] = [];
-    const pushes: Promise<any>[] = [];
-    for (const { checkin, newMissedCount } of won) {
-      const userName = nameById.get(checkin.user_id) || "Your contact";
-      const contactIds: string[] = checkin.contact_ids || [];
-      const missedBody = `${userName} missed their check-in. Try reaching out to them. Their location is still being shared.`;
-
-      for (const contactId of contactIds) {
-        rows.push({
-          user_id: contactId,
-          type: "system",
-          title: "Missed Check-In",
-          body: missedBody,
-          data: {
-            type: "safety_checkin_missed",
-            checkin_id: checkin.id,
-            user_id: checkin.user_id,
-            user_name: userName,
-            missed_count: String(newMissedCount),
-          },
-          is_read: false,
-        });
-        pushes.push(
-          sendPushToUser({
-            userId: contactId,
-            title: "Missed Check-In",
-            body: missedBody,
-            data: { type: "safety_checkin_missed", checkin_id: checkin.id, user_id: checkin.user_id },
-          }).catch(() => {})
-        );
-      }
-
-      rows.push({
-        user_id: checkin.user_id,
-        type: "system",
-        title: "Check-In Expired",
-        body: "Your safety check-in timer has expired. Your emergency contacts have been notified. Open Peja and tap 'I'm OK' to confirm you're safe.",
-        data: { type: "safety_checkin_self_expired", checkin_id: checkin.id },
-        is_read: false,
-      });
-      pushes.push(
-        sendPushToUser({
-          userId: checkin.user_id,
-          title: "Check-In Expired",
-          body: "Your safety check-in timer has expired. Your emergency contacts have been notified. Open Peja and tap 'I'm OK' to confirm you're safe.",
-          data: { type: "safety_checkin_self_expired", checkin_id: checkin.id },
-        }).catch(() => {})
-      );
-    }
-
-    if (rows.length > 0) {
-      await supabaseAdmin.from("notifications").insert(rows);
-    }
-    await Promise.all(pushes);
-    missed = won.length;
-  }
+  // Usually a no-op now: native sessions report their own missed deadline
+  // (/api/checkin/missed). This pass is the backstop for devices that are
+  // off, offline, or on the web fallback.
+  missed = await escalateMissedCheckins(supabaseAdmin, overdueCheckins || [], now);
 
   // --- 3. REVIVE: still-sharing check-ins whose location has gone stale ---
   // If a tracked check-in's location hasn't updated in > 2 min, the device's
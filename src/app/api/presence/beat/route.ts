@@ -11,6 +11,15 @@ import { isRateLimitedDurable } from "../../_rateLimit";
 // (never trust a client, even our own): sane coordinates, sane accuracy,
 // plausible speed. Rejected beats return 200 {ok:false} so the service
 // drops them without retrying.
+//
+// Keepalives ({key, keepalive:true, cell, t}) are what the service sends
+// instead of a full beat while the user stays in the same geohash cell
+// (see PresenceCellGate.java). They never upsert: they only move
+// captured_at forward, and only when it is older than KEEPALIVE_TOUCH_MS,
+// so a phone sitting in one place costs one small write per window.
+
+const KEEPALIVE_TOUCH_MS = 10 * 60_000;
+const LAST_USED_GRANULARITY_MS = 60 * 60_000;
 
 export async function POST(req: NextRequest) {
   try {
@@ -38,6 +47,33 @@ export async function POST(req: NextRequest) {
       return NextResponse.json({ ok: false, reason: "throttled" });
     }
 
+    if (body.keepalive === true) {
+      const cutoff = new Date(Date.now() - KEEPALIVE_TOUCH_MS).toISOString();
+      const { data: touched, error: touchError } = await supabaseAdmin
+        .from("presence")
+        // speed_kmh cleared so a stale speed never rides on the touched
+        // captured_at (viewers trust speed on rows under 2 minutes old).
+        .update({ captured_at: new Date().toISOString(), speed_kmh: null })
+        .eq("user_id", userId)
+        .lt("captured_at", cutoff)
+        .select("user_id");
+      if (touchError) {
+        console.error("[presence/beat] keepalive failed:", touchError.message);
+        return NextResponse.json({ ok: false, reason: "write" }, { status: 500 });
+      }
+      if (!touched || touched.length === 0) {
+        // Nothing stale to touch: either a fresh row, or none at all (the
+        // row was cleared), in which case ask for the full beat.
+        const { data: row } = await supabaseAdmin
+          .from("presence")
+          .select("user_id")
+          .eq("user_id", userId)
+          .maybeSingle();
+        if (!row) return NextResponse.json({ ok: false, reason: "resend" });
+      }
+      return NextResponse.json({ ok: true });
+    }
+
     const lat = Number(body.lat);
     const lng = Number(body.lng);
     const acc = body.accuracy_m != null ? Number(body.accuracy_m) : null;
@@ -71,10 +107,14 @@ export async function POST(req: NextRequest) {
       return NextResponse.json({ ok: false, reason: "write" }, { status: 500 });
     }
 
+    // Hour granularity is plenty for "key last used"; skipping the write
+    // on every other beat halves the writes a full beat costs.
+    const usedCutoff = new Date(Date.now() - LAST_USED_GRANULARITY_MS).toISOString();
     supabaseAdmin
       .from("device_tracking_keys")
       .update({ last_used_at: new Date().toISOString() })
       .eq("user_id", userId)
+      .or(`last_used_at.is.null,last_used_at.lt.${usedCutoff}`)
       .then(() => {});
 
     return NextResponse.json({ ok: true });
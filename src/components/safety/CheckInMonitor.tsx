@@ -198,6 +198,7 @@ useEffect(() => {
             supabaseKey: process.env.NEXT_PUBLIC_SUPABASE_ANON_KEY || "",
             accessToken: token,
             refreshToken,
+            escalationUrl: `${window.location.origin}/api/checkin/missed/`,
           });
           if (result?.started !== false) {
             // Native service owns tracking now. Clear any web watchers left
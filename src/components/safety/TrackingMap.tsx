@@ -5,7 +5,7 @@ import MapGL, { Marker, MapRef } from "react-map-gl/maplibre";
 import "maplibre-gl/dist/maplibre-gl.css";
 import { User } from "lucide-react";
 import { supabase } from "@/lib/supabase";
-import { BADGE_MIN_KMH, SPEEDING_KMH, stillLabel } from "@/lib/motion";
+import { BADGE_MIN_KMH, SPEEDING_KMH, extrapolate, stillLabel, type VelocityFix } from "@/lib/motion";
 
 interface TrackingMapProps {
   latitude: number;
@@ -34,6 +34,8 @@ const [targetLat, setTargetLat] = useState(latitude);
   const [motionInfo, setMotionInfo] = useState<{ speedKmh: number | null; stillSince: string | null }>({ speedKmh: null, stillSince: null });
   const [liveLng, setLiveLng] = useState(longitude);
   const animRef = useRef<number | null>(null);
+  // Last written fix and its velocity; the marker moves along it between writes.
+  const fixRef = useRef<VelocityFix | null>(null);
 
   const MAP_STYLE = useMemo(
     () =>
@@ -41,26 +43,57 @@ const [targetLat, setTargetLat] = useState(latitude);
     []
   );
 
-// Update target from props
+// Update target from props (unless it's the fix we're already extrapolating)
   useEffect(() => {
+    const fix = fixRef.current;
+    if (fix && fix.lat === latitude && fix.lng === longitude) return;
     setTargetLat(latitude);
     setTargetLng(longitude);
   }, [latitude, longitude]);
 
+  const applyFix = useCallback((row: any) => {
+    if (!row?.latitude || !row?.longitude) return;
+    fixRef.current = {
+      lat: row.latitude,
+      lng: row.longitude,
+      velNMps: row.vel_n_mps,
+      velEMps: row.vel_e_mps,
+      fixAt: row.fix_at,
+    };
+    const p = extrapolate(fixRef.current);
+    setTargetLat(p.lat);
+    setTargetLng(p.lng);
+  }, []);
+
+  // Dead-reckon between writes: steady straight-line stretches are only
+  // written every ~45s, so step the target along the vector each second.
+  useEffect(() => {
+    const id = setInterval(() => {
+      const fix = fixRef.current;
+      if (!fix || (!fix.velNMps && !fix.velEMps)) return;
+      const p = extrapolate(fix);
+      setTargetLat(p.lat);
+      setTargetLng(p.lng);
+    }, 1000);
+    return () => clearInterval(id);
+  }, []);
+
   // Seed motion info (a viewer may open mid-drive or mid-stop).
   useEffect(() => {
     if (!checkinId) return;
     let stop = false;
     supabase
       .from("safety_checkins")
-      .select("speed_kmh, still_since")
+      .select("latitude, longitude, speed_kmh, still_since, vel_n_mps, vel_e_mps, fix_at")
       .eq("id", checkinId)
       .maybeSingle()
       .then(({ data }) => {
-        if (!stop && data) setMotionInfo({ speedKmh: data.speed_kmh ?? null, stillSince: data.still_since ?? null });
+        if (stop || !data) return;
+        setMotionInfo({ speedKmh: data.speed_kmh ?? null, stillSince: data.still_since ?? null });
+        applyFix(data);
       });
     return () => { stop = true; };
-  }, [checkinId]);
+  }, [checkinId, applyFix]);
 
   // Realtime subscription for check-in location
   useEffect(() => {
@@ -74,8 +107,7 @@ const [targetLat, setTargetLat] = useState(latitude);
         (payload) => {
           const updated = payload.new as any;
           if (updated.latitude && updated.longitude) {
-            setTargetLat(updated.latitude);
-            setTargetLng(updated.longitude);
+            applyFix(updated);
             onLocationUpdate?.(updated.latitude, updated.longitude);
           }
           setMotionInfo({ speedKmh: updated.speed_kmh ?? null, stillSince: updated.still_since ?? null });
@@ -86,7 +118,7 @@ const [targetLat, setTargetLat] = useState(latitude);
     return () => {
       supabase.removeChannel(channel);
     };
-  }, [checkinId, onLocationUpdate]);
+  }, [checkinId, onLocationUpdate, applyFix]);
 
   // Smoothly animate marker between positions
   useEffect(() => {
@@ -4,6 +4,7 @@ import { useEffect, useRef } from "react";
 import { useAuth } from "@/context/AuthContext";
 import { authFetchJson } from "@/lib/authFetch";
 import {
+  AMBIENT_ACTIVITY_ASKED_KEY,
   AMBIENT_CHANGED_EVENT,
   AMBIENT_KEY_STORAGE,
   AMBIENT_PREF_KEY,
@@ -50,6 +51,14 @@ export function AmbientTrackerBootstrap() {
           key = data.key as string;
           try { localStorage.setItem(AMBIENT_KEY_STORAGE, key); } catch {}
         }
+        // Activity recognition drives the cadence profiles. Ask once per
+        // "on", before the start, so the service subscribes with it.
+        let asked: string | null = null;
+        try { asked = localStorage.getItem(AMBIENT_ACTIVITY_ASKED_KEY); } catch {}
+        if (!asked) {
+          try { localStorage.setItem(AMBIENT_ACTIVITY_ASKED_KEY, "1"); } catch {}
+          await AmbientLocation.requestActivityRecognition().catch(() => {});
+        }
         await AmbientLocation.start({
           endpoint: `${window.location.origin}/api/presence/beat`,
           key,
@@ -79,7 +88,10 @@ export function AmbientTrackerBootstrap() {
  * the bootstrap. Returns the new state. */
 export async function setAmbientTracking(on: boolean): Promise<boolean> {
   try { localStorage.setItem(AMBIENT_PREF_KEY, on ? "on" : "off"); } catch {}
-  if (!on) {
+  if (on) {
+    // Switching on (again) asks for activity recognition again.
+    try { localStorage.removeItem(AMBIENT_ACTIVITY_ASKED_KEY); } catch {}
+  } else {
     try { localStorage.removeItem(AMBIENT_KEY_STORAGE); } catch {}
     // Revoke server-side so a leaked key is dead, then stop the service.
     authFetchJson("/api/presence/tracker-key", { method: "DELETE" }).catch(() => {});
@@ -1,11 +1,21 @@
-import { Capacitor, registerPlugin } from "@capacitor/core";
+import { Capacitor, registerPlugin, type PermissionState } from "@capacitor/core";
 
 // JS bridge to the native always-on presence service (Android). The
 // service beats the user's location to /api/presence/beat every ~3 min,
 // authenticated by a long-lived device key, even with the app closed.
 
 interface AmbientLocationPlugin {
-  start(options: { endpoint: string; key: string }): Promise<{ started: boolean }>;
+  start(options: {
+    endpoint: string;
+    key: string;
+    /** Minutes of stillness before the service parks on an exit geofence. */
+    parkAfterMinutes?: number;
+    /** Geohash precision (5-9) of the cells that trigger a full beat; default 7 (~150 m). */
+    cellPrecision?: number;
+  }): Promise<{ started: boolean; activityRecognition: PermissionState }>;
+  /** Activity recognition for the cadence profiles; without it the service
+   * beats on the default cadence only. */
+  requestActivityRecognition(): Promise<{ activityRecognition: PermissionState }>;
   stop(): Promise<{ stopped: boolean }>;
   isTracking(): Promise<{ tracking: boolean }>;
 }
@@ -19,6 +29,9 @@ export const AMBIENT_PREF_KEY = "peja-ambient-tracking";
 export const AMBIENT_KEY_STORAGE = "peja-ambient-device-key";
 /** Fired by the settings toggle; the bootstrap reacts. */
 export const AMBIENT_CHANGED_EVENT = "peja-ambient-changed";
+/** localStorage: set once the activity-recognition prompt was shown for
+ * the current "on", so the bootstrap doesn't ask on every sync. */
+export const AMBIENT_ACTIVITY_ASKED_KEY = "peja-ambient-activity-asked";
 
 export function isCapacitor(): boolean {
   // NOT `"Capacitor" in window`: importing @capacitor/core defines the
@@ -0,0 +1,92 @@
+import { registerPlugin } from "@capacitor/core";
+import { isNativeAndroid } from "./deviceSettings";
+
+// JS bridge to the native fix journal (Android): the device's own accepted
+// fixes from the SOS, SML and ambient services, kept on disk for the last
+// ~13 hours. Lets a map draw the local track before Supabase answers.
+
+export const FIX_KIND = { sos: 1, sml: 2, ambient: 3 } as const;
+export type FixKind = keyof typeof FIX_KIND;
+
+/** Matches FixJournal.SOURCE_* on the native side. */
+export const FIX_SOURCES = ["other", "gps", "network", "fused", "fingerprint"] as const;
+
+interface FixJournalPlugin {
+  range(options: { from: number; to: number; kind?: number }): Promise<{
+    count: number;
+    /** Bytes per record in `data`. */
+    stride: number;
+    /** Base64 of `count` little-endian records (see FixJournal.java). */
+    data: string;
+  }>;
+}
+
+const FixJournal = registerPlugin<FixJournalPlugin>("FixJournal");
+
+/** Column-wise fixes, oldest first; index i across the arrays is one fix. */
+export interface RecentFixes {
+  count: number;
+  /** Fix time, epoch ms. */
+  time: Float64Array;
+  lat: Float64Array;
+  lng: Float64Array;
+  /** Accuracy radius, m. */
+  accuracy: Float32Array;
+  /** m/s; NaN when the fix had no usable speed. */
+  speed: Float32Array;
+  /** Index into FIX_SOURCES. */
+  source: Uint8Array;
+  /** A FIX_KIND value. */
+  kind: Uint8Array;
+}
+
+/**
+ * This device's fixes between `fromMs` and `toMs`, optionally only one
+ * session kind. Null off native Android or when the bridge call fails;
+ * callers fall back to the server track.
+ */
+export async function recentFixes(
+  fromMs: number,
+  toMs: number,
+  kind?: FixKind
+): Promise<RecentFixes | null> {
+  if (!isNativeAndroid()) return null;
+  try {
+    const res = await FixJournal.range({
+      from: Math.floor(fromMs),
+      to: Math.ceil(toMs),
+      kind: kind ? FIX_KIND[kind] : 0,
+    });
+    return decodeFixes(res.data, res.count, res.stride);
+  } catch {
+    return null;
+  }
+}
+
+export function decodeFixes(base64: string, count: number, stride: number): RecentFixes {
+  const raw = atob(base64);
+  const bytes = new Uint8Array(raw.length);
+  for (let i = 0; i < raw.length; i++) bytes[i] = raw.charCodeAt(i);
+  const view = new DataView(bytes.buffer);
+  const out: RecentFixes = {
+    count,
+    time: new Float64Array(count),
+    lat: new Float64Array(count),
+    lng: new Float64Array(count),
+    accuracy: new Float32Array(count),
+    speed: new Float32Array(count),
+    source: new Uint8Array(count),
+    kind: new Uint8Array(count),
+  };
+  for (let i = 0, at = 0; i < count; i++, at += stride) {
+    // Fix times fit in 53 bits; read the long as two halves.
+    out.time[i] = view.getUint32(at + 4, true) * 2 ** 32 + view.getUint32(at, true);
+    out.lat[i] = view.getInt32(at + 8, true) / 1e7;
+    out.lng[i] = view.getInt32(at + 12, true) / 1e7;
+    out.accuracy[i] = view.getFloat32(at + 16, true);
+    out.speed[i] = view.getFloat32(at + 20, true);
+    out.source[i] = view.getUint8(at + 24);
+    out.kind[i] = view.getUint8(at + 25);
+  }
+  return out;
+}
@@ -114,6 +114,35 @@ export function createMotionTracker() {
   };
 }
 
+// Viewer-side extrapolation along a written velocity vector
+// (vel_n_mps / vel_e_mps / fix_at on safety_checkins and sos_alerts).
+// The native services skip writes they'd have predicted to within 20 m,
+// at most 45 s apart, so past this the vector is more likely stale than
+// the person is still going straight.
+export const EXTRAPOLATE_MAX_MS = 60_000;
+const EXTRAPOLATE_MIN_MPS = 1;
+
+export interface VelocityFix {
+  lat: number;
+  lng: number;
+  velNMps: number | null | undefined;
+  velEMps: number | null | undefined;
+  /** ISO timestamp the fix was taken. */
+  fixAt: string | null | undefined;
+}
+
+/** Where the vector puts the person now; the fix itself when there's no vector. */
+export function extrapolate(fix: VelocityFix, nowMs: number = Date.now()): { lat: number; lng: number } {
+  const vN = fix.velNMps ?? 0;
+  const vE = fix.velEMps ?? 0;
+  if (!fix.fixAt || Math.hypot(vN, vE) < EXTRAPOLATE_MIN_MPS) return { lat: fix.lat, lng: fix.lng };
+  // Clamped both ways: a phone clock ahead of ours must not run it backwards.
+  const dt = Math.min(Math.max(nowMs - new Date(fix.fixAt).getTime(), 0), EXTRAPOLATE_MAX_MS) / 1000;
+  const mPerDegLat = 111_320;
+  const mPerDegLng = mPerDegLat * Math.cos((fix.lat * Math.PI) / 180);
+  return { lat: fix.lat + (vN * dt) / mPerDegLat, lng: fix.lng + (vE * dt) / mPerDegLng };
+}
+
 /** Viewer-side helper: "Here for 4m" label, or null if not still enough. */
 export function stillLabel(stillSince: string | null | undefined): string | null {
   if (!stillSince) return null;
@@ -1,4 +1,5 @@
 import { registerPlugin } from '@capacitor/core';
+import type { TrackingDiagnostics } from './sosLocation';
 
 interface SMLLocationPlugin {
   startTracking(options: {
@@ -12,12 +13,21 @@ interface SMLLocationPlugin {
      * keeps authenticating past the ~1h access token expiry.
      */
     refreshToken?: string;
+    /**
+     * Where the service reports a missed check-in itself when its deadline
+     * alarm fires (/api/checkin/missed/). Without it the server cron is
+     * the only escalation path.
+     */
+    escalationUrl?: string;
   }): Promise<{ started: boolean }>;
 
   stopTracking(): Promise<{ stopped: boolean }>;
 
   isTracking(): Promise<{ tracking: boolean }>;
 
+  /** Sky view and GPS duty time of the running session. */
+  getDiagnostics(): Promise<TrackingDiagnostics>;
+
   /**
    * Push the current session pair to the native store without restarting
    * tracking. Supabase rotates the refresh token on every JS-side refresh,
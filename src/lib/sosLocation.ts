@@ -1,5 +1,71 @@
 import { registerPlugin } from '@capacitor/core';
 
+/**
+ * GPS policy of a running native safety session (SOS or SML). `indoor` is
+ * the GnssStatus sky-view call; while it holds, GPS only runs in short
+ * probe windows. The fixStall fields count gaps in fix delivery.
+ * `running: false` means no session in this process.
+ */
+export interface TrackingDiagnostics {
+  running: boolean;
+  publishedAt?: number;
+  sessionMs?: number;
+  still?: boolean;
+  indoor?: boolean;
+  skySince?: number;
+  satellitesUsedInFix?: number;
+  topCn0DbHz?: number;
+  gpsOn?: boolean;
+  gpsOnMs?: number;
+  gpsDutyPercent?: number;
+  /** Times fixes stopped arriving and were re-armed (FixStallDetector). */
+  fixStalls?: number;
+  fixStalledMs?: number;
+  longestFixStallMs?: number;
+  /** Length of the stall in progress, 0 when fixes are arriving. */
+  currentFixStallMs?: number;
+  /** CPU wakelock held this session (WakeBudget), in total and by cause. */
+  wakeHeldMs?: number;
+  wakeHeldPercent?: number;
+  /** Times the lock was actually taken; 1 unless it is released between fixes. */
+  wakeAcquisitions?: number;
+  wakeHeldByCauseMs?: { session: number; delivery: number; upload: number };
+  /** Held time per wall-clock hour, the last 24 hours, current hour last. */
+  wakeHeldPerHourMs?: number[];
+  /** Cost of handling a delivered fix (FixCost; the "peja:sos fix" / "peja:sml fix" trace sections). */
+  fixesHandled?: number;
+  fixHandlingMeanUs?: number;
+  fixHandlingMaxUs?: number;
+  /** 0 since the services run on their own TrackingThread. */
+  fixesOnMainThread?: number;
+  mainThreadUsPerFix?: number;
+  /** The :tracker process hosting the services (TrackerProvider.processStats). */
+  tracker?: {
+    pid: number;
+    uptimeMs: number;
+    pssKb: number;
+    rssKb: number;
+    javaHeapKb: number;
+    javaHeapLimitKb: number;
+    /** Lower survives low memory longer; a foreground service sits at 200. */
+    oomScoreAdj: number;
+    deviceLowMemory?: boolean;
+    /**
+     * The location subscriptions the services share (LocationHub), per
+     * provider; absent until a session has joined one.
+     */
+    locationHub?: Record<'fused' | 'gps' | 'network', {
+      consumers: number;
+      /** Provider requests made; only a change in the merged demand costs one. */
+      registrations: number;
+      fixesReceived: number;
+      fixesDelivered: number;
+      /** Fixes a session didn't take: inside its own interval or distance filter. */
+      fixesGated: number;
+    }>;
+  };
+}
+
 interface SOSLocationPlugin {
   startTracking(options: {
     sosId: string;
@@ -22,6 +88,8 @@ interface SOSLocationPlugin {
 
   isTracking(): Promise<{ tracking: boolean }>;
 
+  getDiagnostics(): Promise<TrackingDiagnostics>;
+
   /**
    * Push the current session pair to the native store without restarting
    * tracking. Supabase rotates the refresh token on every JS-side refresh,
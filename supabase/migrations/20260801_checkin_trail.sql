@@ -0,0 +1,24 @@
+-- Route trail for SML check-ins.
+--
+-- safety_checkins only ever held the latest point, so the ~1,000 fixes of
+-- a 4-hour check-in were lost the moment the next one landed. The native
+-- SMLLocationService now buffers every fix it ships and, when the session
+-- stops, uploads one Douglas-Peucker-simplified trail (every original fix
+-- within 10 m of it) in a single PATCH:
+--
+--   trail_polyline    Google encoded polyline, precision 5
+--   trail_times       kept fixes' times as seconds since trail_started_at,
+--                     delta-encoded with the same polyline varint scheme
+--                     (one value per point rather than a lat/lng pair)
+--   trail_started_at  time origin for trail_times
+--   trail_points      points in trail_polyline
+--   trail_raw_points  fixes recorded before simplification
+--
+-- Null until the session ends; web-only sessions never set them.
+
+alter table public.safety_checkins
+  add column if not exists trail_polyline   text,
+  add column if not exists trail_times      text,
+  add column if not exists trail_started_at timestamptz,
+  add column if not exists trail_points     integer,
+  add column if not exists trail_raw_points integer;
@@ -0,0 +1,28 @@
+-- Velocity vectors on live SOS/SML positions.
+--
+-- Viewers only moved the marker when a 15s write landed, so a driver
+-- jumped ~200 m at a time. The native services now send a smoothed
+-- velocity with each write, and the check-in map extrapolates along it
+-- until the next one. SML skips writes the viewers would have predicted
+-- to within 20 m (at most 45 s apart while moving, every fix when still);
+-- SOS writes every fix, since its maps still draw the raw point:
+--
+--   vel_n_mps / vel_e_mps  smoothed velocity, m/s north / east; 0 when
+--                          still or slower than 1 m/s
+--   heading                degrees clockwise from north, null when slow
+--                          (sos_alerts already has bearing)
+--   fix_at                 when the fix was taken: the extrapolation origin
+--
+-- Null from web-only sessions and older app builds; viewers then show the
+-- point as before.
+
+alter table public.safety_checkins
+  add column if not exists heading   real,
+  add column if not exists vel_n_mps real,
+  add column if not exists vel_e_mps real,
+  add column if not exists fix_at    timestamptz;
+
+alter table public.sos_alerts
+  add column if not exists vel_n_mps real,
+  add column if not exists vel_e_mps real,
+  add column if not exists fix_at    timestamptz;